@@ -0,0 +1,18 @@
+package org.jsc.bench;
+
+import java.util.List;
+
+import org.jsc.app.Service;
+
+/**
+ * Service handled by the JavaClassHandlers for the dispatcher benchmark: /bench/items
+ * @author kzantow
+ */
+@Service
+public class BenchService {
+	private final List<Item> items = Item.create(10);
+	
+	public List<Item> getItems() {
+		return items;
+	}
+}
@@ -0,0 +1,24 @@
+package org.jsc.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs all benchmarks, writing JSON results to the given file (default: jmh-result.json)
+ * so results can be compared between releases; an optional second argument filters
+ * the benchmarks to run, e.g.: Json
+ * @author kzantow
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception {
+		String result = args.length > 0 ? args[0] : "jmh-result.json";
+		ChainedOptionsBuilder opts = new OptionsBuilder()
+			.include(Benchmarks.class.getPackage().getName() + "." + (args.length > 1 ? args[1] : ""))
+			.jvmArgsAppend("-DdbUrl=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1")
+			.resultFormat(ResultFormatType.JSON)
+			.result(result);
+		new Runner(opts.build()).run();
+	}
+}
@@ -0,0 +1,72 @@
+package org.jsc.bench;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+
+import org.jsc.io.BufferPool;
+import org.jsc.io.BufferPool.BufferPoolWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing a page-sized response through a pooled BufferPoolWriter vs. a StringWriter
+ * @author kzantow
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferBenchmark {
+	static final String[] FRAGMENTS = { "<tr><td>", "Some item name", "</td><td class=\"price\">", "12.50", "</td></tr>\n" };
+	
+	BufferPool pool;
+	StringWriter out;
+	
+	@Setup
+	public void setup() {
+		pool = new BufferPool();
+		out = new StringWriter(64 * 1024);
+	}
+	
+	void write(Writer w) throws IOException {
+		for(int i = 0; i < 500; i++) {
+			for(String s : FRAGMENTS) {
+				w.write(s);
+			}
+		}
+	}
+	
+	@Benchmark
+	public int bufferPool() throws IOException {
+		out.getBuffer().setLength(0);
+		BufferPoolWriter w = pool.getWriter();
+		try {
+			write(w);
+			w.writeTo(out);
+		} finally {
+			w.close();
+		}
+		return out.getBuffer().length();
+	}
+	
+	@Benchmark
+	public int stringWriter() throws IOException {
+		out.getBuffer().setLength(0);
+		StringWriter w = new StringWriter();
+		write(w);
+		out.write(w.toString());
+		return out.getBuffer().length();
+	}
+}
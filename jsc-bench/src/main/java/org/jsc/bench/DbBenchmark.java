@@ -0,0 +1,91 @@
+package org.jsc.bench;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsc.db.Db;
+import org.jsc.db.PK;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Db.insert & Db.list against an in-memory H2 database
+ * @author kzantow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-DdbUrl=jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1")
+public class DbBenchmark {
+	public static class BenchRecord {
+		@PK long id;
+		String name;
+		int quantity;
+		Instant created;
+	}
+	
+	public static class BenchListed {
+		@PK long id;
+		String name;
+		int quantity;
+		Instant created;
+	}
+	
+	Db db;
+	long nextId;
+	
+	@Setup
+	public void setup() {
+		db = new Db();
+		db.createTable(BenchRecord.class);
+		db.createTable(BenchListed.class);
+		for(int i = 0; i < 100; i++) {
+			BenchListed l = new BenchListed();
+			l.id = i;
+			l.name = "listed " + i;
+			l.quantity = i;
+			l.created = Instant.now();
+			db.insert(l);
+		}
+	}
+	
+	@TearDown(Level.Iteration)
+	public void clear() {
+		db.sql("delete from benchrecord").execute();
+	}
+	
+	@TearDown
+	public void tearDown() {
+		db.sql("drop table benchrecord").execute();
+		db.sql("drop table benchlisted").execute();
+		db.shutdownDataSource();
+	}
+	
+	@Benchmark
+	public int insert() {
+		BenchRecord r = new BenchRecord();
+		r.id = nextId++;
+		r.name = "record " + r.id;
+		r.quantity = (int)r.id;
+		r.created = Instant.now();
+		return db.insert(r);
+	}
+	
+	@Benchmark
+	public List<BenchListed> list() {
+		return db.list(BenchListed.class);
+	}
+}
@@ -0,0 +1,73 @@
+package org.jsc.bench;
+
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.jsc.app.App;
+import org.jsc.web.AppRequestDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * AppRequestDispatcher.handle for a JSON service request & for a path nothing handles, using mock
+ * servlet objects
+ * @author kzantow
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatcherBenchmark {
+	App app;
+	AppRequestDispatcher dispatcher;
+	StringWriter out;
+	HttpServletResponse res;
+	
+	@Setup
+	public void setup() throws Exception {
+		app = new App(DispatcherBenchmark.class.getPackage().getName());
+		app.startup();
+		dispatcher = app.get(AppRequestDispatcher.class);
+		out = new StringWriter(4096);
+		res = MockHttp.response(out);
+		
+		handle();
+		if(out.getBuffer().length() == 0) {
+			throw new IllegalStateException("No response for /bench/items");
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		app.shutdown();
+	}
+	
+	@Benchmark
+	public int handle() throws Exception {
+		out.getBuffer().setLength(0);
+		dispatcher.handle(MockHttp.request("GET", "/bench/items", Collections.emptyMap()), res, MockHttp.NOT_FOUND);
+		res.flushBuffer();
+		return out.getBuffer().length();
+	}
+	
+	@Benchmark
+	public int handleMiss() throws Exception {
+		int[] misses = new int[1];
+		dispatcher.handle(MockHttp.request("GET", "/no/such/page", Collections.emptyMap()), res, (req, res) -> misses[0]++);
+		return misses[0];
+	}
+}
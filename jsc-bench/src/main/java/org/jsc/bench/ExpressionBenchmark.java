@@ -0,0 +1,83 @@
+package org.jsc.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jsc.Expr;
+import org.jsc.ExpressionService;
+import org.jsc.ExpressionService.BindingResolver;
+import org.jsc.web.ui.ObjectContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ExpressionService parsing & evaluation of typical template expressions
+ * @author kzantow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+	ExpressionService expr;
+	BindingResolver mapContext;
+	BindingResolver objectContext;
+	Expr property;
+	Expr beanProperty;
+	Expr method;
+	
+	@Setup
+	public void setup() {
+		expr = new ExpressionService();
+		
+		Map<String, Object> user = new HashMap<String, Object>();
+		user.put("name", "joe");
+		Map<String, Object> vars = new HashMap<String, Object>();
+		vars.put("user", user);
+		mapContext = new BindingResolver(vars);
+		
+		Map<String, Object> item = new HashMap<String, Object>();
+		item.put("item", Item.create(1).get(0));
+		objectContext = new BindingResolver(item);
+		
+		property = expr.parseExpr("${user.name}");
+		beanProperty = expr.parseExpr("${item.name}");
+		method = expr.parseExpr("${user.size()}");
+	}
+	
+	@Benchmark
+	public Object parse() {
+		return expr.parseExpr("${user.name}");
+	}
+	
+	@Benchmark
+	public Object mapProperty() {
+		return property.getValue(mapContext);
+	}
+	
+	@Benchmark
+	public Object beanProperty() {
+		return beanProperty.getValue(objectContext);
+	}
+	
+	@Benchmark
+	public Object methodCall() {
+		return method.getValue(mapContext);
+	}
+	
+	@Benchmark
+	public Object objectContextProperty() {
+		return new ObjectContext(objectContext.get("item")).get("name");
+	}
+}
@@ -0,0 +1,219 @@
+package org.jsc.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.jsc.web.JavaServer;
+import org.jsc.web.NioServer;
+
+/**
+ * Load test of the server backends with a local keep-alive client, reporting requests per second
+ * & latency percentiles for each; arguments: engines (default: jetty,nio,java), connections
+ * (default: 64), seconds per engine (default: 10)
+ * @author kzantow
+ */
+public class HttpLoadTest {
+	private static final byte[] body = "Hello, World!".getBytes(StandardCharsets.UTF_8);
+
+	public static void main(String[] args) throws Exception {
+		String[] engines = (args.length > 0 ? args[0] : "jetty,nio,java").split(",");
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+		for(String engine : engines) {
+			Backend b = start(engine);
+			try {
+				run(b.port, connections, 1); // warm up
+				Result r = run(b.port, connections, seconds);
+				System.out.printf("%-6s %10.0f req/s  p50 %7.3f ms  p99 %7.3f ms  errors %d%n",
+					engine, r.requests / (double)seconds, r.percentile(50) / 1e6, r.percentile(99) / 1e6, r.errors);
+			} finally {
+				b.stop.run();
+			}
+		}
+		System.exit(0);
+	}
+
+	static void hello(HttpServletResponse res) throws IOException {
+		res.setContentType("text/plain");
+		res.setContentLength(body.length);
+		res.getOutputStream().write(body);
+	}
+
+	private static final class Backend {
+		final int port;
+		final Runnable stop;
+
+		Backend(int port, Runnable stop) {
+			this.port = port;
+			this.stop = stop;
+		}
+	}
+
+	private static Backend start(String engine) throws Exception {
+		switch(engine) {
+		case "jetty": {
+			org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server(new InetSocketAddress("localhost", 0));
+			server.setHandler(new AbstractHandler() {
+				@Override
+				public void handle(String s, Request r, HttpServletRequest req, HttpServletResponse res) throws IOException, ServletException {
+					hello(res);
+					r.setHandled(true);
+				}
+			});
+			server.start();
+			int port = ((org.eclipse.jetty.server.NetworkConnector)server.getConnectors()[0]).getLocalPort();
+			return new Backend(port, () -> {
+				try {
+					server.stop();
+				} catch(Exception e) {
+					throw new RuntimeException(e);
+				}
+			});
+		}
+		case "nio": {
+			NioServer server = new NioServer() {
+				@Override
+				public void doFilter(HttpServletRequest req, HttpServletResponse res) throws Exception {
+					hello(res);
+				}
+			};
+			server.start(new InetSocketAddress("localhost", 0));
+			return new Backend(server.getServerPort(), () -> server.stop(0));
+		}
+		case "java": {
+			JavaServer server = new JavaServer() {
+				@Override
+				public void doFilter(HttpServletRequest req, HttpServletResponse res) throws Exception {
+					hello(res);
+				}
+			};
+			server.start(0);
+			return new Backend(server.getServerPort(), () -> server.stop(0));
+		}
+		default:
+			throw new IllegalArgumentException("Unknown engine: " + engine + ", expected jetty, nio or java");
+		}
+	}
+
+	private static final class Result {
+		long requests;
+		long errors;
+		long[] latencies = new long[1024];
+
+		void add(long nanos) {
+			if(requests == latencies.length) {
+				latencies = Arrays.copyOf(latencies, latencies.length * 2);
+			}
+			latencies[(int)requests++] = nanos;
+		}
+
+		void addAll(Result r) {
+			for(int i = 0; i < r.requests; i++) {
+				add(r.latencies[i]);
+			}
+			errors += r.errors;
+		}
+
+		long percentile(int p) {
+			if(requests == 0) {
+				return 0;
+			}
+			Arrays.sort(latencies, 0, (int)requests);
+			return latencies[(int)Math.min(requests - 1, requests * p / 100)];
+		}
+	}
+
+	/**
+	 * Each connection sends GET requests one after another for the given time
+	 */
+	private static Result run(int port, int connections, int seconds) throws Exception {
+		byte[] request = ("GET /hello HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		long end = System.nanoTime() + seconds * 1000000000L;
+		List<Result> results = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(connections);
+		for(int i = 0; i < connections; i++) {
+			Result r = new Result();
+			results.add(r);
+			Thread t = new Thread(() -> {
+				try(Socket s = new Socket("localhost", port)) {
+					s.setTcpNoDelay(true);
+					OutputStream out = s.getOutputStream();
+					InputStream in = s.getInputStream();
+					byte[] buf = new byte[8192];
+					while(System.nanoTime() < end) {
+						long start = System.nanoTime();
+						out.write(request);
+						if(!readResponse(in, buf)) {
+							r.errors++;
+							break;
+						}
+						r.add(System.nanoTime() - start);
+					}
+				} catch(IOException e) {
+					r.errors++;
+				} finally {
+					done.countDown();
+				}
+			});
+			t.setDaemon(true);
+			t.start();
+		}
+		done.await();
+		Result total = new Result();
+		for(Result r : results) {
+			total.addAll(r);
+		}
+		return total;
+	}
+
+	/**
+	 * Reads one response with a Content-Length body, false if it wasn't a 200
+	 */
+	private static boolean readResponse(InputStream in, byte[] buf) throws IOException {
+		int len = 0;
+		int headerEnd = -1;
+		while(headerEnd < 0) {
+			int n = in.read(buf, len, buf.length - len);
+			if(n < 0) {
+				return false;
+			}
+			len += n;
+			for(int i = 3; i < len; i++) {
+				if(buf[i] == '\n' && buf[i - 1] == '\r' && buf[i - 2] == '\n' && buf[i - 3] == '\r') {
+					headerEnd = i + 1;
+					break;
+				}
+			}
+		}
+		String head = new String(buf, 0, headerEnd, StandardCharsets.ISO_8859_1);
+		int contentLength = 0;
+		for(String line : head.split("\r\n")) {
+			if(line.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+				contentLength = Integer.parseInt(line.substring(15).trim());
+			}
+		}
+		int remaining = headerEnd + contentLength - len;
+		while(remaining > 0) {
+			int n = in.read(buf, 0, Math.min(buf.length, remaining));
+			if(n < 0) {
+				return false;
+			}
+			remaining -= n;
+		}
+		return head.startsWith("HTTP/1.1 200");
+	}
+}
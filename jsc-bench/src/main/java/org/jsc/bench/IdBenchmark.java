@@ -0,0 +1,178 @@
+package org.jsc.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jsc.db.Db;
+import org.jsc.db.IdGenerator;
+import org.jsc.db.PK;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Id generation, and Db.insert throughput keyed by random UUIDs vs. IdGenerator's time-ordered ids,
+ * both as 36 character strings, plus the 26 character & long ids; inserts run on in-memory and
+ * file-backed H2, where scattered keys cost page writes
+ * @author kzantow
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdBenchmark {
+	public static class RandomKeyed {
+		@PK String id;
+		String name;
+	}
+	
+	public static class OrderedKeyed {
+		@PK String id;
+		String name;
+	}
+	
+	public static class CompactKeyed {
+		@PK String id;
+		String name;
+	}
+	
+	public static class LongKeyed {
+		@PK long id;
+		String name;
+	}
+	
+	@State(Scope.Benchmark)
+	public static class Database {
+		@Param({ "mem", "file" })
+		public String storage;
+		
+		Db db;
+		Path dir;
+		
+		@Setup
+		public void setup() throws IOException {
+			String url = "jdbc:h2:mem:bench;DB_CLOSE_DELAY=-1";
+			if("file".equals(storage)) {
+				dir = Files.createTempDirectory("idbench");
+				url = "jdbc:h2:" + dir.resolve("bench").toAbsolutePath().toString().replace('\\', '/');
+			}
+			System.setProperty("dbUrl", url);
+			try {
+				db = new Db();
+			} finally {
+				System.clearProperty("dbUrl");
+			}
+			db.createTable(RandomKeyed.class);
+			db.createTable(OrderedKeyed.class);
+			db.createTable(CompactKeyed.class);
+			db.createTable(LongKeyed.class);
+		}
+		
+		@TearDown(Level.Iteration)
+		public void clear() {
+			db.sql("delete from randomkeyed").execute();
+			db.sql("delete from orderedkeyed").execute();
+			db.sql("delete from compactkeyed").execute();
+			db.sql("delete from longkeyed").execute();
+		}
+		
+		@TearDown
+		public void tearDown() throws IOException {
+			db.sql("drop table randomkeyed").execute();
+			db.sql("drop table orderedkeyed").execute();
+			db.sql("drop table compactkeyed").execute();
+			db.sql("drop table longkeyed").execute();
+			db.shutdownDataSource();
+			if(dir != null) {
+				try(Stream<Path> files = Files.walk(dir)) {
+					files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+				}
+			}
+		}
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public UUID randomUuid() {
+		return UUID.randomUUID();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public UUID orderedUuid() {
+		return IdGenerator.newUuid();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public String randomId() {
+		return UUID.randomUUID().toString();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public String orderedId() {
+		return IdGenerator.newId();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public String compactId() {
+		return IdGenerator.newCompactId();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public long longId() {
+		return IdGenerator.newLongId();
+	}
+	
+	@Benchmark
+	public int insertRandomKey(Database d) {
+		RandomKeyed r = new RandomKeyed();
+		r.id = UUID.randomUUID().toString();
+		r.name = "record";
+		return d.db.insert(r);
+	}
+	
+	@Benchmark
+	public int insertOrderedKey(Database d) {
+		OrderedKeyed r = new OrderedKeyed();
+		r.id = IdGenerator.newId();
+		r.name = "record";
+		return d.db.insert(r);
+	}
+	
+	@Benchmark
+	public int insertCompactKey(Database d) {
+		CompactKeyed r = new CompactKeyed();
+		r.id = IdGenerator.newCompactId();
+		r.name = "record";
+		return d.db.insert(r);
+	}
+	
+	@Benchmark
+	public int insertLongKey(Database d) {
+		LongKeyed r = new LongKeyed();
+		r.id = IdGenerator.newLongId();
+		r.name = "record";
+		return d.db.insert(r);
+	}
+}
@@ -0,0 +1,44 @@
+package org.jsc.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simple bean used by the serialization & request benchmarks
+ * @author kzantow
+ */
+public class Item {
+	public long id;
+	public String name;
+	public double price;
+	public int quantity;
+	public boolean active;
+	public List<String> tags = new ArrayList<String>();
+	
+	/**
+	 * Creates a list of items with some representative data
+	 */
+	public static List<Item> create(int count) {
+		List<Item> out = new ArrayList<Item>();
+		for(int i = 0; i < count; i++) {
+			Item item = new Item();
+			item.id = 1000000L + i;
+			item.name = "Item \"" + i + "\"";
+			item.price = i * 1.25;
+			item.quantity = i % 17;
+			item.active = i % 2 == 0;
+			item.tags.add("tag" + (i % 5));
+			item.tags.add("group" + (i % 3));
+			out.add(item);
+		}
+		return out;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public double getPrice() {
+		return price;
+	}
+}
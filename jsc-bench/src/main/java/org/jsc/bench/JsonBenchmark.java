@@ -0,0 +1,69 @@
+package org.jsc.bench;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.jsc.io.json.JsonService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JsonService serialization & deserialization, tree-based and streaming, with
+ * reflective and generated codecs
+ * @author kzantow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonBenchmark {
+	@Param({ "false", "true" })
+	public boolean codegen;
+	
+	JsonService json;
+	List<Item> items;
+	String js;
+	
+	@Setup
+	public void setup() {
+		json = new JsonService();
+		json.setGenerateCodecs(codegen);
+		items = Item.create(100);
+		js = json.toJson(items);
+	}
+	
+	@Benchmark
+	public String toJson() {
+		return json.toJson(items);
+	}
+	
+	@Benchmark
+	public Object fromJson() {
+		return json.fromJson(List.class, js);
+	}
+	
+	@Benchmark
+	public String toJsonStream() {
+		StringWriter w = new StringWriter(js.length());
+		json.toJsonStream(items, w);
+		return w.toString();
+	}
+	
+	@Benchmark
+	public Object fromJsonStream() {
+		return json.fromJsonStream(List.class, new StringReader(js));
+	}
+}
@@ -0,0 +1,69 @@
+package org.jsc.bench;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Minimal servlet request/response implementations for benchmarking request handling
+ * without a container; unhandled methods return null/defaults
+ * @author kzantow
+ */
+public class MockHttp {
+	/**
+	 * Creates a request with the given method and URI, other values from the provided map
+	 */
+	public static HttpServletRequest request(String method, String uri, Map<String, Object> values) {
+		return (HttpServletRequest)Proxy.newProxyInstance(MockHttp.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, (proxy, m, args) -> {
+			switch(m.getName()) {
+				case "getMethod": return method;
+				case "getRequestURI": return uri;
+				case "getServletPath": return uri;
+				case "getParameter": return values.get(args[0]);
+				case "getAttribute": return values.get(args[0]);
+				case "getHeader": return values.get(args[0]);
+				default: return defaultValue(m.getReturnType());
+			}
+		});
+	}
+	
+	/**
+	 * Creates a response writing to the given writer
+	 */
+	public static HttpServletResponse response(StringWriter out) {
+		PrintWriter w = new PrintWriter(out);
+		return (HttpServletResponse)Proxy.newProxyInstance(MockHttp.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, (proxy, m, args) -> {
+			switch(m.getName()) {
+				case "getWriter": return w;
+				case "getStatus": return 200;
+				case "flushBuffer": w.flush(); return null;
+				default: return defaultValue(m.getReturnType());
+			}
+		});
+	}
+	
+	/**
+	 * A filter chain which fails, every benchmarked request should be handled
+	 */
+	public static final FilterChain NOT_FOUND = (req, res) -> {
+		throw new IllegalStateException("Not handled: " + ((HttpServletRequest)req).getRequestURI());
+	};
+	
+	private static Object defaultValue(Class<?> t) {
+		if(t == boolean.class) {
+			return false;
+		}
+		if(t == int.class) {
+			return 0;
+		}
+		if(t == long.class) {
+			return 0L;
+		}
+		return null;
+	}
+}
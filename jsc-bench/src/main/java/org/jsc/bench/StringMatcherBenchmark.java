@@ -0,0 +1,69 @@
+package org.jsc.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.jsc.StringMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * StringMatcher prefix lookups with a route-like set of entries, and matching paths with parameters
+ * @author kzantow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringMatcherBenchmark {
+	@Param({ "10", "200" })
+	public int entries;
+	
+	StringMatcher<Integer> matcher;
+	StringMatcher<Integer> params;
+	String[] hits;
+	String miss = "/unknown/path/that/does/not/match";
+	int idx;
+	
+	@Setup
+	public void setup() {
+		matcher = new StringMatcher<Integer>();
+		hits = new String[entries];
+		for(int i = 0; i < entries; i++) {
+			String path = "/service" + (i % 10) + "/method" + i;
+			matcher.add(path, i);
+			hits[i] = path + "/arg/" + i;
+		}
+		params = new StringMatcher<Integer>();
+		for(int i = 0; i < entries; i++) {
+			params.add("/service" + (i % 10) + "/{id}/method" + i, i);
+		}
+	}
+	
+	@Benchmark
+	public Integer hit() {
+		idx = (idx + 1) % hits.length;
+		return matcher.get(hits[idx]);
+	}
+	
+	@Benchmark
+	public Integer miss() {
+		return matcher.get(miss);
+	}
+	
+	@Benchmark
+	public String param() {
+		idx = (idx + 1) % hits.length;
+		return params.matchWhole("/service" + (idx % 10) + "/42/method" + idx).get("id");
+	}
+}
@@ -0,0 +1,92 @@
+package org.jsc.bench;
+
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.jsc.Util;
+import org.jsc.app.App;
+import org.jsc.web.ui.Component;
+import org.jsc.web.ui.Context;
+import org.jsc.web.ui.TemplateProcessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing & rendering of a template built by the TemplateProcessor, and the cost per request of
+ * serving a page by parsing it each time or from the TemplateProcessor's cache
+ * @author kzantow
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+	static final String TEMPLATE = "<html><head><title>${title}</title></head><body>"
+		+ "<h1 class=\"title\">${title}</h1>"
+		+ "<table><thead><tr><th>Name</th><th>Price</th></tr></thead><tbody>"
+		+ "<tr @loop:item=${items}><td>${item.name}</td><td>${item.price}</td></tr>"
+		+ "</tbody></table>"
+		+ "<div @if=${showFooter}><p>Footer</p></div>"
+		+ "</body></html>";
+	
+	TemplateProcessor tp;
+	Component component;
+	URL page;
+	Map<String, Object> vars;
+	
+	@Setup
+	public void setup() throws Exception {
+		tp = new App().get(TemplateProcessor.class);
+		page = Util.toUrl("html", 0, TEMPLATE.getBytes(Util.UTF8));
+		component = parse();
+		List<Item> items = Item.create(20);
+		vars = new HashMap<String, Object>();
+		vars.put("title", "Items");
+		vars.put("items", items);
+		vars.put("showFooter", true);
+	}
+	
+	Component parse() throws Exception {
+		return tp.parseTemplate("bench", page);
+	}
+	
+	@Benchmark
+	public Object parseTemplate() throws Exception {
+		return parse();
+	}
+	
+	@Benchmark
+	public String render() throws Throwable {
+		return render(component);
+	}
+	
+	@Benchmark
+	public String pageParsed() throws Throwable {
+		return render(parse());
+	}
+	
+	@Benchmark
+	public String pageCached() throws Throwable {
+		return render(tp.getComponent("bench", page));
+	}
+	
+	String render(Component c) throws Throwable {
+		StringWriter w = new StringWriter(4096);
+		c.render(new Context(vars), w);
+		return w.toString();
+	}
+}
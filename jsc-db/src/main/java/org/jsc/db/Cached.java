@@ -0,0 +1,25 @@
+package org.jsc.db;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Cache entities of this type by id for {@link Db#findById(Object)}; writes through Db
+ * invalidate cached entries, changes made with plain sql are not seen until they expire
+ * @author kzantow
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Cached {
+	/**
+	 * Maximum number of entities to keep, least recently used are evicted
+	 */
+	int size() default 1000;
+	
+	/**
+	 * Seconds to keep an entity
+	 */
+	int ttlSeconds() default 300;
+}
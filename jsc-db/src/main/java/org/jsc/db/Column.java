@@ -41,4 +41,18 @@ public interface Column<T> extends Bindable<T>, Mappable<T> {
 	 * @return
 	 */
 	boolean id();
+	
+	/**
+	 * Get the value of this column from the object
+	 * @param o
+	 * @return
+	 */
+	Object getProperty(Object o) throws Exception;
+	
+	/**
+	 * Set the value of this column on the object
+	 * @param o
+	 * @param value
+	 */
+	void setProperty(Object o, Object value) throws Exception;
 }
@@ -0,0 +1,559 @@
+package org.jsc.db;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Logger;
+
+import javax.sql.DataSource;
+
+import org.jsc.Log;
+import org.jsc.Util;
+import org.jsc.app.App;
+
+/**
+ * Connection pool used by {@link Db}. Idle connections are kept in a lock-free deque, the number of
+ * borrowed connections is bounded by a fair semaphore so waiters are served in order, and a background
+ * task validates, evicts, tops up to the minimum size and reports leaked connections.
+ * Sizes and timeouts are read from the environment, see the fields below.
+ * @author kzantow
+ */
+public class ConnectionPool implements DataSource {
+	private static final Log log = new Log(ConnectionPool.class);
+
+	/**
+	 * Upper bounds of the wait time histogram buckets, in milliseconds; the last bucket is everything slower
+	 */
+	public static final long[] waitBuckets = { 1, 10, 100, 1000 };
+
+	private final Driver driver;
+	private final String url;
+	private final Properties props;
+
+	private int minConnections = Util.env("dbPoolMin", 0);
+	private int maxConnections = Util.env("dbPoolMax", 10);
+	private int maxIdle = Util.env("dbPoolMaxIdle", 10);
+	private long timeoutMillis = Util.env("dbPoolTimeoutMillis", 5000);
+	private long validateAfterMillis = Util.env("dbPoolValidateAfterSeconds", 30) * 1000l;
+	private long maxLifetimeMillis = Util.env("dbPoolMaxLifetimeMinutes", 30) * 60l * 1000l;
+	private long leakMillis = Util.env("dbPoolLeakSeconds", 60) * 1000l;
+	private int statementCacheSize = Util.env("dbStatementCacheSize", 64);
+
+	private final Semaphore permits;
+	private final AtomicInteger retiring = new AtomicInteger(); // permits to drop when returned, after shrinking
+	private final ConcurrentLinkedDeque<Pooled> idle = new ConcurrentLinkedDeque<>();
+	private final Map<Pooled,PooledConnection> borrowed = new ConcurrentHashMap<>();
+	private final AtomicInteger total = new AtomicInteger();
+	private final AtomicLong borrows = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+	private final AtomicLong totalWaitNanos = new AtomicLong();
+	private final AtomicLong statementHits = new AtomicLong();
+	private final AtomicLong statementMisses = new AtomicLong();
+	private final AtomicLongArray waitHistogram = new AtomicLongArray(waitBuckets.length + 1);
+	private final ScheduledExecutorService maintenance;
+	private volatile boolean closed = false;
+
+	/**
+	 * Thrown when every connection is in use until the timeout, as opposed to failing to connect
+	 */
+	public static class PoolTimeoutException extends SQLTimeoutException {
+		private static final long serialVersionUID = 1L;
+
+		public PoolTimeoutException(String message) {
+			super(message);
+		}
+	}
+
+	/**
+	 * A physical connection & its pool bookkeeping
+	 */
+	static final class Pooled {
+		final Connection conn;
+		final StatementCache statements;
+		final long created = System.currentTimeMillis();
+		volatile long lastUsed = created;
+
+		Pooled(Connection conn, StatementCache statements) {
+			this.conn = conn;
+			this.statements = statements;
+		}
+	}
+
+	/**
+	 * Connection handed out by the pool; closing returns the physical connection
+	 */
+	final class PooledConnection extends ConnectionWrapper {
+		final Pooled pooled;
+		final long borrowed = System.currentTimeMillis();
+		final Throwable borrowedAt;
+		private final AtomicBoolean released = new AtomicBoolean();
+
+		PooledConnection(Pooled pooled) {
+			super(pooled.conn);
+			this.pooled = pooled;
+			this.borrowedAt = leakMillis > 0 && App.development ? new Throwable("Connection borrowed here") : null;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if(!released.compareAndSet(false, true)) {
+				return;
+			}
+			setConnection(null);
+			release(this);
+		}
+
+		@Override
+		public boolean isClosed() throws SQLException {
+			return released.get() || super.isClosed();
+		}
+
+		@Override
+		public PreparedStatement prepareStatement(String sql) throws SQLException {
+			return pooled.statements.prepare(getConnection(), sql);
+		}
+	}
+
+	public ConnectionPool(Driver driver, String url, Properties props) {
+		this.driver = driver;
+		this.url = url;
+		this.props = props;
+		this.permits = new Semaphore(maxConnections, true);
+		this.maintenance = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ConnectionPool/" + System.identityHashCode(this));
+			t.setDaemon(true);
+			return t;
+		});
+		long interval = Math.max(1000, Math.min(validateAfterMillis, 30000));
+		maintenance.scheduleWithFixedDelay(this::maintain, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		if(closed) {
+			throw new SQLException("Connection pool is closed");
+		}
+		long start = System.nanoTime();
+		boolean acquired;
+		try {
+			acquired = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for a connection", e);
+		}
+		long waited = System.nanoTime() - start;
+		recordWait(waited);
+		if(!acquired) {
+			timeouts.incrementAndGet();
+			throw new PoolTimeoutException("Timed out after " + timeoutMillis + "ms waiting for a connection: " + this);
+		}
+		try {
+			Pooled p = borrow();
+			PooledConnection c = new PooledConnection(p);
+			borrowed.put(p, c);
+			borrows.incrementAndGet();
+			return c;
+		} catch(Throwable t) {
+			releasePermit();
+			throw t;
+		}
+	}
+
+	/**
+	 * Takes a usable idle connection or opens a new one; the caller holds a permit
+	 */
+	private Pooled borrow() throws SQLException {
+		long now = System.currentTimeMillis();
+		Pooled p;
+		while((p = idle.pollFirst()) != null) {
+			if(isExpired(p, now)) {
+				discard(p);
+				continue;
+			}
+			if(now - p.lastUsed > validateAfterMillis && !isValid(p)) {
+				discard(p);
+				continue;
+			}
+			return p;
+		}
+		return open();
+	}
+
+	private Pooled open() throws SQLException {
+		Connection c = driver.connect(url, props);
+		if(c == null) {
+			throw new SQLException("Driver does not accept url: " + url);
+		}
+		total.incrementAndGet();
+		return new Pooled(c, new StatementCache(statementCacheSize, statementHits, statementMisses));
+	}
+
+	/**
+	 * Returns a connection to the pool, resetting any transaction state
+	 */
+	private void release(PooledConnection c) {
+		Pooled p = c.pooled;
+		borrowed.remove(p);
+		boolean retired = retirePermit();
+		try {
+			boolean reuse = !retired && !closed && !isExpired(p, System.currentTimeMillis()) && idle.size() < maxIdle;
+			if(reuse) {
+				try {
+					if(!p.conn.getAutoCommit()) {
+						p.conn.rollback();
+						p.conn.setAutoCommit(true);
+					}
+				} catch(SQLException e) {
+					log.warn("Discarding connection which failed to reset: ", e);
+					reuse = false;
+				}
+			}
+			if(reuse) {
+				p.lastUsed = System.currentTimeMillis();
+				idle.offerFirst(p); // most recently used first, so extras age out
+			}
+			else {
+				discard(p);
+			}
+		} finally {
+			if(!retired) {
+				permits.release();
+			}
+		}
+	}
+
+	/**
+	 * Returns a permit, unless the pool was shrunk & it's one to drop
+	 */
+	private void releasePermit() {
+		if(!retirePermit()) {
+			permits.release();
+		}
+	}
+
+	/**
+	 * True if the pool is over its maximum & the caller's permit was dropped
+	 */
+	private boolean retirePermit() {
+		while(true) {
+			int r = retiring.get();
+			if(r <= 0) {
+				return false;
+			}
+			if(retiring.compareAndSet(r, r - 1)) {
+				return true;
+			}
+		}
+	}
+
+	private void discard(Pooled p) {
+		total.decrementAndGet();
+		try {
+			p.conn.close();
+		} catch(Throwable t) {
+			Util.ignore(t);
+		}
+	}
+
+	private boolean isExpired(Pooled p, long now) {
+		return maxLifetimeMillis > 0 && now - p.created > maxLifetimeMillis;
+	}
+
+	private boolean isValid(Pooled p) {
+		try {
+			return p.conn.isValid((int)Math.max(1, timeoutMillis / 1000));
+		} catch(Throwable t) {
+			return false;
+		}
+	}
+
+	private void recordWait(long nanos) {
+		totalWaitNanos.addAndGet(nanos);
+		long ms = TimeUnit.NANOSECONDS.toMillis(nanos);
+		int i = 0;
+		while(i < waitBuckets.length && ms >= waitBuckets[i]) {
+			i++;
+		}
+		waitHistogram.incrementAndGet(i);
+	}
+
+	/**
+	 * Evicts expired & stale idle connections, opens connections up to the minimum & logs leaks
+	 */
+	void maintain() {
+		try {
+			long now = System.currentTimeMillis();
+			int checked = idle.size();
+			for(int i = 0; i < checked; i++) {
+				Pooled p = idle.pollLast(); // least recently used
+				if(p == null) {
+					break;
+				}
+				if(isExpired(p, now) || (now - p.lastUsed > validateAfterMillis && !isValid(p))) {
+					discard(p);
+				}
+				else {
+					idle.offerLast(p);
+				}
+			}
+			while(!closed && total.get() < minConnections && permits.tryAcquire()) {
+				try {
+					Pooled p = open();
+					idle.offerLast(p);
+				} finally {
+					releasePermit();
+				}
+			}
+			if(leakMillis > 0) {
+				for(PooledConnection c : borrowed.values()) {
+					if(now - c.borrowed > leakMillis) {
+						log.warn("Connection borrowed ", (now - c.borrowed), "ms ago has not been closed, possible leak",
+							c.borrowedAt != null ? c.borrowedAt : "");
+					}
+				}
+			}
+		} catch(Throwable t) {
+			log.warn("Connection pool maintenance failed: ", t);
+		}
+	}
+
+	/**
+	 * Close idle connections and stop handing out connections; borrowed connections are closed
+	 * as they are returned
+	 */
+	public void close() {
+		closed = true;
+		maintenance.shutdownNow();
+		Pooled p;
+		while((p = idle.pollFirst()) != null) {
+			discard(p);
+		}
+		for(PooledConnection c : borrowed.values()) {
+			try {
+				c.pooled.conn.close();
+			} catch(Throwable t) {
+				Util.ignore(t);
+			}
+		}
+	}
+
+	/**
+	 * Connections currently borrowed
+	 */
+	public int getActive() {
+		return borrowed.size();
+	}
+
+	/**
+	 * Connections open & available
+	 */
+	public int getIdle() {
+		return idle.size();
+	}
+
+	/**
+	 * Threads waiting for a connection
+	 */
+	public int getWaiters() {
+		return permits.getQueueLength();
+	}
+
+	/**
+	 * Total connections borrowed
+	 */
+	public long getBorrows() {
+		return borrows.get();
+	}
+
+	/**
+	 * Total requests which timed out waiting for a connection
+	 */
+	public long getTimeouts() {
+		return timeouts.get();
+	}
+
+	/**
+	 * Total time spent waiting for connections, in milliseconds
+	 */
+	public long getTotalWaitMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+	}
+
+	/**
+	 * Counts of waits for a connection, bucketed by {@link #waitBuckets}
+	 */
+	public long[] getWaitHistogram() {
+		long[] out = new long[waitHistogram.length()];
+		for(int i = 0; i < out.length; i++) {
+			out[i] = waitHistogram.get(i);
+		}
+		return out;
+	}
+
+	/**
+	 * Prepared statements reused from the per-connection caches
+	 */
+	public long getStatementHits() {
+		return statementHits.get();
+	}
+
+	/**
+	 * Prepared statements which were not cached
+	 */
+	public long getStatementMisses() {
+		return statementMisses.get();
+	}
+
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+
+	/**
+	 * Change the number of statements cached per connection, applies to new connections
+	 */
+	public void setStatementCacheSize(int statementCacheSize) {
+		this.statementCacheSize = statementCacheSize;
+	}
+
+	public int getMinConnections() {
+		return minConnections;
+	}
+
+	public void setMinConnections(int minConnections) {
+		this.minConnections = minConnections;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Change the maximum number of connections borrowed at once; when shrinking, this doesn't wait for
+	 * borrowed connections, which are closed as they're returned until the pool is within the maximum
+	 */
+	public synchronized void setMaxConnections(int maxConnections) {
+		int diff = maxConnections - this.maxConnections;
+		this.maxConnections = maxConnections;
+		if(diff > 0) {
+			// cancel drops still pending from shrinking first
+			while(diff > 0 && retirePermit()) {
+				diff--;
+			}
+			permits.release(diff);
+		}
+		else if(diff < 0) {
+			int n = -diff;
+			while(n > 0 && permits.tryAcquire()) {
+				n--;
+			}
+			retiring.addAndGet(n);
+		}
+		Pooled p;
+		while(total.get() > maxConnections && (p = idle.pollLast()) != null) {
+			discard(p);
+		}
+	}
+
+	public int getMaxIdle() {
+		return maxIdle;
+	}
+
+	public void setMaxIdle(int maxIdle) {
+		this.maxIdle = maxIdle;
+	}
+
+	public long getTimeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public void setTimeoutMillis(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	public long getValidateAfterMillis() {
+		return validateAfterMillis;
+	}
+
+	public void setValidateAfterMillis(long validateAfterMillis) {
+		this.validateAfterMillis = validateAfterMillis;
+	}
+
+	public long getMaxLifetimeMillis() {
+		return maxLifetimeMillis;
+	}
+
+	public void setMaxLifetimeMillis(long maxLifetimeMillis) {
+		this.maxLifetimeMillis = maxLifetimeMillis;
+	}
+
+	public long getLeakMillis() {
+		return leakMillis;
+	}
+
+	public void setLeakMillis(long leakMillis) {
+		this.leakMillis = leakMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "ConnectionPool[active=" + getActive() + ", idle=" + getIdle() + ", waiters=" + getWaiters()
+			+ ", max=" + maxConnections + "]";
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("Credentials are configured in the url");
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		if(iface.isInstance(this)) {
+			return iface.cast(this);
+		}
+		throw new SQLException("Not a wrapper for: " + iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return iface.isInstance(this);
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return 0;
+	}
+
+	@Override
+	public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+}
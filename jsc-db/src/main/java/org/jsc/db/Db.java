@@ -1,32 +1,39 @@
 package org.jsc.db;
 
-import java.io.PrintWriter;
-import java.io.Writer;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
 import java.sql.Types;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.logging.Logger;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import javax.sql.DataSource;
 
 import org.jsc.Fn1;
+import org.jsc.Log;
 import org.jsc.Proc1;
 import org.jsc.Util;
 import org.jsc.app.App;
@@ -35,53 +42,223 @@ import org.jsc.app.OnStartup;
 
 @Singleton
 public class Db {
+	private static final Log log = new Log(Db.class);
+	
 	@Inject App app;
 	
 	@OnStartup
 	public void checkDB() {
-		for(Class<?> c : app.findAnnotatedClasses(Data.class)) {
-			Table<?> t = getTable(c);
-			try {
-				sql("select count(*) from ").append(t.getName()).getInt();
-			} catch(Exception e) {
-				createTable(c);
-			}
-			
-			for(Column<?> col : t.getColumns()) {
-				try {
-					sql("select count(").append(col.getName()).append(") from ").append(t.getName()).getInt();
-				} catch(Exception e) {
-					sql("alter table ").append(t.getName()).append(" add column ").append(col.getName()).append(" ").append(col.getDataType()).execute();
+		checkSchema(app.findAnnotatedClasses(Data.class));
+	}
+	
+	/**
+	 * Create the missing tables & columns for the types; DDL commits on its own in most databases, so each
+	 * statement is applied separately & anything left after a failure is found again on the next startup
+	 */
+	void checkSchema(Collection<Class<?>> types) {
+		long start = System.currentTimeMillis();
+		if(types.isEmpty()) {
+			return;
+		}
+		Map<String, Set<String>> schema = readSchema();
+		
+		List<String> ddl = types.parallelStream()
+			.flatMap(c -> schemaChanges(getTable(c), schema).stream())
+			.collect(Collectors.toList());
+		
+		for(String s : ddl) {
+			log.info("Applying: ", s);
+			accept(conn -> new Sql(conn).append(s).execute());
+		}
+		log.info("Checked schema for ", types.size(), " types in ", System.currentTimeMillis() - start, "ms, ", ddl.size(), " changes applied");
+	}
+	
+	/**
+	 * Read the existing tables & columns in the current schema, lower case
+	 * @return
+	 */
+	private Map<String, Set<String>> readSchema() {
+		return apply(conn -> {
+			Map<String, Set<String>> tables = new HashMap<>();
+			DatabaseMetaData md = conn.getMetaData();
+			String schema = currentSchema(conn);
+			try(ResultSet rs = md.getColumns(conn.getCatalog(), schema, "%", "%")) {
+				while(rs.next()) {
+					String tableSchema = rs.getString("TABLE_SCHEM");
+					if(schema != null ? !schema.equalsIgnoreCase(tableSchema)
+						: "information_schema".equalsIgnoreCase(tableSchema) || "pg_catalog".equalsIgnoreCase(tableSchema)) {
+						continue;
+					}
+					String table = rs.getString("TABLE_NAME").toLowerCase();
+					Set<String> columns = tables.get(table);
+					if(columns == null) {
+						tables.put(table, columns = new HashSet<>());
+					}
+					columns.add(rs.getString("COLUMN_NAME").toLowerCase());
 				}
 			}
+			return tables;
+		});
+	}
+	
+	/**
+	 * The connection's default schema, or null if it can't be found
+	 */
+	private static String currentSchema(Connection conn) {
+		try {
+			String schema = conn.getSchema();
+			if(schema != null) {
+				return schema;
+			}
+		} catch(Throwable t) {
+			Util.ignore(t); // AbstractMethodError from drivers before JDBC 4.1, e.g. H2 1.4
+		}
+		try(Statement s = conn.createStatement(); ResultSet rs = s.executeQuery("select schema()")) {
+			return rs.next() ? rs.getString(1) : null;
+		} catch(SQLException e) {
+			return null; // not H2
 		}
 	}
 	
+	/**
+	 * DDL to create the table or add its missing columns
+	 */
+	private List<String> schemaChanges(Table<?> t, Map<String, Set<String>> schema) {
+		Set<String> columns = schema.get(t.getName().toLowerCase());
+		if(columns == null) {
+			return Collections.singletonList(dialect.createTable(t));
+		}
+		List<String> out = new ArrayList<>();
+		for(Column<?> col : t.getColumns()) {
+			if(!columns.contains(col.getName().toLowerCase())) {
+				out.add("alter table " + t.getName() + " add column " + col.getName() + " " + col.getDataType());
+			}
+		}
+		return out;
+	}
+	
 	@OnShutdown
 	public void shutdownDataSource(){
-		maxConnections = 0;
-		pool.forEach(conn -> {
-			try { conn.close(); } catch(Throwable t) { Util.ignore(t); }
-		});
-		pool.clear();
-		open.forEach(conn -> {
-			try { conn.close(); } catch(Throwable t) { Util.ignore(t); }
-		});
-		open.clear();
-		ds = null;
+		pool.close();
+		for(Replica r : replicas) {
+			r.pool.close();
+		}
+	}
+	
+	/**
+	 * The connection pool, for configuration & metrics
+	 * @return
+	 */
+	public ConnectionPool getPool() {
+		return pool;
 	}
 	
+	/**
+	 * Statement statistics, see {@link Sql#getStats()}
+	 * @return
+	 */
+	public QueryStats getQueryStats() {
+		return Sql.getStats();
+	}
+	
+	/**
+	 * Database specific sql
+	 */
 	public interface Dialect {
-		public void createTable(Object o, Writer w);
+		/**
+		 * Sql to create the table
+		 * @param t
+		 * @return
+		 */
+		public default String createTable(Table<?> t) {
+			StringBuilder sql = new StringBuilder()
+				.append("create table ").append(t.getName()).append(" (");
+			
+			boolean first = true;
+			for(Column<?> c : t.getColumns()) {
+				if(first) {
+					first = false;
+				} else {
+					sql.append(",");
+				}
+				sql.append(c.getName())
+					.append(" ")
+					.append(c.getDataType());
+			}
+			
+			sql.append(")");
+			
+			return sql.toString();
+		}
+		
+		/**
+		 * Single statement to insert a row or update it by id, binding all columns in order;
+		 * null if the database has no such statement
+		 * @param t
+		 * @return
+		 */
+		public String upsert(Table<?> t);
+	}
+	
+	/**
+	 * Update, then insert if nothing was updated
+	 */
+	public static class GenericDialect implements Dialect {
+		@Override
+		public String upsert(Table<?> t) {
+			return null;
+		}
+	}
+	
+	/**
+	 * Gets the dialect for the jdbc url
+	 * @param url
+	 * @return
+	 */
+	public static Dialect dialectFor(String url) {
+		if(url.startsWith("jdbc:h2:")) {
+			return new H2Dialect();
+		}
+		if(url.startsWith("jdbc:postgresql:")) {
+			return new PostgresDialect();
+		}
+		return new GenericDialect();
+	}
+	
+	private Dialect dialect;
+	
+	public Dialect getDialect() {
+		return dialect;
+	}
+	
+	/**
+	 * Change the dialect, by default this is determined from the url
+	 * @param dialect
+	 */
+	public void setDialect(Dialect dialect) {
+		this.dialect = dialect;
+		mappings.clear();
 	}
 	
 	private final ThreadLocal<Connection> currentConnection = new ThreadLocal<Connection>();
 	private final ThreadLocal<Object> currentTransaction = new ThreadLocal<Object>();
-	private long timeoutMillis = 1000;
-	private int maxConnections = 10;
-	private Queue<Connection> pool = new ConcurrentLinkedQueue<>();
-	private Collection<Connection> open = Collections.synchronizedSet(new HashSet<>());
-	private DataSource ds;
+	private final ThreadLocal<List<Runnable>> afterTransaction = new ThreadLocal<List<Runnable>>();
+	private ConnectionPool pool;
+	private final List<Replica> replicas = new CopyOnWriteArrayList<>();
+	private final AtomicInteger nextReplica = new AtomicInteger();
+	private long replicaRetryMillis = Util.env("dbReplicaRetrySeconds", 30) * 1000l;
+	
+	/**
+	 * A read replica's pool, skipped for a while after it fails to connect or validate, but not when it's busy
+	 */
+	private static final class Replica {
+		final ConnectionPool pool;
+		volatile long downUntil;
+		
+		Replica(ConnectionPool pool) {
+			this.pool = pool;
+		}
+	}
 	
 	{
 		try {
@@ -97,99 +274,158 @@ public class Db {
 //			new java.io.File(System.getProperty("user.home") + "/hive-db.trace.db").delete();
 			
 			Driver driver = DriverManager.getDriver(url);
-			ds = new DataSource() {
-				@Override
-				public <T> T unwrap(Class<T> iface) throws SQLException {
-					return null;
-				}
-				
-				@Override
-				public boolean isWrapperFor(Class<?> iface) throws SQLException {
-					return false;
-				}
-				
-				@Override
-				public void setLoginTimeout(int seconds) throws SQLException {
-				}
-				
-				@Override
-				public void setLogWriter(PrintWriter out) throws SQLException {
-				}
-				
-				@Override
-				public Logger getParentLogger() throws SQLFeatureNotSupportedException {
-					return null;
-				}
-				
-				@Override
-				public int getLoginTimeout() throws SQLException {
-					return 0;
-				}
-				
-				@Override
-				public PrintWriter getLogWriter() throws SQLException {
-					return null;
-				}
-				
-				@Override
-				public Connection getConnection(String username, String password) throws SQLException {
-					return null;
-				}
-				
-				@Override
-				public Connection getConnection() throws SQLException {
-					synchronized(pool) {
-						Connection c = pool.poll();
-						if(c == null) {
-							if(open.size() < maxConnections) {
-								c = driver.connect(url, new Properties());
-							} else {
-								try { pool.wait(timeoutMillis); } catch(Throwable t) { Util.asRuntime(t); }
-								c = pool.poll();
-							}
-						}
-						c = new ConnectionWrapper(c) {
-							public void close() throws java.sql.SQLException {
-								synchronized(pool) {
-									pool.add(getConnection());
-									setConnection(null);
-									open.remove(this);
-									pool.notify();
-								}
-							}
-						};
-						open.add(c);
-						return c;
-					}
+			pool = new ConnectionPool(driver, url, new Properties());
+			dialect = dialectFor(url);
+			
+			for(String replicaUrl : Util.env("dbReadUrls", "").split(",")) {
+				if(!replicaUrl.trim().isEmpty()) {
+					addReplica(replicaUrl.trim());
 				}
-			};
+			}
 		} catch(Throwable e) {
 			throw Util.asRuntime(e);
 		}
 	}
 	
+	/**
+	 * Add a read replica, used by {@link #read(Fn1)}; the dbReadUrls setting adds a comma separated list
+	 * @param url
+	 * @return the replica's connection pool, for configuration & metrics
+	 */
+	public ConnectionPool addReplica(String url) {
+		try {
+			ConnectionPool p = new ConnectionPool(DriverManager.getDriver(url), url, new Properties());
+			replicas.add(new Replica(p));
+			return p;
+		} catch(SQLException e) {
+			throw Util.asRuntime(e);
+		}
+	}
+	
+	/**
+	 * How long a read replica which failed to connect is skipped, from dbReplicaRetrySeconds
+	 */
+	public long getReplicaRetryMillis() {
+		return replicaRetryMillis;
+	}
+	
+	public void setReplicaRetryMillis(long replicaRetryMillis) {
+		this.replicaRetryMillis = replicaRetryMillis;
+	}
+	
+	/**
+	 * The read replica connection pools
+	 * @return
+	 */
+	public List<ConnectionPool> getReplicas() {
+		List<ConnectionPool> out = new ArrayList<>();
+		for(Replica r : replicas) {
+			out.add(r.pool);
+		}
+		return out;
+	}
+	
 	public <T> T inTransaction(Fn1<T, Connection> fn) {
 		return apply(conn -> {
 			Object tx = currentTransaction.get();
 			if(tx == null) {
-				currentTransaction.set(conn);
-				conn.setAutoCommit(false);
-				try {
-					T out = fn.exec(conn);
-					conn.commit();
-					return out;
-				} catch(Throwable e) {
-					try { conn.rollback(); } catch(Throwable ex) { /* this didn't cause the error... */ }
-					throw Util.asRuntime(e);
-				} finally {
-					currentTransaction.remove();
-					try { conn.setAutoCommit(true); } catch(Throwable ex) { /* don't fail this */ }
-				}
+				return transaction(conn, fn);
 			}
 			// Already in a tx
 			return fn.exec(conn);
 		});
 	}
+	
+	/**
+	 * Execute in a read-only transaction on a read replica, the least busy one starting from the next
+	 * in turn, or the primary if none are available; Db calls in the callback use the same connection.
+	 * In a transaction or another callback this uses the current connection, so writes are visible.
+	 * @param fn
+	 * @return
+	 */
+	public <T> T read(Fn1<T, Connection> fn) {
+		if(currentConnection.get() != null) {
+			return apply(fn);
+		}
+		Connection conn = null;
+		try {
+			conn = readConnection();
+			currentConnection.set(conn);
+			conn.setReadOnly(true);
+			return transaction(conn, fn);
+		} catch(Throwable e) {
+			throw Util.asRuntime(e);
+		} finally {
+			currentConnection.remove();
+			if(conn != null) {
+				try { conn.setReadOnly(false); } catch(Throwable e) { Util.ignore(e); }
+				try { conn.close(); } catch(Throwable e) { Util.ignore(e); }
+			}
+		}
+	}
+	
+	private <T> T transaction(Connection conn, Fn1<T, Connection> fn) throws Exception {
+		currentTransaction.set(conn);
+		afterTransaction.set(new ArrayList<>());
+		conn.setAutoCommit(false);
+		try {
+			T out = fn.exec(conn);
+			conn.commit();
+			return out;
+		} catch(Throwable e) {
+			try { conn.rollback(); } catch(Throwable ex) { /* this didn't cause the error... */ }
+			afterTransaction.get().clear(); // nothing was written
+			throw Util.asRuntime(e);
+		} finally {
+			currentTransaction.remove();
+			try { conn.setAutoCommit(true); } catch(Throwable ex) { /* don't fail this */ }
+			List<Runnable> after = afterTransaction.get();
+			afterTransaction.remove();
+			for(Runnable r : after) {
+				r.run();
+			}
+		}
+	}
+	
+	/**
+	 * A connection from the least busy available replica, trying the others if it fails, or from the primary
+	 */
+	private Connection readConnection() throws SQLException {
+		int n = replicas.size();
+		if(n > 0) {
+			int start = Math.floorMod(nextReplica.getAndIncrement(), n);
+			boolean[] tried = new boolean[n];
+			while(true) {
+				long now = System.currentTimeMillis();
+				Replica best = null;
+				int bestIdx = -1;
+				for(int i = 0; i < n; i++) {
+					int idx = (start + i) % n;
+					Replica r = replicas.get(idx);
+					if(!tried[idx] && r.downUntil <= now && (best == null || r.pool.getActive() < best.pool.getActive())) {
+						best = r;
+						bestIdx = idx;
+					}
+				}
+				if(best == null) {
+					break;
+				}
+				tried[bestIdx] = true;
+				try {
+					return best.pool.getConnection();
+				} catch(ConnectionPool.PoolTimeoutException e) {
+					log.debug("Read replica busy, trying the next: ", best.pool); // up, just exhausted
+				} catch(SQLException e) {
+					if(Thread.currentThread().isInterrupted()) {
+						throw e;
+					}
+					best.downUntil = now + replicaRetryMillis;
+					log.warn("Read replica unavailable, skipping it for ", replicaRetryMillis, "ms: ", best.pool, " ", e);
+				}
+			}
+		}
+		return pool.getConnection();
+	}
 	public void accept(Proc1<Connection> fn) {
 		apply(conn -> {
 			fn.exec(conn);
@@ -200,7 +436,7 @@ public class Db {
 		Connection conn = currentConnection.get();
 		if(conn == null) {
 			try {
-				conn = ds.getConnection();
+				conn = pool.getConnection();
 				currentConnection.set(conn);
 				return fn.exec(conn);
 			} catch(Throwable e) {
@@ -218,7 +454,99 @@ public class Db {
 		}
 	}
 	
+	/**
+	 * A connection to use beyond a callback, e.g. while streaming results: the current connection
+	 * if there is one, which is left open, otherwise one from the pool; close it when done
+	 */
+	Connection openConnection() throws Exception {
+		Connection conn = currentConnection.get();
+		if(conn != null) {
+			return unclosable(conn);
+		}
+		return pool.getConnection();
+	}
+	
+	/**
+	 * Wraps a connection which is managed elsewhere, closing the wrapper does nothing
+	 */
+	static Connection unclosable(Connection conn) {
+		return new ConnectionWrapper(conn) {
+			@Override
+			public void close() {
+				setConnection(null);
+			}
+		};
+	}
+	
+	/**
+	 * Get the table metadata for a type, built once per type
+	 * @param typ
+	 * @return
+	 */
 	public <T> Table<T> getTable(Class<T> typ) {
+		return mapping(typ).table;
+	}
+	
+	private final Map<Class<?>, EntityMapping<?>> mappings = new ConcurrentHashMap<>();
+	
+	/**
+	 * Get the cached metadata & statements for a type
+	 */
+	@SuppressWarnings("unchecked")
+	<T> EntityMapping<T> mapping(Class<T> typ) {
+		EntityMapping<T> m = (EntityMapping<T>)mappings.get(typ);
+		if(m == null) {
+			m = new EntityMapping<T>(typ, createTableMetadata(typ), dialect);
+			EntityMapping<T> prev = (EntityMapping<T>)mappings.putIfAbsent(typ, m);
+			if(prev != null) {
+				m = prev;
+			}
+		}
+		return m;
+	}
+	
+	/**
+	 * Get the entity cache for a type annotated with {@link Cached}, e.g. for its metrics
+	 * @param typ
+	 * @return null if the type is not cached
+	 */
+	public EntityCache getCache(Class<?> typ) {
+		return mapping(typ).cache;
+	}
+	
+	/**
+	 * Removes a written object from its type's cache; in a transaction, once it commits
+	 * so other threads don't cache values that may be rolled back
+	 */
+	private void invalidate(EntityMapping<?> m, Object o) throws Exception {
+		EntityCache cache = m.cache;
+		if(cache == null) {
+			return;
+		}
+		Object key = m.key(o);
+		List<Runnable> after = afterTransaction.get();
+		if(after != null) {
+			after.add(() -> cache.invalidate(key));
+		}
+		else {
+			cache.invalidate(key);
+		}
+	}
+	
+	private void invalidateAll(EntityMapping<?> m, List<Object> rows) throws Exception {
+		if(m.cache != null) {
+			for(Object o : rows) {
+				invalidate(m, o);
+			}
+		}
+	}
+	
+	/**
+	 * Reads the table metadata for a type
+	 * @param typ
+	 * @return
+	 */
+	private <T> Table<T> createTableMetadata(Class<T> typ) {
 		List<Column<?>> columns = new ArrayList<>();
 		
 		Class<?> t = typ;
@@ -247,6 +575,12 @@ public class Db {
 						public void mapProperty(ResultSetReader rdr, Object o) throws Exception {
 							f.set(o, map(rdr));
 						}
+						public Object getProperty(Object o) throws Exception {
+							return f.get(o);
+						}
+						public void setProperty(Object o, Object value) throws Exception {
+							f.set(o, value);
+						}
 						public int bind(PreparedStatement ps, int idx, String o) throws Exception {
 							if(o == null) {
 								ps.setNull(idx, Types.VARCHAR);
@@ -283,6 +617,12 @@ public class Db {
 						public void mapProperty(ResultSetReader rdr, Object o) throws Exception {
 							f.set(o, map(rdr));
 						}
+						public Object getProperty(Object o) throws Exception {
+							return f.get(o);
+						}
+						public void setProperty(Object o, Object value) throws Exception {
+							f.set(o, value);
+						}
 						public int bind(PreparedStatement ps, int idx, Instant o) throws Exception {
 							if(o == null) {
 								ps.setNull(idx, Types.TIMESTAMP);
@@ -319,6 +659,12 @@ public class Db {
 						public void mapProperty(ResultSetReader rdr, Object o) throws Exception {
 							f.set(o, map(rdr));
 						}
+						public Object getProperty(Object o) throws Exception {
+							return f.get(o);
+						}
+						public void setProperty(Object o, Object value) throws Exception {
+							f.set(o, value);
+						}
 						public int bind(PreparedStatement ps, int idx, Integer o) throws Exception {
 							if(o == null) {
 								ps.setNull(idx, Types.INTEGER);
@@ -355,6 +701,12 @@ public class Db {
 						public void mapProperty(ResultSetReader rdr, Object o) throws Exception {
 							f.set(o, map(rdr));
 						}
+						public Object getProperty(Object o) throws Exception {
+							return f.get(o);
+						}
+						public void setProperty(Object o, Object value) throws Exception {
+							f.set(o, value);
+						}
 						public int bind(PreparedStatement ps, int idx, Long o) throws Exception {
 							if(o == null) {
 								ps.setNull(idx, Types.INTEGER);
@@ -423,24 +775,7 @@ public class Db {
 	public void createTable(Class<?> typ) {
 		Table<?> t = getTable(typ);
 		accept(conn -> {
-			Sql sql = new Sql(conn)
-				.append("create table ").append(t.getName()).append(" (");
-			
-			boolean first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(first) {
-					first = false;
-				} else {
-					sql.append(",");
-				}
-				sql.append(c.getName())
-					.append(" ")
-					.append(c.getDataType());
-			}
-			
-			sql.append(")");
-			
-			sql.execute();
+			new Sql(conn).append(dialect.createTable(t)).execute();
 		});
 	}
 	
@@ -459,27 +794,16 @@ public class Db {
 	 * @return
 	 */
 	public <T> List<T> list(Class<T> typ) {
-		Table<T> t = getTable(typ);
+		EntityMapping<T> m = mapping(typ);
 		
 		List<T> out = new ArrayList<>();
 		
 		accept(conn -> {
-			Sql sql = new Sql(conn)
-				.append("select ");
-			
-			boolean first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(first) first = false; else sql.append(",");
-				sql.append(c.getName());
-			}
-			
-			sql.append(" from ").append(t.getName());
-			
 			ResultSetReader rdr = new ResultSetReader();
-			sql.execute((rs) -> {
+			new Sql(conn, m.select, (ps, idx) -> 0).execute((rs) -> {
 				rdr.rs = rs;
 				rdr.idx = 0;
-				T o = t.map(rdr);
+				T o = m.table.map(rdr);
 				out.add(o);
 			});
 		});
@@ -487,41 +811,158 @@ public class Db {
 		return out;
 	}
 	
+	/**
+	 * Stream all items of the given type, mapped as they are read; close the stream if it is not
+	 * read to the end, e.g. with try-with-resources
+	 * @param typ
+	 * @return
+	 */
+	public <T> Stream<T> stream(Class<T> typ) {
+		EntityMapping<T> m = mapping(typ);
+		return sql(m.select).stream(m.table);
+	}
+	
+	/**
+	 * List all items of the given type, fetching the given relations, see {@link #fetch(List, String)}
+	 * @param typ
+	 * @param relations names of {@link FK} fields
+	 * @return
+	 */
+	public <T> List<T> list(Class<T> typ, String ... relations) {
+		return apply(conn -> {
+			List<T> out = list(typ);
+			for(String relation : relations) {
+				fetch(out, relation);
+			}
+			return out;
+		});
+	}
+	
+	/**
+	 * Load the rows referenced by an {@link FK} field of the objects, with one query for each chunk of
+	 * distinct values rather than one per object, and set each on the object's {@link FK#property()}
+	 * field, which must be transient; the referenced field must be the same type as the FK field
+	 * @param parents objects of one type
+	 * @param relation name of the @FK field
+	 * @return the referenced objects by the FK value
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, R> Map<Object, R> fetch(List<T> parents, String relation) {
+		Map<Object, R> out = new HashMap<>();
+		if(parents.isEmpty()) {
+			return out;
+		}
+		EntityMapping.Relation r = relation(mapping(parents.get(0).getClass()), relation);
+		Column<Object> key = (Column<Object>)r.key;
+		accept(conn -> {
+			Set<Object> values = new LinkedHashSet<>();
+			for(T p : parents) {
+				Object v = r.column.getProperty(p);
+				if(v != null) {
+					values.add(v);
+				}
+			}
+			List<Object> pending = new ArrayList<>(values);
+			ResultSetReader rdr = new ResultSetReader();
+			for(int start = 0; start < pending.size(); start += fetchChunkSize) {
+				List<Object> chunk = pending.subList(start, Math.min(pending.size(), start + fetchChunkSize));
+				StringBuilder sql = new StringBuilder(r.target.select)
+					.append(" where ").append(key.getName()).append(" in (");
+				for(int i = 0; i < chunk.size(); i++) {
+					sql.append(i == 0 ? "?" : ",?");
+				}
+				sql.append(")");
+				new Sql(conn, sql.toString(), (ps, idx) -> {
+					int n = 0;
+					for(Object v : chunk) {
+						n += key.bind(ps, idx + n, v);
+					}
+					return n;
+				}).execute((rs) -> {
+					rdr.rs = rs;
+					rdr.idx = 0;
+					Object o = r.target.table.map(rdr);
+					out.putIfAbsent(key.getProperty(o), (R)o);
+				});
+			}
+			if(r.property != null) {
+				for(T p : parents) {
+					Object v = r.column.getProperty(p);
+					r.property.set(p, v == null ? null : out.get(v));
+				}
+			}
+		});
+		return out;
+	}
+	
+	private int fetchChunkSize = Util.env("dbFetchChunkSize", 500);
+	
+	/**
+	 * Maximum values in one query for {@link #fetch(List, String)}
+	 * @return
+	 */
+	public int getFetchChunkSize() {
+		return fetchChunkSize;
+	}
+	
+	public void setFetchChunkSize(int fetchChunkSize) {
+		this.fetchChunkSize = fetchChunkSize;
+	}
+	
+	/**
+	 * Resolves an {@link FK} field of the type, once
+	 */
+	private EntityMapping.Relation relation(EntityMapping<?> m, String name) {
+		EntityMapping.Relation r = m.relations.get(name);
+		if(r == null) {
+			Field f = field(m.type, name);
+			FK fk = f != null ? f.getAnnotation(FK.class) : null;
+			if(fk == null) {
+				throw new IllegalArgumentException("No @FK field " + name + " on " + m.type.getName());
+			}
+			Column<?> column = m.column(dbIdentifier(name));
+			EntityMapping<?> target = mapping(fk.type());
+			Column<?> key = target.column(dbIdentifier(fk.field()));
+			if(column == null || key == null) {
+				throw new IllegalArgumentException("@FK field " + name + " on " + m.type.getName()
+					+ " must be a column referencing a column of " + fk.type().getName());
+			}
+			String property = fk.property();
+			if(property.isEmpty() && name.length() > 2 && name.endsWith("Id")) {
+				property = name.substring(0, name.length() - 2);
+			}
+			Field p = property.isEmpty() ? null : field(m.type, property);
+			if(p != null) {
+				p.setAccessible(true);
+			}
+			m.relations.put(name, r = new EntityMapping.Relation(column, target, key, p));
+		}
+		return r;
+	}
+	
+	private static Field field(Class<?> typ, String name) {
+		for(Class<?> t = typ; t != null && t != Object.class; t = t.getSuperclass()) {
+			try {
+				return t.getDeclaredField(name);
+			} catch(NoSuchFieldException e) {
+				Util.ignore(e); // check the superclass
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * Update object
 	 * @param o
 	 * @return
 	 */
 	public int update(Object o) {
-		Table<?> t = getTable(o.getClass());
+		EntityMapping<?> m = mapping(o.getClass());
 		
 		return apply(conn -> {
-			Sql sql = new Sql(conn)
-				.append("update ").append(t.getName()).append(" set ");
-			
-			boolean first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(c.id()) continue;
-				if(first) first = false; else sql.append(",");
-				
-				sql.append(c.getName())
-					.append("=")
-					.bind((ps, idx) -> c.bindProperty(ps, idx, o));
-			}
-			
-			sql.append(" where ");
-			
-			first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(!c.id()) continue;
-				if(first) first = false; else sql.append(" and ");
-				
-				sql.append(c.getName())
-					.append("=")
-					.bind((ps, idx) -> c.bindProperty(ps, idx, o));
-			}
-			
-			return sql.execute();
+			int n = new Sql(conn, m.update, m.bindUpdate(o)).execute();
+			invalidate(m, o);
+			return n;
 		});
 	}
 	
@@ -531,38 +972,28 @@ public class Db {
 	 * @return
 	 */
 	public int insert(Object o) {
-		Table<?> t = getTable(o.getClass());
+		EntityMapping<?> m = mapping(o.getClass());
 		
 		return apply(conn -> {
-			Sql sql = new Sql(conn)
-				.append("insert into ").append(t.getName()).append(" (");
-			
-			boolean first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(first) first = false; else sql.append(",");
-				sql.append(c.getName());
-			}
-			
-			sql.append(") values (");
-			
-			first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(first) first = false; else sql.append(",");
-				sql.bind((ps, idx) -> c.bindProperty(ps, idx, o));
-			}
-
-			sql.append(")");
-
-			return sql.execute();
+			int n = new Sql(conn, m.insert, m.bindAll(o)).execute();
+			invalidate(m, o);
+			return n;
 		});
 	}
 	
 	/**
-	 * Update or insert object by id
+	 * Update or insert object by id, in one statement if the dialect supports it
 	 * @param o
 	 */
 	public void save(Object o) {
-		if(0 == update(o)) {
+		EntityMapping<?> m = mapping(o.getClass());
+		if(m.upsert != null) {
+			accept(conn -> {
+				new Sql(conn, m.upsert, m.bindAll(o)).execute();
+				invalidate(m, o);
+			});
+		}
+		else if(0 == update(o)) {
 			insert(o);
 		}
 	}
@@ -573,71 +1004,231 @@ public class Db {
 	 * @return
 	 */
 	public int delete(Object o) {
-		Table<?> t = getTable(o.getClass());
+		EntityMapping<?> m = mapping(o.getClass());
 		
 		return apply(conn -> {
-			Sql sql = new Sql(conn)
-				.append("delete from ").append(t.getName());
-			
-			sql.append(" where ");
-			
-			boolean first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(!c.id()) continue;
-				if(first) first = false; else sql.append(" and ");
-				
-				sql.append(c.getName())
-					.append("=")
-					.bind((ps, idx) -> c.bindProperty(ps, idx, o));
-			}
-			
-			return sql.execute();
-		});		
+			int n = new Sql(conn, m.delete, m.bindIds(o)).execute();
+			invalidate(m, o);
+			return n;
+		});
 	}
 
 	/**
-	 * Finds an object by the set id properties
+	 * Insert all objects using batched statements, in a single transaction
+	 * @param items
+	 * @return the rows affected by each batch executed
+	 */
+	public int[] insertAll(Collection<?> items) {
+		return writeAll(items, m -> m.insert, m -> m.columns);
+	}
+	
+	/**
+	 * Update all objects by id using batched statements, in a single transaction
+	 * @param items
+	 * @return the rows affected by each batch executed
+	 */
+	public int[] updateAll(Collection<?> items) {
+		return writeAll(items, m -> m.update, m -> m.updateColumns);
+	}
+	
+	/**
+	 * Delete all objects by id using batched statements, in a single transaction
+	 * @param items
+	 * @return the rows affected by each batch executed
+	 */
+	public int[] deleteAll(Collection<?> items) {
+		return writeAll(items, m -> m.delete, m -> m.ids);
+	}
+	
+	/**
+	 * Update all objects by id, inserting those which did not exist, using batched statements
+	 * in a single transaction; with the dialect's upsert, one batch per type
+	 * @param items
+	 * @return the rows affected by each batch executed, updates then inserts for each type
+	 */
+	public int[] saveAll(Collection<?> items) {
+		return inTransaction(conn -> {
+			List<Integer> counts = new ArrayList<>();
+			for(Map.Entry<Class<?>, List<Object>> e : byType(items).entrySet()) {
+				EntityMapping<?> m = mapping(e.getKey());
+				List<Object> rows = e.getValue();
+				invalidateAll(m, rows);
+				if(m.upsert != null) {
+					executeBatches(conn, m.upsert, m.columns, rows, counts, null);
+					continue;
+				}
+				int[] updated = new int[rows.size()];
+				executeBatches(conn, m.update, m.updateColumns, rows, counts, updated);
+				List<Object> inserts = new ArrayList<>();
+				for(int i = 0; i < updated.length; i++) {
+					int n = updated[i];
+					if(n == Statement.SUCCESS_NO_INFO) {
+						// the driver doesn't say if the row exists, update it alone to find out
+						n = new Sql(conn, m.update, m.bindUpdate(rows.get(i))).execute();
+					}
+					if(n == 0) {
+						inserts.add(rows.get(i));
+					}
+				}
+				executeBatches(conn, m.insert, m.columns, inserts, counts, null);
+			}
+			return toArray(counts);
+		});
+	}
+	
+	private int batchSize = Util.env("dbBatchSize", 500);
+	
+	/**
+	 * Rows per batch for the *All methods
+	 * @return
+	 */
+	public int getBatchSize() {
+		return batchSize;
+	}
+	
+	public void setBatchSize(int batchSize) {
+		this.batchSize = batchSize;
+	}
+	
+	private int[] writeAll(Collection<?> items, Fn1<String, EntityMapping<?>> sql, Fn1<Column<?>[], EntityMapping<?>> columns) {
+		return inTransaction(conn -> {
+			List<Integer> counts = new ArrayList<>();
+			for(Map.Entry<Class<?>, List<Object>> e : byType(items).entrySet()) {
+				EntityMapping<?> m = mapping(e.getKey());
+				executeBatches(conn, sql.exec(m), columns.exec(m), e.getValue(), counts, null);
+				invalidateAll(m, e.getValue());
+			}
+			return toArray(counts);
+		});
+	}
+	
+	/**
+	 * Groups objects by type, keeping the order they were first seen
+	 */
+	private static Map<Class<?>, List<Object>> byType(Collection<?> items) {
+		Map<Class<?>, List<Object>> out = new LinkedHashMap<>();
+		for(Object o : items) {
+			List<Object> l = out.get(o.getClass());
+			if(l == null) {
+				out.put(o.getClass(), l = new ArrayList<>());
+			}
+			l.add(o);
+		}
+		return out;
+	}
+	
+	/**
+	 * Executes the statement for each row in batches, adding the count for each batch;
+	 * optionally records the driver's result for each row, which may be {@link Statement#SUCCESS_NO_INFO}
+	 */
+	private void executeBatches(Connection conn, String sql, Column<?>[] columns, List<Object> rows, List<Integer> counts, int[] rowCounts) throws Exception {
+		if(rows.isEmpty()) {
+			return;
+		}
+		PreparedStatement ps = conn.prepareStatement(sql);
+		try {
+			int pending = 0;
+			int row = 0;
+			for(Object o : rows) {
+				EntityMapping.bind(ps, 1, columns, o);
+				ps.addBatch();
+				if(++pending == batchSize) {
+					row = addCounts(executeBatch(ps, sql), counts, rowCounts, row);
+					pending = 0;
+				}
+			}
+			if(pending > 0) {
+				addCounts(executeBatch(ps, sql), counts, rowCounts, row);
+			}
+		} finally {
+			ps.close();
+		}
+	}
+	
+	/**
+	 * Executes the batch, notifying the {@link QueryListener}s
+	 */
+	private static int[] executeBatch(PreparedStatement ps, String sql) throws SQLException {
+		long start = System.nanoTime();
+		int[] results = null;
+		Throwable error = null;
+		try {
+			results = ps.executeBatch();
+			return results;
+		} catch(SQLException | RuntimeException e) {
+			error = e;
+			throw e;
+		} finally {
+			long rows = 0;
+			for(int i = 0; results != null && i < results.length; i++) {
+				rows += results[i] == Statement.SUCCESS_NO_INFO ? 1 : Math.max(results[i], 0);
+			}
+			Sql.executed(sql, Sql.noParameters, 0, System.nanoTime() - start, rows, error);
+		}
+	}
+	
+	private static int addCounts(int[] results, List<Integer> counts, int[] rowCounts, int row) {
+		int total = 0;
+		for(int r : results) {
+			total += r == Statement.SUCCESS_NO_INFO ? 1 : Math.max(r, 0); // no info: the row was written
+			if(rowCounts != null) {
+				rowCounts[row] = r;
+			}
+			row++;
+		}
+		counts.add(total);
+		return row;
+	}
+	
+	private static int[] toArray(List<Integer> counts) {
+		int[] out = new int[counts.size()];
+		for(int i = 0; i < out.length; i++) {
+			out[i] = counts.get(i);
+		}
+		return out;
+	}
+	
+	/**
+	 * Finds an object by the set id properties; for {@link Cached} types, outside a transaction,
+	 * a copy of the cached object if there is one
 	 * @param id
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
 	public <T> T findById(T id) {
-		Class<T> typ = (Class<T>)id.getClass();
-		Table<T> t = getTable(typ);
+		EntityMapping<T> m = mapping((Class<T>)id.getClass());
+		
+		EntityCache cache = currentTransaction.get() == null ? m.cache : null;
+		Object key = null;
+		long version = 0;
+		if(cache != null) {
+			try {
+				key = m.key(id);
+				Object[] values = key != null ? cache.get(key) : null;
+				if(values != null) {
+					return m.create(values);
+				}
+			} catch(Exception e) {
+				throw Util.asRuntime(e);
+			}
+			version = cache.version();
+		}
 		
 		Object[] out = { null };
+		Object cacheKey = key;
+		long cacheVersion = version;
 		
 		accept(conn -> {
-			Sql sql = new Sql(conn)
-				.append("select ");
-			
-			boolean first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(first) first = false; else sql.append(",");
-				sql.append(c.getName());
-			}
-			
-			sql.append(" from ").append(t.getName());
-
-			sql.append(" where ");
-
-			first = true;
-			for(Column<?> c : t.getColumns()) {
-				if(!c.id()) continue;
-				if(first) first = false; else sql.append(" and ");
-				
-				sql.append(c.getName())
-					.append("=")
-					.bind((ps, idx) -> c.bindProperty(ps, idx, id));
-			}
-			
 			ResultSetReader rdr = new ResultSetReader();
-			sql.execute((rs) -> {
+			new Sql(conn, m.selectById, m.bindIds(id)).execute((rs) -> {
 				rdr.rs = rs;
 				rdr.idx = 0;
-				T o = t.map(rdr);
+				T o = m.table.map(rdr);
 				out[0] = o;
 			});
+			if(cacheKey != null && out[0] != null) {
+				cache.put(cacheKey, m.values(out[0]), cacheVersion);
+			}
 		});
 		
 		return (T)out[0];
@@ -0,0 +1,114 @@
+package org.jsc.db;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size & time bounded LRU of entity column values by id, for types annotated with {@link Cached}
+ * @author kzantow
+ */
+public final class EntityCache {
+	private final int size;
+	private final long ttlMillis;
+	private final LinkedHashMap<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final AtomicLong version = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	private static final class Entry {
+		final Object[] values;
+		final long expires;
+
+		Entry(Object[] values, long expires) {
+			this.values = values;
+			this.expires = expires;
+		}
+	}
+
+	EntityCache(int size, long ttlMillis) {
+		this.size = size;
+		this.ttlMillis = ttlMillis;
+	}
+
+	/**
+	 * Get the cached values, or null
+	 */
+	synchronized Object[] get(Object key) {
+		Entry e = entries.get(key);
+		if(e != null && e.expires < System.currentTimeMillis()) {
+			entries.remove(key);
+			evictions.incrementAndGet();
+			e = null;
+		}
+		if(e == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return e.values;
+	}
+
+	/**
+	 * Current version, take this before reading values from the database to {@link #put(Object, Object[], long)}
+	 */
+	long version() {
+		return version.get();
+	}
+
+	/**
+	 * Caches the values, unless anything was invalidated since the version was taken: the values may be stale
+	 */
+	synchronized void put(Object key, Object[] values, long version) {
+		if(version != this.version.get()) {
+			return;
+		}
+		entries.put(key, new Entry(values, System.currentTimeMillis() + ttlMillis));
+		for(Iterator<Entry> i = entries.values().iterator(); entries.size() > size && i.hasNext();) {
+			i.next();
+			i.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Removes the entity
+	 */
+	synchronized void invalidate(Object key) {
+		version.incrementAndGet();
+		entries.remove(key);
+	}
+
+	/**
+	 * Removes all entities
+	 */
+	public synchronized void clear() {
+		version.incrementAndGet();
+		entries.clear();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * Entities removed for size or age
+	 */
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "EntityCache[size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+	}
+}
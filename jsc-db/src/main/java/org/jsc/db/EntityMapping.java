@@ -0,0 +1,185 @@
+package org.jsc.db;
+
+import java.lang.reflect.Field;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table metadata for a class with its CRUD statements built once, cached by {@link Db}
+ * @author kzantow
+ */
+final class EntityMapping<T> {
+	final Class<T> type;
+	final Table<T> table;
+	final Column<?>[] columns;
+	final Column<?>[] ids;
+	final Column<?>[] values;
+	final Column<?>[] updateColumns; // values, then ids for the where clause
+
+	final String select;
+	final String selectById;
+	final String insert;
+	final String update;
+	final String delete;
+	final String upsert; // null if the dialect has none
+	final EntityCache cache; // null unless the class is @Cached
+	final Map<String, Relation> relations = new ConcurrentHashMap<>(); // @FK fields by name, resolved when first fetched
+
+	/**
+	 * An {@link FK} field: its column, the referenced type & column, and where to set the referenced object
+	 */
+	static final class Relation {
+		final Column<?> column;
+		final EntityMapping<?> target;
+		final Column<?> key;
+		final Field property; // null if there is nowhere to set it
+
+		Relation(Column<?> column, EntityMapping<?> target, Column<?> key, Field property) {
+			this.column = column;
+			this.target = target;
+			this.key = key;
+			this.property = property;
+		}
+	}
+
+	EntityMapping(Class<T> type, Table<T> table, Db.Dialect dialect) {
+		this.type = type;
+		this.table = table;
+		List<Column<?>> ids = new ArrayList<>();
+		List<Column<?>> values = new ArrayList<>();
+		for(Column<?> c : table.getColumns()) {
+			(c.id() ? ids : values).add(c);
+		}
+		this.columns = table.getColumns().toArray(new Column<?>[0]);
+		this.ids = ids.toArray(new Column<?>[ids.size()]);
+		this.values = values.toArray(new Column<?>[values.size()]);
+		List<Column<?>> updateColumns = new ArrayList<>(values);
+		updateColumns.addAll(ids);
+		this.updateColumns = updateColumns.toArray(new Column<?>[updateColumns.size()]);
+
+		String name = table.getName();
+
+		StringBuilder sb = new StringBuilder("select ");
+		join(sb, this.columns, ",", "");
+		sb.append(" from ").append(name);
+		select = sb.toString();
+
+		sb.append(" where ");
+		join(sb, this.ids, " and ", "=?");
+		selectById = sb.toString();
+
+		sb.setLength(0);
+		sb.append("insert into ").append(name).append(" (");
+		join(sb, this.columns, ",", "");
+		sb.append(") values (");
+		for(int i = 0; i < this.columns.length; i++) {
+			sb.append(i == 0 ? "?" : ",?");
+		}
+		sb.append(")");
+		insert = sb.toString();
+
+		sb.setLength(0);
+		sb.append("update ").append(name).append(" set ");
+		join(sb, this.values, ",", "=?");
+		sb.append(" where ");
+		join(sb, this.ids, " and ", "=?");
+		update = sb.toString();
+
+		sb.setLength(0);
+		sb.append("delete from ").append(name).append(" where ");
+		join(sb, this.ids, " and ", "=?");
+		delete = sb.toString();
+
+		upsert = this.ids.length > 0 ? dialect.upsert(table) : null;
+
+		Cached cached = type.getAnnotation(Cached.class);
+		cache = cached != null && this.ids.length > 0
+			? new EntityCache(cached.size(), TimeUnit.SECONDS.toMillis(cached.ttlSeconds()))
+			: null;
+	}
+
+	private static void join(StringBuilder sb, Column<?>[] columns, String separator, String suffix) {
+		for(int i = 0; i < columns.length; i++) {
+			if(i > 0) {
+				sb.append(separator);
+			}
+			sb.append(columns[i].getName()).append(suffix);
+		}
+	}
+
+	/**
+	 * Binds the properties of the object for the given columns, in order
+	 */
+	static int bind(PreparedStatement ps, int idx, Column<?>[] columns, Object o) throws Exception {
+		int start = idx;
+		for(Column<?> c : columns) {
+			idx += c.bindProperty(ps, idx, o);
+		}
+		return idx - start;
+	}
+
+	Binding<?> bindAll(Object o) {
+		return (ps, idx) -> bind(ps, idx, columns, o);
+	}
+
+	Binding<?> bindUpdate(Object o) {
+		return (ps, idx) -> bind(ps, idx, updateColumns, o);
+	}
+
+	Binding<?> bindIds(Object o) {
+		return (ps, idx) -> bind(ps, idx, ids, o);
+	}
+
+	/**
+	 * Get the column by name, or null
+	 */
+	Column<?> column(String name) {
+		for(Column<?> c : columns) {
+			if(c.getName().equals(name)) {
+				return c;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cache key from the id properties of the object
+	 */
+	Object key(Object o) throws Exception {
+		if(ids.length == 1) {
+			return ids[0].getProperty(o);
+		}
+		Object[] key = new Object[ids.length];
+		for(int i = 0; i < ids.length; i++) {
+			key[i] = ids[i].getProperty(o);
+		}
+		return Arrays.asList(key);
+	}
+
+	/**
+	 * Snapshot of the column values of the object
+	 */
+	Object[] values(Object o) throws Exception {
+		Object[] values = new Object[columns.length];
+		for(int i = 0; i < columns.length; i++) {
+			values[i] = columns[i].getProperty(o);
+		}
+		return values;
+	}
+
+	/**
+	 * New object with the column values from {@link #values(Object)}
+	 */
+	T create(Object[] values) throws Exception {
+		T o = type.newInstance();
+		for(int i = 0; i < columns.length; i++) {
+			columns[i].setProperty(o, values[i]);
+		}
+		return o;
+	}
+}
@@ -4,11 +4,18 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 
 /**
- * Indicate a foreign key reference
+ * Indicate a foreign key reference; {@link Db#fetch(java.util.List, String)} loads the
+ * referenced rows for a list of objects
  * @author kzantow
  */
 @Retention(RetentionPolicy.RUNTIME)
 public @interface FK {
 	Class<?> type();
 	String field();
+	
+	/**
+	 * Field to set the referenced object on when fetched, by default the name of
+	 * this field without an <code>Id</code> suffix, e.g. customerId: customer
+	 */
+	String property() default "";
 }
@@ -0,0 +1,29 @@
+package org.jsc.db;
+
+/**
+ * H2: upsert with merge into ... key(...)
+ * @author kzantow
+ */
+public class H2Dialect implements Db.Dialect {
+	@Override
+	public String upsert(Table<?> t) {
+		StringBuilder sql = new StringBuilder("merge into ").append(t.getName()).append(" (");
+		StringBuilder keys = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		for(Column<?> c : t.getColumns()) {
+			if(values.length() > 0) {
+				sql.append(",");
+				values.append(",");
+			}
+			sql.append(c.getName());
+			values.append("?");
+			if(c.id()) {
+				if(keys.length() > 0) {
+					keys.append(",");
+				}
+				keys.append(c.getName());
+			}
+		}
+		return sql.append(") key(").append(keys).append(") values (").append(values).append(")").toString();
+	}
+}
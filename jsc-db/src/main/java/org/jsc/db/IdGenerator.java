@@ -1,17 +1,198 @@
 package org.jsc.db;
 
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jsc.Util;
 
 /**
- * Generates unique ids
+ * Generates unique ids which sort by the time they were created, so new rows are appended to
+ * primary key indexes instead of being scattered through them:
+ * <ul>
+ * <li>128-bit UUIDv7 ids: 48 bits of milliseconds, a 12 bit per-thread counter & 62 random bits,
+ * from {@link ThreadLocalRandom} so threads don't share a generator; as strings either the
+ * standard 36 chars or 26 chars of Crockford base32 (like ULID), both time-ordered</li>
+ * <li>64-bit ids: 41 bits of milliseconds since 2020, a 10 bit node from the <code>idNode</code>
+ * setting & a 12 bit sequence; unique across processes with distinct nodes</li>
+ * </ul>
  * @author kzantow
  */
 public class IdGenerator {
+	private static final long EPOCH = 1577836800000L; // 2020-01-01T00:00:00Z
+	private static final int NODE_BITS = 10;
+	private static final int SEQUENCE_BITS = 12;
+	private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+	private static final long MILLIS_UNIT = 1L << (NODE_BITS + SEQUENCE_BITS);
+
+	private static final long node = Util.env("idNode", 0) & ((1L << NODE_BITS) - 1);
+	private static final AtomicLong lastLong = new AtomicLong();
+
+	private static final char[] base32 = "0123456789ABCDEFGHJKMNPQRSTVWXYZ".toCharArray();
+	private static final byte[] base32Values = new byte[128];
+	static {
+		Arrays.fill(base32Values, (byte)-1);
+		for(int i = 0; i < base32.length; i++) {
+			base32Values[base32[i]] = (byte)i;
+			base32Values[Character.toLowerCase(base32[i])] = (byte)i;
+		}
+	}
+
+	/**
+	 * Per thread: the last millisecond & counter used for UUIDs
+	 */
+	private static final ThreadLocal<long[]> uuidState = ThreadLocal.withInitial(() -> new long[2]);
+
 	/**
-	 * Creates a unique id; currently this is using UUID
+	 * Creates a unique id, a time-ordered UUID in the standard 36 character form
 	 * @return
 	 */
 	public static String newId() {
-		return UUID.randomUUID().toString();
+		return newUuid().toString();
+	}
+
+	/**
+	 * Creates a unique id, a time-ordered UUID as 26 characters of Crockford base32
+	 * @return
+	 */
+	public static String newCompactId() {
+		return encode(newUuid());
+	}
+
+	/**
+	 * Creates a time-ordered version 7 UUID; ids from one thread are strictly increasing
+	 * @return
+	 */
+	public static UUID newUuid() {
+		long[] state = uuidState.get();
+		long millis = System.currentTimeMillis();
+		long counter;
+		if(millis > state[0]) {
+			counter = ThreadLocalRandom.current().nextLong(1L << (SEQUENCE_BITS - 1)); // leave room to count up
+		}
+		else {
+			millis = state[0];
+			counter = state[1] + 1;
+			if(counter > SEQUENCE_MASK) {
+				millis++; // borrow from the next millisecond
+				counter = 0;
+			}
+		}
+		state[0] = millis;
+		state[1] = counter;
+		long msb = (millis << 16) | 0x7000L | counter;
+		long lsb = (ThreadLocalRandom.current().nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+		return new UUID(msb, lsb);
+	}
+
+	/**
+	 * Creates a unique, increasing 64-bit id; this uses a compare & set on the last id,
+	 * no locks
+	 * @return
+	 */
+	public static long newLongId() {
+		long now = ((System.currentTimeMillis() - EPOCH) * MILLIS_UNIT) | (node << SEQUENCE_BITS);
+		while(true) {
+			long last = lastLong.get();
+			long next;
+			if(now > last) {
+				next = now;
+			}
+			else if((last & SEQUENCE_MASK) == SEQUENCE_MASK) {
+				next = (last & ~SEQUENCE_MASK) + MILLIS_UNIT; // sequence used up, borrow from the next millisecond
+			}
+			else {
+				next = last + 1;
+			}
+			if(lastLong.compareAndSet(last, next)) {
+				return next;
+			}
+		}
+	}
+
+	/**
+	 * Milliseconds since the epoch when the id was created
+	 * @param id from {@link #newUuid()}
+	 * @return
+	 */
+	public static long timestamp(UUID id) {
+		return id.getMostSignificantBits() >>> 16;
+	}
+
+	/**
+	 * Milliseconds since the epoch when the id was created
+	 * @param id from {@link #newLongId()}
+	 * @return
+	 */
+	public static long timestamp(long id) {
+		return (id >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH;
+	}
+
+	/**
+	 * 26 characters of Crockford base32, which sort in the same order as the UUIDs
+	 * @param id
+	 * @return
+	 */
+	public static String encode(UUID id) {
+		long hi = id.getMostSignificantBits();
+		long lo = id.getLeastSignificantBits();
+		char[] out = new char[26];
+		// 128 bits as 26 5-bit digits: the first digit has the top 3 bits
+		for(int i = 25; i >= 0; i--) {
+			out[i] = base32[(int)lo & 31];
+			lo = (lo >>> 5) | (hi << 59);
+			hi >>>= 5;
+		}
+		return new String(out);
+	}
+
+	/**
+	 * Reads an id from {@link #encode(UUID)}
+	 * @param id
+	 * @return
+	 */
+	public static UUID decode(String id) {
+		if(id.length() != 26) {
+			throw new IllegalArgumentException("Invalid id: " + id);
+		}
+		long hi = 0;
+		long lo = 0;
+		for(int i = 0; i < 26; i++) {
+			char c = id.charAt(i);
+			int v = c < 128 ? base32Values[c] : -1;
+			if(v < 0 || (i == 0 && v > 7)) {
+				throw new IllegalArgumentException("Invalid id: " + id);
+			}
+			hi = (hi << 5) | (lo >>> 59);
+			lo = (lo << 5) | v;
+		}
+		return new UUID(hi, lo);
+	}
+
+	/**
+	 * 16 bytes, most significant first, e.g. for binary columns
+	 * @param id
+	 * @return
+	 */
+	public static byte[] toBytes(UUID id) {
+		return ByteBuffer.allocate(16)
+			.putLong(id.getMostSignificantBits())
+			.putLong(id.getLeastSignificantBits())
+			.array();
+	}
+
+	/**
+	 * Reads an id from {@link #toBytes(UUID)}
+	 * @param bytes
+	 * @return
+	 */
+	public static UUID fromBytes(byte[] bytes) {
+		if(bytes.length != 16) {
+			throw new IllegalArgumentException("Invalid id length: " + bytes.length);
+		}
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		return new UUID(buf.getLong(), buf.getLong());
 	}
 }
@@ -0,0 +1,39 @@
+package org.jsc.db;
+
+/**
+ * PostgreSQL: upsert with insert ... on conflict
+ * @author kzantow
+ */
+public class PostgresDialect implements Db.Dialect {
+	@Override
+	public String upsert(Table<?> t) {
+		StringBuilder sql = new StringBuilder("insert into ").append(t.getName()).append(" (");
+		StringBuilder keys = new StringBuilder();
+		StringBuilder values = new StringBuilder();
+		StringBuilder updates = new StringBuilder();
+		for(Column<?> c : t.getColumns()) {
+			if(values.length() > 0) {
+				sql.append(",");
+				values.append(",");
+			}
+			sql.append(c.getName());
+			values.append("?");
+			StringBuilder sb = c.id() ? keys : updates;
+			if(sb.length() > 0) {
+				sb.append(",");
+			}
+			sb.append(c.getName());
+			if(!c.id()) {
+				sb.append("=excluded.").append(c.getName());
+			}
+		}
+		sql.append(") values (").append(values).append(") on conflict (").append(keys).append(")");
+		if(updates.length() > 0) {
+			sql.append(" do update set ").append(updates);
+		}
+		else {
+			sql.append(" do nothing");
+		}
+		return sql.toString();
+	}
+}
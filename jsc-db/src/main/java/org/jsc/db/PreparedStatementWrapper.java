@@ -0,0 +1,600 @@
+package org.jsc.db;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.PreparedStatement;
+import java.sql.SQLType;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+
+/**
+ * Delegates to a prepared statement, override to change behavior, e.g. on close
+ * @author kzantow
+ */
+public class PreparedStatementWrapper implements PreparedStatement {
+	private PreparedStatement delegate;
+	
+	public PreparedStatementWrapper(PreparedStatement ps) {
+		this.delegate = ps;
+	}
+	
+	protected PreparedStatement getStatement() throws SQLException {
+		if(delegate == null) {
+			throw new SQLException("Statement closed.");
+		}
+		return delegate;
+	}
+	
+	protected void setStatement(PreparedStatement ps) {
+		this.delegate = ps;
+	}
+
+	@Override
+	public ResultSet executeQuery() throws SQLException {
+		return getStatement().executeQuery();
+	}
+
+	@Override
+	public int executeUpdate() throws SQLException {
+		return getStatement().executeUpdate();
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+		getStatement().setNull(parameterIndex, sqlType, typeName);
+	}
+
+	@Override
+	public void setNull(int parameterIndex, int sqlType) throws SQLException {
+		getStatement().setNull(parameterIndex, sqlType);
+	}
+
+	@Override
+	public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+		getStatement().setBigDecimal(parameterIndex, x);
+	}
+
+	@Override
+	public void setString(int parameterIndex, String x) throws SQLException {
+		getStatement().setString(parameterIndex, x);
+	}
+
+	@Override
+	public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+		getStatement().setBytes(parameterIndex, x);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+		getStatement().setDate(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setDate(int parameterIndex, Date x) throws SQLException {
+		getStatement().setDate(parameterIndex, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x) throws SQLException {
+		getStatement().setTime(parameterIndex, x);
+	}
+
+	@Override
+	public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+		getStatement().setTime(parameterIndex, x, cal);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		getStatement().setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		getStatement().setAsciiStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+		getStatement().setAsciiStream(parameterIndex, x);
+	}
+
+	@Override
+	@Deprecated
+	@SuppressWarnings("deprecation")
+	public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		getStatement().setUnicodeStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+		getStatement().setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+		getStatement().setBinaryStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+		getStatement().setBinaryStream(parameterIndex, x);
+	}
+
+	@Override
+	public void clearParameters() throws SQLException {
+		getStatement().clearParameters();
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, int length) throws SQLException {
+		getStatement().setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+		getStatement().setCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		getStatement().setCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setRef(int parameterIndex, Ref x) throws SQLException {
+		getStatement().setRef(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, Blob x) throws SQLException {
+		getStatement().setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x) throws SQLException {
+		getStatement().setBlob(parameterIndex, x);
+	}
+
+	@Override
+	public void setBlob(int parameterIndex, InputStream x, long length) throws SQLException {
+		getStatement().setBlob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Clob x) throws SQLException {
+		getStatement().setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x) throws SQLException {
+		getStatement().setClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setClob(int parameterIndex, Reader x, long length) throws SQLException {
+		getStatement().setClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setArray(int parameterIndex, Array x) throws SQLException {
+		getStatement().setArray(parameterIndex, x);
+	}
+
+	@Override
+	public ResultSetMetaData getMetaData() throws SQLException {
+		return getStatement().getMetaData();
+	}
+
+	@Override
+	public ParameterMetaData getParameterMetaData() throws SQLException {
+		return getStatement().getParameterMetaData();
+	}
+
+	@Override
+	public void setRowId(int parameterIndex, RowId x) throws SQLException {
+		getStatement().setRowId(parameterIndex, x);
+	}
+
+	@Override
+	public void setNString(int parameterIndex, String x) throws SQLException {
+		getStatement().setNString(parameterIndex, x);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x, long length) throws SQLException {
+		getStatement().setNCharacterStream(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNCharacterStream(int parameterIndex, Reader x) throws SQLException {
+		getStatement().setNCharacterStream(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, NClob x) throws SQLException {
+		getStatement().setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x, long length) throws SQLException {
+		getStatement().setNClob(parameterIndex, x, length);
+	}
+
+	@Override
+	public void setNClob(int parameterIndex, Reader x) throws SQLException {
+		getStatement().setNClob(parameterIndex, x);
+	}
+
+	@Override
+	public void setSQLXML(int parameterIndex, SQLXML x) throws SQLException {
+		getStatement().setSQLXML(parameterIndex, x);
+	}
+
+	@Override
+	public long executeLargeUpdate() throws SQLException {
+		return getStatement().executeLargeUpdate();
+	}
+
+	@Override
+	public void setURL(int parameterIndex, URL x) throws SQLException {
+		getStatement().setURL(parameterIndex, x);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength) throws SQLException {
+		getStatement().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, SQLType targetSqlType) throws SQLException {
+		getStatement().setObject(parameterIndex, x, targetSqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, SQLType targetSqlType, int scaleOrLength) throws SQLException {
+		getStatement().setObject(parameterIndex, x, targetSqlType, scaleOrLength);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+		getStatement().setObject(parameterIndex, x, targetSqlType);
+	}
+
+	@Override
+	public void setObject(int parameterIndex, Object x) throws SQLException {
+		getStatement().setObject(parameterIndex, x);
+	}
+
+	@Override
+	public void addBatch() throws SQLException {
+		getStatement().addBatch();
+	}
+
+	@Override
+	public boolean execute() throws SQLException {
+		return getStatement().execute();
+	}
+
+	@Override
+	public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+		getStatement().setBoolean(parameterIndex, x);
+	}
+
+	@Override
+	public void setByte(int parameterIndex, byte x) throws SQLException {
+		getStatement().setByte(parameterIndex, x);
+	}
+
+	@Override
+	public void setShort(int parameterIndex, short x) throws SQLException {
+		getStatement().setShort(parameterIndex, x);
+	}
+
+	@Override
+	public void setInt(int parameterIndex, int x) throws SQLException {
+		getStatement().setInt(parameterIndex, x);
+	}
+
+	@Override
+	public void setLong(int parameterIndex, long x) throws SQLException {
+		getStatement().setLong(parameterIndex, x);
+	}
+
+	@Override
+	public void setFloat(int parameterIndex, float x) throws SQLException {
+		getStatement().setFloat(parameterIndex, x);
+	}
+
+	@Override
+	public void setDouble(int parameterIndex, double x) throws SQLException {
+		getStatement().setDouble(parameterIndex, x);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+		getStatement().setTimestamp(parameterIndex, x);
+	}
+
+	@Override
+	public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+		getStatement().setTimestamp(parameterIndex, x, cal);
+	}
+
+	@Override
+	public ResultSet executeQuery(String sql) throws SQLException {
+		return getStatement().executeQuery(sql);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return getStatement().executeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return getStatement().executeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+		return getStatement().executeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public int executeUpdate(String sql) throws SQLException {
+		return getStatement().executeUpdate(sql);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, String[] columnNames) throws SQLException {
+		return getStatement().executeLargeUpdate(sql, columnNames);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql) throws SQLException {
+		return getStatement().executeLargeUpdate(sql);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+		return getStatement().executeLargeUpdate(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public long executeLargeUpdate(String sql, int[] columnIndexes) throws SQLException {
+		return getStatement().executeLargeUpdate(sql, columnIndexes);
+	}
+
+	@Override
+	public int getMaxFieldSize() throws SQLException {
+		return getStatement().getMaxFieldSize();
+	}
+
+	@Override
+	public int getMaxRows() throws SQLException {
+		return getStatement().getMaxRows();
+	}
+
+	@Override
+	public void setEscapeProcessing(boolean enable) throws SQLException {
+		getStatement().setEscapeProcessing(enable);
+	}
+
+	@Override
+	public int getQueryTimeout() throws SQLException {
+		return getStatement().getQueryTimeout();
+	}
+
+	@Override
+	public void cancel() throws SQLException {
+		getStatement().cancel();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return getStatement().getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		getStatement().clearWarnings();
+	}
+
+	@Override
+	public void setCursorName(String name) throws SQLException {
+		getStatement().setCursorName(name);
+	}
+
+	@Override
+	public ResultSet getResultSet() throws SQLException {
+		return getStatement().getResultSet();
+	}
+
+	@Override
+	public int getUpdateCount() throws SQLException {
+		return getStatement().getUpdateCount();
+	}
+
+	@Override
+	public int getFetchDirection() throws SQLException {
+		return getStatement().getFetchDirection();
+	}
+
+	@Override
+	public int getFetchSize() throws SQLException {
+		return getStatement().getFetchSize();
+	}
+
+	@Override
+	public int getResultSetConcurrency() throws SQLException {
+		return getStatement().getResultSetConcurrency();
+	}
+
+	@Override
+	public int getResultSetType() throws SQLException {
+		return getStatement().getResultSetType();
+	}
+
+	@Override
+	public void clearBatch() throws SQLException {
+		getStatement().clearBatch();
+	}
+
+	@Override
+	public int[] executeBatch() throws SQLException {
+		return getStatement().executeBatch();
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return getStatement().getConnection();
+	}
+
+	@Override
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return getStatement().getGeneratedKeys();
+	}
+
+	@Override
+	public int getResultSetHoldability() throws SQLException {
+		return getStatement().getResultSetHoldability();
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return getStatement().isClosed();
+	}
+
+	@Override
+	public void setPoolable(boolean poolable) throws SQLException {
+		getStatement().setPoolable(poolable);
+	}
+
+	@Override
+	public boolean isPoolable() throws SQLException {
+		return getStatement().isPoolable();
+	}
+
+	@Override
+	public void closeOnCompletion() throws SQLException {
+		getStatement().closeOnCompletion();
+	}
+
+	@Override
+	public boolean isCloseOnCompletion() throws SQLException {
+		return getStatement().isCloseOnCompletion();
+	}
+
+	@Override
+	public long getLargeUpdateCount() throws SQLException {
+		return getStatement().getLargeUpdateCount();
+	}
+
+	@Override
+	public void setLargeMaxRows(long maxRows) throws SQLException {
+		getStatement().setLargeMaxRows(maxRows);
+	}
+
+	@Override
+	public long getLargeMaxRows() throws SQLException {
+		return getStatement().getLargeMaxRows();
+	}
+
+	@Override
+	public long[] executeLargeBatch() throws SQLException {
+		return getStatement().executeLargeBatch();
+	}
+
+	@Override
+	public void setMaxRows(int maxRows) throws SQLException {
+		getStatement().setMaxRows(maxRows);
+	}
+
+	@Override
+	public void setFetchSize(int fetchSize) throws SQLException {
+		getStatement().setFetchSize(fetchSize);
+	}
+
+	@Override
+	public void setFetchDirection(int fetchDirection) throws SQLException {
+		getStatement().setFetchDirection(fetchDirection);
+	}
+
+	@Override
+	public void setQueryTimeout(int queryTimeout) throws SQLException {
+		getStatement().setQueryTimeout(queryTimeout);
+	}
+
+	@Override
+	public void setMaxFieldSize(int maxFieldSize) throws SQLException {
+		getStatement().setMaxFieldSize(maxFieldSize);
+	}
+
+	@Override
+	public boolean getMoreResults() throws SQLException {
+		return getStatement().getMoreResults();
+	}
+
+	@Override
+	public boolean getMoreResults(int current) throws SQLException {
+		return getStatement().getMoreResults(current);
+	}
+
+	@Override
+	public void addBatch(String sql) throws SQLException {
+		getStatement().addBatch(sql);
+	}
+
+	@Override
+	public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+		return getStatement().execute(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public boolean execute(String sql) throws SQLException {
+		return getStatement().execute(sql);
+	}
+
+	@Override
+	public boolean execute(String sql, String[] columnNames) throws SQLException {
+		return getStatement().execute(sql, columnNames);
+	}
+
+	@Override
+	public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+		return getStatement().execute(sql, columnIndexes);
+	}
+
+	@Override
+	public void close() throws SQLException {
+		getStatement().close();
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return getStatement().isWrapperFor(iface);
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		return getStatement().unwrap(iface);
+	}
+}
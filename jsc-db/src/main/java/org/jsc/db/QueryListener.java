@@ -0,0 +1,21 @@
+package org.jsc.db;
+
+import org.jsc.Fn;
+
+/**
+ * Notified after each statement executed through {@link Sql} or {@link Db}, see {@link Sql#addListener(QueryListener)}
+ * @author kzantow
+ */
+@FunctionalInterface
+public interface QueryListener {
+	/**
+	 * A statement was executed
+	 * @param sql the statement
+	 * @param params the bound parameter values, only computed when called
+	 * @param waitNanos time waiting for a connection, 0 when using the current connection
+	 * @param nanos time to execute, and to read the results for queries
+	 * @param rows rows read or affected
+	 * @param error the failure, or null
+	 */
+	void executed(String sql, Fn<Object[]> params, long waitNanos, long nanos, long rows, Throwable error);
+}
@@ -0,0 +1,257 @@
+package org.jsc.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+
+import org.jsc.Fn;
+import org.jsc.Log;
+import org.jsc.Util;
+
+/**
+ * Statement latency, row & connection wait statistics keyed by normalized sql, with literals replaced
+ * by ? so statements differing only in values are counted together; statements slower than the
+ * dbSlowQueryMillis setting are logged with their parameters. Registered with {@link Sql} by default,
+ * see {@link Sql#getStats()}
+ * @author kzantow
+ */
+public class QueryStats implements QueryListener {
+	private static final Log log = new Log(QueryStats.class);
+	
+	/**
+	 * Upper bounds of the latency histogram buckets, in milliseconds; the last bucket is everything slower
+	 */
+	public static final long[] latencyBuckets = { 1, 5, 10, 50, 100, 500, 1000 };
+	
+	private static final String OTHER = "(other)";
+	private static final Pattern strings = Pattern.compile("'(?:[^']|'')*'");
+	private static final Pattern numbers = Pattern.compile("(?<![\\w.])-?\\d+(?:\\.\\d+)?(?![\\w.])");
+	private static final Pattern inLists = Pattern.compile("\\(\\s*\\?(?:\\s*,\\s*\\?)+\\s*\\)");
+	private static final Pattern spaces = Pattern.compile("\\s+");
+	
+	private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+	private final Map<String, String> normalized = new ConcurrentHashMap<>();
+	private int maxStatements = Util.env("dbQueryStatsMax", 1000);
+	private long slowNanos = TimeUnit.MILLISECONDS.toNanos(Util.env("dbSlowQueryMillis", 1000));
+	
+	/**
+	 * Statistics for one normalized statement
+	 */
+	public static final class Stats {
+		private final String sql;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+		private final AtomicLong totalNanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLong waitNanos = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(latencyBuckets.length + 1);
+		
+		Stats(String sql) {
+			this.sql = sql;
+		}
+		
+		void record(long waitNanos, long nanos, long rows, Throwable error) {
+			count.incrementAndGet();
+			if(error != null) {
+				errors.incrementAndGet();
+			}
+			this.rows.addAndGet(rows);
+			this.waitNanos.addAndGet(waitNanos);
+			totalNanos.addAndGet(nanos);
+			long max;
+			while(nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+				// retry
+			}
+			long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int bucket = 0;
+			while(bucket < latencyBuckets.length && millis >= latencyBuckets[bucket]) {
+				bucket++;
+			}
+			histogram.incrementAndGet(bucket);
+		}
+		
+		public String getSql() {
+			return sql;
+		}
+		
+		public long getCount() {
+			return count.get();
+		}
+		
+		public long getErrors() {
+			return errors.get();
+		}
+		
+		/**
+		 * Total rows read or affected
+		 */
+		public long getRows() {
+			return rows.get();
+		}
+		
+		public long getTotalNanos() {
+			return totalNanos.get();
+		}
+		
+		public long getMeanNanos() {
+			long n = count.get();
+			return n == 0 ? 0 : totalNanos.get() / n;
+		}
+		
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+		
+		/**
+		 * Total time waiting for connections
+		 */
+		public long getWaitNanos() {
+			return waitNanos.get();
+		}
+		
+		/**
+		 * Executions by latency, see {@link QueryStats#latencyBuckets}
+		 */
+		public long[] getHistogram() {
+			long[] out = new long[histogram.length()];
+			for(int i = 0; i < out.length; i++) {
+				out[i] = histogram.get(i);
+			}
+			return out;
+		}
+		
+		@Override
+		public String toString() {
+			return "count=" + getCount() + ", errors=" + getErrors() + ", rows=" + getRows()
+				+ ", mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) + "us"
+				+ ", max=" + TimeUnit.NANOSECONDS.toMicros(getMaxNanos()) + "us"
+				+ ", wait=" + TimeUnit.NANOSECONDS.toMicros(getWaitNanos()) + "us"
+				+ ", histogram=" + Arrays.toString(getHistogram()) + ": " + sql;
+		}
+	}
+	
+	@Override
+	public void executed(String sql, Fn<Object[]> params, long waitNanos, long nanos, long rows, Throwable error) {
+		stats(sql).record(waitNanos, nanos, rows, error);
+		if(slowNanos >= 0 && nanos >= slowNanos) {
+			Object[] values;
+			try {
+				values = params.exec();
+			} catch(Throwable t) {
+				values = new Object[] { t };
+			}
+			log.warn("Slow query took ", TimeUnit.NANOSECONDS.toMillis(nanos), "ms, ", rows, " rows: ", sql, " ", Arrays.toString(values));
+		}
+		else if(error == null) {
+			log.debug(sql);
+		}
+	}
+	
+	private Stats stats(String sql) {
+		String key = normalized.get(sql);
+		if(key == null) {
+			key = normalize(sql);
+			if(normalized.size() < maxStatements * 4) {
+				normalized.put(sql, key);
+			}
+		}
+		Stats s = stats.get(key);
+		if(s == null) {
+			if(stats.size() >= maxStatements) {
+				key = OTHER;
+			}
+			s = stats.computeIfAbsent(key, Stats::new);
+		}
+		return s;
+	}
+	
+	/**
+	 * Replaces literals with ? & lists of parameters with a single one, and collapses whitespace
+	 * @param sql
+	 * @return
+	 */
+	public static String normalize(String sql) {
+		String s = strings.matcher(sql).replaceAll("?");
+		s = numbers.matcher(s).replaceAll("?");
+		s = inLists.matcher(s).replaceAll("(?)");
+		return spaces.matcher(s).replaceAll(" ").trim();
+	}
+	
+	/**
+	 * Statistics for all statements
+	 * @return
+	 */
+	public List<Stats> getStats() {
+		return new ArrayList<>(stats.values());
+	}
+	
+	/**
+	 * The top n statements in the given order
+	 * @param n
+	 * @param order
+	 * @return
+	 */
+	public List<Stats> top(int n, Comparator<Stats> order) {
+		List<Stats> out = getStats();
+		out.sort(order);
+		return out.size() > n ? new ArrayList<>(out.subList(0, n)) : out;
+	}
+	
+	/**
+	 * The n statements with the longest mean time
+	 */
+	public List<Stats> slowest(int n) {
+		return top(n, Comparator.comparingLong(Stats::getMeanNanos).reversed());
+	}
+	
+	/**
+	 * The n statements executed most often
+	 */
+	public List<Stats> mostFrequent(int n) {
+		return top(n, Comparator.comparingLong(Stats::getCount).reversed());
+	}
+	
+	/**
+	 * The n statements with the most total time
+	 */
+	public List<Stats> mostTime(int n) {
+		return top(n, Comparator.comparingLong(Stats::getTotalNanos).reversed());
+	}
+	
+	public void reset() {
+		stats.clear();
+		normalized.clear();
+	}
+	
+	/**
+	 * Statements taking at least this long are logged, -1 to disable
+	 * @return
+	 */
+	public long getSlowQueryMillis() {
+		return slowNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(slowNanos);
+	}
+	
+	public void setSlowQueryMillis(long slowQueryMillis) {
+		this.slowNanos = slowQueryMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(slowQueryMillis);
+	}
+	
+	/**
+	 * Distinct statements to keep statistics for, others are counted as "(other)"
+	 * @return
+	 */
+	public int getMaxStatements() {
+		return maxStatements;
+	}
+	
+	public void setMaxStatements(int maxStatements) {
+		this.maxStatements = maxStatements;
+	}
+}
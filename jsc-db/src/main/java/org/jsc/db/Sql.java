@@ -1,16 +1,28 @@
 package org.jsc.db;
 
+import java.lang.reflect.Array;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.sql.DataSource;
 
+import org.jsc.Fn;
+import org.jsc.Log;
 import org.jsc.Proc1;
 import org.jsc.Util;
 
@@ -19,20 +31,84 @@ import org.jsc.Util;
  * @author kzantow
  */
 public class Sql {
+	private static final Log log = new Log(Sql.class);
+	private static final QueryStats stats = new QueryStats();
+	private static final List<QueryListener> listeners = new CopyOnWriteArrayList<>(Arrays.asList(stats));
+	static final Fn<Object[]> noParameters = () -> new Object[0];
+	
 	Proc1<Proc1<Connection>> exec;
+	Fn<Connection> connect; // for results read after execute returns; the connection is closed when done
 	StringBuilder sql = new StringBuilder();
+	String prebuilt; // used as-is until appended to
 	List<Binding<?>> bindings = new ArrayList<>();
+	int fetchSize = defaultFetchSize;
+	
+	static final int defaultFetchSize = Util.env("dbFetchSize", 500);
 	
 	public Sql(Db db) {
 		this.exec = db::accept;
+		this.connect = db::openConnection;
 	}
 	
 	public Sql(Connection conn) {
 		this.exec = (fn) -> { fn.exec(conn); };
+		this.connect = () -> Db.unclosable(conn);
 	}
 	
 	public Sql(DataSource ds) {
 		this.exec = (fn) -> { fn.exec(ds.getConnection()); };
+		this.connect = ds::getConnection;
+	}
+	
+	/**
+	 * Statement with pre-built sql & bindings, e.g. from cached table metadata
+	 */
+	Sql(Connection conn, String sql, Binding<?> binding) {
+		this(conn);
+		this.prebuilt = sql;
+		this.bindings.add(binding);
+	}
+	
+	/**
+	 * Add a listener notified of every statement executed
+	 * @param listener
+	 */
+	public static void addListener(QueryListener listener) {
+		listeners.add(listener);
+	}
+	
+	public static void removeListener(QueryListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Statistics for all statements executed, registered as a listener by default
+	 * @return
+	 */
+	public static QueryStats getStats() {
+		return stats;
+	}
+	
+	/**
+	 * Notify the listeners a statement was executed
+	 */
+	static void executed(String sql, Fn<Object[]> params, long waitNanos, long nanos, long rows, Throwable error) {
+		for(QueryListener l : listeners) {
+			try {
+				l.executed(sql, params, waitNanos, nanos, rows, error);
+			} catch(Throwable t) {
+				log.warn("Query listener failed: ", t);
+			}
+		}
+	}
+	
+	/**
+	 * Notify the listeners; waitNanos is -1 if no connection was obtained, all the time was spent waiting
+	 */
+	private void executed(String sql, long start, long waitNanos, long rows, Throwable error) {
+		long total = System.nanoTime() - start;
+		long wait = waitNanos < 0 ? total : waitNanos;
+		executed(sql, this::getParameters, wait, total - wait, rows, error);
 	}
 	
 	/**
@@ -40,15 +116,21 @@ public class Sql {
 	 * @param eachRow
 	 */
 	public void execute(Proc1<ResultSet> eachRow) {
+		String sql = getSql();
+		long start = System.nanoTime();
+		long[] result = { -1, 0 }; // connection wait, rows
+		Throwable error = null;
 		try {
 			exec.exec(conn -> {
+				result[0] = System.nanoTime() - start;
 				PreparedStatement ps = null;
 				ResultSet rs = null;
 				try {
-					ps = conn.prepareStatement(getSql());
+					ps = conn.prepareStatement(sql);
 					bindParameters(ps);
 					rs = ps.executeQuery();
 					while(rs.next()) {
+						result[1]++;
 						eachRow.exec(rs);
 					}
 				} finally {
@@ -57,10 +139,147 @@ public class Sql {
 				}
 			});
 		} catch(Throwable e) {
+			error = e;
 			throw Util.asRuntime(e);
+		} finally {
+			executed(sql, start, result[0], result[1], error);
 		}
 	}
 	
+	/**
+	 * Stream the results of a select query, mapping rows as they are read with a forward-only cursor;
+	 * close the stream to release the statement & connection if it is not read to the end. Outside a
+	 * transaction, auto-commit is off while the cursor is open: some drivers, e.g. PostgreSQL, ignore
+	 * the fetch size and read all rows at once otherwise
+	 * @param mapper
+	 * @return
+	 */
+	public <T> Stream<T> stream(Mappable<T> mapper) {
+		String sql = getSql();
+		long start = System.nanoTime();
+		long wait = -1;
+		Connection conn = null;
+		boolean autoCommit = false;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
+			conn = connect.exec();
+			wait = System.nanoTime() - start;
+			if(conn.getAutoCommit()) {
+				conn.setAutoCommit(false);
+				autoCommit = true;
+			}
+			ps = conn.prepareStatement(sql);
+			ps.setFetchSize(fetchSize);
+			bindParameters(ps);
+			rs = ps.executeQuery();
+		} catch(Throwable e) {
+			close(rs, ps, conn, autoCommit);
+			executed(sql, start, wait, 0, e);
+			throw Util.asRuntime(e);
+		}
+		Cursor<T> c = new Cursor<>(this, sql, start, wait, conn, autoCommit, ps, rs, mapper);
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(c, Spliterator.ORDERED), false).onClose(c::close);
+	}
+	
+	/**
+	 * Iterates a result set, mapping each row; closes everything after the last row
+	 */
+	private static final class Cursor<T> implements Iterator<T> {
+		final Sql query;
+		final String sql;
+		final long start;
+		final long wait;
+		final Connection conn;
+		final boolean autoCommit; // to restore when closed
+		final PreparedStatement ps;
+		final ResultSet rs;
+		final Mappable<T> mapper;
+		final ResultSetReader rdr = new ResultSetReader();
+		Boolean hasNext;
+		boolean closed;
+		long rows;
+		Throwable error;
+		
+		Cursor(Sql query, String sql, long start, long wait, Connection conn, boolean autoCommit, PreparedStatement ps, ResultSet rs, Mappable<T> mapper) {
+			this.query = query;
+			this.sql = sql;
+			this.start = start;
+			this.wait = wait;
+			this.conn = conn;
+			this.autoCommit = autoCommit;
+			this.ps = ps;
+			this.rs = rs;
+			this.mapper = mapper;
+			rdr.rs = rs;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			if(hasNext == null) {
+				if(closed) {
+					return false;
+				}
+				try {
+					hasNext = rs.next();
+				} catch(Throwable e) {
+					error = e;
+					close();
+					throw Util.asRuntime(e);
+				}
+				if(!hasNext) {
+					close();
+				}
+			}
+			return hasNext;
+		}
+		
+		@Override
+		public T next() {
+			if(!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			hasNext = null;
+			rows++;
+			rdr.idx = 0;
+			try {
+				return mapper.map(rdr);
+			} catch(Throwable e) {
+				error = e;
+				close();
+				throw Util.asRuntime(e);
+			}
+		}
+		
+		void close() {
+			if(!closed) {
+				closed = true;
+				Sql.close(rs, ps, conn, autoCommit);
+				query.executed(sql, start, wait, rows, error);
+			}
+		}
+	}
+	
+	/**
+	 * Closes the statement & connection, first turning auto-commit back on if it was turned off for them
+	 */
+	private static void close(ResultSet rs, PreparedStatement ps, Connection conn, boolean autoCommit) {
+		try { if(rs != null) rs.close(); } catch(Exception e) { Util.ignore(e); }
+		try { if(ps != null) ps.close(); } catch(Exception e) { Util.ignore(e); }
+		try { if(autoCommit) conn.setAutoCommit(true); } catch(Exception e) { Util.ignore(e); }
+		try { if(conn != null) conn.close(); } catch(Exception e) { Util.ignore(e); }
+	}
+	
+	/**
+	 * Rows to fetch from the database at a time when streaming results
+	 * @param fetchSize
+	 * @return
+	 */
+	public Sql fetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		return this;
+	}
+	
 	/**
 	 * List the results of the query, all results mapped to strings
 	 * @return
@@ -68,15 +287,19 @@ public class Sql {
 	public List<Object> list() {
 		ArrayList<Object> out = new ArrayList<Object>();
 		execute(new Proc1<ResultSet>() {
-			ResultSetMetaData rsmd;
+			String[] names;
 			@Override
 			public void exec(ResultSet rs) throws Exception {
-				if(rsmd == null) {
-					rsmd = rs.getMetaData();
+				if(names == null) {
+					ResultSetMetaData rsmd = rs.getMetaData();
+					names = new String[rsmd.getColumnCount()];
+					for(int i = 0; i < names.length; i++) {
+						names[i] = rsmd.getColumnName(i + 1);
+					}
 				}
-				HashMap<String,String> s = new HashMap<>();
-				for(int i = 1; i <= rsmd.getColumnCount(); i++) {
-					s.put(rsmd.getColumnName(i), rs.getString(i));
+				HashMap<String,String> s = new HashMap<>(names.length * 2);
+				for(int i = 0; i < names.length; i++) {
+					s.put(names[i], rs.getString(i + 1));
 				}
 				out.add(s);
 			}
@@ -114,6 +337,29 @@ public class Sql {
 		return out[0];
 	}
 	
+	/**
+	 * The parameter values bound to the statement, by index
+	 * @return
+	 * @throws Exception
+	 */
+	public Object[] getParameters() throws Exception {
+		List<Object> values = new ArrayList<>();
+		PreparedStatement recorder = (PreparedStatement)Proxy.newProxyInstance(Sql.class.getClassLoader(),
+			new Class<?>[] { PreparedStatement.class }, (proxy, m, args) -> {
+				if(m.getName().startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+					int idx = (Integer)args[0];
+					while(values.size() < idx) {
+						values.add(null);
+					}
+					values.set(idx - 1, m.getName().equals("setNull") ? null : args[1]);
+				}
+				Class<?> type = m.getReturnType();
+				return type.isPrimitive() && type != Void.TYPE ? Array.get(Array.newInstance(type, 1), 0) : null;
+			});
+		bindParameters(recorder);
+		return values.toArray();
+	}
+	
 	/**
 	 * Bind parameters to the prepared statement
 	 * @param ps
@@ -130,31 +376,40 @@ public class Sql {
 	 * Execute an update query
 	 */
 	public int execute() {
-		int[] out = { 0 };
+		String sql = getSql();
+		long start = System.nanoTime();
+		long[] result = { -1, 0 }; // connection wait, rows
+		Throwable error = null;
 		try {
 			exec.exec(conn -> {
+				result[0] = System.nanoTime() - start;
 				PreparedStatement ps = null;
 				try {
-					String sql = getSql();
-					System.out.println(sql);
 					ps = conn.prepareStatement(sql);
 					bindParameters(ps);
-					out[0] = ps.executeUpdate();
+					result[1] = ps.executeUpdate();
 				} finally {
 					try { if(ps != null) ps.close(); } catch(Exception e) { throw Util.asRuntime(e); }
 				}
 			});
 		} catch(Throwable e) {
+			error = e;
 			throw Util.asRuntime(e);
+		} finally {
+			executed(sql, start, result[0], result[1], error);
 		}
-		return out[0];
+		return (int)result[1];
 	}
 
 	private String getSql() {
-		return sql.toString();
+		return prebuilt != null ? prebuilt : sql.toString();
 	}
 
 	public Sql append(String sql) {
+		if(prebuilt != null) {
+			this.sql.append(prebuilt);
+			prebuilt = null;
+		}
 		this.sql.append(sql);
 		return this;
 	}
@@ -0,0 +1,214 @@
+package org.jsc.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jsc.Util;
+
+/**
+ * Bounded LRU of prepared statements for a single physical connection, keyed by the sql;
+ * closing a statement returns it here to be reused, with its parameters, batch, fetch size, max rows
+ * & query timeout reset, or closed if other settings were changed. Only used by the thread holding the connection.
+ * @author kzantow
+ */
+final class StatementCache {
+	private final int size;
+	private final LinkedHashMap<String, Entry> statements = new LinkedHashMap<>(16, 0.75f, true);
+	private final AtomicLong hits;
+	private final AtomicLong misses;
+
+	private static final class Entry {
+		final PreparedStatement ps;
+		boolean inUse;
+		boolean evicted; // or changed in a way which isn't reset, closed when returned
+		// settings before they were changed, restored when returned; -1 if unchanged
+		int fetchSize = -1;
+		int maxRows = -1;
+		int queryTimeout = -1;
+
+		Entry(PreparedStatement ps) {
+			this.ps = ps;
+		}
+	}
+
+	/**
+	 * Statement handed out from the cache; closing returns it
+	 */
+	private final class CachedStatement extends PreparedStatementWrapper {
+		private final Entry entry;
+		private boolean closed;
+
+		CachedStatement(Entry entry) {
+			super(entry.ps);
+			this.entry = entry;
+		}
+
+		@Override
+		public void close() throws SQLException {
+			if(!closed) {
+				closed = true;
+				setStatement(null);
+				release(entry);
+			}
+		}
+
+		@Override
+		public boolean isClosed() throws SQLException {
+			return closed || super.isClosed();
+		}
+
+		@Override
+		public void setFetchSize(int fetchSize) throws SQLException {
+			if(entry.fetchSize < 0) {
+				entry.fetchSize = entry.ps.getFetchSize();
+			}
+			super.setFetchSize(fetchSize);
+		}
+
+		@Override
+		public void setMaxRows(int maxRows) throws SQLException {
+			if(entry.maxRows < 0) {
+				entry.maxRows = entry.ps.getMaxRows();
+			}
+			super.setMaxRows(maxRows);
+		}
+
+		@Override
+		public void setQueryTimeout(int queryTimeout) throws SQLException {
+			if(entry.queryTimeout < 0) {
+				entry.queryTimeout = entry.ps.getQueryTimeout();
+			}
+			super.setQueryTimeout(queryTimeout);
+		}
+
+		@Override
+		public void setLargeMaxRows(long maxRows) throws SQLException {
+			entry.evicted = true;
+			super.setLargeMaxRows(maxRows);
+		}
+
+		@Override
+		public void setFetchDirection(int direction) throws SQLException {
+			entry.evicted = true;
+			super.setFetchDirection(direction);
+		}
+
+		@Override
+		public void setMaxFieldSize(int max) throws SQLException {
+			entry.evicted = true;
+			super.setMaxFieldSize(max);
+		}
+
+		@Override
+		public void setEscapeProcessing(boolean enable) throws SQLException {
+			entry.evicted = true;
+			super.setEscapeProcessing(enable);
+		}
+
+		@Override
+		public void setCursorName(String name) throws SQLException {
+			entry.evicted = true;
+			super.setCursorName(name);
+		}
+
+		@Override
+		public void setPoolable(boolean poolable) throws SQLException {
+			entry.evicted = true;
+			super.setPoolable(poolable);
+		}
+
+		@Override
+		public void closeOnCompletion() throws SQLException {
+			entry.evicted = true;
+			super.closeOnCompletion();
+		}
+	}
+
+	StatementCache(int size, AtomicLong hits, AtomicLong misses) {
+		this.size = size;
+		this.hits = hits;
+		this.misses = misses;
+	}
+
+	/**
+	 * Get a cached statement for the sql or prepare it; if the statement is already in use, e.g.
+	 * while iterating results, an uncached statement is prepared
+	 */
+	PreparedStatement prepare(Connection conn, String sql) throws SQLException {
+		Entry e = statements.get(sql);
+		if(e != null && !e.inUse) {
+			hits.incrementAndGet();
+			e.inUse = true;
+			return new CachedStatement(e);
+		}
+		misses.incrementAndGet();
+		PreparedStatement ps = conn.prepareStatement(sql);
+		if(e != null || size <= 0) {
+			return ps;
+		}
+		e = new Entry(ps);
+		e.inUse = true;
+		statements.put(sql, e);
+		evict();
+		return new CachedStatement(e);
+	}
+
+	private void release(Entry e) {
+		e.inUse = false;
+		if(!e.evicted) {
+			try {
+				e.ps.clearParameters();
+				e.ps.clearBatch();
+				if(e.maxRows >= 0) {
+					e.ps.setMaxRows(e.maxRows); // first, a fetch size over the max rows may be refused
+					e.maxRows = -1;
+				}
+				if(e.fetchSize >= 0) {
+					e.ps.setFetchSize(e.fetchSize);
+					e.fetchSize = -1;
+				}
+				if(e.queryTimeout >= 0) {
+					e.ps.setQueryTimeout(e.queryTimeout);
+					e.queryTimeout = -1;
+				}
+				return;
+			} catch(Throwable t) {
+				Util.ignore(t);
+			}
+		}
+		statements.values().remove(e); // changed or failed to reset, already gone if evicted
+		close(e);
+	}
+
+	/**
+	 * Removes least recently used statements over the size; statements in use are closed when returned
+	 */
+	private void evict() {
+		for(Iterator<Entry> i = statements.values().iterator(); statements.size() > size && i.hasNext();) {
+			Entry e = i.next();
+			i.remove();
+			if(e.inUse) {
+				e.evicted = true;
+			}
+			else {
+				close(e);
+			}
+		}
+	}
+
+	private static void close(Entry e) {
+		try {
+			e.ps.close();
+		} catch(Throwable t) {
+			Util.ignore(t);
+		}
+	}
+
+	int size() {
+		return statements.size();
+	}
+}
@@ -4,11 +4,13 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.sql.Connection;
 
 import javax.inject.Inject;
 
 import org.aopalliance.intercept.MethodInterceptor;
 import org.aopalliance.intercept.MethodInvocation;
+import org.jsc.Fn1;
 import org.jsc.Util;
 
 import com.google.inject.Binder;
@@ -22,6 +24,11 @@ import com.google.inject.matcher.Matchers;
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.METHOD)
 public @interface Transactional {
+	/**
+	 * Execute in a read-only transaction, on a read replica if there is one, see {@link Db#read(org.jsc.Fn1)}
+	 */
+	boolean readOnly() default false;
+	
 	/**
 	 * Interceptor to actually apply the annotation behavior
 	 * @author kzantow
@@ -33,13 +40,17 @@ public @interface Transactional {
 	    		@Inject Db db;
 				@Override
 				public Object invoke(MethodInvocation mi) throws Throwable {
-					return db.inTransaction(conn -> {
+					Fn1<Object, Connection> fn = conn -> {
 						try {
 							return mi.proceed();
 						} catch (Throwable e) {
 							throw Util.asRuntime(e);
 						}
-					});
+					};
+					if(mi.getMethod().getAnnotation(Transactional.class).readOnly()) {
+						return db.read(fn);
+					}
+					return db.inTransaction(fn);
 				}
 	    	});
 	    }
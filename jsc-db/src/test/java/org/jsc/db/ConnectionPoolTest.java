@@ -0,0 +1,75 @@
+package org.jsc.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLTimeoutException;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+	static ConnectionPool pool(int max) throws Exception {
+		String url = "jdbc:h2:mem:pool;DB_CLOSE_DELAY=-1";
+		ConnectionPool p = new ConnectionPool(DriverManager.getDriver(url), url, new Properties());
+		p.setMaxConnections(max);
+		p.setTimeoutMillis(50);
+		return p;
+	}
+
+	static void assertTimesOut(ConnectionPool p) throws Exception {
+		try(Connection c = p.getConnection()) {
+			Assert.fail("Borrowed over the maximum");
+		} catch(SQLTimeoutException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testShrinkWhileBorrowed() throws Exception {
+		ConnectionPool p = pool(3);
+		try {
+			Connection a = p.getConnection();
+			Connection b = p.getConnection();
+			Connection c = p.getConnection();
+			c.close();
+			Assert.assertEquals(1, p.getIdle());
+
+			// doesn't wait for a & b, the idle connection is closed
+			p.setMaxConnections(1);
+			Assert.assertEquals(0, p.getIdle());
+			assertTimesOut(p);
+
+			a.close();
+			Assert.assertEquals("dropped on return while over the maximum", 0, p.getIdle());
+			assertTimesOut(p);
+			b.close();
+			Assert.assertEquals(1, p.getIdle());
+
+			Connection d = p.getConnection();
+			assertTimesOut(p);
+			d.close();
+		} finally {
+			p.close();
+		}
+	}
+
+	@Test
+	public void testGrowWhileShrinking() throws Exception {
+		ConnectionPool p = pool(2);
+		try {
+			Connection a = p.getConnection();
+			Connection b = p.getConnection();
+			p.setMaxConnections(0);
+			p.setMaxConnections(3); // cancels the pending drops, then adds one
+			Connection c = p.getConnection();
+			assertTimesOut(p);
+			a.close();
+			b.close();
+			c.close();
+			Assert.assertEquals(3, p.getIdle());
+		} finally {
+			p.close();
+		}
+	}
+}
@@ -0,0 +1,226 @@
+package org.jsc.db;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link Db#findById} for {@link Cached} types, against in-memory H2
+ */
+public class DbCacheTest {
+	static final AtomicInteger count = new AtomicInteger();
+	Db db;
+	EntityCache cache;
+
+	@Cached
+	public static class Pet {
+		@PK String id;
+		String name;
+
+		public Pet() {
+		}
+
+		Pet(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	@Cached(size = 2)
+	public static class Small {
+		@PK String id;
+	}
+
+	@Cached(ttlSeconds = 0)
+	public static class Brief {
+		@PK String id;
+	}
+
+	@Before
+	public void createDb() {
+		System.setProperty("dbUrl", "jdbc:h2:mem:cache" + count.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+		db.createTable(Pet.class);
+		cache = db.getCache(Pet.class);
+	}
+
+	@After
+	public void shutdown() {
+		db.shutdownDataSource();
+	}
+
+	String name(String id) {
+		Pet p = db.findById(new Pet(id, null));
+		return p == null ? null : p.name;
+	}
+
+	/**
+	 * The name another thread sees, it doesn't share this thread's transaction
+	 */
+	String nameElsewhere(String id) throws Exception {
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			return other.submit(() -> name(id)).get(5, TimeUnit.SECONDS);
+		} finally {
+			other.shutdown();
+		}
+	}
+
+	@Test
+	public void testHitIsCopy() {
+		db.insert(new Pet("a", "rex"));
+		Pet first = db.findById(new Pet("a", null));
+		Assert.assertEquals(1, cache.getMisses());
+		Pet second = db.findById(new Pet("a", null));
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertNotSame(first, second);
+
+		second.name = "changed";
+		Assert.assertEquals("rex", name("a"));
+		Assert.assertEquals(2, cache.getHits());
+
+		Assert.assertNull(name("missing"));
+		Assert.assertEquals("not found isn't cached", 1, cache.size());
+		Assert.assertNull(db.getCache(DbSaveTest.Item.class));
+	}
+
+	@Test
+	public void testTransaction() throws Exception {
+		db.insert(new Pet("a", "rex"));
+		Assert.assertEquals("rex", name("a"));
+		db.inTransaction(conn -> {
+			db.update(new Pet("a", "fido"));
+			Assert.assertEquals("fido", name("a"));
+			Assert.assertEquals("rex", nameElsewhere("a"));
+			Assert.assertEquals(1, cache.size());
+			return null;
+		});
+		Assert.assertEquals(0, cache.size());
+		Assert.assertEquals("fido", nameElsewhere("a"));
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		db.insert(new Pet("a", "rex"));
+		Assert.assertEquals("rex", name("a"));
+		long hits = cache.getHits();
+		try {
+			db.inTransaction(conn -> {
+				db.update(new Pet("a", "fido"));
+				db.delete(new Pet("a", null));
+				throw new IllegalStateException("rollback");
+			});
+			Assert.fail("Didn't roll back");
+		} catch(IllegalStateException e) {
+			// expected
+		}
+		Assert.assertEquals(1, cache.size());
+		Assert.assertEquals("rex", nameElsewhere("a"));
+		Assert.assertEquals(hits + 1, cache.getHits());
+	}
+
+	@Test
+	public void testWritesInvalidate() {
+		db.insert(new Pet("a", "rex"));
+		name("a");
+		db.update(new Pet("a", "fido"));
+		Assert.assertEquals("fido", name("a"));
+		db.save(new Pet("a", "spot"));
+		Assert.assertEquals("spot", name("a"));
+		db.delete(new Pet("a", null));
+		Assert.assertNull(name("a"));
+
+		// plain sql isn't seen, writes through Db are
+		db.insert(new Pet("a", "rex"));
+		name("a");
+		db.sql("delete from pet").execute();
+		Assert.assertEquals("rex", name("a"));
+		db.insert(new Pet("a", "rover"));
+		Assert.assertEquals("rover", name("a"));
+	}
+
+	@Test
+	public void testBatchesInvalidate() {
+		db.insertAll(Arrays.asList(new Pet("a", "rex"), new Pet("b", "fido")));
+		name("a");
+		name("b");
+		db.updateAll(Arrays.asList(new Pet("a", "spot"), new Pet("b", "rover")));
+		Assert.assertEquals("spot", name("a"));
+		Assert.assertEquals("rover", name("b"));
+		db.saveAll(Arrays.asList(new Pet("a", "max")));
+		Assert.assertEquals("max", name("a"));
+		db.deleteAll(Arrays.asList(new Pet("a", null), new Pet("b", null)));
+		Assert.assertNull(name("a"));
+		Assert.assertNull(name("b"));
+
+		name("missing");
+		db.sql("delete from pet").execute();
+		db.insertAll(Arrays.asList(new Pet("missing", "found")));
+		Assert.assertEquals("found", name("missing"));
+	}
+
+	@Test
+	public void testStalePut() {
+		long version = cache.version();
+		cache.invalidate("other");
+		cache.put("a", new Object[] { "a", "stale" }, version);
+		Assert.assertEquals("a write since the version was taken", 0, cache.size());
+		cache.put("a", new Object[] { "a", "fresh" }, cache.version());
+		Assert.assertEquals(1, cache.size());
+	}
+
+	Small small(String id) {
+		Small s = new Small();
+		s.id = id;
+		return s;
+	}
+
+	@Test
+	public void testLeastRecentlyUsed() {
+		db.createTable(Small.class);
+		EntityCache small = db.getCache(Small.class);
+		for(String id : new String[] { "a", "b", "c" }) {
+			db.insert(small(id));
+		}
+		db.findById(small("a"));
+		db.findById(small("b"));
+		db.findById(small("a"));
+		db.findById(small("c"));
+		Assert.assertEquals(2, small.size());
+		Assert.assertEquals(1, small.getEvictions());
+		Assert.assertEquals(1, small.getHits());
+
+		db.findById(small("a"));
+		Assert.assertEquals(2, small.getHits());
+		db.findById(small("b"));
+		Assert.assertEquals("b was least recently used", 2, small.getHits());
+		Assert.assertEquals(4, small.getMisses());
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		db.createTable(Brief.class);
+		EntityCache brief = db.getCache(Brief.class);
+		Brief b = new Brief();
+		b.id = "a";
+		db.insert(b);
+		db.findById(b);
+		Assert.assertEquals(1, brief.size());
+		Thread.sleep(5);
+		Assert.assertNotNull(db.findById(b));
+		Assert.assertEquals(0, brief.getHits());
+		Assert.assertEquals(1, brief.getEvictions());
+		Assert.assertEquals(2, brief.getMisses());
+	}
+}
@@ -0,0 +1,138 @@
+package org.jsc.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link Db#fetch} & {@link Db#list(Class, String...)} of {@link FK} relations, against in-memory H2
+ */
+public class DbFetchTest {
+	static final AtomicInteger count = new AtomicInteger();
+	Db db;
+
+	public static class Customer {
+		@PK String id;
+		String name;
+
+		public Customer() {
+		}
+
+		Customer(String id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+	}
+
+	public static class Purchase {
+		@PK String id;
+		@FK(type = Customer.class, field = "id") String customerId;
+		@FK(type = Customer.class, field = "id", property = "payer") String paidBy;
+		String note;
+		transient Customer customer;
+		transient Customer payer;
+
+		public Purchase() {
+		}
+
+		Purchase(String id, String customerId, String paidBy) {
+			this.id = id;
+			this.customerId = customerId;
+			this.paidBy = paidBy;
+		}
+	}
+
+	@Before
+	public void createDb() {
+		System.setProperty("dbUrl", "jdbc:h2:mem:fetch" + count.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+		db.createTable(Customer.class);
+		db.createTable(Purchase.class);
+		db.insertAll(Arrays.asList(new Customer("c1", "one"), new Customer("c2", "two"), new Customer("c3", "three"),
+			new Customer("c4", "four"), new Customer("c5", "five")));
+		db.insertAll(Arrays.asList(new Purchase("p1", "c1", null), new Purchase("p2", "c2", "c1"),
+			new Purchase("p3", "c3", null), new Purchase("p4", "c4", null), new Purchase("p5", "c5", null),
+			new Purchase("p6", "c1", null), new Purchase("p7", null, null), new Purchase("p8", null, "gone")));
+	}
+
+	@After
+	public void shutdown() {
+		db.shutdownDataSource();
+	}
+
+	static String name(Customer c) {
+		return c == null ? null : c.name;
+	}
+
+	@Test
+	public void testChunks() {
+		List<Integer> chunks = new ArrayList<>();
+		QueryListener l = (sql, params, waitNanos, nanos, rows, error) -> {
+			if(sql.startsWith("select") && sql.contains("from customer where")) {
+				chunks.add(sql.length() - sql.replace("?", "").length());
+			}
+		};
+		db.setFetchChunkSize(2);
+		Sql.addListener(l);
+		List<Purchase> purchases;
+		try {
+			purchases = db.list(Purchase.class, "customerId");
+		} finally {
+			Sql.removeListener(l);
+		}
+		Assert.assertEquals("5 distinct values, 2 at a time", "[2, 2, 1]", chunks.toString());
+
+		purchases.sort(Comparator.comparing(p -> p.id));
+		List<String> names = new ArrayList<>();
+		for(Purchase p : purchases) {
+			names.add(name(p.customer));
+			Assert.assertNull(p.payer);
+		}
+		Assert.assertEquals("[one, two, three, four, five, one, null, null]", names.toString());
+		Assert.assertSame(purchases.get(0).customer, purchases.get(5).customer);
+	}
+
+	@Test
+	public void testProperty() {
+		List<Purchase> purchases = db.list(Purchase.class);
+		Map<Object, Customer> payers = db.fetch(purchases, "paidBy");
+		Assert.assertEquals("a missing row isn't returned", 1, payers.size());
+		Assert.assertEquals("one", payers.get("c1").name);
+		for(Purchase p : purchases) {
+			Assert.assertEquals(p.id, "p2".equals(p.id) ? "one" : null, name(p.payer));
+			Assert.assertNull(p.customer);
+		}
+
+		// null values aren't queried for
+		List<Purchase> none = Arrays.asList(new Purchase("x", null, null));
+		none.get(0).customer = new Customer("old", "old");
+		Assert.assertTrue(db.fetch(none, "customerId").isEmpty());
+		Assert.assertNull("set to null", none.get(0).customer);
+		Assert.assertTrue(db.fetch(new ArrayList<Purchase>(), "customerId").isEmpty());
+	}
+
+	@Test
+	public void testNotRelation() {
+		List<Purchase> purchases = db.list(Purchase.class);
+		for(String field : new String[] { "note", "nothing" }) {
+			try {
+				db.fetch(purchases, field);
+				Assert.fail("Fetched " + field);
+			} catch(IllegalArgumentException e) {
+				Assert.assertTrue(e.getMessage(), e.getMessage().contains(field));
+			}
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package org.jsc.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link Db#read} against in-memory H2 databases, each with a table naming it
+ */
+public class DbReplicaTest {
+	static final AtomicInteger count = new AtomicInteger();
+	Db db;
+	String prefix;
+
+	/**
+	 * A new in-memory database which answers {@link #name(Connection)} with the name
+	 */
+	String database(String name) throws SQLException {
+		String url = "jdbc:h2:mem:" + prefix + name + ";DB_CLOSE_DELAY=-1";
+		try(Connection c = DriverManager.getConnection(url); Statement s = c.createStatement()) {
+			s.execute("create table whoami(name varchar(20))");
+			s.execute("insert into whoami values('" + name + "')");
+		}
+		return url;
+	}
+
+	static String name(Connection conn) throws SQLException {
+		try(Statement s = conn.createStatement(); ResultSet rs = s.executeQuery("select name from whoami")) {
+			rs.next();
+			return rs.getString(1);
+		}
+	}
+
+	@Before
+	public void createDb() throws SQLException {
+		prefix = "replicas" + count.incrementAndGet();
+		System.setProperty("dbUrl", database("primary"));
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+	}
+
+	@After
+	public void shutdown() {
+		db.shutdownDataSource();
+	}
+
+	@Test
+	public void testRoundRobin() throws SQLException {
+		db.addReplica(database("one"));
+		db.addReplica(database("two"));
+		List<String> names = new ArrayList<>();
+		for(int i = 0; i < 4; i++) {
+			names.add(db.read(DbReplicaTest::name));
+		}
+		Assert.assertEquals(names.toString(), names.get(0), names.get(2));
+		Assert.assertEquals(names.toString(), names.get(1), names.get(3));
+		Assert.assertNotEquals(names.toString(), names.get(0), names.get(1));
+		Assert.assertTrue(names.toString(), names.contains("one") && names.contains("two"));
+		Assert.assertEquals("primary", db.apply(DbReplicaTest::name));
+	}
+
+	@Test
+	public void testFallbackToPrimary() throws SQLException {
+		Assert.assertEquals("primary", db.read(DbReplicaTest::name));
+
+		db.addReplica("jdbc:h2:tcp://localhost:1/mem:nothing");
+		Assert.assertEquals("primary", db.read(DbReplicaTest::name));
+		Assert.assertEquals("primary", db.read(DbReplicaTest::name));
+		Assert.assertEquals(0, db.getReplicas().get(0).getBorrows());
+
+		db.addReplica(database("up"));
+		for(int i = 0; i < 4; i++) {
+			Assert.assertEquals("up", db.read(DbReplicaTest::name));
+		}
+	}
+
+	@Test
+	public void testBusyReplicaStaysUp() throws SQLException {
+		ConnectionPool replica = db.addReplica(database("busy"));
+		replica.setMaxConnections(1);
+		replica.setTimeoutMillis(50);
+		try(Connection held = replica.getConnection()) {
+			Assert.assertEquals("busy", name(held));
+			Assert.assertEquals("primary", db.read(DbReplicaTest::name));
+		}
+		// exhausted isn't down, it's used again as soon as a connection is free
+		Assert.assertEquals("busy", db.read(DbReplicaTest::name));
+	}
+
+	@Test
+	public void testNestedReads() throws SQLException {
+		db.addReplica(database("replica"));
+		db.read(outer -> {
+			Assert.assertEquals("replica", name(outer));
+			return db.read(inner -> {
+				Assert.assertSame(outer, inner);
+				return null;
+			});
+		});
+
+		// in a transaction reads use its connection, so they see its writes
+		db.inTransaction(conn -> {
+			try(Statement s = conn.createStatement()) {
+				s.execute("insert into whoami values('written')");
+			}
+			return db.read(read -> {
+				Assert.assertSame(conn, read);
+				try(Statement s = read.createStatement(); ResultSet rs = s.executeQuery("select count(*) from whoami")) {
+					rs.next();
+					Assert.assertEquals(2, rs.getInt(1));
+				}
+				return null;
+			});
+		});
+	}
+}
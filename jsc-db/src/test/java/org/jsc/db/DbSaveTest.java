@@ -0,0 +1,213 @@
+package org.jsc.db;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link Db#save} & {@link Db#saveAll} with the dialects' upserts, run against in-memory H2
+ */
+public class DbSaveTest {
+	static final AtomicInteger count = new AtomicInteger();
+	Db db;
+
+	public static class Item {
+		@PK String id;
+		String name;
+		int qty;
+
+		public Item() {
+		}
+
+		Item(String id, String name, int qty) {
+			this.id = id;
+			this.name = name;
+			this.qty = qty;
+		}
+
+		@Override
+		public String toString() {
+			return id + ":" + name + ":" + qty;
+		}
+	}
+
+	@Before
+	public void createDb() {
+		System.setProperty("dbUrl", "jdbc:h2:mem:save" + count.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+		db.createTable(Item.class);
+	}
+
+	@After
+	public void shutdown() {
+		db.shutdownDataSource();
+	}
+
+	String items() {
+		List<Item> items = db.list(Item.class);
+		items.sort(Comparator.comparing(i -> i.id));
+		return items.toString();
+	}
+
+	@Test
+	public void testSave() {
+		Assert.assertTrue(db.getDialect() instanceof H2Dialect);
+		db.save(new Item("a", "first", 1));
+		Assert.assertEquals("[a:first:1]", items());
+
+		db.save(new Item("a", "changed", 2));
+		db.save(new Item("b", "second", 3));
+		Assert.assertEquals("[a:changed:2, b:second:3]", items());
+	}
+
+	@Test
+	public void testSaveAll() {
+		int[] counts = db.saveAll(Arrays.asList(new Item("a", "first", 1), new Item("b", "second", 2)));
+		Assert.assertEquals("one batch for the upsert", 1, counts.length);
+		Assert.assertEquals("[a:first:1, b:second:2]", items());
+
+		counts = db.saveAll(Arrays.asList(new Item("b", "changed", 20), new Item("c", "third", 3)));
+		Assert.assertEquals(1, counts.length);
+		Assert.assertEquals("[a:first:1, b:changed:20, c:third:3]", items());
+	}
+
+	List<Item> five(String name) {
+		return Arrays.asList(new Item("a", name, 1), new Item("b", name, 2), new Item("c", name, 3),
+			new Item("d", name, 4), new Item("e", name, 5));
+	}
+
+	@Test
+	public void testBatchCounts() {
+		db.setBatchSize(2);
+		Assert.assertEquals("[2, 2, 1]", Arrays.toString(db.insertAll(five("new"))));
+		Assert.assertEquals("[2, 2, 1]", Arrays.toString(db.updateAll(five("changed"))));
+		Assert.assertEquals("[a:changed:1, b:changed:2, c:changed:3, d:changed:4, e:changed:5]", items());
+
+		Assert.assertEquals("[1, 1]", Arrays.toString(db.updateAll(Arrays.asList(
+			new Item("a", "again", 1), new Item("x", "missing", 0), new Item("b", "again", 2)))));
+		Assert.assertEquals("[2, 2, 1]", Arrays.toString(db.deleteAll(five(null))));
+		Assert.assertEquals("[]", items());
+	}
+
+	@Test
+	public void testSaveAllWithoutUpsert() {
+		db.setDialect(new Db.GenericDialect());
+		db.setBatchSize(2);
+		db.insertAll(Arrays.asList(new Item("a", "first", 1), new Item("b", "second", 2)));
+		int[] counts = db.saveAll(Arrays.asList(new Item("a", "changed", 10), new Item("x", "new", 0),
+			new Item("b", "changed", 20), new Item("y", "new", 0), new Item("z", "new", 0)));
+		Assert.assertEquals("updates, then inserts", "[1, 1, 0, 2, 1]", Arrays.toString(counts));
+		Assert.assertEquals("[a:changed:10, b:changed:20, x:new:0, y:new:0, z:new:0]", items());
+	}
+
+	/**
+	 * H2, except batches answer {@link Statement#SUCCESS_NO_INFO} for every row, as some drivers do
+	 */
+	public static class NoInfoDriver implements Driver {
+		static final String PREFIX = "jdbc:noinfo:";
+		static {
+			try {
+				DriverManager.registerDriver(new NoInfoDriver());
+			} catch(SQLException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		@Override
+		public Connection connect(String url, Properties info) throws SQLException {
+			if(!acceptsURL(url)) {
+				return null;
+			}
+			return new ConnectionWrapper(DriverManager.getConnection("jdbc:h2:" + url.substring(PREFIX.length()), info)) {
+				@Override
+				public PreparedStatement prepareStatement(String sql) throws SQLException {
+					return new PreparedStatementWrapper(super.prepareStatement(sql)) {
+						@Override
+						public int[] executeBatch() throws SQLException {
+							int[] results = super.executeBatch();
+							Arrays.fill(results, Statement.SUCCESS_NO_INFO);
+							return results;
+						}
+					};
+				}
+			};
+		}
+
+		@Override
+		public boolean acceptsURL(String url) {
+			return url.startsWith(PREFIX);
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+
+	@Test
+	public void testSaveAllWithoutCounts() throws Exception {
+		Class.forName(NoInfoDriver.class.getName());
+		db.shutdownDataSource();
+		System.setProperty("dbUrl", NoInfoDriver.PREFIX + "mem:noinfo" + count.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+		Assert.assertTrue(db.getDialect() instanceof Db.GenericDialect);
+		db.createTable(Item.class);
+		db.insertAll(Arrays.asList(new Item("a", "first", 1), new Item("b", "second", 2)));
+
+		int[] counts = db.saveAll(Arrays.asList(new Item("a", "changed", 10), new Item("x", "new", 0)));
+		Assert.assertEquals("[2, 1]", Arrays.toString(counts));
+		Assert.assertEquals("[a:changed:10, b:second:2, x:new:0]", items());
+	}
+
+	@Test
+	public void testUpsertSql() {
+		Table<Item> t = db.getTable(Item.class);
+		Assert.assertEquals("merge into item (id,name,qty) key(id) values (?,?,?)", new H2Dialect().upsert(t));
+		Assert.assertEquals("insert into item (id,name,qty) values (?,?,?) on conflict (id) do update set name=excluded.name,qty=excluded.qty",
+			new PostgresDialect().upsert(t));
+	}
+}
@@ -0,0 +1,92 @@
+package org.jsc.db;
+
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Creating missing tables & columns at startup, against in-memory H2
+ */
+public class DbSchemaTest {
+	static final AtomicInteger count = new AtomicInteger();
+	Db db;
+
+	@Data
+	public static class Fresh {
+		@PK String id;
+		String name;
+	}
+
+	@Data
+	public static class Grown {
+		@PK String id;
+		String name;
+		int qty;
+	}
+
+	/**
+	 * Same name as INFORMATION_SCHEMA.SETTINGS
+	 */
+	@Data
+	public static class Settings {
+		@PK String id;
+		String value;
+	}
+
+	@Before
+	public void createDb() {
+		System.setProperty("dbUrl", "jdbc:h2:mem:schema" + count.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+	}
+
+	@After
+	public void shutdown() {
+		db.shutdownDataSource();
+	}
+
+	/**
+	 * Columns of the table in the default schema, lower case
+	 */
+	Set<String> columns(String table) {
+		return db.apply(conn -> {
+			Set<String> out = new TreeSet<>();
+			try(ResultSet rs = conn.getMetaData().getColumns(null, "PUBLIC", table.toUpperCase(), "%")) {
+				while(rs.next()) {
+					out.add(rs.getString("COLUMN_NAME").toLowerCase());
+				}
+			}
+			return out;
+		});
+	}
+
+	@Test
+	public void testCheckSchema() {
+		db.sql("create table grown (id varchar(255))").execute();
+		db.checkSchema(Arrays.asList(Fresh.class, Grown.class, Settings.class));
+
+		Assert.assertEquals("[id, name]", columns("fresh").toString());
+		Assert.assertEquals("[id, name, qty]", columns("grown").toString());
+		Assert.assertEquals("[id, value]", columns("settings").toString());
+
+		Settings s = new Settings();
+		s.id = "a";
+		s.value = "b";
+		db.insert(s);
+		Assert.assertEquals("b", db.findById(s).value);
+
+		// nothing left to change
+		db.checkSchema(Arrays.asList(Fresh.class, Grown.class, Settings.class));
+		Assert.assertEquals("[id, name, qty]", columns("grown").toString());
+	}
+}
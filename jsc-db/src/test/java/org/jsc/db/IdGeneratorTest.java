@@ -0,0 +1,80 @@
+package org.jsc.db;
+
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class IdGeneratorTest {
+	@Test
+	public void testEncode() {
+		for(int i = 0; i < 1000; i++) {
+			UUID id = i % 2 == 0 ? IdGenerator.newUuid() : UUID.randomUUID();
+			String s = IdGenerator.encode(id);
+			Assert.assertEquals(26, s.length());
+			Assert.assertEquals(id, IdGenerator.decode(s));
+			Assert.assertEquals(id, IdGenerator.decode(s.toLowerCase()));
+		}
+		Assert.assertEquals("00000000000000000000000000", IdGenerator.encode(new UUID(0, 0)));
+		Assert.assertEquals("7ZZZZZZZZZZZZZZZZZZZZZZZZZ", IdGenerator.encode(new UUID(-1, -1)));
+		Assert.assertEquals(new UUID(-1, -1), IdGenerator.decode("7ZZZZZZZZZZZZZZZZZZZZZZZZZ"));
+	}
+
+	@Test
+	public void testDecodeInvalid() {
+		for(String s : new String[] { "", "0000000000000000000000000", "80000000000000000000000000", "0000000000000000000000000U", "000000000000000000000000é0" }) {
+			try {
+				IdGenerator.decode(s);
+				Assert.fail("Decoded: " + s);
+			} catch(IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void testBytes() {
+		for(int i = 0; i < 1000; i++) {
+			UUID id = i % 2 == 0 ? IdGenerator.newUuid() : UUID.randomUUID();
+			byte[] b = IdGenerator.toBytes(id);
+			Assert.assertEquals(16, b.length);
+			Assert.assertEquals(id, IdGenerator.fromBytes(b));
+		}
+		try {
+			IdGenerator.fromBytes(new byte[15]);
+			Assert.fail();
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testOrderedInThread() {
+		long start = System.currentTimeMillis();
+		UUID last = IdGenerator.newUuid();
+		String lastId = last.toString();
+		String lastCompact = IdGenerator.encode(last);
+		long lastLong = IdGenerator.newLongId();
+		// more than the counter holds in a millisecond
+		for(int i = 0; i < 20000; i++) {
+			UUID id = IdGenerator.newUuid();
+			Assert.assertEquals(7, id.version());
+			Assert.assertEquals(2, id.variant());
+			Assert.assertTrue(id.compareTo(last) > 0);
+			String s = id.toString();
+			Assert.assertTrue(s.compareTo(lastId) > 0);
+			String compact = IdGenerator.encode(id);
+			Assert.assertTrue(compact.compareTo(lastCompact) > 0);
+			long l = IdGenerator.newLongId();
+			Assert.assertTrue(l > lastLong);
+			last = id;
+			lastId = s;
+			lastCompact = compact;
+			lastLong = l;
+		}
+		long end = System.currentTimeMillis();
+		// borrowing from the next millisecond may run a little ahead
+		Assert.assertTrue(IdGenerator.timestamp(last) >= start && IdGenerator.timestamp(last) <= end + 1000);
+		Assert.assertTrue(IdGenerator.timestamp(lastLong) >= start && IdGenerator.timestamp(lastLong) <= end + 1000);
+	}
+}
@@ -0,0 +1,142 @@
+package org.jsc.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QueryStatsTest {
+	public static class Counted {
+		@PK int id;
+	}
+
+	static QueryStats stats() {
+		QueryStats s = new QueryStats();
+		s.setSlowQueryMillis(-1);
+		return s;
+	}
+
+	static void run(QueryStats s, String sql, long millis) {
+		s.executed(sql, Sql.noParameters, 0, TimeUnit.MILLISECONDS.toNanos(millis), 1, null);
+	}
+
+	static List<String> sql(List<QueryStats.Stats> stats) {
+		List<String> out = new ArrayList<>();
+		for(QueryStats.Stats s : stats) {
+			out.add(s.getSql());
+		}
+		return out;
+	}
+
+	@Test
+	public void testNormalize() {
+		Assert.assertEquals("select * from t where a=? and b = ? and c in (?) and d in (?)",
+			QueryStats.normalize("select * from t where a='it''s'  and b = -1.5\n and c in (?, ?,?) and d in (1, 2, 3)"));
+		Assert.assertEquals("identifiers keep their digits", "select col1, t2.x from t2 where id=?",
+			QueryStats.normalize("select col1, t2.x from t2 where id=42"));
+		Assert.assertEquals("a single parameter", "where a in (?)", QueryStats.normalize("where a in (?)"));
+	}
+
+	@Test
+	public void testTop() {
+		QueryStats s = stats();
+		for(int i = 0; i < 3; i++) {
+			run(s, "select a from t where id=" + i, 1);
+		}
+		run(s, "select b from t", 10);
+		run(s, "select c from t", 2);
+		run(s, "select c from t", 2);
+
+		Assert.assertEquals(3, s.getStats().size());
+		Assert.assertEquals("[select a from t where id=?, select c from t]", sql(s.mostFrequent(2)).toString());
+		Assert.assertEquals("[select b from t]", sql(s.slowest(1)).toString());
+		Assert.assertEquals("[select b from t, select c from t, select a from t where id=?]", sql(s.mostTime(5)).toString());
+
+		QueryStats.Stats b = s.slowest(1).get(0);
+		Assert.assertEquals(1, b.getCount());
+		Assert.assertEquals(TimeUnit.MILLISECONDS.toNanos(10), b.getMaxNanos());
+		Assert.assertEquals("[0, 0, 0, 1, 0, 0, 0, 0]", Arrays.toString(b.getHistogram()));
+
+		s.reset();
+		Assert.assertTrue(s.getStats().isEmpty());
+	}
+
+	@Test
+	public void testOther() {
+		QueryStats s = stats();
+		s.setMaxStatements(2);
+		run(s, "select a from t", 1);
+		run(s, "select b from t", 1);
+		run(s, "select c from t", 1);
+		run(s, "select d from t", 1);
+		run(s, "select e from t where id=1", 1);
+		run(s, "select a from t", 1);
+		Assert.assertEquals(3, s.getStats().size());
+		Assert.assertEquals("[(other), select a from t]", sql(s.mostFrequent(2)).toString());
+		Assert.assertEquals(3, s.mostFrequent(1).get(0).getCount());
+	}
+
+	@Test
+	public void testListeners() {
+		System.setProperty("dbUrl", "jdbc:h2:mem:querystats;DB_CLOSE_DELAY=-1");
+		Db db;
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+		List<String> seen = new ArrayList<>();
+		QueryListener l = (sql, params, waitNanos, nanos, rows, error) -> {
+			seen.add((error == null ? rows : "error") + " " + sql);
+		};
+		QueryStats s = stats();
+		Sql.addListener(l);
+		Sql.addListener(s);
+		try {
+			db.createTable(Counted.class);
+			List<Counted> rows = new ArrayList<>();
+			for(int i = 0; i < 3; i++) {
+				Counted c = new Counted();
+				c.id = i;
+				rows.add(c);
+			}
+			db.insertAll(rows);
+			db.sql("select id from counted").execute(rs -> { /* count only */ });
+			try(Stream<Integer> ids = db.sql("select id from counted where id > 0").stream(rdr -> rdr.rs.getInt(1))) {
+				Assert.assertEquals(2, ids.count());
+			}
+			for(String bad : new String[] { "select nothing from counted", "select nothing from counted where id > 0" }) {
+				try {
+					if(bad.contains("where")) {
+						db.sql(bad).stream(rdr -> null).close();
+					} else {
+						db.sql(bad).execute(rs -> { /* fails */ });
+					}
+					Assert.fail("Ran " + bad);
+				} catch(RuntimeException e) {
+					// expected
+				}
+			}
+		} finally {
+			Sql.removeListener(l);
+			Sql.removeListener(s);
+			db.shutdownDataSource();
+		}
+		Assert.assertEquals(Arrays.asList(
+			"0 create table counted (id int not null default 0)",
+			"3 insert into counted (id) values (?)",
+			"3 select id from counted",
+			"2 select id from counted where id > 0",
+			"error select nothing from counted",
+			"error select nothing from counted where id > 0"), seen);
+
+		Assert.assertEquals(6, s.getStats().size());
+		for(QueryStats.Stats st : s.getStats()) {
+			Assert.assertEquals(st.getSql(), st.getSql().startsWith("select nothing") ? 1 : 0, st.getErrors());
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.jsc.db;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link Sql#stream} & {@link Db#stream} releasing their connections, against in-memory H2
+ */
+public class SqlStreamTest {
+	static final AtomicInteger count = new AtomicInteger();
+	Db db;
+
+	public static class Row {
+		@PK int id;
+	}
+
+	@Before
+	public void createDb() {
+		System.setProperty("dbUrl", "jdbc:h2:mem:stream" + count.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+		try {
+			db = new Db();
+		} finally {
+			System.clearProperty("dbUrl");
+		}
+		db.createTable(Row.class);
+		List<Row> rows = new ArrayList<>();
+		for(int i = 0; i < 10; i++) {
+			Row r = new Row();
+			r.id = i;
+			rows.add(r);
+		}
+		db.insertAll(rows);
+	}
+
+	@After
+	public void shutdown() {
+		db.shutdownDataSource();
+	}
+
+	Stream<Integer> ids() {
+		return db.sql("select id from row order by id").fetchSize(3).stream(rdr -> rdr.rs.getInt(1));
+	}
+
+	@Test
+	public void testReleased() {
+		Assert.assertEquals(10, ids().count());
+		Assert.assertEquals("read to the end", 0, db.getPool().getActive());
+
+		try(Stream<Integer> s = ids()) {
+			Assert.assertEquals(1, db.getPool().getActive());
+		}
+		Assert.assertEquals("closed before reading", 0, db.getPool().getActive());
+
+		try(Stream<Integer> s = ids()) {
+			Iterator<Integer> i = s.iterator();
+			Assert.assertEquals(Integer.valueOf(0), i.next());
+			Assert.assertEquals(Integer.valueOf(1), i.next());
+		}
+		Assert.assertEquals("closed part way", 0, db.getPool().getActive());
+
+		try(Stream<Row> s = db.stream(Row.class)) {
+			Assert.assertEquals(4, s.limit(4).count());
+		}
+		Assert.assertEquals(0, db.getPool().getActive());
+	}
+
+	@Test
+	public void testAutoCommit() {
+		db.accept(conn -> {
+			try(Stream<Integer> s = ids()) {
+				Assert.assertEquals("[0, 1, 2, 3]", s.limit(4).collect(Collectors.toList()).toString());
+				Assert.assertFalse("in a transaction while the cursor is open", conn.getAutoCommit());
+			}
+			Assert.assertTrue(conn.getAutoCommit());
+			Assert.assertFalse(conn.isClosed());
+		});
+		Assert.assertEquals(0, db.getPool().getActive());
+
+		db.inTransaction(conn -> {
+			Assert.assertEquals(10, ids().count());
+			Assert.assertFalse("the transaction is left as it was", conn.getAutoCommit());
+			return null;
+		});
+	}
+}
@@ -0,0 +1,60 @@
+package org.jsc.db;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Statements returned to a {@link StatementCache} are reset before they're reused
+ */
+public class StatementCacheTest {
+	@Test
+	public void testResetOnRelease() throws Exception {
+		AtomicLong hits = new AtomicLong();
+		AtomicLong misses = new AtomicLong();
+		StatementCache cache = new StatementCache(4, hits, misses);
+		try(Connection conn = DriverManager.getConnection("jdbc:h2:mem:statements")) {
+			String sql = "select x from system_range(1, 10)";
+			PreparedStatement ps = cache.prepare(conn, sql);
+			int fetchSize = ps.getFetchSize();
+			int timeout = ps.getQueryTimeout();
+			ps.setFetchSize(fetchSize + 50);
+			ps.setMaxRows(2);
+			ps.setQueryTimeout(timeout + 5);
+			try(ResultSet rs = ps.executeQuery()) {
+				Assert.assertTrue(rs.next());
+				Assert.assertTrue(rs.next());
+				Assert.assertFalse(rs.next());
+			}
+			ps.close();
+
+			ps = cache.prepare(conn, sql);
+			Assert.assertEquals(1, hits.get());
+			Assert.assertEquals(fetchSize, ps.getFetchSize());
+			Assert.assertEquals(0, ps.getMaxRows());
+			Assert.assertEquals(timeout, ps.getQueryTimeout());
+			int rows = 0;
+			try(ResultSet rs = ps.executeQuery()) {
+				while(rs.next()) {
+					rows++;
+				}
+			}
+			Assert.assertEquals(10, rows);
+
+			// settings which aren't reset keep the statement from being reused
+			ps.setFetchDirection(ResultSet.FETCH_FORWARD);
+			ps.close();
+			Assert.assertEquals(0, cache.size());
+			ps = cache.prepare(conn, sql);
+			Assert.assertEquals(1, hits.get());
+			Assert.assertEquals(2, misses.get());
+			ps.close();
+			Assert.assertEquals(1, cache.size());
+		}
+	}
+}
@@ -0,0 +1,319 @@
+package org.jsc;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-class cache of property accessors and method invokers, shared by ObjectContext, template
+ * component binding and expressions, so binding an object doesn't walk the class hierarchy.
+ * Accessors are created on first use: generated lambdas for public methods visible from here,
+ * method handles otherwise.
+ * @author kzantow
+ */
+public final class Accessors {
+	/**
+	 * Gets a property value
+	 */
+	public interface Getter {
+		Object get(Object o);
+	}
+
+	/**
+	 * Sets a property value
+	 */
+	public interface Setter {
+		void set(Object o, Object value);
+	}
+
+	/**
+	 * Invokes a method
+	 */
+	public interface Invoker {
+		Object invoke(Object o, Object ... args);
+	}
+
+	private static final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	private static final ClassValue<Accessors> accessors = new ClassValue<Accessors>() {
+		@Override
+		protected Accessors computeValue(Class<?> type) {
+			return new Accessors(type);
+		}
+	};
+
+	/**
+	 * Get the accessors for a class
+	 */
+	public static Accessors of(Class<?> c) {
+		return accessors.get(c);
+	}
+
+	private final Map<String, Method> getterMethods;
+	private final Map<String, Method> setterMethods;
+	private final Map<String, Method> methods;
+	private final Map<String, Field> fields;
+
+	private final Map<String, Getter> getters = new ConcurrentHashMap<>();
+	private final Map<String, Setter> setters = new ConcurrentHashMap<>();
+	private final Map<String, Invoker> invokers = new ConcurrentHashMap<>();
+	private final Map<String, Getter> fieldGetters = new ConcurrentHashMap<>();
+	private final Map<String, Setter> fieldSetters = new ConcurrentHashMap<>();
+
+	private Accessors(Class<?> c) {
+		getterMethods = Collections.unmodifiableMap(Util.getters(c));
+		setterMethods = Collections.unmodifiableMap(Util.setters(c));
+		methods = Collections.unmodifiableMap(Util.methods(c));
+		fields = Collections.unmodifiableMap(Util.fields(c));
+	}
+
+	/**
+	 * Getter methods by property name, as {@link Util#getters(Class)}
+	 */
+	public Map<String, Method> getterMethods() {
+		return getterMethods;
+	}
+
+	/**
+	 * Setter methods by property name, as {@link Util#setters(Class)}
+	 */
+	public Map<String, Method> setterMethods() {
+		return setterMethods;
+	}
+
+	/**
+	 * Public methods by name, as {@link Util#methods(Class)}
+	 */
+	public Map<String, Method> methods() {
+		return methods;
+	}
+
+	/**
+	 * Non-static fields by name, as {@link Util#fields(Class)}
+	 */
+	public Map<String, Field> fields() {
+		return fields;
+	}
+
+	/**
+	 * Get the getter for a property, or null if there is no getter method
+	 */
+	public Getter getter(String name) {
+		Getter g = getters.get(name);
+		if(g == null) {
+			Method m = getterMethods.get(name);
+			if(m == null) {
+				return null;
+			}
+			getters.put(name, g = getter(m));
+		}
+		return g;
+	}
+
+	/**
+	 * Get the setter for a property, or null if there is no setter method
+	 */
+	public Setter setter(String name) {
+		Setter s = setters.get(name);
+		if(s == null) {
+			Method m = setterMethods.get(name);
+			if(m == null) {
+				return null;
+			}
+			setters.put(name, s = setter(m));
+		}
+		return s;
+	}
+
+	/**
+	 * Get an invoker for a public method, or null if there is no method with the name
+	 */
+	public Invoker invoker(String name) {
+		Invoker i = invokers.get(name);
+		if(i == null) {
+			Method m = methods.get(name);
+			if(m == null) {
+				return null;
+			}
+			invokers.put(name, i = (o, args) -> {
+				try {
+					return m.invoke(o, args);
+				} catch(InvocationTargetException e) {
+					throw Util.asRuntime(e.getCause());
+				} catch(Exception e) {
+					throw Util.asRuntime(e);
+				}
+			});
+		}
+		return i;
+	}
+
+	/**
+	 * Get a getter reading the field directly, or null if there is no field
+	 */
+	public Getter fieldGetter(String name) {
+		Getter g = fieldGetters.get(name);
+		if(g == null) {
+			Field f = fields.get(name);
+			if(f == null) {
+				return null;
+			}
+			try {
+				MethodHandle mh = lookup.unreflectGetter(f).asType(MethodType.methodType(Object.class, Object.class));
+				g = handleGetter(mh);
+			} catch(IllegalAccessException e) {
+				throw Util.asRuntime(e);
+			}
+			fieldGetters.put(name, g);
+		}
+		return g;
+	}
+
+	/**
+	 * Get a setter writing the field directly, or null if there is no field
+	 */
+	public Setter fieldSetter(String name) {
+		Setter s = fieldSetters.get(name);
+		if(s == null) {
+			Field f = fields.get(name);
+			if(f == null) {
+				return null;
+			}
+			try {
+				MethodHandle mh = lookup.unreflectSetter(f);
+				s = handleSetter(mh, f.getType(), (o, v) -> {
+					try {
+						f.set(o, v);
+					} catch(Exception e) {
+						throw Util.asRuntime(e);
+					}
+				});
+			} catch(IllegalAccessException e) {
+				throw Util.asRuntime(e);
+			}
+			fieldSetters.put(name, s);
+		}
+		return s;
+	}
+
+	/**
+	 * Whether a lambda can be generated to call the method: it's public, in a
+	 * public class visible to this class loader
+	 */
+	private static boolean canGenerate(Method m) {
+		Class<?> c = m.getDeclaringClass();
+		if(!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(c.getModifiers())) {
+			return false;
+		}
+		for(Class<?> e = c.getEnclosingClass(); e != null; e = e.getEnclosingClass()) {
+			if(!Modifier.isPublic(e.getModifiers())) {
+				return false;
+			}
+		}
+		try {
+			return Class.forName(c.getName(), false, Accessors.class.getClassLoader()) == c;
+		} catch(ClassNotFoundException e) {
+			return false;
+		}
+	}
+
+	private static Getter getter(Method m) {
+		try {
+			MethodHandle mh = lookup.unreflect(m);
+			if(canGenerate(m)) {
+				try {
+					return (Getter)LambdaMetafactory.metafactory(lookup, "get",
+						MethodType.methodType(Getter.class),
+						MethodType.methodType(Object.class, Object.class),
+						mh, MethodType.methodType(Util.box(m.getReturnType()), m.getDeclaringClass()))
+						.getTarget().invoke();
+				} catch(Throwable t) {
+					Util.ignore(t); // use the method handle
+				}
+			}
+			return handleGetter(mh.asType(MethodType.methodType(Object.class, Object.class)));
+		} catch(IllegalAccessException e) {
+			throw Util.asRuntime(e);
+		}
+	}
+
+	private static Getter handleGetter(MethodHandle mh) {
+		return o -> {
+			try {
+				return mh.invokeExact(o);
+			} catch(Throwable t) {
+				throw Util.asRuntime(t);
+			}
+		};
+	}
+
+	private static Setter setter(Method m) {
+		Setter slow = (o, v) -> {
+			try {
+				m.invoke(o, v);
+			} catch(InvocationTargetException e) {
+				throw Util.asRuntime(e.getCause());
+			} catch(Exception e) {
+				throw Util.asRuntime(e);
+			}
+		};
+		try {
+			Class<?> type = m.getParameterTypes()[0];
+			MethodHandle mh = lookup.unreflect(m);
+			if(canGenerate(m)) {
+				try {
+					Setter fast = (Setter)LambdaMetafactory.metafactory(lookup, "set",
+						MethodType.methodType(Setter.class),
+						MethodType.methodType(void.class, Object.class, Object.class),
+						mh, MethodType.methodType(void.class, m.getDeclaringClass(), Util.box(type)))
+						.getTarget().invoke();
+					Class<?> boxed = Util.box(type);
+					boolean primitive = type.isPrimitive();
+					return (o, v) -> {
+						if(v == null ? !primitive : boxed.isInstance(v)) {
+							fast.set(o, v);
+						}
+						else {
+							slow.set(o, v); // conversions & errors as reflection does
+						}
+					};
+				} catch(Throwable t) {
+					Util.ignore(t); // use the method handle
+				}
+			}
+			return handleSetter(mh, type, slow);
+		} catch(IllegalAccessException e) {
+			throw Util.asRuntime(e);
+		}
+	}
+
+	/**
+	 * Setter using the handle when the value's type matches exactly, otherwise the slow
+	 * setter which does reflective conversions
+	 */
+	private static Setter handleSetter(MethodHandle mh, Class<?> type, Setter slow) {
+		MethodHandle h = mh.asType(MethodType.methodType(void.class, Object.class, Object.class));
+		Class<?> boxed = Util.box(type);
+		boolean primitive = type.isPrimitive();
+		return (o, v) -> {
+			if(v == null ? !primitive : boxed.isInstance(v)) {
+				try {
+					h.invokeExact(o, v);
+				} catch(Throwable t) {
+					throw Util.asRuntime(t);
+				}
+			}
+			else {
+				slow.set(o, v);
+			}
+		};
+	}
+}
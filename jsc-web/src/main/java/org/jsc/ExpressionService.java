@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.inject.Singleton;
 import javax.script.Bindings;
@@ -129,6 +130,146 @@ public class ExpressionService {
 		}
 	}
 
+	private final Map<String, Boolean> globals = new ConcurrentHashMap<>();
+	
+	/**
+	 * Whether the identifier refers to a script global (e.g. Math), rather than a context variable
+	 */
+	private boolean isGlobal(String name) {
+		Boolean global = globals.get(name);
+		if(global == null) {
+			try {
+				global = !"undefined".equals(engine.eval("typeof " + name, new SimpleScriptContext()));
+			} catch(ScriptException e) {
+				global = true; // let the script engine deal with it
+			}
+			globals.put(name, global);
+		}
+		return global;
+	}
+	
+	/**
+	 * Literal text within an expression, with no ${} parts
+	 */
+	public static final class LiteralExpr implements Expr {
+		private final String val;
+		
+		public LiteralExpr(String val) {
+			this.val = val;
+		}
+		
+		/**
+		 * The literal text
+		 */
+		public String getText() {
+			return val;
+		}
+		
+		@Override
+		public Object getValue(BindingResolver ctx) {
+			return val;
+		}
+		
+		@Override
+		public void setValue(BindingResolver ctx, Object val) {
+			throw new UnsupportedOperationException("Cannot set literal text within an expression!");
+		}
+		
+		@Override
+		public String toString() {
+			return Util.stringify(val);
+		}
+	}
+	
+	/**
+	 * A ${} expression: simple expressions are evaluated directly, anything else
+	 * (or values which need script conversions) by compiled scripts
+	 */
+	private class ScriptExpr implements Expr {
+		final String expr;
+		final String js;
+		final SimpleExpressions.Node simple;
+		volatile CompiledScript getter;
+		volatile CompiledScript setter;
+		
+		ScriptExpr(String expr, String js, SimpleExpressions.Node simple) throws ScriptException {
+			this.expr = expr;
+			this.js = js;
+			this.simple = simple;
+			if(simple == null) {
+				getter = ((Compilable) engine).compile(js); // implicit return value
+			}
+		}
+		
+		@Override
+		public Object getValue(BindingResolver ctx) {
+			try {
+				if(simple != null) {
+					Object out = simple.eval(ctx);
+					if(out != SimpleExpressions.UNSUPPORTED) {
+						return out;
+					}
+				}
+				CompiledScript script = getter;
+				if(script == null) {
+					getter = script = ((Compilable) engine).compile(js);
+				}
+				return script.eval(ctx);
+			} catch (Exception e) {
+				throw new RuntimeException("Error evaluating: " + expr, e);
+			}
+		}
+
+		@Override
+		public void setValue(BindingResolver ctx, Object val) {
+			try {
+				if(simple != null && simple.set(ctx, val)) {
+					return;
+				}
+			} catch (Exception e) {
+				throw new RuntimeException("Error evaluating: " + expr, e);
+			}
+			CompiledScript script = setter;
+			if(script == null) {
+				try {
+					// This is a big hack because there is literally no way in nashorn to set the global context to
+					// set values, and all the classes are final
+					// awesome.
+					// ...
+					setter = script = ((Compilable) engine).compile(SETTER_CTX_PLACEHOLDER + "." + js + "=" + SETTER_VAL_PLACEHOLDER);
+				} catch (Exception e) {
+					throw new RuntimeException("Not a settable expression: " + expr);
+				}
+			}
+			BindingResolver vals = new BindingResolver(ctx) {
+				public boolean containsKey(Object key) {
+					return SETTER_VAL_PLACEHOLDER.equals(key) || SETTER_CTX_PLACEHOLDER.equals(key) || super.containsKey(key);
+				}
+				public Object get(Object key) {
+					if(SETTER_VAL_PLACEHOLDER.equals(key)) {
+						return val;
+					}
+					if(SETTER_CTX_PLACEHOLDER.equals(key)) {
+						return ctx;
+					}
+					return super.get(key);
+				}
+			};
+			try {
+				SimpleScriptContext ctxt = new SimpleScriptContext();
+				ctxt.setBindings(vals, ScriptContext.ENGINE_SCOPE);
+				script.eval(ctxt);
+			} catch (Exception e) {
+				throw new RuntimeException("Error evaluatong: " + expr, e);
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return Util.stringify(expr);
+		}
+	}
+
 	/**
 	 * Call this to treat the string as an expression; e.g. parse out "asdf${asdf}" to evaluate within script blocks
 	 * @param expr
@@ -141,21 +282,7 @@ public class ExpressionService {
 		int bracketDepth = 0;
 		Proc addString = () -> {
 			if (text != null && text.length() > 0) {
-				parts.add(new Expr() {
-					String val = text.toString();
-					@Override
-					public Object getValue(BindingResolver ctx) {
-						return val;
-					}
-					@Override
-					public void setValue(BindingResolver ctx, Object val) {
-						throw new UnsupportedOperationException("Cannot set literal text within an expression!");
-					}
-					@Override
-					public String toString() {
-						return Util.stringify(val);
-					}
-				});
+				parts.add(new LiteralExpr(text.toString()));
 				text.setLength(0);
 			}
 		};
@@ -181,74 +308,9 @@ public class ExpressionService {
 						throw new RuntimeException("Illegal expression: " + expr);
 					}
 
+					String js = text.toString();
 					try {
-						CompiledScript getter = ((Compilable) engine).compile(text.toString()); // implicit return value
-						CompiledScript _setter = null;
-						try {
-							// This is a big hack because there is literally no way in nashorn to set the global context to
-							// set values, and all the classes are final
-							// awesome.
-							// ...
-							_setter = ((Compilable) engine).compile(SETTER_CTX_PLACEHOLDER + "." + text.toString() + "=" + SETTER_VAL_PLACEHOLDER);
-						} catch (Exception e) {
-							// may not be a settable expression
-						}
-						CompiledScript setter = _setter;
-						parts.add(new Expr() {
-							@Override
-							public Object getValue(BindingResolver ctx) {
-								Object out;
-								try {
-									out = getter.eval(ctx);
-								} catch (Exception e) {
-									throw new RuntimeException("Error evaluating: " + expr, e);
-								}
-								return out;
-							}
-
-							@Override
-							public void setValue(BindingResolver ctx, Object val) {
-								BindingResolver vals = new BindingResolver(ctx) {
-									public boolean containsKey(Object key) {
-										return SETTER_VAL_PLACEHOLDER.equals(key) || SETTER_CTX_PLACEHOLDER.equals(key) || super.containsKey(key);
-									}
-									public Object get(Object key) {
-										if(SETTER_VAL_PLACEHOLDER.equals(key)) {
-											return val;
-										}
-										if(SETTER_CTX_PLACEHOLDER.equals(key)) {
-											return ctx;
-										}
-										return super.get(key);
-									}
-									@Override
-									public Object put(String name, Object value) {
-										return super.put(name, value);
-									}
-								};
-								try {
-									SimpleScriptContext ctxt = new SimpleScriptContext() {
-										public void setAttribute(String name, Object value, int scope) {
-											super.setAttribute(name, value, scope);
-										}
-									};
-									ctxt.setBindings(vals, ScriptContext.ENGINE_SCOPE);
-									setter.eval(ctxt);
-								} catch (NullPointerException e) {
-									if (setter == null) {
-										throw new RuntimeException("Not a settable expression: " + expr);
-									}
-								} catch (Exception e) {
-									throw new RuntimeException("Error evaluatong: " + expr, e);
-								}
-							}
-							
-							@Override
-							public String toString() {
-								return Util.stringify(expr);
-							}
-
-						});
+						parts.add(new ScriptExpr(expr, js, SimpleExpressions.parse(js, this::isGlobal)));
 					} catch (Exception e) {
 						throw Util.asRuntime(e);
 					}
@@ -271,6 +333,9 @@ public class ExpressionService {
 			throw new IllegalArgumentException("Expression not balanced: " + expr);
 		}
 		addString.exec();
+		if (parts.isEmpty()) {
+			return new LiteralExpr("");
+		}
 		if (parts.size() == 1) {
 			return parts.get(0);
 		}
@@ -0,0 +1,689 @@
+package org.jsc;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.jsc.ExpressionService.BindingResolver;
+
+/**
+ * Compiles simple expressions: property paths (<code>item.name</code>), literals, comparisons
+ * and boolean operators, to a tree of evaluators which don't need the script engine. Parsing
+ * returns null for anything else, so it can be compiled as a script. Evaluation returns
+ * {@link #UNSUPPORTED} for values that can't be handled with the same semantics as the script
+ * engine (undefined variables, type coercions, etc.), in which case the script should be used.
+ * @author kzantow
+ */
+final class SimpleExpressions {
+	/**
+	 * Returned by evaluation when the script engine must be used
+	 */
+	static final Object UNSUPPORTED = new Object();
+
+	private static final Set<String> RESERVED = new HashSet<>(Arrays.asList(
+		"break", "case", "catch", "class", "const", "continue", "debugger", "default", "delete", "do",
+		"else", "enum", "export", "extends", "finally", "for", "function", "if", "import", "in",
+		"instanceof", "new", "return", "super", "switch", "this", "throw", "try", "typeof", "var",
+		"void", "while", "with", "let", "yield", "undefined", "NaN", "Infinity", "arguments"));
+
+	/**
+	 * A compiled expression
+	 */
+	static abstract class Node {
+		/**
+		 * Get the value, or UNSUPPORTED
+		 */
+		abstract Object eval(BindingResolver ctx);
+
+		/**
+		 * Set the value, returns false if this isn't settable or the value can't be set
+		 */
+		boolean set(BindingResolver ctx, Object val) {
+			return false;
+		}
+	}
+
+	private SimpleExpressions() {
+	}
+
+	/**
+	 * Parse the expression, returns null if it isn't a simple expression
+	 * @param js expression source, without ${}
+	 * @param isGlobal tests whether an identifier refers to a script global rather than the context
+	 */
+	static Node parse(String js, Predicate<String> isGlobal) {
+		List<String> tokens = tokenize(js);
+		if(tokens == null || tokens.isEmpty()) {
+			return null;
+		}
+		Parser p = new Parser(tokens, isGlobal);
+		try {
+			Node n = p.or();
+			if(n == null || p.pos != tokens.size()) {
+				return null;
+			}
+			return n;
+		} catch(IndexOutOfBoundsException e) {
+			return null; // ran out of tokens
+		}
+	}
+
+	/**
+	 * Splits into tokens, null for unsupported characters
+	 */
+	private static List<String> tokenize(String js) {
+		List<String> out = new ArrayList<>();
+		int len = js.length();
+		for(int i = 0; i < len;) {
+			char c = js.charAt(i);
+			int start = i;
+			if(Character.isWhitespace(c)) {
+				i++;
+				continue;
+			}
+			if(Character.isJavaIdentifierStart(c)) {
+				while(i < len && Character.isJavaIdentifierPart(js.charAt(i))) {
+					i++;
+				}
+			}
+			else if(c >= '0' && c <= '9') {
+				if(c == '0' && i + 1 < len && js.charAt(i + 1) >= '0' && js.charAt(i + 1) <= '9') {
+					return null; // octal
+				}
+				while(i < len && js.charAt(i) >= '0' && js.charAt(i) <= '9') {
+					i++;
+				}
+				if(i < len && js.charAt(i) == '.') {
+					i++;
+					while(i < len && js.charAt(i) >= '0' && js.charAt(i) <= '9') {
+						i++;
+					}
+				}
+				if(i < len && (js.charAt(i) == 'e' || js.charAt(i) == 'E')) {
+					i++;
+					if(i < len && (js.charAt(i) == '+' || js.charAt(i) == '-')) {
+						i++;
+					}
+					while(i < len && js.charAt(i) >= '0' && js.charAt(i) <= '9') {
+						i++;
+					}
+				}
+				if(i < len && Character.isJavaIdentifierPart(js.charAt(i))) {
+					return null; // e.g. 0x1f
+				}
+			}
+			else if(c == '\'' || c == '"') {
+				i++;
+				while(i < len && js.charAt(i) != c) {
+					char s = js.charAt(i);
+					if(s == '\\' || s == '\n' || s == '\r') {
+						return null; // escapes are left to the script engine
+					}
+					i++;
+				}
+				if(i >= len) {
+					return null;
+				}
+				i++;
+			}
+			else if(c == '=' || c == '!') {
+				i++;
+				if(i < len && js.charAt(i) == '=') {
+					i++;
+					if(i < len && js.charAt(i) == '=') {
+						i++;
+					}
+				}
+				else if(c == '=') {
+					return null; // assignment
+				}
+			}
+			else if(c == '<' || c == '>') {
+				i++;
+				if(i < len && js.charAt(i) == '=') {
+					i++;
+				}
+			}
+			else if(c == '&' || c == '|') {
+				if(i + 1 >= len || js.charAt(i + 1) != c) {
+					return null; // bitwise
+				}
+				i += 2;
+			}
+			else if(c == '.' || c == '(' || c == ')') {
+				i++;
+			}
+			else {
+				return null;
+			}
+			out.add(js.substring(start, i));
+		}
+		return out;
+	}
+
+	/**
+	 * Recursive descent: or := and ('||' and)*, and := cmp ('&&' cmp)*,
+	 * cmp := unary (op unary)?, unary := '!' unary | primary
+	 */
+	private static class Parser {
+		final List<String> tokens;
+		final Predicate<String> isGlobal;
+		int pos;
+
+		Parser(List<String> tokens, Predicate<String> isGlobal) {
+			this.tokens = tokens;
+			this.isGlobal = isGlobal;
+		}
+
+		boolean at(String token) {
+			return pos < tokens.size() && tokens.get(pos).equals(token);
+		}
+
+		Node or() {
+			Node left = and();
+			while(left != null && at("||")) {
+				pos++;
+				left = logical(left, and(), false);
+			}
+			return left;
+		}
+
+		Node and() {
+			Node left = compare();
+			while(left != null && at("&&")) {
+				pos++;
+				left = logical(left, compare(), true);
+			}
+			return left;
+		}
+
+		Node compare() {
+			Node left = unary();
+			if(left != null && pos < tokens.size()) {
+				String op = tokens.get(pos);
+				switch(op) {
+					case "==": case "!=": case "===": case "!==": case "<": case "<=": case ">": case ">=":
+						pos++;
+						return comparison(left, unary(), op);
+				}
+			}
+			return left;
+		}
+
+		Node unary() {
+			if(at("!")) {
+				pos++;
+				return not(unary());
+			}
+			return primary();
+		}
+
+		Node primary() {
+			String t = tokens.get(pos++);
+			char c = t.charAt(0);
+			if(c == '(') {
+				Node n = or();
+				if(!at(")")) {
+					return null;
+				}
+				pos++;
+				return n;
+			}
+			if(c == '\'' || c == '"') {
+				return literal(t.substring(1, t.length() - 1));
+			}
+			if(c >= '0' && c <= '9') {
+				return literal(number(t));
+			}
+			if(!Character.isJavaIdentifierStart(c)) {
+				return null;
+			}
+			switch(t) {
+				case "true": return literal(Boolean.TRUE);
+				case "false": return literal(Boolean.FALSE);
+				case "null": return literal(null);
+			}
+			if(RESERVED.contains(t) || isGlobal.test(t)) {
+				return null;
+			}
+			List<String> path = new ArrayList<>();
+			path.add(t);
+			while(at(".")) {
+				pos++;
+				String name = tokens.get(pos++);
+				if(!Character.isJavaIdentifierStart(name.charAt(0))) {
+					return null;
+				}
+				path.add(name);
+			}
+			return new PathNode(path.toArray(new String[path.size()]));
+		}
+	}
+
+	/**
+	 * Numeric literals as returned by the script engine: Integer for whole numbers without a
+	 * decimal point that fit, otherwise Double
+	 */
+	private static Object number(String t) {
+		double d = Double.parseDouble(t);
+		if(t.indexOf('.') < 0 && d == (int)d) {
+			return Integer.valueOf((int)d);
+		}
+		return d;
+	}
+
+	private static Node literal(Object val) {
+		return new Node() {
+			Object eval(BindingResolver ctx) {
+				return val;
+			}
+		};
+	}
+
+	private static Node not(Node n) {
+		if(n == null) {
+			return null;
+		}
+		return new Node() {
+			Object eval(BindingResolver ctx) {
+				Object v = n.eval(ctx);
+				if(v == UNSUPPORTED) {
+					return v;
+				}
+				Boolean b = truthy(v);
+				return b == null ? UNSUPPORTED : Boolean.valueOf(!b);
+			}
+		};
+	}
+
+	/**
+	 * && and || return the deciding operand, like javascript
+	 */
+	private static Node logical(Node left, Node right, boolean and) {
+		if(right == null) {
+			return null;
+		}
+		return new Node() {
+			Object eval(BindingResolver ctx) {
+				Object v = left.eval(ctx);
+				if(v == UNSUPPORTED) {
+					return v;
+				}
+				Boolean b = truthy(v);
+				if(b == null) {
+					return UNSUPPORTED;
+				}
+				if(b != and) {
+					return v;
+				}
+				return right.eval(ctx);
+			}
+		};
+	}
+
+	private static Node comparison(Node left, Node right, String op) {
+		if(right == null) {
+			return null;
+		}
+		return new Node() {
+			Object eval(BindingResolver ctx) {
+				Object l = left.eval(ctx);
+				if(l == UNSUPPORTED) {
+					return l;
+				}
+				Object r = right.eval(ctx);
+				if(r == UNSUPPORTED) {
+					return r;
+				}
+				switch(op) {
+					case "===": return strictEquals(l, r);
+					case "!==": return not(strictEquals(l, r));
+					case "==": return looseEquals(l, r);
+					case "!=": return not(looseEquals(l, r));
+				}
+				int cmp;
+				if(isNumber(l) && isNumber(r)) {
+					double a = ((Number)l).doubleValue(), b = ((Number)r).doubleValue();
+					if(Double.isNaN(a) || Double.isNaN(b)) {
+						return Boolean.FALSE;
+					}
+					cmp = Double.compare(a, b);
+					if(a == b) {
+						cmp = 0; // -0.0 == 0.0
+					}
+				}
+				else if(l instanceof String && r instanceof String) {
+					cmp = ((String)l).compareTo((String)r);
+				}
+				else {
+					return UNSUPPORTED;
+				}
+				switch(op) {
+					case "<": return cmp < 0;
+					case "<=": return cmp <= 0;
+					case ">": return cmp > 0;
+					default: return cmp >= 0;
+				}
+			}
+
+			Object not(Object b) {
+				return b instanceof Boolean ? Boolean.valueOf(!(Boolean)b) : b;
+			}
+		};
+	}
+
+	private static boolean isNumber(Object o) {
+		return o instanceof Integer || o instanceof Double || o instanceof Long
+			|| o instanceof Float || o instanceof Short || o instanceof Byte;
+	}
+
+	/**
+	 * Javascript truthiness, null if the value needs conversion by the script engine
+	 */
+	private static Boolean truthy(Object v) {
+		if(v == null) {
+			return Boolean.FALSE;
+		}
+		if(v instanceof Boolean) {
+			return (Boolean)v;
+		}
+		if(v instanceof String) {
+			return !((String)v).isEmpty();
+		}
+		if(isNumber(v)) {
+			double d = ((Number)v).doubleValue();
+			return d != 0 && !Double.isNaN(d);
+		}
+		if(v instanceof Number || v instanceof Character || v instanceof CharSequence) {
+			return null;
+		}
+		return Boolean.TRUE;
+	}
+
+	private static Object strictEquals(Object l, Object r) {
+		if(l == null || r == null) {
+			return l == r;
+		}
+		if(isNumber(l) && isNumber(r)) {
+			return ((Number)l).doubleValue() == ((Number)r).doubleValue();
+		}
+		if(l instanceof String && r instanceof String || l instanceof Boolean && r instanceof Boolean) {
+			return l.equals(r);
+		}
+		if(isPrimitive(l) || isPrimitive(r)) {
+			if(l instanceof Character || r instanceof Character || l instanceof CharSequence || r instanceof CharSequence) {
+				return UNSUPPORTED;
+			}
+			return Boolean.FALSE; // different types
+		}
+		return l == r;
+	}
+
+	private static boolean isPrimitive(Object o) {
+		return isNumber(o) || o instanceof String || o instanceof Boolean || o instanceof Character || o instanceof CharSequence;
+	}
+
+	private static Object looseEquals(Object l, Object r) {
+		if(l == null || r == null) {
+			return l == r;
+		}
+		if(l instanceof Boolean) {
+			l = (Boolean)l ? 1 : 0;
+		}
+		if(r instanceof Boolean) {
+			r = (Boolean)r ? 1 : 0;
+		}
+		if(isNumber(l) && r instanceof String) {
+			r = toNumber((String)r);
+		}
+		else if(l instanceof String && isNumber(r)) {
+			l = toNumber((String)l);
+		}
+		if(l == UNSUPPORTED || r == UNSUPPORTED) {
+			return UNSUPPORTED;
+		}
+		if(isPrimitive(l) != isPrimitive(r)) {
+			return UNSUPPORTED; // object to primitive conversion
+		}
+		return strictEquals(l, r);
+	}
+
+	/**
+	 * Javascript string to number conversion for plain decimal numbers
+	 */
+	private static Object toNumber(String s) {
+		s = s.trim();
+		if(s.isEmpty()) {
+			return 0;
+		}
+		for(int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if(!(c >= '0' && c <= '9' || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E')) {
+				return UNSUPPORTED; // hex, Infinity, etc.
+			}
+		}
+		try {
+			return Double.parseDouble(s);
+		} catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/**
+	 * A property path: a.b.c
+	 */
+	private static final class PathNode extends Node {
+		final String[] path;
+
+		PathNode(String[] path) {
+			this.path = path;
+		}
+
+		@Override
+		Object eval(BindingResolver ctx) {
+			return resolve(ctx, path.length);
+		}
+
+		/**
+		 * Get the value of the first n parts of the path
+		 */
+		private Object resolve(BindingResolver ctx, int n) {
+			if(!ctx.containsKey(path[0])) {
+				return UNSUPPORTED; // reference error
+			}
+			Object o = ctx.get(path[0]);
+			for(int i = 1; i < n; i++) {
+				if(o == null) {
+					return UNSUPPORTED; // type error
+				}
+				o = getProperty(o, path[i]);
+				if(o == UNSUPPORTED) {
+					return o;
+				}
+			}
+			return o;
+		}
+
+		@Override
+		boolean set(BindingResolver ctx, Object val) {
+			if(path.length == 1) {
+				return setProperty(ctx, path[0], val);
+			}
+			Object o = resolve(ctx, path.length - 1);
+			if(o == null || o == UNSUPPORTED) {
+				return false;
+			}
+			return setProperty(o, path[path.length - 1], val);
+		}
+	}
+
+	/**
+	 * Resolved properties for a class: an accessor, MAP_ENTRY or UNSUPPORTED
+	 */
+	private static final Object MAP_ENTRY = new Object();
+
+	private static final ClassValue<Map<String, Object>> getters = new ClassValue<Map<String, Object>>() {
+		@Override
+		protected Map<String, Object> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	private static final ClassValue<Map<String, Object>> setters = new ClassValue<Map<String, Object>>() {
+		@Override
+		protected Map<String, Object> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<>();
+		}
+	};
+
+	/**
+	 * Get a property the way the script engine would: bean getters & public fields first,
+	 * then map entries; methods, undefined properties and script objects are left to the script engine
+	 */
+	@SuppressWarnings("restriction")
+	private static Object getProperty(Object o, String name) {
+		if(o instanceof jdk.nashorn.api.scripting.JSObject) {
+			Object v = ((jdk.nashorn.api.scripting.JSObject)o).getMember(name);
+			return jdk.nashorn.api.scripting.ScriptObjectMirror.isUndefined(v) ? UNSUPPORTED : v;
+		}
+		Class<?> c = o.getClass();
+		if(c.isArray()) {
+			return UNSUPPORTED;
+		}
+		Map<String, Object> props = getters.get(c);
+		Object accessor = props.get(name);
+		if(accessor == null) {
+			accessor = findGetter(c, name);
+			props.put(name, accessor);
+		}
+		if(accessor == MAP_ENTRY) {
+			return ((Map<?, ?>)o).get(name);
+		}
+		if(accessor instanceof Accessors.Getter) {
+			Object v = ((Accessors.Getter)accessor).get(o);
+			return v instanceof Character ? UNSUPPORTED : v;
+		}
+		return UNSUPPORTED;
+	}
+
+	private static Object findGetter(Class<?> c, String name) {
+		Accessors accessors = Accessors.of(c);
+		Method getter = accessors.getterMethods().get(name);
+		if(getter != null) {
+			return Modifier.isPublic(getter.getDeclaringClass().getModifiers()) ? accessors.getter(name) : UNSUPPORTED;
+		}
+		if(Map.class.isAssignableFrom(c)) {
+			return accessors.methods().containsKey(name) ? UNSUPPORTED : MAP_ENTRY;
+		}
+		Field f = publicField(c, name);
+		return f != null ? accessors.fieldGetter(name) : UNSUPPORTED;
+	}
+
+	/**
+	 * Set a property the way the script engine would, returns false if it needs conversion or isn't found
+	 */
+	@SuppressWarnings("restriction")
+	private static boolean setProperty(Object o, String name, Object val) {
+		if(o instanceof jdk.nashorn.api.scripting.JSObject) {
+			((jdk.nashorn.api.scripting.JSObject)o).setMember(name, val);
+			return true;
+		}
+		Class<?> c = o.getClass();
+		Map<String, Object> props = setters.get(c);
+		Object accessor = props.get(name);
+		if(accessor == null) {
+			accessor = findSetter(c, name);
+			props.put(name, accessor);
+		}
+		if(accessor == MAP_ENTRY) {
+			@SuppressWarnings("unchecked")
+			Map<String, Object> m = (Map<String, Object>)o;
+			m.put(name, val);
+			return true;
+		}
+		if(accessor instanceof Property) {
+			Property p = (Property)accessor;
+			if(accepts(p.type, val)) {
+				p.setter.set(o, val);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A settable property with the type it accepts
+	 */
+	private static final class Property {
+		final Accessors.Setter setter;
+		final Class<?> type;
+
+		Property(Accessors.Setter setter, Class<?> type) {
+			this.setter = setter;
+			this.type = type;
+		}
+	}
+
+	private static Object findSetter(Class<?> c, String name) {
+		Accessors accessors = Accessors.of(c);
+		Method setter = accessors.setterMethods().get(name);
+		if(setter != null) {
+			if(!Modifier.isPublic(setter.getDeclaringClass().getModifiers())) {
+				return UNSUPPORTED;
+			}
+			return new Property(accessors.setter(name), setter.getParameterTypes()[0]);
+		}
+		if(Map.class.isAssignableFrom(c)) {
+			return accessors.getterMethods().containsKey(name) || accessors.methods().containsKey(name) ? UNSUPPORTED : MAP_ENTRY;
+		}
+		Field f = publicField(c, name);
+		if(f == null || Modifier.isFinal(f.getModifiers())) {
+			return UNSUPPORTED;
+		}
+		return new Property(accessors.fieldSetter(name), f.getType());
+	}
+
+	/**
+	 * Gets a public instance field of a public class, or null
+	 */
+	private static Field publicField(Class<?> c, String name) {
+		try {
+			Field f = c.getField(name);
+			if(!Modifier.isStatic(f.getModifiers()) && Modifier.isPublic(f.getDeclaringClass().getModifiers())
+			&& Accessors.of(c).fields().get(name) == f) { // not hidden by a non-public field
+				return f;
+			}
+		} catch(NoSuchFieldException e) {
+			// not a field
+		}
+		return null;
+	}
+
+	/**
+	 * Whether the value can be set without conversion
+	 */
+	private static boolean accepts(Class<?> type, Object val) {
+		if(val == null) {
+			return !type.isPrimitive();
+		}
+		if(type.isPrimitive()) {
+			return type == int.class && val instanceof Integer
+				|| type == long.class && val instanceof Long
+				|| type == double.class && val instanceof Double
+				|| type == boolean.class && val instanceof Boolean
+				|| type == float.class && val instanceof Float
+				|| type == short.class && val instanceof Short
+				|| type == byte.class && val instanceof Byte
+				|| type == char.class && val instanceof Character;
+		}
+		return type.isInstance(val);
+	}
+}
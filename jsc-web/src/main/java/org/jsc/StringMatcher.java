@@ -1,111 +1,349 @@
 package org.jsc;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- * Simple, efficient-ish startsWith branching engine:
+ * Longest-prefix matching on a compressed radix tree, e.g. for routing request paths; patterns can have
+ * <code>{name}</code> segments, matching up to the next '/', and end with a <code>*</code> wildcard
+ * matching the rest, with the values available from {@link #match(String)}. Literal text is preferred
+ * to parameters, and parameters to wildcards. Adding builds a new tree which is published for reading,
+ * so lookups don't lock and are safe while entries are added.
  * @author Keith.Zantow
  */
 public class StringMatcher<T> {
-	private static class Node<T> {
-		final char branch;
-		@SuppressWarnings("unused")
-		String match;
+	private static final String WILDCARD = "*";
+
+	private static final class Node<T> {
+		String prefix; // edge label, matched before the children
 		T result;
-		Node<T>[] nodes;
-		
-		public Node(char branch) {
-			this.branch = branch;
+		String[] names; // parameter names of the pattern ending here
+		int params; // parameters before this node
+		int maxParams; // on the root: the most parameters in a pattern
+
+		List<Node<T>> building = new ArrayList<>();
+		Node<T> param; // matches a segment
+		Node<T> wildcard; // matches the rest
+
+		// fan-out: children by first char, from a table for small ranges, otherwise a binary search
+		char low;
+		Node<T>[] table;
+		char[] keys;
+		Node<T>[] children;
+
+		Node(String prefix) {
+			this.prefix = prefix;
+		}
+
+		Node<T> child(char c) {
+			if(table != null) {
+				int i = c - low;
+				return i >= 0 && i < table.length ? table[i] : null;
+			}
+			if(keys == null) {
+				return null;
+			}
+			int lo = 0;
+			int hi = keys.length - 1;
+			while(lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				char k = keys[mid];
+				if(k < c) {
+					lo = mid + 1;
+				} else if(k > c) {
+					hi = mid - 1;
+				} else {
+					return children[mid];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * Builds the lookup arrays, the node isn't modified after this
+		 */
+		@SuppressWarnings("unchecked")
+		void freeze() {
+			if(!building.isEmpty()) {
+				building.sort((a, b) -> a.prefix.charAt(0) - b.prefix.charAt(0));
+				int n = building.size();
+				keys = new char[n];
+				children = building.toArray(new Node[n]);
+				for(int i = 0; i < n; i++) {
+					keys[i] = children[i].prefix.charAt(0);
+					children[i].freeze();
+				}
+				int range = keys[n - 1] - keys[0] + 1;
+				if(range <= 128) {
+					low = keys[0];
+					table = new Node[range];
+					for(Node<T> c : children) {
+						table[c.prefix.charAt(0) - low] = c;
+					}
+				}
+			}
+			building = null;
+			if(param != null) {
+				param.freeze();
+			}
+			if(wildcard != null) {
+				wildcard.freeze();
+			}
 		}
 	}
-	
-	private final Node<T> root = new Node<T>(' ');
-	private final Map<String,T> entries = new HashMap<>();
-	
+
 	/**
-	 * Add a matcher:
-	 * 
-	 * * check each child node from current
-	 * 		- if child matches char, continue
-	 * 		- if no child matches, add one
-	 * * if end, set current to result
-	 * 
+	 * A matched entry with the values of its parameters
+	 */
+	public static final class Match<T> {
+		private final T result;
+		private final int end;
+		private final String[] names;
+		private final String[] values;
+
+		Match(T result, int end, String[] names, String[] values) {
+			this.result = result;
+			this.end = end;
+			this.names = names;
+			this.values = values;
+		}
+
+		public T getResult() {
+			return result;
+		}
+
+		/**
+		 * Length of the matched prefix
+		 */
+		public int getEnd() {
+			return end;
+		}
+
+		public int size() {
+			return names.length;
+		}
+
+		public String getName(int i) {
+			return names[i];
+		}
+
+		public String getValue(int i) {
+			return values[i];
+		}
+
+		/**
+		 * Value of the named parameter, or null; the wildcard is named *
+		 */
+		public String get(String name) {
+			for(int i = 0; i < names.length; i++) {
+				if(names[i].equals(name)) {
+					return values[i];
+				}
+			}
+			return null;
+		}
+	}
+
+	private final Map<String,T> entries = new LinkedHashMap<>();
+	private volatile Node<T> root = new Node<T>("");
+
+	{
+		root.freeze();
+	}
+
+	/**
+	 * Add a string, or a pattern with {name} segments or a trailing *, to match
 	 * @param s
 	 * @param result
 	 */
-	@SuppressWarnings("unchecked")
 	public synchronized void add(String s, T result) {
-		entries.put(s,result);
-		
-		Node<T> curr = this.root;
+		entries.put(s, result);
+		Node<T> next = new Node<T>("");
+		int max = 0;
+		for(Map.Entry<String,T> e : entries.entrySet()) {
+			max = Math.max(max, insert(next, e.getKey(), e.getValue()));
+		}
+		next.freeze();
+		next.maxParams = max;
+		root = next;
+	}
+
+	/**
+	 * Adds the pattern to the tree being built, returning the number of parameters
+	 */
+	private static <T> int insert(Node<T> n, String s, T result) {
+		List<String> names = new ArrayList<>();
+		int pos = 0;
 		int len = s.length();
-		nextChar: for(int charNum = 0; charNum < len; charNum++) {
-			char c = s.charAt(charNum);
-			if(curr.nodes != null) {
-				for(int nodeNum = 0; nodeNum < curr.nodes.length; nodeNum++) {
-					Node<T> n = curr.nodes[nodeNum];
-					if(c == n.branch) {
-						curr = n;
-						if(charNum == len-1) {
-							break nextChar;
-						}
-						continue nextChar;
-					}
-				}
+		while(pos < len) {
+			int open = s.indexOf('{', pos);
+			int close = open < 0 ? -1 : s.indexOf('}', open);
+			int literalEnd = close < 0 ? len : open;
+			boolean wildcard = literalEnd == len && s.endsWith(WILDCARD) && (len == 1 || s.charAt(len - 2) == '/');
+			if(wildcard) {
+				literalEnd = len - 1;
 			}
-			// Didn't find a matching node...
-			if(curr.nodes == null) {
-				curr.nodes = new Node[] { curr = new Node<T>(c) };
+			n = insertLiteral(n, s.substring(pos, literalEnd));
+			if(wildcard) {
+				if(n.wildcard == null) {
+					n.wildcard = new Node<T>("");
+				}
+				n = n.wildcard;
+				names.add(WILDCARD);
+				pos = len;
+			} else if(close >= 0) {
+				if(n.param == null) {
+					n.param = new Node<T>("");
+				}
+				n = n.param;
+				names.add(s.substring(open + 1, close));
+				pos = close + 1;
 			} else {
-				int sz = curr.nodes.length;
-				Node<T>[] next = new Node[sz + 1];
-				System.arraycopy(curr.nodes, 0, next, 0, sz);
-				curr.nodes = next;
-				next[sz] = curr = new Node<T>(c);
+				pos = len;
 			}
 		}
-		
-		curr.match = s;
-		curr.result = result;
+		n.result = result;
+		n.names = names.toArray(new String[names.size()]);
+		n.params = names.size();
+		return names.size();
 	}
-	
-	public T get(String s) {
-		// Interesting!
-		// Fastest way to iterate over a string < 256 chars is charAt:
-		// http://stackoverflow.com/questions/8894258/fastest-way-to-iterate-over-all-the-chars-in-a-string
-		// also, this avoids creating a new array
-		Node<T> curr = this.root;
-		int len = s.length();
-		T result = null;
-		for(int charNum = 0; charNum < len; charNum++) {
-			char c = s.charAt(charNum);
-			if(curr.nodes == null || curr.nodes.length == 0) {
-				break;
-			}
-			int nodeLen = curr.nodes.length;
-			Node<T> n = null;
-			for(int nodeNum = 0; nodeNum < nodeLen; nodeNum++) {
-				Node<T> child = curr.nodes[nodeNum];
-				if(c == child.branch) {
-					n = child;
+
+	private static <T> Node<T> insertLiteral(Node<T> n, String text) {
+		while(!text.isEmpty()) {
+			Node<T> c = null;
+			for(Node<T> child : n.building) {
+				if(child.prefix.charAt(0) == text.charAt(0)) {
+					c = child;
 					break;
 				}
 			}
-			if(n == null) {
-				break;
-			} else {
-				curr = n;
+			if(c == null) {
+				c = new Node<T>(text);
+				n.building.add(c);
+				return c;
+			}
+			int common = 0;
+			int max = Math.min(c.prefix.length(), text.length());
+			while(common < max && c.prefix.charAt(common) == text.charAt(common)) {
+				common++;
+			}
+			if(common < c.prefix.length()) {
+				// split the edge
+				Node<T> mid = new Node<T>(c.prefix.substring(0, common));
+				c.prefix = c.prefix.substring(common);
+				mid.building.add(c);
+				n.building.set(n.building.indexOf(c), mid);
+				c = mid;
+			}
+			text = text.substring(common);
+			n = c;
+		}
+		return n;
+	}
+
+	/**
+	 * Find the deepest entry along the most specific path: an exact match, literal text, then a parameter,
+	 * then a wildcard; if whole, only entries matching to the end of the string; spans, if given, get the
+	 * parameter start & end positions and the end of the match
+	 */
+	private static <T> Node<T> find(Node<T> n, String s, int pos, int depth, int[] spans, boolean whole) {
+		int len = s.length();
+		if(pos == len && n.result != null) {
+			if(spans != null) {
+				spans[spans.length - 1] = pos;
+			}
+			return n;
+		}
+		if(pos < len) {
+			Node<T> c = n.child(s.charAt(pos));
+			if(c != null && s.startsWith(c.prefix, pos)) {
+				Node<T> r = find(c, s, pos + c.prefix.length(), depth, spans, whole);
+				if(r != null) {
+					return r;
+				}
+			}
+			if(n.param != null) {
+				int end = s.indexOf('/', pos);
+				if(end < 0) {
+					end = len;
+				}
+				if(end > pos) {
+					if(spans != null) {
+						spans[depth * 2] = pos;
+						spans[depth * 2 + 1] = end;
+					}
+					Node<T> r = find(n.param, s, end, depth + 1, spans, whole);
+					if(r != null) {
+						return r;
+					}
+				}
+			}
+		}
+		if(n.wildcard != null && n.wildcard.result != null) {
+			if(spans != null) {
+				spans[depth * 2] = pos;
+				spans[depth * 2 + 1] = len;
+				spans[spans.length - 1] = len;
 			}
-			if(curr.result != null) {
-				result = curr.result;
+			return n.wildcard;
+		}
+		if(n.result != null && (!whole || pos == len)) {
+			if(spans != null) {
+				spans[spans.length - 1] = pos;
 			}
+			return n;
+		}
+		return null;
+	}
+
+	/**
+	 * The result for the longest matching prefix, or null
+	 */
+	public T get(String s) {
+		Node<T> n = find(root, s, 0, 0, null, false);
+		return n != null ? n.result : null;
+	}
+
+	/**
+	 * The longest matching prefix with its parameter values, or null
+	 */
+	public Match<T> match(String s) {
+		return match(s, false);
+	}
+
+	/**
+	 * The entry matching all of the string with its parameter values, or null
+	 */
+	public Match<T> matchWhole(String s) {
+		return match(s, true);
+	}
+
+	private Match<T> match(String s, boolean whole) {
+		Node<T> r = root;
+		int[] spans = new int[r.maxParams * 2 + 1];
+		Node<T> n = find(r, s, 0, 0, spans, whole);
+		if(n == null) {
+			return null;
 		}
-		return result;
+		String[] values = new String[n.params];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = s.substring(spans[i * 2], spans[i * 2 + 1]);
+		}
+		return new Match<T>(n.result, spans[spans.length - 1], n.names, values);
+	}
+
+	/**
+	 * The strings & results added, unmodifiable
+	 */
+	public synchronized Map<String,T> entries() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(entries));
 	}
-	
+
 	@Override
 	public String toString() {
-		return entries.toString();
+		return entries().toString();
 	}
 }
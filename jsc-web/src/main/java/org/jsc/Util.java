@@ -930,7 +930,7 @@ public class Util {
 	public static Map<String,Field> fields(Class<?> t) {
 		Map<String,Field> out = new HashMap<>();
 		Class<?> c = t;
-		while(c != Object.class) {
+		while(c != null && c != Object.class) {
 			for(Field f : c.getDeclaredFields()) {
 				if(Modifier.isStatic(f.getModifiers())) {
 					continue;
@@ -957,6 +957,26 @@ public class Util {
 		}
 	}
 
+	/**
+	 * Get the wrapper type for a primitive type, or the type itself
+	 * @param c
+	 * @return
+	 */
+	public static Class<?> box(Class<?> c) {
+		if(!c.isPrimitive()) {
+			return c;
+		}
+		if(c == int.class) return Integer.class;
+		if(c == long.class) return Long.class;
+		if(c == boolean.class) return Boolean.class;
+		if(c == double.class) return Double.class;
+		if(c == float.class) return Float.class;
+		if(c == short.class) return Short.class;
+		if(c == byte.class) return Byte.class;
+		if(c == char.class) return Character.class;
+		return Void.class;
+	}
+	
 	/**
 	 * Getter methods for the class
 	 * @param c
@@ -965,7 +985,7 @@ public class Util {
 	public static Map<String,Method> getters(Class<?> c) {
 		Map<String,Method> out = new HashMap<>();
 		Class<?> typ = c;
-		while(typ != Object.class) {
+		while(typ != null && typ != Object.class) {
 			for(Method m : typ.getDeclaredMethods()) {
 				if(Modifier.isPublic(m.getModifiers())
 				&& !Modifier.isStatic(m.getModifiers())
@@ -990,7 +1010,7 @@ public class Util {
 	public static Map<String,Method> setters(Class<?> c) {
 		Map<String,Method> out = new HashMap<>();
 		Class<?> typ = c;
-		while(typ != Object.class) {
+		while(typ != null && typ != Object.class) {
 			for(Method m : typ.getDeclaredMethods()) {
 				if(Modifier.isPublic(m.getModifiers())
 				&& !Modifier.isStatic(m.getModifiers())
@@ -1015,7 +1035,7 @@ public class Util {
 	public static Map<String, Method> methods(Class<?> c) {
 		Map<String,Method> out = new HashMap<>();
 		Class<?> typ = c;
-		while(typ != Object.class) {
+		while(typ != null && typ != Object.class) {
 			for(Method m : typ.getDeclaredMethods()) {
 				if(Modifier.isPublic(m.getModifiers())
 				&& !Modifier.isStatic(m.getModifiers())) {
@@ -122,6 +122,7 @@ public final class BufferPool {
 		@Override
 		public void write(char[] cbuf, int off, int len) throws IOException {
 			int spos = off;
+			len += off; // end position in cbuf
 			// source length, can we fit in current buffer? do, otherwise find length to use from cbuf
 			int slen = len - spos < bufSize - pos ? len - spos : bufSize - pos;
 			// while we can't fit into the buffer
@@ -210,7 +211,7 @@ public final class BufferPool {
 		@Override
 		public void close() throws IOException {
 			synchronized(available) {
-				for(int b = 0; b < buf; b++) {
+				for(int b = 0; b <= buf; b++) {
 					removeFromUsed(bufs[b]);
 					available[availableLength] = bufs[b];
 					availableLength++;
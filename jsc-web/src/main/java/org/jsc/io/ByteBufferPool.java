@@ -0,0 +1,65 @@
+package org.jsc.io;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of equally sized direct byte buffers, so socket reads & writes don't copy through the heap
+ * and buffers aren't allocated per request; buffers over the pool's capacity are allocated as needed
+ * and left to the garbage collector when released
+ * @author kzantow
+ */
+public final class ByteBufferPool {
+	private final ConcurrentLinkedQueue<ByteBuffer> available = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger availableCount = new AtomicInteger();
+	private final int capacity;
+	private final int bufSize;
+
+	/**
+	 * Keeps up to capacity idle buffers of bufSize bytes
+	 * @param capacity
+	 * @param bufSize
+	 */
+	public ByteBufferPool(int capacity, int bufSize) {
+		this.capacity = capacity;
+		this.bufSize = bufSize;
+	}
+
+	/**
+	 * Get a cleared buffer
+	 * @return
+	 */
+	public ByteBuffer acquire() {
+		ByteBuffer b = available.poll();
+		if(b == null) {
+			return ByteBuffer.allocateDirect(bufSize);
+		}
+		availableCount.decrementAndGet();
+		return b;
+	}
+
+	/**
+	 * Return a buffer from {@link #acquire()}, it must not be used after this
+	 * @param b
+	 */
+	public void release(ByteBuffer b) {
+		if(b.capacity() != bufSize || availableCount.get() >= capacity) {
+			return;
+		}
+		b.clear();
+		availableCount.incrementAndGet();
+		available.offer(b);
+	}
+
+	public int getBufferSize() {
+		return bufSize;
+	}
+
+	/**
+	 * Idle buffers in the pool
+	 */
+	public int getAvailable() {
+		return availableCount.get();
+	}
+}
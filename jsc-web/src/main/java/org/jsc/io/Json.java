@@ -38,4 +38,22 @@ public interface Json {
 	 * @return
 	 */
 	Object fromJson(Class<?> type, Reader r);
+	
+	/**
+	 * Write the given object as a JSON string to the provided writer, through a buffered
+	 * writer which outputs primitives directly
+	 * @param o
+	 * @param w
+	 */
+	void toJsonStream(Object o, Writer w);
+	
+	/**
+	 * Read an object as JSON data from the given reader, materializing the expected type
+	 * directly as the data is read, rather than building an intermediate tree. Type
+	 * information, if present, must be the first property of each object.
+	 * @param type
+	 * @param r
+	 * @return
+	 */
+	Object fromJsonStream(Class<?> type, Reader r);
 }
@@ -0,0 +1,123 @@
+package org.jsc.io.json;
+
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+
+import org.jsc.io.json.JsonService.JsonContext;
+import org.jsc.io.json.JsonService.JsonObject;
+import org.jsc.io.json.JsonService.KPropertyReader;
+import org.jsc.io.json.JsonService.KStream;
+
+/**
+ * Base class for generated serializers/deserializers of a single type; subclasses
+ * are generated by {@link JsonCodecGenerator} with direct field access. Fields which
+ * can't be accessed from generated code (e.g. private fields) use the reflective
+ * helpers here.
+ * @author kzantow
+ */
+public abstract class JsonCodec {
+	protected JsonService service;
+	protected Field[] fields;
+	protected Type[] types;
+	protected String[] prefixes;
+	protected KPropertyReader[] readers;
+
+	final void init(JsonService service, Field[] fields) {
+		this.service = service;
+		this.fields = fields;
+		types = new Type[fields.length];
+		prefixes = new String[fields.length];
+		readers = new KPropertyReader[fields.length];
+		for(int i = 0; i < fields.length; i++) {
+			fields[i].setAccessible(true);
+			types[i] = JsonService.fieldType(fields[i]);
+			prefixes[i] = ",\"" + fields[i].getName() + "\":";
+		}
+	}
+
+	/**
+	 * Creates a new instance of the type
+	 */
+	public abstract Object newInstance();
+
+	/**
+	 * Writes all fields, each preceded by a comma
+	 */
+	public abstract void writeFields(Object o, Writer w, JsonContext ctx) throws Exception;
+
+	/**
+	 * Reads the value for the field at the given index from the stream & sets it
+	 */
+	public abstract void readField(Object o, int field, KStream stream, JsonContext ctx) throws Exception;
+
+	/**
+	 * Sets a field to an already deserialized value
+	 */
+	public abstract void setField(Object o, int field, Object value) throws Exception;
+
+	/**
+	 * Number of fields handled by this codec
+	 */
+	public final int size() {
+		return fields.length;
+	}
+
+	/**
+	 * Name of the field at the given index
+	 */
+	public final String name(int field) {
+		return fields[field].getName();
+	}
+
+	/**
+	 * Materializes an instance from a parsed JSON tree
+	 */
+	public final Object materialize(JsonObject props, JsonContext ctx) throws Exception {
+		Object o = newInstance();
+		for(int i = 0; i < fields.length; i++) {
+			Object json = props.get(fields[i].getName());
+			if(types[i] == Object.class) {
+				setField(o, i, service.deserializeUntyped(json, ctx));
+			}
+			else if(json != null) {
+				try {
+					setField(o, i, service.deserialize(types[i], json, ctx));
+				} catch(JsonService.JsonException e) {
+					throw e;
+				} catch(Exception e) {
+					throw new JsonService.JsonException(props.line, props.col, "Error attempting to set field: " + fields[i].toGenericString() + ": ", e);
+				}
+			}
+		}
+		return o;
+	}
+
+	protected final void writeValue(Object v, Writer w, JsonContext ctx) throws Exception {
+		service.serialize(v, w, ctx);
+	}
+
+	protected final void writeLong(Writer w, long v) throws Exception {
+		JsonService.writeLong(w, v);
+	}
+
+	protected final Object readValue(int field, KStream stream, JsonContext ctx) throws Exception {
+		return service.readValue(types[field], stream, ctx);
+	}
+
+	protected final void writeField(int field, Object o, Writer w, JsonContext ctx) throws Exception {
+		service.serialize(fields[field].get(o), w, ctx);
+	}
+
+	protected final void readFieldReflective(int field, Object o, KStream stream, JsonContext ctx) throws Exception {
+		KPropertyReader r = readers[field];
+		if(r == null) {
+			readers[field] = r = service.propertyReader(fields[field]);
+		}
+		r.read(o, stream, ctx);
+	}
+
+	protected final void setFieldReflective(int field, Object o, Object value) throws Exception {
+		fields[field].set(o, value);
+	}
+}
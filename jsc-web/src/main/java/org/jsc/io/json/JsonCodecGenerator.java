@@ -0,0 +1,229 @@
+package org.jsc.io.json;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.CtNewMethod;
+
+import org.jsc.Log;
+
+/**
+ * Generates a {@link JsonCodec} per type with direct field access & unboxed
+ * primitive reads and writes; the generated class is defined in the same package and
+ * class loader as the type, so package-private fields are accessed directly, too.
+ * @author kzantow
+ */
+final class JsonCodecGenerator {
+	private static final Log log = new Log(JsonCodecGenerator.class);
+	private static final AtomicInteger sequence = new AtomicInteger();
+
+	private final ClassPool cp = new ClassPool(true);
+	private final Set<ClassLoader> loaders = new HashSet<ClassLoader>(); // on the class path, guarded by this
+
+	JsonCodecGenerator() {
+		cp.insertClassPath(new ClassClassPath(JsonCodec.class));
+	}
+
+	/**
+	 * Generates a codec for the type & fields; returns null if the type is not supported
+	 */
+	synchronized JsonCodec generate(JsonService service, Class<?> c, List<Field> fieldList) {
+		if(!isAccessible(c, c) || c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+			return null;
+		}
+		try {
+			c.getDeclaredConstructor(); // must have a no-arg constructor
+		} catch(NoSuchMethodException e) {
+			return null;
+		}
+		Field[] fields = fieldList.toArray(new Field[fieldList.size()]);
+		try {
+			if(loaders.add(c.getClassLoader())) {
+				cp.insertClassPath(new ClassClassPath(c));
+			}
+			String type = sourceName(c);
+			CtClass gen = cp.makeClass(c.getName() + "$$JsonCodec" + sequence.incrementAndGet(), cp.get(JsonCodec.class.getName()));
+			gen.addConstructor(CtNewConstructor.defaultConstructor(gen));
+
+			gen.addMethod(CtNewMethod.make("public Object newInstance() { return new " + type + "(); }", gen));
+
+			StringBuilder write = new StringBuilder();
+			StringBuilder read = new StringBuilder();
+			StringBuilder set = new StringBuilder();
+			write.append("public void writeFields(Object o, java.io.Writer w, org.jsc.io.json.JsonService$JsonContext ctx) throws Exception {")
+				.append(type).append(" v = (").append(type).append(")o;");
+			read.append("public void readField(Object o, int field, org.jsc.io.json.JsonService$KStream stream, org.jsc.io.json.JsonService$JsonContext ctx) throws Exception {")
+				.append(type).append(" v = (").append(type).append(")o;");
+			set.append("public void setField(Object o, int field, Object value) throws Exception {")
+				.append(type).append(" v = (").append(type).append(")o;");
+
+			Set<String> names = new HashSet<String>();
+			for(int i = 0; i < fields.length; i++) {
+				Field f = fields[i];
+				Class<?> ft = f.getType();
+				boolean shadowed = !names.add(f.getName()); // superclass field with the same name as a subclass field
+				write.append("w.write(prefixes[").append(i).append("]);");
+				read.append("if(field == ").append(i).append(") {");
+				set.append("if(field == ").append(i).append(") {");
+
+				if(shadowed || !isAccessible(f, c) || !isAccessible(ft, c)) {
+					write.append("writeField(").append(i).append(", o, w, ctx);");
+					read.append("readFieldReflective(").append(i).append(", o, stream, ctx);");
+					set.append("setFieldReflective(").append(i).append(", o, value);");
+				}
+				else {
+					String v = "v." + f.getName();
+					if(ft == int.class || ft == long.class || ft == short.class || ft == byte.class) {
+						write.append("writeLong(w, (long)").append(v).append(");");
+					}
+					else if(ft == double.class) {
+						write.append("w.write(Double.toString(").append(v).append("));");
+					}
+					else if(ft == float.class) {
+						write.append("w.write(Float.toString(").append(v).append("));");
+					}
+					else if(ft == boolean.class) {
+						write.append("w.write(").append(v).append(" ? \"true\" : \"false\");");
+					}
+					else if(ft == char.class) {
+						write.append("w.write(String.valueOf(").append(v).append("));");
+					}
+					else {
+						write.append("writeValue(").append(v).append(", w, ctx);");
+					}
+
+					if(ft == int.class) {
+						read.append("if(!stream.readNull()) ").append(v).append(" = stream.readInt();");
+					}
+					else if(ft == long.class) {
+						read.append("if(!stream.readNull()) ").append(v).append(" = stream.readLong();");
+					}
+					else if(ft == double.class) {
+						read.append("if(!stream.readNull()) ").append(v).append(" = stream.readDouble();");
+					}
+					else if(ft == float.class) {
+						read.append("if(!stream.readNull()) ").append(v).append(" = stream.readFloat();");
+					}
+					else if(ft == boolean.class) {
+						read.append("if(!stream.readNull()) ").append(v).append(" = stream.readBoolean();");
+					}
+					else {
+						read.append("Object val = readValue(").append(i).append(", stream, ctx);")
+							.append("if(val != null) ").append(v).append(" = ").append(unbox(ft, "val")).append(';');
+					}
+
+					set.append(v).append(" = ").append(unbox(ft, "value")).append(';');
+				}
+				read.append("return; }");
+				set.append("return; }");
+			}
+			write.append('}');
+			read.append('}');
+			set.append('}');
+
+			gen.addMethod(CtNewMethod.make(write.toString(), gen));
+			gen.addMethod(CtNewMethod.make(read.toString(), gen));
+			gen.addMethod(CtNewMethod.make(set.toString(), gen));
+
+			Class<?> out = gen.toClass(c.getClassLoader(), c.getProtectionDomain());
+			gen.detach();
+			JsonCodec codec = (JsonCodec)out.newInstance();
+			codec.init(service, fields);
+			return codec;
+		} catch(Throwable t) {
+			log.debug("Unable to generate JSON codec for: ", c, ", using reflection: ", t);
+			return null;
+		}
+	}
+
+	/**
+	 * Converts a value to the given type in generated source
+	 */
+	private static String unbox(Class<?> t, String v) {
+		if(t == int.class) {
+			return "((Number)" + v + ").intValue()";
+		}
+		if(t == long.class) {
+			return "((Number)" + v + ").longValue()";
+		}
+		if(t == short.class) {
+			return "((Number)" + v + ").shortValue()";
+		}
+		if(t == byte.class) {
+			return "((Number)" + v + ").byteValue()";
+		}
+		if(t == double.class) {
+			return "((Number)" + v + ").doubleValue()";
+		}
+		if(t == float.class) {
+			return "((Number)" + v + ").floatValue()";
+		}
+		if(t == boolean.class) {
+			return "((Boolean)" + v + ").booleanValue()";
+		}
+		if(t == char.class) {
+			return "((Character)" + v + ").charValue()";
+		}
+		return "(" + sourceName(t) + ")" + v;
+	}
+
+	/**
+	 * Gets the name of the type as used in javassist source
+	 */
+	private static String sourceName(Class<?> t) {
+		if(t.isArray()) {
+			return sourceName(t.getComponentType()) + "[]";
+		}
+		return t.getName();
+	}
+
+	/**
+	 * Whether a type is accessible from generated code in the package of the given type
+	 */
+	private static boolean isAccessible(Class<?> t, Class<?> from) {
+		while(t.isArray()) {
+			t = t.getComponentType();
+		}
+		if(t.isPrimitive()) {
+			return true;
+		}
+		for(Class<?> c = t; c != null; c = c.getEnclosingClass()) {
+			int mod = c.getModifiers();
+			if(Modifier.isPrivate(mod)) {
+				return false;
+			}
+			if(!Modifier.isPublic(mod) && !samePackage(c, from)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Whether a field is accessible from generated code in the package of the given type
+	 */
+	private static boolean isAccessible(Field f, Class<?> from) {
+		int mod = f.getModifiers();
+		if(Modifier.isPrivate(mod) || Modifier.isFinal(mod)) {
+			return false;
+		}
+		if(!isAccessible(f.getDeclaringClass(), from)) {
+			return false;
+		}
+		return Modifier.isPublic(mod) || samePackage(f.getDeclaringClass(), from);
+	}
+
+	private static boolean samePackage(Class<?> a, Class<?> b) {
+		return a.getClassLoader() == b.getClassLoader()
+			&& a.getPackage() != null && b.getPackage() != null
+			&& a.getPackage().getName().equals(b.getPackage().getName());
+	}
+}
@@ -1,5 +1,6 @@
 package org.jsc.io.json;
 
+import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
@@ -70,6 +71,13 @@ public class JsonService implements Json {
 		public void materialize(Object o, JsonObject json, JsonContext ctx) throws Exception;
 	}
 	
+	/**
+	 * Binds a single property directly from the token stream
+	 */
+	public static interface KPropertyReader {
+		public void read(Object o, KStream stream, JsonContext ctx) throws Exception;
+	}
+	
 	/**
 	 * Implement this for custom JSON serialization
 	 */
@@ -170,11 +178,43 @@ public class JsonService implements Json {
 		int col = 0;
 		
 		private StringBuilder utility = new StringBuilder(1024);
+		private StringBuilder recording; // characters read while recording, shared by nested recordings
+		private int recordings;
 		
 		public KStream(Reader r) {
 			this.r = r;
 		}
 		
+		/**
+		 * Keep the characters read from here on, starting with the current one, until
+		 * {@link #stopRecording()}; returns the offset to pass to {@link #recorded(int)}
+		 */
+		int startRecording() {
+			recordings++;
+			if(recording != null) {
+				// already recording, the current character was the last one kept
+				return recording.length() - 1;
+			}
+			recording = new StringBuilder();
+			if(hasNext()) {
+				recording.append(curr);
+			}
+			return 0;
+		}
+		
+		/**
+		 * The characters read since the recording at the offset was started
+		 */
+		String recorded(int start) {
+			return recording.substring(start);
+		}
+		
+		void stopRecording() {
+			if(--recordings == 0) {
+				recording = null;
+			}
+		}
+		
 		/**
 		 * Moves to the next character; returns true if more characters, false if at the end of stream
 		 */
@@ -203,6 +243,9 @@ public class JsonService implements Json {
 			prev = curr;
 			if(idx < sz) {
 				curr = buf[idx];
+				if(recording != null) {
+					recording.append(curr);
+				}
 				return true;
 			}
 			
@@ -215,11 +258,21 @@ public class JsonService implements Json {
 		
 		public void consumeWhitespace() {
 			while(Character.isWhitespace(curr)) {
-				read();
+				if(!read()) {
+					break;
+				}
 			}
 		}
 		
 		public String readIdentifier() {
+			readToken();
+			return utility.toString();
+		}
+		
+		/**
+		 * Reads an identifier or quoted string into the utility buffer; returns true if it was quoted
+		 */
+		private boolean readToken() {
 			utility.setLength(0);
 			consumeWhitespace();
 			char bound = 0x0;
@@ -253,12 +306,460 @@ public class JsonService implements Json {
 					break;
 				}
 			}
-			return utility.toString();
+			return bound != 0x0;
 		}
 		
 		public String readString() {
 			return readIdentifier();
 		}
+		
+		/**
+		 * Returns the type of the next token, without consuming it
+		 */
+		public KToken peek() {
+			consumeWhitespace();
+			if(!hasNext()) {
+				return KToken.END;
+			}
+			switch(curr) {
+				case '{': return KToken.BEGIN_OBJECT;
+				case '}': return KToken.END_OBJECT;
+				case '[': return KToken.BEGIN_ARRAY;
+				case ']': return KToken.END_ARRAY;
+				case '"':
+				case '\'': return KToken.STRING;
+				case '-': return KToken.NUMBER;
+			}
+			if(curr >= '0' && curr <= '9') {
+				return KToken.NUMBER;
+			}
+			return KToken.LITERAL;
+		}
+		
+		/**
+		 * Consumes the expected character, skipping leading whitespace
+		 */
+		public void expect(char c) {
+			consumeWhitespace();
+			if(!hasNext()) {
+				throw new JsonException(this, "Unexpected end of input, expected: " + c);
+			}
+			if(curr != c) {
+				throw new JsonException(this, c);
+			}
+			read();
+		}
+		
+		/**
+		 * Consumes the end character if it is next, e.g. for an empty object or array
+		 */
+		public boolean endOf(char end) {
+			consumeWhitespace();
+			if(hasNext() && curr == end) {
+				read();
+				return true;
+			}
+			return false;
+		}
+		
+		/**
+		 * Reads the separator after an object property or array element; returns true
+		 * if another entry follows, false if the end character was consumed
+		 */
+		public boolean more(char end) {
+			consumeWhitespace();
+			if(!hasNext()) {
+				throw new JsonException(this, "Unexpected end of input, expected: " + end);
+			}
+			if(curr == ',') {
+				read();
+				return !endOf(end); // allow trailing commas, as the tree reader does
+			}
+			if(curr == end) {
+				read();
+				return false;
+			}
+			throw new JsonException(this, ',', end);
+		}
+		
+		/**
+		 * Consumes a null literal if it is next
+		 */
+		public boolean readNull() {
+			consumeWhitespace();
+			if(curr != 'n' || !hasNext()) {
+				return false;
+			}
+			readToken();
+			if(!"null".contentEquals(utility)) {
+				throw new JsonException(this, "Expected null, found: " + utility);
+			}
+			return true;
+		}
+		
+		/**
+		 * Reads a string value; an unquoted null literal returns null
+		 */
+		public String readStringOrNull() {
+			if(!readToken() && "null".contentEquals(utility)) {
+				return null;
+			}
+			return utility.toString();
+		}
+		
+		/**
+		 * Reads a boolean value, quoted or not
+		 */
+		public boolean readBoolean() {
+			readToken();
+			if(utility.length() != 4) {
+				return false;
+			}
+			for(int i = 0; i < 4; i++) {
+				if(Character.toLowerCase(utility.charAt(i)) != "true".charAt(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+		
+		/**
+		 * Reads an integer value directly from the stream
+		 */
+		public long readLong() {
+			if(readNumber()) {
+				throw new JsonException(this, "Expected an integer, found: " + utility);
+			}
+			if(truncated) {
+				try {
+					return Long.parseLong(utility.toString());
+				} catch(NumberFormatException e) {
+					throw new JsonException(this, "Illegal integer format: " + utility);
+				}
+			}
+			return negative ? -mantissa : mantissa;
+		}
+		
+		/**
+		 * Reads an integer value directly from the stream, ensuring it is within int bounds
+		 */
+		public int readInt() {
+			long v = readLong();
+			if(v < Integer.MIN_VALUE || v > Integer.MAX_VALUE) {
+				throw new JsonException(this, "Integer out of range: " + v);
+			}
+			return (int)v;
+		}
+		
+		/**
+		 * Reads a decimal value directly from the stream; values which can't be
+		 * represented exactly from the parsed digits fall back to Double.parseDouble
+		 */
+		public double readDouble() {
+			readNumber();
+			if(truncated || mantissa > MAX_EXACT_DOUBLE || exponent < -22 || exponent > 22) {
+				try {
+					return Double.parseDouble(utility.toString());
+				} catch(NumberFormatException e) {
+					throw new JsonException(this, "Illegal double format: " + utility);
+				}
+			}
+			double v = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+			return negative ? -v : v;
+		}
+		
+		/**
+		 * Reads a float value directly from the stream, see {@link #readDouble()}
+		 */
+		public float readFloat() {
+			readNumber();
+			if(truncated || mantissa > MAX_EXACT_FLOAT || exponent < -10 || exponent > 10) {
+				try {
+					return Float.parseFloat(utility.toString());
+				} catch(NumberFormatException e) {
+					throw new JsonException(this, "Illegal float format: " + utility);
+				}
+			}
+			float v = exponent < 0 ? mantissa / (float)POWERS_OF_TEN[-exponent] : mantissa * (float)POWERS_OF_TEN[exponent];
+			return negative ? -v : v;
+		}
+		
+		private static final long MAX_EXACT_DOUBLE = 1L << 53;
+		private static final long MAX_EXACT_FLOAT = 1L << 24;
+		private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+			1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+		};
+		
+		// results of the last readNumber call
+		private long mantissa;
+		private int exponent;
+		private boolean negative;
+		private boolean truncated;
+		
+		/**
+		 * Parses a number into mantissa/exponent, also keeping the characters in the utility
+		 * buffer for the cases which need a fallback; returns true if the number has a
+		 * fraction or exponent part
+		 */
+		private boolean readNumber() {
+			utility.setLength(0);
+			consumeWhitespace();
+			mantissa = 0;
+			exponent = 0;
+			negative = false;
+			truncated = false;
+			char bound = 0x0;
+			if(curr == '"' || curr == '\'') {
+				bound = curr;
+				read();
+			}
+			boolean eof = !hasNext();
+			boolean decimal = false;
+			if(!eof && (curr == '-' || curr == '+')) {
+				negative = curr == '-';
+				utility.append(curr);
+				eof = !read();
+			}
+			int digits = 0;
+			while(!eof && curr >= '0' && curr <= '9') {
+				addDigit(curr - '0', false);
+				digits++;
+				utility.append(curr);
+				eof = !read();
+			}
+			if(!eof && curr == '.') {
+				decimal = true;
+				utility.append(curr);
+				eof = !read();
+				while(!eof && curr >= '0' && curr <= '9') {
+					addDigit(curr - '0', true);
+					digits++;
+					utility.append(curr);
+					eof = !read();
+				}
+			}
+			if(!eof && (curr == 'e' || curr == 'E')) {
+				decimal = true;
+				utility.append(curr);
+				eof = !read();
+				boolean negativeExponent = false;
+				if(!eof && (curr == '-' || curr == '+')) {
+					negativeExponent = curr == '-';
+					utility.append(curr);
+					eof = !read();
+				}
+				int exp = 0;
+				while(!eof && curr >= '0' && curr <= '9') {
+					if(exp < 10000) {
+						exp = exp * 10 + (curr - '0');
+					}
+					utility.append(curr);
+					eof = !read();
+				}
+				exponent += negativeExponent ? -exp : exp;
+			}
+			if(digits == 0) {
+				// e.g. NaN, Infinity, as written by Double.toString
+				while(!eof && Character.isJavaIdentifierPart(curr)) {
+					utility.append(curr);
+					eof = !read();
+				}
+				truncated = true;
+				decimal = true;
+			}
+			if(bound != 0x0) {
+				if(eof || curr != bound) {
+					throw new JsonException(this, bound);
+				}
+				read();
+			}
+			return decimal;
+		}
+		
+		/**
+		 * Accumulates a digit into the mantissa, tracking the exponent for digits which don't fit
+		 */
+		private void addDigit(int d, boolean fraction) {
+			if(mantissa <= (Long.MAX_VALUE - d) / 10) {
+				mantissa = mantissa * 10 + d;
+				if(fraction) {
+					exponent--;
+				}
+			} else {
+				truncated = true;
+				if(!fraction) {
+					exponent++;
+				}
+			}
+		}
+		
+		/**
+		 * Skips the next value, including any nested objects and arrays
+		 */
+		public void skipValue() {
+			consumeWhitespace();
+			if(curr != '{' && curr != '[') {
+				readToken();
+				return;
+			}
+			int depth = 0;
+			do {
+				if(!hasNext()) {
+					throw new JsonException(this, "Unexpected end of input");
+				}
+				if(curr == '"' || curr == '\'') {
+					readToken();
+					continue;
+				}
+				if(curr == '{' || curr == '[') {
+					depth++;
+				} else if(curr == '}' || curr == ']') {
+					depth--;
+				}
+				read();
+			} while(depth > 0);
+		}
+	}
+	
+	/**
+	 * Token types returned by {@link KStream#peek()}
+	 */
+	public static enum KToken {
+		BEGIN_OBJECT,
+		END_OBJECT,
+		BEGIN_ARRAY,
+		END_ARRAY,
+		STRING,
+		NUMBER,
+		LITERAL,
+		END
+	}
+	
+	/**
+	 * Buffered writer with methods to write JSON primitives directly, without intermediate Strings
+	 */
+	public static final class KWriter extends Writer {
+		private final Writer w;
+		private final char[] buf;
+		private int pos = 0;
+		
+		public KWriter(Writer w) {
+			this(w, 8192);
+		}
+		
+		public KWriter(Writer w, int bufferSize) {
+			this.w = w;
+			this.buf = new char[bufferSize];
+		}
+		
+		@Override
+		public void write(int c) throws IOException {
+			if(pos == buf.length) {
+				flushBuffer();
+			}
+			buf[pos++] = (char)c;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if(len > buf.length - pos) {
+				flushBuffer();
+				if(len > buf.length) {
+					w.write(cbuf, off, len);
+					return;
+				}
+			}
+			System.arraycopy(cbuf, off, buf, pos, len);
+			pos += len;
+		}
+		
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			if(len > buf.length - pos) {
+				flushBuffer();
+				if(len > buf.length) {
+					w.write(str, off, len);
+					return;
+				}
+			}
+			str.getChars(off, off + len, buf, pos);
+			pos += len;
+		}
+		
+		/**
+		 * Writes the decimal digits of the value directly to the buffer
+		 */
+		public void writeLong(long v) throws IOException {
+			if(v == Long.MIN_VALUE) {
+				write(Long.toString(v));
+				return;
+			}
+			if(buf.length - pos < 20) {
+				flushBuffer();
+			}
+			if(v < 0) {
+				buf[pos++] = '-';
+				v = -v;
+			}
+			int end = pos + digits(v);
+			int i = end;
+			do {
+				buf[--i] = (char)('0' + (v % 10));
+				v /= 10;
+			} while(v != 0);
+			pos = end;
+		}
+		
+		private static int digits(long v) {
+			int n = 1;
+			while(v >= 10) {
+				v /= 10;
+				n++;
+			}
+			return n;
+		}
+		
+		/**
+		 * Writes a quoted string, escaping quotes and backslashes
+		 */
+		public void writeString(CharSequence s) throws IOException {
+			write('"');
+			int len = s.length();
+			for(int i = 0; i < len; i++) {
+				char c = s.charAt(i);
+				if(pos >= buf.length - 1) {
+					flushBuffer();
+				}
+				if(c == '"' || c == '\\') {
+					buf[pos++] = '\\';
+				}
+				buf[pos++] = c;
+			}
+			write('"');
+		}
+		
+		/**
+		 * Writes any buffered characters to the underlying writer
+		 */
+		public void flushBuffer() throws IOException {
+			if(pos > 0) {
+				w.write(buf, 0, pos);
+				pos = 0;
+			}
+		}
+		
+		@Override
+		public void flush() throws IOException {
+			flushBuffer();
+			w.flush();
+		}
+		
+		@Override
+		public void close() throws IOException {
+			flushBuffer();
+			w.close();
+		}
 	}
 
 	private final Map<Class, String> classToType = new ConcurrentHashMap<Class, String>();
@@ -293,9 +794,67 @@ public class JsonService implements Json {
 		}
 		classToType.put(c, name);
 		typeToClass.put(name, c);
+		subtyped.clear();
+	}
+	
+	private volatile boolean generateCodecs = Util.env("jsonCodegen", false);
+	private JsonCodecGenerator generator;
+	private final Map<Class, JsonCodec> codecs = new ConcurrentHashMap<Class, JsonCodec>();
+	private final Map<Class, Boolean> noCodec = new ConcurrentHashMap<Class, Boolean>();
+	
+	/**
+	 * Use generated serializers/deserializers with direct field access for object types,
+	 * falling back to reflection for types which aren't supported; this must be set
+	 * before any types are serialized or deserialized
+	 */
+	public void setGenerateCodecs(boolean generateCodecs) {
+		this.generateCodecs = generateCodecs;
+	}
+	
+	/**
+	 * Gets the generated codec for the type, or null if not enabled or not supported
+	 */
+	JsonCodec codec(Class c) {
+		if(!generateCodecs) {
+			return null;
+		}
+		JsonCodec codec = codecs.get(c);
+		if(codec == null && !noCodec.containsKey(c)) {
+			synchronized(codecs) {
+				codec = codecs.get(c);
+				if(codec == null && !noCodec.containsKey(c)) {
+					if(generator == null) {
+						generator = new JsonCodecGenerator();
+					}
+					codec = generator.generate(this, c, serializedFields(c));
+					if(codec == null) {
+						noCodec.put(c, Boolean.TRUE);
+					} else {
+						codecs.put(c, codec);
+					}
+				}
+			}
+		}
+		return codec;
 	}
 	
-	private final Object deserialize(Type t, Object json, JsonContext ctx) throws Exception {
+	/**
+	 * All fields to serialize for the type, subclass fields first
+	 */
+	private List<Field> serializedFields(Class c) {
+		List<Field> out = new ArrayList<Field>();
+		while(c != null && c != Object.class) {
+			for(Field f : c.getDeclaredFields()) {
+				if(!shouldSkipField(f)) {
+					out.add(f);
+				}
+			}
+			c = c.getSuperclass();
+		}
+		return out;
+	}
+	
+	final Object deserialize(Type t, Object json, JsonContext ctx) throws Exception {
 		if(json == null) {
 			return null;
 		}
@@ -442,6 +1001,17 @@ public class JsonService implements Json {
 						return c;
 					}};
 				}
+				else if(codec(c) != null) {
+					final JsonCodec codec = codec(c);
+					out = new KMaterializer() { public Object materialize(Type t, Object json, JsonContext ctx) throws Exception {
+						JsonObject m = (JsonObject)json;
+						if(t == Object.class) {
+							// No type information
+							throw new JsonException(m.line, m.col, "Unknown type for JSON: " + m);
+						}
+						return codec.materialize(m, ctx);
+					}};
+				}
 				else {
 					Class parent = c;
 					ArrayList<KPropertyMaterializer> _fields = new ArrayList<KPropertyMaterializer>();
@@ -452,45 +1022,11 @@ public class JsonService implements Json {
 							}
 							f.setAccessible(true);
 							final String fieldName = f.getName();
-							Type t = f.getGenericType();
-							if(t instanceof ParameterizedType) {
-								while(t instanceof ParameterizedType) {
-									ParameterizedType pt = (ParameterizedType)t;
-									Class cls = (Class)pt.getRawType();
-									if(Collection.class.isAssignableFrom(cls)) { // collection is 1-arg generic type
-								        Type[] genericTypes = pt.getActualTypeArguments();
-								        if(genericTypes.length == 1) {
-								        	// Might be typed bounds, this will fail ...
-								        	t = genericTypes[0];
-								        	break;
-								        }
-									} else {
-										throw new IllegalArgumentException("Unsupported generic type for field: " + f.toGenericString());
-									}
-								}
-							} else {
-								t = f.getType();
-							}
-							final Type fieldType = t;
+							final Type fieldType = fieldType(f);
 							if(fieldType == Object.class) {
 								_fields.add(new KPropertyMaterializer() { public void materialize(Object o, JsonObject props, JsonContext ctx) throws Exception {
-									Object v = null;
-									Object json = props.get(fieldName);
-									if(json instanceof Collection) {
-										v = deserialize(fieldType, json, ctx);
-									}
-									else if(json instanceof Map) {
-										// no type information in "Object" fields; must use incoming JSON
-										Map m = (Map)(v = json);
-										Class declared = typeToClass.get(m.get(typeFieldName));
-										if(declared != null) {
-											v = deserialize(declared, json, ctx);
-										}
-									} else if(json != null) {
-										v = deserialize(json.getClass(), json, ctx);
-									}
 									// This may be set to a Map, if no type information is available on the incoming JSON
-									f.set(o, v);
+									f.set(o, deserializeUntyped(props.get(fieldName), ctx));
 								}});
 							} else {
 								_fields.add(new KPropertyMaterializer() { public void materialize(Object o, JsonObject props, JsonContext ctx) throws Exception {
@@ -533,6 +1069,53 @@ public class JsonService implements Json {
 		}
 	};
 	
+	/**
+	 * Gets the type to deserialize for the field; for collections, this is the element type
+	 */
+	static Type fieldType(Field f) {
+		Type t = f.getGenericType();
+		if(t instanceof ParameterizedType) {
+			while(t instanceof ParameterizedType) {
+				ParameterizedType pt = (ParameterizedType)t;
+				Class cls = (Class)pt.getRawType();
+				if(Collection.class.isAssignableFrom(cls)) { // collection is 1-arg generic type
+			        Type[] genericTypes = pt.getActualTypeArguments();
+			        if(genericTypes.length == 1) {
+			        	// Might be typed bounds, this will fail ...
+			        	t = genericTypes[0];
+			        	break;
+			        }
+				} else {
+					throw new IllegalArgumentException("Unsupported generic type for field: " + f.toGenericString());
+				}
+			}
+		} else {
+			t = f.getType();
+		}
+		return t;
+	}
+	
+	/**
+	 * Deserializes JSON with no declared type, e.g. for "Object" fields
+	 */
+	Object deserializeUntyped(Object json, JsonContext ctx) throws Exception {
+		Object v = null;
+		if(json instanceof Collection) {
+			v = deserialize(Object.class, json, ctx);
+		}
+		else if(json instanceof Map) {
+			// no type information in "Object" fields; must use incoming JSON
+			Map m = (Map)(v = json);
+			Class declared = typeToClass.get(m.get(typeFieldName));
+			if(declared != null) {
+				v = deserialize(declared, json, ctx);
+			}
+		} else if(json != null) {
+			v = deserialize(json.getClass(), json, ctx);
+		}
+		return v;
+	}
+	
 	/**
 	 * Base deserializer; dispatchers to appropriate deserializers
 	 */
@@ -681,6 +1264,433 @@ public class JsonService implements Json {
 		}});
 	}
 	
+	/**
+	 * Readers for scalar values in streaming mode, objects and arrays are handled by {@link #readValue}
+	 */
+	private final Map<Class, KDeserializer> readers = new ConcurrentHashMap<Class, KDeserializer>() {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public KDeserializer get(Object key) {
+			KDeserializer out = super.get(key);
+			if(out == null) {
+				final Class c = (Class)key;
+				if(c.isEnum()) {
+					out = new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+						String s = stream.readStringOrNull();
+						if(s == null) {
+							return null;
+						}
+						return Enum.valueOf(c, s);
+					}};
+				}
+				else if(Date.class.isAssignableFrom(c) || Calendar.class.isAssignableFrom(c)) {
+					out = new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+						String s = stream.readStringOrNull();
+						if(s == null) {
+							return null;
+						}
+						Date d;
+						try {
+							d = ctx.sdf.parse(s);
+						} catch(Exception e) {
+							throw new RuntimeException("Illegal date format: " + s);
+						}
+						if(c == Date.class) {
+							return d;
+						}
+						Calendar cal = Calendar.getInstance();
+						cal.setTime(d);
+						return cal;
+					}};
+				}
+				else {
+					return null; // not a scalar
+				}
+				put(c, out);
+			}
+			return out;
+		}
+	};
+	
+	{
+		readers.put(boolean.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return stream.readBoolean();
+		}});
+		readers.put(Boolean.class, readers.get(boolean.class));
+		
+		readers.put(byte.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return (byte)readRange(stream, Byte.MIN_VALUE, Byte.MAX_VALUE);
+		}});
+		readers.put(Byte.class, readers.get(byte.class));
+		
+		readers.put(short.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return (short)readRange(stream, Short.MIN_VALUE, Short.MAX_VALUE);
+		}});
+		readers.put(Short.class, readers.get(short.class));
+		
+		readers.put(int.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return stream.readInt();
+		}});
+		readers.put(Integer.class, readers.get(int.class));
+		
+		readers.put(long.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return stream.readLong();
+		}});
+		readers.put(Long.class, readers.get(long.class));
+		
+		readers.put(float.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return stream.readFloat();
+		}});
+		readers.put(Float.class, readers.get(float.class));
+		
+		readers.put(double.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return stream.readDouble();
+		}});
+		readers.put(Double.class, readers.get(double.class));
+		
+		readers.put(char.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			String s = stream.readString();
+			if(s.isEmpty()) {
+				throw new JsonException(stream, "Illegal char format: " + s);
+			}
+			return s.charAt(0);
+		}});
+		readers.put(Character.class, readers.get(char.class));
+		
+		readers.put(String.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			return stream.readStringOrNull();
+		}});
+		
+		readers.put(Class.class, new KDeserializer() { public Object read(Type t, KStream stream, JsonContext ctx) throws Exception {
+			String s = stream.readStringOrNull();
+			if(s == null) {
+				return null;
+			}
+			return typeToClass.get(s);
+		}});
+	}
+	
+	private static long readRange(KStream stream, long min, long max) {
+		long v = stream.readLong();
+		if(v < min || v > max) {
+			throw new JsonException(stream, "Value out of range: " + v);
+		}
+		return v;
+	}
+	
+	/**
+	 * Property readers for streaming mode, by class and property name
+	 */
+	private final Map<Class, Map<String, KPropertyReader>> properties = new ConcurrentHashMap<Class, Map<String, KPropertyReader>>() {
+		private static final long serialVersionUID = 1L;
+		
+		@Override
+		public Map<String, KPropertyReader> get(Object key) {
+			Map<String, KPropertyReader> out = super.get(key);
+			if(out == null) {
+				out = new HashMap<String, KPropertyReader>();
+				final JsonCodec codec = codec((Class)key);
+				if(codec != null) {
+					for(int i = codec.size() - 1; i >= 0; i--) { // subclass fields take precedence
+						final int field = i;
+						out.put(codec.name(i), new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+							codec.readField(o, field, stream, ctx);
+						}});
+					}
+					put((Class)key, out);
+					return out;
+				}
+				Class parent = (Class)key;
+				while(parent != null && parent != Object.class) {
+					for(Field f : parent.getDeclaredFields()) {
+						if(shouldSkipField(f) || out.containsKey(f.getName())) {
+							continue;
+						}
+						f.setAccessible(true);
+						out.put(f.getName(), propertyReader(f));
+					}
+					parent = parent.getSuperclass();
+				}
+				put((Class)key, out);
+			}
+			return out;
+		}
+	};
+	
+	/**
+	 * Creates a reader which binds a field as it is read from the stream; primitives are set without boxing
+	 */
+	KPropertyReader propertyReader(final Field f) {
+		final Class<?> typ = f.getType();
+		if(typ == int.class) {
+			return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+				if(!stream.readNull()) {
+					f.setInt(o, stream.readInt());
+				}
+			}};
+		}
+		if(typ == long.class) {
+			return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+				if(!stream.readNull()) {
+					f.setLong(o, stream.readLong());
+				}
+			}};
+		}
+		if(typ == double.class) {
+			return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+				if(!stream.readNull()) {
+					f.setDouble(o, stream.readDouble());
+				}
+			}};
+		}
+		if(typ == float.class) {
+			return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+				if(!stream.readNull()) {
+					f.setFloat(o, stream.readFloat());
+				}
+			}};
+		}
+		if(typ == boolean.class) {
+			return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+				if(!stream.readNull()) {
+					f.setBoolean(o, stream.readBoolean());
+				}
+			}};
+		}
+		final Type fieldType = fieldType(f);
+		if(fieldType == Object.class) {
+			return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+				// no type information in "Object" fields; use the tree reader
+				f.set(o, deserializeUntyped(anyObject.read(fieldType, stream, ctx), ctx));
+			}};
+		}
+		return new KPropertyReader() { public void read(Object o, KStream stream, JsonContext ctx) throws Exception {
+			try {
+				Object v = readValue(fieldType, stream, ctx);
+				if(v != null) {
+					f.set(o, v);
+				}
+			} catch(JsonException e) {
+				throw e;
+			} catch(Exception e) {
+				throw new JsonException(stream.line, stream.col, "Error attempting to set field: " + f.toGenericString() + ": ", e);
+			}
+		}};
+	}
+	
+	/**
+	 * Reads a value of the expected type directly from the stream
+	 */
+	Object readValue(Type t, KStream stream, JsonContext ctx) throws Exception {
+		Class c = t instanceof Class ? (Class)t : Object.class;
+		switch(stream.peek()) {
+			case BEGIN_ARRAY:
+				if(c.isArray()) {
+					return readArray(c.getComponentType(), stream, ctx);
+				}
+				return readList(c == Object.class || Collection.class.isAssignableFrom(c) ? Object.class : c, stream, ctx);
+			case BEGIN_OBJECT:
+				return readObject(c, stream, ctx);
+			case END:
+				throw new JsonException(stream, "Unexpected end of input");
+			default:
+				break;
+		}
+		if(c == Object.class) {
+			return deserializeUntyped(anyObject.read(c, stream, ctx), ctx);
+		}
+		if(c != String.class && stream.readNull()) {
+			return null;
+		}
+		KDeserializer reader = readers.get(c);
+		if(reader == null) {
+			throw new JsonException(stream, "Expected an object or array for: " + c.getName());
+		}
+		return reader.read(c, stream, ctx);
+	}
+	
+	private List readList(Type elementType, KStream stream, JsonContext ctx) throws Exception {
+		stream.expect('[');
+		List out = new ArrayList();
+		if(!stream.endOf(']')) {
+			do {
+				Object v = readValue(elementType, stream, ctx);
+				if(v != null) {
+					out.add(v);
+				}
+			} while(stream.more(']'));
+		}
+		return out;
+	}
+	
+	private Object readArray(Class componentType, KStream stream, JsonContext ctx) throws Exception {
+		stream.expect('[');
+		Object arr = Array.newInstance(componentType, 16);
+		int len = 0;
+		if(!stream.endOf(']')) {
+			do {
+				if(len == Array.getLength(arr)) {
+					Object next = Array.newInstance(componentType, len * 2);
+					System.arraycopy(arr, 0, next, 0, len);
+					arr = next;
+				}
+				Array.set(arr, len++, readValue(componentType, stream, ctx));
+			} while(stream.more(']'));
+		}
+		if(len < Array.getLength(arr)) {
+			Object out = Array.newInstance(componentType, len);
+			System.arraycopy(arr, 0, out, 0, len);
+			arr = out;
+		}
+		return arr;
+	}
+	
+	/**
+	 * Reads an object, binding properties as they're read when the type property is first, if
+	 * present, as written by {@link #toJson}. Objects of unknown type without a leading type
+	 * property are read to a {@link JsonObject} and deserialized from that. For types with
+	 * registered subtypes, the text is kept while reading, so a later type property naming a
+	 * subtype is deserialized from the tree of the whole object.
+	 */
+	private Object readObject(Class c, KStream stream, JsonContext ctx) throws Exception {
+		if(!hasSubtypes(c)) {
+			return readObject(c, stream, ctx, -1);
+		}
+		stream.consumeWhitespace();
+		int start = stream.startRecording();
+		try {
+			return readObject(c, stream, ctx, start);
+		} finally {
+			stream.stopRecording();
+		}
+	}
+	
+	private final Map<Class, Boolean> subtyped = new ConcurrentHashMap<Class, Boolean>();
+	
+	/**
+	 * True if a registered type other than c extends it, for types bound directly
+	 */
+	private boolean hasSubtypes(Class c) {
+		Boolean b = subtyped.get(c);
+		if(b == null) {
+			b = false;
+			if(c != Object.class && !Collection.class.isAssignableFrom(c) && !Map.class.isAssignableFrom(c)) {
+				for(Class k : classToType.keySet()) {
+					if(k != c && c.isAssignableFrom(k)) {
+						b = true;
+						break;
+					}
+				}
+			}
+			subtyped.put(c, b);
+		}
+		return b;
+	}
+	
+	/**
+	 * @param start the offset of the object's recorded text, or -1 if it isn't recorded
+	 */
+	private Object readObject(Class c, KStream stream, JsonContext ctx, int start) throws Exception {
+		int line = stream.line;
+		int col = stream.col;
+		stream.expect('{');
+		if(stream.endOf('}')) {
+			return deserialize(c, new JsonObject(line, col), ctx);
+		}
+		String key = stream.readIdentifier();
+		stream.expect(':');
+		if(typeFieldName.equals(key)) {
+			String typeName = stream.readStringOrNull();
+			Class typ = typeName == null ? null : typeToClass.get(typeName);
+			if(typ != null) {
+				c = typ;
+			} else {
+				// TODO Try to match the type based on fields & base type
+				if(ctx.failMissingTypes) {
+					throw new JsonException(line, col, "Unknown type for: " + typeName);
+				}
+				if(!isInstantiable(c)) {
+					// Non-public type, unable to construct
+					while(stream.more('}')) {
+						stream.readIdentifier();
+						stream.expect(':');
+						stream.skipValue();
+					}
+					return null;
+				}
+				if(c == Object.class) {
+					throw new JsonException(line, col, "Unknown type for: " + typeName);
+				}
+			}
+			if(!stream.more('}')) {
+				return newInstance(c, line, col);
+			}
+			key = stream.readIdentifier();
+			stream.expect(':');
+		}
+		else if(c == Object.class
+		|| Collection.class.isAssignableFrom(c)
+		|| Map.class.isAssignableFrom(c)
+		|| !isInstantiable(c)) {
+			// No leading type information, read the rest as a tree to find it
+			JsonObject js = new JsonObject(line, col);
+			js.put(key, anyObject.read(c, stream, ctx));
+			while(stream.more('}')) {
+				String k = stream.readIdentifier();
+				stream.expect(':');
+				js.put(k, anyObject.read(c, stream, ctx));
+			}
+			return deserialize(c, js, ctx);
+		}
+		
+		Map<String, KPropertyReader> props = properties.get(c);
+		JsonCodec codec = codec(c);
+		Object o = codec != null ? codec.newInstance() : newInstance(c, line, col);
+		while(true) {
+			if(typeFieldName.equals(key)) {
+				// can't change the type of the object already being bound
+				String typeName = stream.readStringOrNull();
+				Class typ = typeName == null ? null : typeToClass.get(typeName);
+				if(typ != null && typ != c) {
+					if(start < 0 || !c.isAssignableFrom(typ)) {
+						throw new JsonException(stream, "Type must be the first property when streaming, found: " + typeName);
+					}
+					// a subtype, deserialize the whole object again from its text
+					while(stream.more('}')) {
+						stream.readIdentifier();
+						stream.expect(':');
+						stream.skipValue();
+					}
+					KStream replay = new KStream(new StringReader(stream.recorded(start)));
+					replay.read(); // prime
+					return deserialize(c, anyObject.read(c, replay, ctx), ctx);
+				}
+			} else {
+				KPropertyReader p = props.get(key);
+				if(p == null) {
+					stream.skipValue();
+				} else {
+					p.read(o, stream, ctx);
+				}
+			}
+			if(!stream.more('}')) {
+				break;
+			}
+			key = stream.readIdentifier();
+			stream.expect(':');
+		}
+		return o;
+	}
+	
+	private static Object newInstance(Class c, int line, int col) {
+		try {
+			return c.newInstance();
+		} catch(Exception e) {
+			throw new JsonException(line, col, e);
+		}
+	}
+	
 	private final Map<Class,KSerializer> writers = new ConcurrentHashMap<Class, KSerializer>() {
 		private static final long serialVersionUID = 1L;
 
@@ -730,46 +1740,48 @@ public class JsonService implements Json {
 				else if(c.isArray()) {
 					final Class<?> ctype = c.getComponentType();
 					ser = new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
-						Object[] values;
-						if(boolean.class == ctype) {
-							values = Util.toObject((boolean[])o);
-						}
-						else if(byte.class == ctype) {
-							values = Util.toObject((byte[])o);
-						}
-						else if(short.class == ctype) {
-							values = Util.toObject((short[])o);
-						}
-						else if(int.class == ctype) {
-							values = Util.toObject((int[])o);
-						}
-						else if(long.class == ctype) {
-							values = Util.toObject((long[])o);
-						}
-						else if(char.class == ctype) {
-							throw new IllegalArgumentException("char[] not supported until ArrayUtils updated.");
-							//values = ArrayUtils.toObject((char[])o);
-						}
-						else if(float.class == ctype) {
-							values = Util.toObject((float[])o);
-						}
-						else if(double.class == ctype) {
-							values = Util.toObject((double[])o);
-						}
-						else {
-							values = (Object[])o;
-						}
-						
-						boolean first = true;
 						w.append('[');
-						for(Object val : values) {
-							if(first) {
-								first = false;
+						if(ctype.isPrimitive()) {
+							// write primitives directly, rather than boxing to an Object[]
+							if(char.class == ctype) {
+								throw new IllegalArgumentException("char[] not supported until ArrayUtils updated.");
 							}
-							else {
-								w.append(',');
+							int len = Array.getLength(o);
+							for(int i = 0; i < len; i++) {
+								if(i > 0) {
+									w.append(',');
+								}
+								if(int.class == ctype) {
+									writeLong(w, ((int[])o)[i]);
+								}
+								else if(long.class == ctype) {
+									writeLong(w, ((long[])o)[i]);
+								}
+								else if(double.class == ctype) {
+									w.append(Double.toString(((double[])o)[i]));
+								}
+								else if(float.class == ctype) {
+									w.append(Float.toString(((float[])o)[i]));
+								}
+								else if(boolean.class == ctype) {
+									w.append(((boolean[])o)[i] ? "true" : "false");
+								}
+								else if(short.class == ctype) {
+									writeLong(w, ((short[])o)[i]);
+								}
+								else {
+									writeLong(w, ((byte[])o)[i]);
+								}
+							}
+						}
+						else {
+							Object[] values = (Object[])o;
+							for(int i = 0; i < values.length; i++) {
+								if(i > 0) {
+									w.append(',');
+								}
+								serialize(values[i], w, ctx);
 							}
-							serialize(val, w, ctx);
 						}
 						w.append(']');
 					}};
@@ -817,20 +1829,35 @@ public class JsonService implements Json {
 						registerTypes(c);
 						type = classToType.get(c);
 					}
-					while(c != null && c != Object.class) {
-						for(final java.lang.reflect.Field f : c.getDeclaredFields()) {
+					final JsonCodec codec = codec(c);
+					Class parent = codec != null ? null : c;
+					if(codec != null) {
+						_fields.add(new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
+							codec.writeFields(o, w, ctx);
+						}});
+					}
+					while(parent != null && parent != Object.class) {
+						for(final java.lang.reflect.Field f : parent.getDeclaredFields()) {
 							if(shouldSkipField(f)) {
 								continue;
 							}
 							f.setAccessible(true);
-							final String fieldPrefix = "\"" + f.getName() + "\":";
+							final String fieldPrefix = ",\"" + f.getName() + "\":";
+							final Class<?> ftype = f.getType();
+							if(ftype == int.class || ftype == long.class || ftype == short.class || ftype == byte.class) {
+								_fields.add(new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
+									w.append(fieldPrefix);
+									writeLong(w, f.getLong(o));
+								}});
+								continue;
+							}
 							_fields.add(new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
 								w.append(fieldPrefix);
 								Object val = f.get(o);
 								serialize(val, w, ctx);
 							}});
 						}
-						c = c.getSuperclass();
+						parent = parent.getSuperclass();
 					}
 					final KSerializer[] fields = _fields.toArray(new KSerializer[_fields.size()]);
 					final String typeOut = "{\"" + typeFieldName + "\":\"" + type + "\"";
@@ -868,7 +1895,6 @@ public class JsonService implements Json {
 						}
 						
 						for(int i = 0; i < fields.length; i++) {
-							w.append(',');
 							fields[i].serializeObject(o, w, ctx);
 						}
 						w.append('}');
@@ -891,19 +1917,19 @@ public class JsonService implements Json {
 		}});
 		writers.put(Boolean.class, writers.get(boolean.class));
 		writers.put(byte.class, new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
-			w.append(Byte.toString((Byte)o));
+			writeLong(w, (Byte)o);
 		}});
 		writers.put(Byte.class, writers.get(byte.class));
 		writers.put(short.class, new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
-			w.append(Short.toString((Short)o));
+			writeLong(w, (Short)o);
 		}});
 		writers.put(Short.class, writers.get(short.class));
 		writers.put(int.class, new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
-			w.append(Integer.toString((Integer)o));
+			writeLong(w, (Integer)o);
 		}});
 		writers.put(Integer.class, writers.get(int.class));
 		writers.put(long.class, new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
-			w.append(Long.toString((Long)o));
+			writeLong(w, (Long)o);
 		}});
 		writers.put(Long.class, writers.get(long.class));
 		writers.put(float.class, new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
@@ -920,6 +1946,10 @@ public class JsonService implements Json {
 		writers.put(Character.class, writers.get(char.class));
 		writers.put(String.class, new KSerializer() { public void serializeObject(Object o, Writer w, JsonContext ctx) throws Exception {
 			String s = o.toString();
+			if(w instanceof KWriter) {
+				((KWriter)w).writeString(s);
+				return;
+			}
 			if(s.indexOf('\\')>0) { // replace backslashes first
 				s = s.replace("\\", "\\\\");
 			}
@@ -933,7 +1963,15 @@ public class JsonService implements Json {
 		}});
 	}
 	
-	private void serialize(Object o, Writer w, JsonContext ctx) throws Exception {
+	static void writeLong(Writer w, long v) throws IOException {
+		if(w instanceof KWriter) {
+			((KWriter)w).writeLong(v);
+		} else {
+			w.append(Long.toString(v));
+		}
+	}
+	
+	void serialize(Object o, Writer w, JsonContext ctx) throws Exception {
 		if(o == null) {
 			w.append("null");
 			return;
@@ -982,6 +2020,22 @@ public class JsonService implements Json {
 		}
 	}
 
+	/**
+	 * Converts an object to JSON through a buffered {@link KWriter}, including type information
+	 */
+	@Override
+	public void toJsonStream(Object o, Writer w) {
+		KWriter out = new KWriter(w);
+		try {
+			serialize(o, out, new JsonContext());
+			out.flushBuffer();
+		} catch(JsonException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Converts to an object from a JSON string, preserving types
 	 */
@@ -1010,6 +2064,22 @@ public class JsonService implements Json {
 		}
 	}
 
+	/**
+	 * Converts to an object from a JSON reader, binding values to the expected type as they're read
+	 */
+	@Override
+	public Object fromJsonStream(Class<?> type, Reader json) {
+		KStream stream = new KStream(json);
+		try {
+			stream.read(); // prime
+			return readValue(type, stream, new JsonContext());
+		} catch(JsonException e) {
+			throw e;
+		} catch(Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * Returns a quoted string or null: e.g. this is "a string" -> "this is &quot;a string&quot;"
 	 * @param s
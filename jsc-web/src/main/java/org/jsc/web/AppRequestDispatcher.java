@@ -1,6 +1,8 @@
 package org.jsc.web;
 
 import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -42,11 +44,34 @@ public class AppRequestDispatcher {
 	 */
 	public interface RequestHandlerProvider {
 		RequestHandler getRequestHandler(String reqURI, HttpServletRequest req);
+		
+		/**
+		 * Add all handlers to the routing table at startup, returning true if that's all of them; otherwise
+		 * this provider is also asked for requests which don't match a route
+		 */
+		default boolean addRoutes(Routes routes) {
+			return false;
+		}
 	}
 	
 	@Inject private App app;
 	
 	private RequestHandlerProvider[] handlers = new RequestHandlerProvider[0];
+	private RequestHandlerProvider[] unrouted = new RequestHandlerProvider[0]; // asked on each request
+	private volatile Routes routes = new Routes().build();
+	
+	/**
+	 * Paths no unrouted provider had a handler for, least recently used are removed
+	 */
+	private final int missCacheSize = Util.env("routeMissCacheSize", 10000);
+	private final Map<String, Boolean> misses = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > missCacheSize;
+		}
+	};
 	
 	
 	public String contextPath = "";
@@ -64,24 +89,18 @@ public class AppRequestDispatcher {
 	
 	@OnStartup
 	public void build() throws Exception {
+		Routes routes = new Routes();
 		for(Class<?> c : app.findAnnotatedClasses(HandlesRequests.class)) {
-			handlers = Util.append(handlers, (RequestHandlerProvider)app.get(c));
-		}
-		for(RequestHandlerProvider prov : handlers) {
-			RequestHandler h = prov.getRequestHandler("/index/index", null); // look for java code first
-			if(h != null) {
-				indexHandler = h;
-				break;
+			RequestHandlerProvider prov = (RequestHandlerProvider)app.get(c);
+			handlers = Util.append(handlers, prov);
+			if(!prov.addRoutes(routes)) {
+				unrouted = Util.append(unrouted, prov);
 			}
 		}
+		this.routes = routes.build();
+		indexHandler = getHandler("/index/index", null); // look for java code first
 		if(indexHandler == null) {
-			for(RequestHandlerProvider prov : handlers) {
-				RequestHandler h = prov.getRequestHandler("/index", null);
-				if(h != null) {
-					indexHandler = h;
-					break;
-				}
-			}
+			indexHandler = getHandler("/index", null);
 		}
 		if(indexHandler == null) { // mvn exec:java does not run the compile phase...
 			log.warn("No index handler found, this is probably not desired behavior. Make sure you've compiled your project!");
@@ -89,17 +108,46 @@ public class AppRequestDispatcher {
 	}
 
 	/**
-	 * Get the first matching request handler
+	 * Get the routed handler, or the first matching handler from the providers without routes; in
+	 * development all providers are asked, so pages added while running are found
 	 */
 	private RequestHandler getHandler(String reqURI, HttpServletRequest req) {
-		for(int i = 0; i < handlers.length; i++) {
-			RequestHandler h = handlers[i].getRequestHandler(reqURI, req);
+		RequestHandler h = routes.find(reqURI, req);
+		if(h != null) {
+			return h;
+		}
+		RequestHandlerProvider[] providers = App.development ? handlers : unrouted;
+		if(providers.length == 0) {
+			return null;
+		}
+		boolean cache = !App.development && missCacheSize > 0;
+		if(cache) {
+			synchronized(misses) {
+				if(misses.containsKey(reqURI)) {
+					return null;
+				}
+			}
+		}
+		for(int i = 0; i < providers.length; i++) {
+			h = providers[i].getRequestHandler(reqURI, req);
 			if(h != null) {
 				return h;
 			}
 		}
+		if(cache) {
+			synchronized(misses) {
+				misses.put(reqURI, Boolean.TRUE);
+			}
+		}
 		return null;
 	}
+	
+	/**
+	 * The routing table built at startup
+	 */
+	public Routes getRoutes() {
+		return routes;
+	}
 
 	public void handle(HttpServletRequest req, HttpServletResponse res, FilterChain chain) throws IOException, ServletException {
 		long start = System.currentTimeMillis();
@@ -111,7 +159,10 @@ public class AppRequestDispatcher {
 			req.setCharacterEncoding(Util.UTF8);
 			RequestHandler handler = getHandler(reqURI, req);
 			if(handler != null) {
-				reqURI = reqURI.substring(handler.getFilterPath().length());
+				String filterPath = handler.getFilterPath();
+				if(filterPath != null && reqURI.startsWith(filterPath)) {
+					reqURI = reqURI.substring(filterPath.length());
+				}
 				try {
 					req = new ServletPathRewriteRequestWrapper(req, reqURI);
 					handler.handle(req, res);
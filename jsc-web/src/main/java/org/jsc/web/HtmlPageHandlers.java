@@ -21,28 +21,42 @@ public class HtmlPageHandlers extends JavaClassHandlers {
 	public void init() {
 	}
 	
+	/**
+	 * Routes each page as its path without .html, with one handler each
+	 */
+	@Override
+	public boolean addRoutes(Routes routes) {
+		for(String html : app.findResources("*.html")) {
+			String path = '/' + html.substring(0, html.length() - ".html".length());
+			routes.exact(path, handler(path, app.getResource(html)));
+		}
+		return true;
+	}
+	
 	@Override
 	public RequestHandler getRequestHandler(String reqURI, HttpServletRequest req) {
 		URL u  = app.getResource(reqURI + ".html");
 		if(u != null) {
-			try {
-				Component c = tpl.parseTemplate(reqURI, u);
-				return new RequestHandler() {
-					@SuppressWarnings("unchecked")
-					@Override
-					public void handle(HttpServletRequest req, HttpServletResponse res) throws Throwable {
-						c.render(new Context(Collections.EMPTY_MAP), res.getWriter());
-					}
-					
-					@Override
-					public String getFilterPath() {
-						return null;
-					}
-				};
-			} catch (Exception e) {
-				throw Util.asRuntime(e);
-			}
+			return handler(reqURI, u);
 		}
 		return null;
 	}
+	
+	private RequestHandler handler(String reqURI, URL u) {
+		return new RequestHandler() {
+			@SuppressWarnings("unchecked")
+			@Override
+			public void handle(HttpServletRequest req, HttpServletResponse res) throws Throwable {
+				res.setContentType(TEXT_HTML);
+				res.setCharacterEncoding(Util.UTF8);
+				Component c = tpl.getComponent(reqURI, u); // parsed once, shared by requests
+				c.render(new Context(Collections.EMPTY_MAP), res.getWriter());
+			}
+			
+			@Override
+			public String getFilterPath() {
+				return null;
+			}
+		};
+	}
 }
@@ -51,6 +51,14 @@ public class JavaClassHandlers implements AppRequestDispatcher.RequestHandlerPro
 		return handlers.get(reqURI);
 	}
 	
+	@Override
+	public boolean addRoutes(Routes routes) {
+		for(Map.Entry<String, RequestHandler> e : handlers.entries().entrySet()) {
+			routes.prefix(e.getKey(), e.getValue());
+		}
+		return true;
+	}
+	
 	@Before(AppRequestDispatcher.class)
 	@OnStartup
 	@SuppressWarnings("unchecked")
@@ -171,15 +179,10 @@ public class JavaClassHandlers implements AppRequestDispatcher.RequestHandlerPro
 						paramHandlers[i] = (req, res) -> {
 							String requestType = req.getMethod(); // This should be upper case
 							if("POST".equals(requestType)) {
-								return json.fromJson(paramType, req.getReader());
+								return json.fromJsonStream(paramType, req.getReader());
 							}
 							else if("GET".equals(requestType)) {
-								String path = req.getRequestURI();
-								if(path.startsWith("/")) {
-									path = path.substring(1);
-								}
-								String[] parts = path.split("\\/");
-								return json.fromJson(paramType, parts[getIdx]);
+								return json.fromJson(paramType, segment(req.getRequestURI(), getIdx));
 							}
 							return null;
 						};
@@ -227,7 +230,7 @@ public class JavaClassHandlers implements AppRequestDispatcher.RequestHandlerPro
 							if(m.getReturnType() != Void.TYPE) { // send JSON response for non-void methods
 								res.setCharacterEncoding("utf-8");
 								res.setContentType("application/json");
-								json.toJson(out, res.getWriter());
+								json.toJsonStream(out, res.getWriter());
 							}
 						}
 					}
@@ -238,6 +241,21 @@ public class JavaClassHandlers implements AppRequestDispatcher.RequestHandlerPro
 		}
 	}
 	
+	/**
+	 * The path segment at the index, ignoring a leading '/', found without splitting the path
+	 */
+	static String segment(String path, int idx) {
+		int start = path.startsWith("/") ? 1 : 0;
+		for(int i = 0; i < idx; i++) {
+			start = path.indexOf('/', start) + 1;
+			if(start == 0) {
+				throw new IllegalArgumentException("No segment " + idx + " in path: " + path);
+			}
+		}
+		int end = path.indexOf('/', start);
+		return path.substring(start, end < 0 ? path.length() : end);
+	}
+	
 	public void renderErrorPage(Exception e, Writer w) {
 		Throwable t = Util.getCause(e);
 		try {
@@ -1,21 +1,30 @@
 package org.jsc.web;
 
 import java.io.BufferedReader;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
@@ -27,14 +36,27 @@ import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpServletResponseWrapper;
 import javax.servlet.http.HttpUtils;
 
+import org.jsc.Log;
+import org.jsc.Util;
+
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 
+/**
+ * Servlet-style server on the JDK's HttpServer, without Jetty. Requests are handled on virtual threads
+ * when the JDK has them, otherwise a bounded pool of serverThreads; request bodies are read as they
+ * are consumed, responses up to serverBufferSize bytes are sent with a Content-Length, larger ones
+ * are streamed chunked.
+ */
 @SuppressWarnings({ "deprecation", "restriction" })
 public abstract class JavaServer {
+    private static final Log log = new Log(JavaServer.class);
+
     HttpServer server;
     private HttpHandler httpHandler;
+    private ExecutorService executor;
+    private int bufferSize = Util.env("serverBufferSize", 8192);
 
     public JavaServer() {
         httpHandler = new HttpHandlerWithServletSupport();
@@ -46,17 +68,64 @@ public abstract class JavaServer {
         InetSocketAddress inetSocketAddress = new InetSocketAddress(port);
         server = HttpServer.create(inetSocketAddress, 0);
         server.createContext(getContextPath(), httpHandler);
-        server.setExecutor(null);
+        if (executor == null) {
+            executor = createExecutor();
+        }
+        server.setExecutor(executor);
         System.out.println("Listening on port " + port + " ... ");
         server.start();
     }
 
+    protected ExecutorService createExecutor() {
+        return requestExecutor();
+    }
+
+    /**
+     * Virtual thread per request if available & serverVirtualThreads is on, otherwise a pool of
+     * serverThreads with a queue of serverQueueSize; when the queue is full the submitting thread
+     * handles the request, which stops it accepting more until done
+     */
+    static ExecutorService requestExecutor() {
+        if (Util.env("serverVirtualThreads", true)) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                Util.ignore(e); // not on this JDK
+            }
+        }
+        AtomicInteger count = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "http-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        int threads = Util.env("serverThreads", Math.max(16, Runtime.getRuntime().availableProcessors() * 8));
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Util.env("serverQueueSize", 1000)), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    /**
+     * Use the given executor for requests, call before {@link #start(int)}
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+
     public String getContextPath() {
 		return "/";
 	}
 
 	public void stop(int secondsDelay) {
         server.stop(secondsDelay);
+        if (executor != null) {
+            executor.shutdown();
+        }
     }
 
     public int getServerPort() {
@@ -64,235 +133,434 @@ public abstract class JavaServer {
     }
 
     final class HttpHandlerWithServletSupport implements HttpHandler {
-	
+
 	    private final class RequestWrapper extends HttpServletRequestWrapper {
 	        private final HttpExchange ex;
-	        private final Map<String, String[]> postData;
 	        private final ServletInputStream is;
 	        private final Map<String, Object> attributes = new HashMap<>();
-	
-	        private RequestWrapper(HttpServletRequest request, HttpExchange ex, Map<String, String[]> postData, ServletInputStream is) {
+	        private Map<String, String[]> parameters;
+
+	        private RequestWrapper(HttpServletRequest request, HttpExchange ex, ServletInputStream is) {
 	            super(request);
 	            this.ex = ex;
-	            this.postData = postData;
 	            this.is = is;
 	        }
-	        
+
 	        @Override
 	        public String getRequestURI() {
 	        	return ex.getRequestURI().getPath();
 	        }
-	
+
 	        @Override
 	        public String getHeader(String name) {
 	            return ex.getRequestHeaders().getFirst(name);
 	        }
-	
+
 	        @Override
 	        public Enumeration<String> getHeaders(String name) {
 	            return new Vector<String>(ex.getRequestHeaders().get(name)).elements();
 	        }
-	
+
 	        @Override
 	        public Enumeration<String> getHeaderNames() {
 	            return new Vector<String>(ex.getRequestHeaders().keySet()).elements();
 	        }
-	
+
+	        @Override
+	        public String getContentType() {
+	            return getHeader("Content-Type");
+	        }
+
 	        @Override
 	        public Object getAttribute(String name) {
 	            return attributes.get(name);
 	        }
-	
+
 	        @Override
 	        public void setAttribute(String name, Object o) {
 	            this.attributes.put(name, o);
 	        }
-	
+
 	        @Override
 	        public Enumeration<String> getAttributeNames() {
 	            return new Vector<String>(attributes.keySet()).elements();
 	        }
-	
+
 	        @Override
 	        public String getMethod() {
 	            return ex.getRequestMethod();
 	        }
-	
+
 	        @Override
 	        public ServletInputStream getInputStream() throws IOException {
 	            return is;
 	        }
-	
+
 	        @Override
 	        public BufferedReader getReader() throws IOException {
-	            return new BufferedReader(new InputStreamReader(getInputStream()));
+	            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
 	        }
-	
+
 	        @Override
 	        public String getPathInfo() {
 	            return ex.getRequestURI().getPath();
 	        }
-	
+
 	        @Override
 	        public String getParameter(String name) {
-	            String[] arr = postData.get(name);
+	            String[] arr = getParameterMap().get(name);
 	            return arr != null ? (arr.length > 1 ? Arrays.toString(arr) : arr[0]) : null;
 	        }
-	
+
+	        /**
+	         * Query string parameters, and form parameters which are read from the body the first time
+	         */
 	        @Override
 	        public Map<String, String[]> getParameterMap() {
-	            return postData;
+	            if (parameters == null) {
+	                parameters = parseParameters(ex.getRequestURI().getRawQuery(), getContentType(), is);
+	            }
+	            return parameters;
 	        }
-	
+
 	        @Override
 	        public Enumeration<String> getParameterNames() {
-	            return new Vector<String>(postData.keySet()).elements();
+	            return new Vector<String>(getParameterMap().keySet()).elements();
 	        }
 	    }
-	
-	    private final class ResponseWrapper extends HttpServletResponseWrapper {
-	        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-	        final ServletOutputStream servletOutputStream = new ServletOutputStream() {
-	
-	            @Override
-	            public void write(int b) throws IOException {
-	                outputStream.write(b);
+
+	    /**
+	     * Reads the request body as it is consumed
+	     */
+	    private final class RequestInputStream extends ServletInputStream {
+	        private final InputStream in;
+	        private boolean finished;
+
+	        RequestInputStream(InputStream in) {
+	            this.in = in;
+	        }
+
+	        @Override
+	        public int read() throws IOException {
+	            int b = in.read();
+	            finished = b < 0;
+	            return b;
+	        }
+
+	        @Override
+	        public int read(byte[] b, int off, int len) throws IOException {
+	            int n = in.read(b, off, len);
+	            finished = n < 0;
+	            return n;
+	        }
+
+	        @Override
+	        public int available() throws IOException {
+	            return in.available();
+	        }
+
+			@Override
+			public boolean isFinished() {
+				return finished;
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setReadListener(ReadListener arg0) {
+			}
+	    }
+
+	    /**
+	     * Buffers the start of the response; if it all fits it's sent with a Content-Length,
+	     * otherwise the headers are sent when the buffer fills or the response's buffer is flushed,
+	     * and the rest is chunked
+	     */
+	    private final class ResponseOutputStream extends ServletOutputStream {
+	        private final ResponseWrapper resp;
+	        private final byte[] buf;
+	        private int count;
+	        private OutputStream out; // set once the headers are sent
+
+	        ResponseOutputStream(ResponseWrapper resp, int size) {
+	            this.resp = resp;
+	            this.buf = new byte[Math.max(size, 1)];
+	        }
+
+	        @Override
+	        public void write(int b) throws IOException {
+	            if (count == buf.length) {
+	                flushBuffer();
+	            }
+	            buf[count++] = (byte) b;
+	        }
+
+	        @Override
+	        public void write(byte[] b, int off, int len) throws IOException {
+	            if (len > buf.length - count) {
+	                flushBuffer();
+	                if (len >= buf.length) {
+	                    out.write(b, off, len); // too big to buffer, write through
+	                    return;
+	                }
+	            }
+	            System.arraycopy(b, off, buf, count, len);
+	            count += len;
+	        }
+
+	        /**
+	         * Writes through once streaming; before that this keeps buffering, so writers & filters
+	         * flushing on close don't prevent sending a Content-Length
+	         */
+	        @Override
+	        public void flush() throws IOException {
+	            if (out != null) {
+	                flushBuffer();
+	                out.flush();
+	            }
+	        }
+
+	        /**
+	         * Send the headers if not sent, to stream the body, and write the buffer
+	         */
+	        void flushBuffer() throws IOException {
+	            if (out == null) {
+	                out = resp.sendHeaders(resp.contentLength);
+	            }
+	            if (count > 0) {
+	                out.write(buf, 0, count);
+	                count = 0;
+	            }
+	        }
+
+	        boolean isCommitted() {
+	            return out != null;
+	        }
+
+	        void reset() {
+	            count = 0;
+	        }
+
+	        /**
+	         * Send anything remaining, with the Content-Length if nothing was sent yet
+	         */
+	        void complete() throws IOException {
+	            if (out == null) {
+	                out = resp.sendHeaders(count);
 	            }
-	            
-				@Override
-	            public boolean isReady() {
-	            	return true;
+	            if (count > 0) {
+	                out.write(buf, 0, count);
+	                count = 0;
 	            }
-	
-				@Override
-				public void setWriteListener(WriteListener arg0) {
-				}
-	        };
-	
+	            out.close();
+	        }
+
+	        @Override
+	        public boolean isReady() {
+	        	return true;
+	        }
+
+			@Override
+			public void setWriteListener(WriteListener arg0) {
+			}
+	    }
+
+	    private final class ResponseWrapper extends HttpServletResponseWrapper {
 	        private final HttpExchange ex;
-	        private final PrintWriter printWriter;
+	        private final ResponseOutputStream outputStream;
+	        private PrintWriter printWriter;
 	        private int status = HttpServletResponse.SC_OK;
-	
+	        private long contentLength = -1;
+
 	        private ResponseWrapper(HttpServletResponse response, HttpExchange ex) {
 	            super(response);
 	            this.ex = ex;
-	            printWriter = new PrintWriter(servletOutputStream);
+	            this.outputStream = new ResponseOutputStream(this, bufferSize);
 	        }
-	
+
 	        @Override
 	        public void setContentType(String type) {
-	            ex.getResponseHeaders().add("Content-Type", type);
+	            ex.getResponseHeaders().set("Content-Type", type);
+	        }
+
+	        @Override
+	        public String getContentType() {
+	            return ex.getResponseHeaders().getFirst("Content-Type");
+	        }
+
+	        @Override
+	        public String getCharacterEncoding() {
+	            return StandardCharsets.UTF_8.name();
 	        }
-	
+
 	        @Override
 	        public void setHeader(String name, String value) {
+	            ex.getResponseHeaders().set(name, value);
+	        }
+
+	        @Override
+	        public void addHeader(String name, String value) {
 	            ex.getResponseHeaders().add(name, value);
 	        }
-	
+
+	        @Override
+	        public String getHeader(String name) {
+	            return ex.getResponseHeaders().getFirst(name);
+	        }
+
+	        @Override
+	        public boolean containsHeader(String name) {
+	            return ex.getResponseHeaders().containsKey(name);
+	        }
+
 	        @Override
 	        public javax.servlet.ServletOutputStream getOutputStream() throws IOException {
-	            return servletOutputStream;
+	            return outputStream;
 	        }
-	
+
 	        @Override
 	        public void setContentLength(int len) {
-	            ex.getResponseHeaders().add("Content-Length", len + "");
+	            contentLength = len;
+	        }
+
+	        @Override
+	        public void setContentLengthLong(long len) {
+	            contentLength = len;
 	        }
-	
+
 	        @Override
 	        public void setStatus(int status) {
 	            this.status = status;
 	        }
-	
+
+	        @Override
+	        public int getStatus() {
+	            return status;
+	        }
+
 	        @Override
 	        public void sendError(int sc, String msg) throws IOException {
 	            this.status = sc;
 	            if (msg != null) {
-	                printWriter.write(msg);
+	                getWriter().write(msg);
 	            }
 	        }
-	
+
 	        @Override
 	        public void sendError(int sc) throws IOException {
 	            sendError(sc, null);
 	        }
-	
+
+	        @Override
+	        public void sendRedirect(String location) throws IOException {
+	            setHeader("Location", location);
+	            setStatus(HttpServletResponse.SC_FOUND);
+	        }
+
 	        @Override
 	        public PrintWriter getWriter() throws IOException {
+	            if (printWriter == null) {
+	                printWriter = new PrintWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+	            }
 	            return printWriter;
 	        }
-	
+
+	        @Override
+	        public void flushBuffer() throws IOException {
+	            if (printWriter != null) {
+	                printWriter.flush();
+	            }
+	            outputStream.flushBuffer();
+	            outputStream.flush();
+	        }
+
+	        @Override
+	        public boolean isCommitted() {
+	            return outputStream.isCommitted();
+	        }
+
+	        @Override
+	        public void resetBuffer() {
+	            if (printWriter != null) {
+	                printWriter = null; // discard anything it has buffered
+	            }
+	            outputStream.reset();
+	        }
+
+	        /**
+	         * Sends the status & headers: a negative length is unknown & sent chunked, no body is sent
+	         * for HEAD requests, statuses without one or a length of 0
+	         */
+	        OutputStream sendHeaders(long length) throws IOException {
+	            boolean noBody = length == 0 || "HEAD".equals(ex.getRequestMethod())
+	                    || status == HttpServletResponse.SC_NO_CONTENT || status == HttpServletResponse.SC_NOT_MODIFIED;
+	            ex.sendResponseHeaders(status, noBody ? -1 : length < 0 ? 0 : length);
+	            return ex.getResponseBody();
+	        }
+
 	        public void complete() throws IOException {
 	            try {
-	                printWriter.flush();
-	                ex.sendResponseHeaders(status, outputStream.size());
-	                if (outputStream.size() > 0) {
-	                    ex.getResponseBody().write(outputStream.toByteArray());
+	                if (printWriter != null) {
+	                    printWriter.flush();
 	                }
-	                ex.getResponseBody().flush();
-	            } catch (Exception e) {
-	                e.printStackTrace();
+	                outputStream.complete();
 	            } finally {
 	                ex.close();
 	            }
 	        }
 	    }
-	
+
 	    @Override
 	    public void handle(final HttpExchange ex) throws IOException {
-	        byte[] inBytes = getBytes(ex.getRequestBody());
-	        ex.getRequestBody().close();
-	        final ByteArrayInputStream newInput = new ByteArrayInputStream(inBytes);
-	        final ServletInputStream is = new ServletInputStream() {
-	
-	            @Override
-	            public int read() throws IOException {
-	                return newInput.read();
-	            }
-	
-				@Override
-				public boolean isFinished() {
-					return false;
-				}
-	
-				@Override
-				public boolean isReady() {
-					return true;
-				}
-	
-				@Override
-				public void setReadListener(ReadListener arg0) {
-				}
-	        };
-	
-	        Map<String, String[]> parsePostData = new HashMap<>();
-	
-	        try {
-	            parsePostData.putAll(HttpUtils.parseQueryString(ex.getRequestURI().getQuery()));
-	
-	            // check if any postdata to parse
-	            parsePostData.putAll(HttpUtils.parsePostData(inBytes.length, is));
-	        } catch (IllegalArgumentException e) {
-	            // no postData - just reset inputstream
-	            newInput.reset();
-	        }
-	        final Map<String, String[]> postData = parsePostData;
-	
-	        RequestWrapper req = new RequestWrapper(createUnimplementAdapter(HttpServletRequest.class), ex, postData, is);
-	
+	        ServletInputStream is = new RequestInputStream(ex.getRequestBody());
+	        RequestWrapper req = new RequestWrapper(createUnimplementAdapter(HttpServletRequest.class), ex, is);
 	        ResponseWrapper resp = new ResponseWrapper(createUnimplementAdapter(HttpServletResponse.class), ex);
-	
+
 	        try {
 	        	doFilter(req, resp);
-	        } catch(Exception e) {
-	        	// TODO
-	        	throw new RuntimeException(e);
+	        } catch(Throwable e) {
+	        	log.error("Error handling ", ex.getRequestMethod(), " ", ex.getRequestURI(), ": ", e);
+	        	if (!resp.isCommitted()) {
+	        	    resp.resetBuffer();
+	        	    resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+	        	}
+	        } finally {
+	            resp.complete();
 	        }
-	        
-	        resp.complete();
 	    }
     }
 
+    /**
+     * Query string parameters, and form parameters read from the body if it is urlencoded
+     */
+    static Map<String, String[]> parseParameters(String rawQuery, String contentType, InputStream body) {
+        Map<String, String[]> params = new HashMap<>();
+        if (rawQuery != null) {
+            params.putAll(HttpUtils.parseQueryString(rawQuery));
+        }
+        if (contentType != null && contentType.startsWith("application/x-www-form-urlencoded")) {
+            try {
+                String form = new String(getBytes(body), StandardCharsets.ISO_8859_1);
+                for (Map.Entry<String, String[]> e : HttpUtils.parseQueryString(form).entrySet()) {
+                    String[] prev = params.get(e.getKey());
+                    if (prev == null) {
+                        params.put(e.getKey(), e.getValue());
+                    } else {
+                        String[] all = Arrays.copyOf(prev, prev.length + e.getValue().length);
+                        System.arraycopy(e.getValue(), 0, all, prev.length, e.getValue().length);
+                        params.put(e.getKey(), all);
+                    }
+                }
+            } catch (IOException e) {
+                throw Util.asRuntime(e);
+            }
+        }
+        return params;
+    }
+
 	private static byte[] getBytes(InputStream in) throws IOException {
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         byte[] buffer = new byte[1024];
@@ -306,7 +574,7 @@ public abstract class JavaServer {
     }
 
     @SuppressWarnings("unchecked")
-    private static <T> T createUnimplementAdapter(Class<T> httpServletApi) {
+    static <T> T createUnimplementAdapter(Class<T> httpServletApi) {
         class UnimplementedHandler implements InvocationHandler {
             @Override
             public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
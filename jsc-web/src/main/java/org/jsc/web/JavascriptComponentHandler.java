@@ -2,6 +2,7 @@ package org.jsc.web;
 
 import java.io.Writer;
 import java.net.URL;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -117,6 +118,28 @@ public class JavascriptComponentHandler extends JavaClassHandlers {
 		}
 	}
 	
+	/**
+	 * Routes each page with a script as /path/page and /path.page, with one handler each
+	 */
+	@Override
+	public boolean addRoutes(Routes routes) {
+		Collection<String> scripts = app.findResources("*.js");
+		for(String html : app.findResources("*.html")) {
+			String file = html.substring(0, html.length() - ".html".length());
+			if(file.indexOf('.') >= 0 || !scripts.contains(file + ".js")) {
+				continue; // a '.' in the request path is read as a '/', so these can't be requested
+			}
+			URL u = app.getResource(html);
+			String path = '/' + file;
+			routes.exact(path, new JavascriptComponentRequestHandler(path, file, u));
+			String dotted = '/' + file.replace('/', '.');
+			if(!dotted.equals(path)) {
+				routes.exact(dotted, new JavascriptComponentRequestHandler(dotted, file, u));
+			}
+		}
+		return true;
+	}
+	
 	@Override
 	public RequestHandler getRequestHandler(String reqURI, HttpServletRequest req) {
 		String file = reqURI.substring(1).replace('.', '/');
@@ -0,0 +1,1532 @@
+package org.jsc.web;
+
+import java.io.ByteArrayInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.ServletResponseWrapper;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.jsc.Log;
+import org.jsc.Util;
+import org.jsc.io.ByteBufferPool;
+
+/**
+ * HTTP/1.1 server on java.nio selectors, without Jetty or the JDK's HttpServer. An acceptor thread hands
+ * connections to serverNioLoops event loops which read & parse requests into pooled direct buffers and
+ * write responses; requests are handled on a bounded pool of serverThreads with a serverQueueSize queue,
+ * and requests it can't take are answered with a 503 rather than run on an event loop. Connections are kept
+ * alive, pipelined requests are handled one at a time in order, response bodies up to serverBufferSize
+ * are sent with a Content-Length and larger ones chunked, and {@link #sendFile(HttpServletResponse, Path)}
+ * sends files with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}.
+ * @author kzantow
+ */
+public abstract class NioServer {
+	private static final Log log = new Log(NioServer.class);
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+	private static final long LINGER_MILLIS = 2000;
+
+	private int loopCount = Util.env("serverNioLoops", Runtime.getRuntime().availableProcessors());
+	private int bufferSize = Util.env("serverBufferSize", 8192);
+	private int maxRequestBytes = Util.env("serverMaxRequestBytes", 10 * 1024 * 1024);
+	private long idleTimeoutMillis = Util.env("serverIdleTimeoutSeconds", 60) * 1000l;
+	private long highWaterBytes = Util.env("serverHighWaterBytes", 256 * 1024);
+
+	private ByteBufferPool buffers;
+	private ExecutorService executor;
+	private ServerSocketChannel serverChannel;
+	private Loop[] loops;
+	private volatile boolean running;
+	private final AtomicInteger activeRequests = new AtomicInteger();
+
+	public abstract void doFilter(HttpServletRequest req, HttpServletResponse resp) throws Exception;
+
+	public void start(int port) throws IOException {
+		start(new InetSocketAddress(port));
+	}
+
+	public void start(InetSocketAddress bind) throws IOException {
+		buffers = new ByteBufferPool(Util.env("serverBufferPoolSize", 1024), bufferSize);
+		if(executor == null) {
+			executor = requestExecutor();
+		}
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		serverChannel.bind(bind, 1024);
+		running = true;
+		loops = new Loop[Math.max(1, loopCount)];
+		for(int i = 0; i < loops.length; i++) {
+			loops[i] = new Loop(i);
+			loops[i].thread.start();
+		}
+		new Thread(this::accept, "nio-accept").start();
+		System.out.println("Listening on port " + getServerPort() + " ... ");
+	}
+
+	/**
+	 * Stop accepting connections, wait up to the delay for requests being handled, then close everything
+	 * @param secondsDelay
+	 */
+	public void stop(int secondsDelay) {
+		running = false;
+		try {
+			serverChannel.close();
+		} catch(IOException e) {
+			Util.ignore(e);
+		}
+		long until = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(secondsDelay);
+		while(activeRequests.get() > 0 && System.currentTimeMillis() < until) {
+			try {
+				Thread.sleep(10);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		for(Loop l : loops) {
+			l.execute(l::shutdown);
+		}
+		executor.shutdown();
+	}
+
+	public int getServerPort() {
+		try {
+			return ((InetSocketAddress)serverChannel.getLocalAddress()).getPort();
+		} catch(IOException e) {
+			throw Util.asRuntime(e);
+		}
+	}
+
+	/**
+	 * Handler threads for requests; unlike {@link JavaServer} this rejects work when full, as running it on the
+	 * caller would block an event loop
+	 */
+	static ExecutorService requestExecutor() {
+		AtomicInteger count = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread t = new Thread(r, "nio-http-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		};
+		int threads = Util.env("serverThreads", Math.max(16, Runtime.getRuntime().availableProcessors() * 8));
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<>(Util.env("serverQueueSize", 1000)), factory, new ThreadPoolExecutor.AbortPolicy());
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Use the given executor for requests, call before {@link #start(int)}; it should throw
+	 * {@link RejectedExecutionException} when full rather than run the request on the calling thread
+	 */
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	public ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Send a file as the response body; on this server, if nothing has been written, without copying
+	 * it through the heap (bypassing any response wrappers), otherwise it's copied to the output stream
+	 * @param res
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void sendFile(HttpServletResponse res, Path file) throws IOException {
+		if(!trySendFile(res, file)) {
+			Files.copy(file, res.getOutputStream());
+		}
+	}
+
+	/**
+	 * Send a file as the response body with transferTo if the response is from this server & nothing
+	 * has been written, returning false otherwise. Wrappers are bypassed, unless the body is encoded:
+	 * the output stream is requested first, so a wrapper compressing the body sets Content-Encoding.
+	 * @param res
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static boolean trySendFile(HttpServletResponse res, Path file) throws IOException {
+		ServletResponse r = res;
+		while(!(r instanceof NioServer.Response) && r instanceof ServletResponseWrapper) {
+			r = ((ServletResponseWrapper)r).getResponse();
+		}
+		if(!(r instanceof NioServer.Response)) {
+			return false;
+		}
+		res.getOutputStream();
+		NioServer.Response nr = (NioServer.Response)r;
+		return !nr.containsHeader("Content-Encoding") && nr.sendFile(file);
+	}
+
+	private void accept() {
+		int next = 0;
+		while(running) {
+			try {
+				SocketChannel ch = serverChannel.accept();
+				ch.configureBlocking(false);
+				ch.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				Loop l = loops[next];
+				next = (next + 1) % loops.length;
+				l.execute(() -> l.register(ch));
+			} catch(ClosedChannelException e) {
+				break;
+			} catch(IOException e) {
+				if(running) {
+					log.warn("Accept failed: ", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A selector & its thread, for a share of the connections
+	 */
+	private final class Loop implements Runnable {
+		final Selector selector;
+		final Thread thread;
+		final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+		final Set<Conn> conns = new HashSet<>();
+		boolean closed;
+
+		Loop(int id) throws IOException {
+			selector = Selector.open();
+			thread = new Thread(this, "nio-" + id);
+		}
+
+		/**
+		 * Run on this loop's thread
+		 */
+		void execute(Runnable task) {
+			tasks.add(task);
+			selector.wakeup();
+		}
+
+		void register(SocketChannel ch) {
+			try {
+				Conn c = new Conn(this, ch);
+				c.key = ch.register(selector, SelectionKey.OP_READ, c);
+				conns.add(c);
+			} catch(IOException e) {
+				try { ch.close(); } catch(IOException ex) { Util.ignore(ex); }
+			}
+		}
+
+		void shutdown() {
+			closed = true;
+			for(Conn c : conns) {
+				c.close();
+			}
+			conns.clear();
+		}
+
+		@Override
+		public void run() {
+			long nextIdleCheck = System.currentTimeMillis() + 1000;
+			while(!closed) {
+				try {
+					selector.select(1000);
+					for(Runnable task; (task = tasks.poll()) != null;) {
+						task.run();
+					}
+					for(Iterator<SelectionKey> keys = selector.selectedKeys().iterator(); keys.hasNext();) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Conn c = (Conn)key.attachment();
+						try {
+							if(key.isValid() && key.isWritable()) {
+								c.onWritable();
+							}
+							if(key.isValid() && key.isReadable()) {
+								c.onReadable();
+							}
+						} catch(Throwable t) {
+							log.debug("Closing connection: ", t);
+							c.close();
+						}
+					}
+					long now = System.currentTimeMillis();
+					if(now >= nextIdleCheck) {
+						nextIdleCheck = now + 1000;
+						for(Iterator<Conn> i = conns.iterator(); i.hasNext();) {
+							Conn c = i.next();
+							if(!c.handling && now - c.lastActive > idleTimeoutMillis
+								|| c.lingering && now - c.lastActive > LINGER_MILLIS) {
+								c.close();
+							}
+							if(c.closed) {
+								i.remove();
+							}
+						}
+					}
+				} catch(Throwable t) {
+					log.error("Event loop error: ", t);
+				}
+			}
+			try {
+				selector.close();
+			} catch(IOException e) {
+				Util.ignore(e);
+			}
+		}
+	}
+
+	/**
+	 * A parsed request line & headers, and the body
+	 */
+	private static final class Request {
+		String method;
+		String path;
+		String rawQuery;
+		String protocol;
+		final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		boolean keepAlive;
+		boolean chunked;
+		long contentLength = -1;
+		byte[] body = new byte[0];
+		int bodyLength;
+		String remoteAddr;
+
+		String header(String name) {
+			List<String> l = headers.get(name);
+			return l == null ? null : l.get(0);
+		}
+
+		void append(ByteBuffer in, int len) {
+			if(bodyLength + len > body.length) {
+				body = Arrays.copyOf(body, Math.max(bodyLength + len, body.length * 2));
+			}
+			in.get(body, bodyLength, len);
+			bodyLength += len;
+		}
+	}
+
+	/**
+	 * A file to send with transferTo
+	 */
+	private static final class FileRegion {
+		final FileChannel file;
+		long position;
+		long remaining;
+
+		FileRegion(FileChannel file, long position, long count) {
+			this.file = file;
+			this.position = position;
+			this.remaining = count;
+		}
+	}
+
+	private enum ChunkState { SIZE, DATA, DATA_END, TRAILER }
+
+	/**
+	 * A connection: parsing is done on its loop's thread; responses are written by the handling thread,
+	 * or by the loop when the socket can't take it all, guarded by this
+	 */
+	private final class Conn {
+		final Loop loop;
+		final SocketChannel ch;
+		SelectionKey key;
+		ByteBuffer in; // pooled, in write mode
+		long lastActive = System.currentTimeMillis();
+
+		// loop thread only
+		boolean handling; // a request is being handled, reading is paused
+		boolean keepAlive;
+		boolean doneAfterFlush;
+		boolean rejected; // close gracefully after the response
+		boolean lingering; // output shut down, discarding input until the client closes
+		Request req; // headers parsed, reading the body
+		ChunkState chunkState;
+		long chunkRemaining;
+
+		// guarded by this
+		final ArrayDeque<Object> out = new ArrayDeque<>();
+		ByteBuffer filling;
+		long queued;
+		boolean writeRequested;
+		volatile boolean closed;
+
+		Conn(Loop loop, SocketChannel ch) {
+			this.loop = loop;
+			this.ch = ch;
+			this.in = buffers.acquire();
+		}
+
+		void onReadable() throws IOException {
+			if(lingering) {
+				in.clear();
+			}
+			int n = ch.read(in);
+			if(n < 0) {
+				close();
+				return;
+			}
+			if(lingering) {
+				return;
+			}
+			lastActive = System.currentTimeMillis();
+			process();
+		}
+
+		/**
+		 * Parse & dispatch requests from what has been read
+		 */
+		void process() throws IOException {
+			while(!handling && !closed) {
+				if(req == null) {
+					int end = headerEnd();
+					if(end < 0) {
+						if(!in.hasRemaining()) {
+							reject(431, "Request Header Fields Too Large");
+						}
+						return;
+					}
+					try {
+						req = parseHead(end);
+					} catch(IllegalArgumentException | URISyntaxException e) {
+						reject(400, "Bad Request");
+						return;
+					}
+					consume(end);
+					if(req.contentLength > maxRequestBytes) {
+						reject(413, "Payload Too Large");
+						return;
+					}
+					if(req.contentLength > in.position() && "100-continue".equalsIgnoreCase(req.header("Expect"))) {
+						write(CONTINUE, 0, CONTINUE.length);
+						flush();
+					}
+				}
+				if(!readBody()) {
+					return;
+				}
+				Request r = req;
+				req = null;
+				dispatch(r);
+			}
+		}
+
+		/**
+		 * Index after the blank line ending the headers, or -1
+		 */
+		int headerEnd() {
+			for(int i = 3, end = in.position(); i < end; i++) {
+				if(in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+					return i + 1;
+				}
+			}
+			return -1;
+		}
+
+		/**
+		 * Index after the next CRLF, or -1
+		 */
+		int lineEnd() {
+			for(int i = 1, end = in.position(); i < end; i++) {
+				if(in.get(i) == '\n' && in.get(i - 1) == '\r') {
+					return i + 1;
+				}
+			}
+			return -1;
+		}
+
+		String readAscii(int len) {
+			byte[] b = new byte[len];
+			ByteBuffer d = in.duplicate();
+			d.flip();
+			d.get(b);
+			return new String(b, StandardCharsets.ISO_8859_1);
+		}
+
+		/**
+		 * Remove bytes from the start of the buffer
+		 */
+		void consume(int len) {
+			in.flip();
+			in.position(len);
+			in.compact();
+		}
+
+		Request parseHead(int end) throws URISyntaxException {
+			String[] lines = readAscii(end).split("\r\n");
+			int first = 0;
+			while(first < lines.length && lines[first].isEmpty()) {
+				first++; // ignore blank lines before a request
+			}
+			if(first == lines.length) {
+				throw new IllegalArgumentException("No request line");
+			}
+			String[] parts = lines[first].split(" ");
+			if(parts.length != 3 || !parts[2].startsWith("HTTP/1.")) {
+				throw new IllegalArgumentException("Invalid request line: " + lines[first]);
+			}
+			Request r = new Request();
+			r.method = parts[0];
+			URI target = new URI(parts[1]);
+			r.path = target.getPath();
+			r.rawQuery = target.getRawQuery();
+			r.protocol = parts[2];
+			for(int i = first + 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if(colon <= 0) {
+					throw new IllegalArgumentException("Invalid header: " + lines[i]);
+				}
+				String name = lines[i].substring(0, colon).trim();
+				List<String> values = r.headers.get(name);
+				if(values == null) {
+					r.headers.put(name, values = new ArrayList<>(1));
+				}
+				values.add(lines[i].substring(colon + 1).trim());
+			}
+			String connection = r.header("Connection");
+			r.keepAlive = "HTTP/1.1".equals(r.protocol)
+				? !"close".equalsIgnoreCase(connection)
+				: "keep-alive".equalsIgnoreCase(connection);
+			String te = r.header("Transfer-Encoding");
+			r.chunked = te != null && te.toLowerCase().contains("chunked");
+			String length = r.header("Content-Length");
+			if(!r.chunked && length != null) {
+				r.contentLength = Long.parseLong(length);
+				if(r.contentLength < 0) {
+					throw new IllegalArgumentException("Invalid Content-Length: " + length);
+				}
+				if(r.contentLength <= maxRequestBytes) {
+					// grown by append as the body arrives, so a large length alone doesn't allocate
+					r.body = new byte[(int)Math.min(r.contentLength, bufferSize)];
+				}
+			}
+			r.remoteAddr = remoteAddr();
+			chunkState = ChunkState.SIZE;
+			return r;
+		}
+
+		String remoteAddr() {
+			try {
+				return ((InetSocketAddress)ch.getRemoteAddress()).getAddress().getHostAddress();
+			} catch(IOException | RuntimeException e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Read what's available of the body, true when it's complete
+		 */
+		boolean readBody() throws IOException {
+			if(req.contentLength > 0) {
+				int n = (int)Math.min(in.position(), req.contentLength - req.bodyLength);
+				take(n);
+				return req.bodyLength == req.contentLength;
+			}
+			if(!req.chunked) {
+				return true;
+			}
+			while(true) {
+				switch(chunkState) {
+				case SIZE: {
+					int end = lineEnd();
+					if(end < 0) {
+						if(!in.hasRemaining()) {
+							reject(400, "Bad Request");
+						}
+						return false;
+					}
+					String line = readAscii(end - 2);
+					int semi = line.indexOf(';');
+					try {
+						chunkRemaining = Long.parseLong((semi >= 0 ? line.substring(0, semi) : line).trim(), 16);
+					} catch(NumberFormatException e) {
+						reject(400, "Bad Request");
+						return false;
+					}
+					consume(end);
+					if(req.bodyLength + chunkRemaining > maxRequestBytes) {
+						reject(413, "Payload Too Large");
+						return false;
+					}
+					chunkState = chunkRemaining == 0 ? ChunkState.TRAILER : ChunkState.DATA;
+					break;
+				}
+				case DATA: {
+					int n = (int)Math.min(in.position(), chunkRemaining);
+					take(n);
+					chunkRemaining -= n;
+					if(chunkRemaining > 0) {
+						return false;
+					}
+					chunkState = ChunkState.DATA_END;
+					break;
+				}
+				case DATA_END:
+					if(in.position() < 2) {
+						return false;
+					}
+					consume(2);
+					chunkState = ChunkState.SIZE;
+					break;
+				case TRAILER: {
+					int end = lineEnd();
+					if(end < 0) {
+						return false;
+					}
+					consume(end);
+					if(end == 2) {
+						return true; // blank line, trailers ignored
+					}
+					break;
+				}
+				}
+			}
+		}
+
+		/**
+		 * Move bytes from the start of the buffer to the body
+		 */
+		void take(int len) {
+			if(len > 0) {
+				in.flip();
+				req.append(in, len);
+				in.compact();
+			}
+		}
+
+		void dispatch(Request r) {
+			handling = true;
+			keepAlive = r.keepAlive;
+			key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+			activeRequests.incrementAndGet();
+			try {
+				executor.execute(() -> handle(this, r));
+			} catch(RejectedExecutionException e) {
+				activeRequests.decrementAndGet();
+				handling = false;
+				reject(503, "Service Unavailable");
+			}
+		}
+
+		/**
+		 * Send a short error response & close, for requests which can't be handled
+		 */
+		void reject(int status, String message) {
+			handling = true;
+			rejected = true;
+			try {
+				byte[] b = ("HTTP/1.1 " + status + " " + message + "\r\nContent-Length: 0\r\nConnection: close\r\n\r\n")
+					.getBytes(StandardCharsets.ISO_8859_1);
+				write(b, 0, b.length);
+				flush();
+				responseComplete(false);
+			} catch(IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Called on the loop thread when the handler has written the whole response
+		 */
+		void afterResponse(boolean keepAlive) {
+			this.keepAlive &= keepAlive;
+			boolean empty;
+			synchronized(this) {
+				empty = out.isEmpty() && filling == null;
+			}
+			if(empty) {
+				nextRequest();
+			}
+			else {
+				doneAfterFlush = true;
+			}
+		}
+
+		void nextRequest() {
+			if(rejected && !closed) {
+				linger();
+				return;
+			}
+			if(!keepAlive || closed) {
+				close();
+				return;
+			}
+			handling = false;
+			lastActive = System.currentTimeMillis();
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			try {
+				process(); // pipelined requests already read
+			} catch(IOException e) {
+				close();
+			}
+		}
+
+		/**
+		 * Closing with unread input resets the connection, which can discard the response before the client
+		 * reads it, so send a FIN & read until the client closes too, for up to LINGER_MILLIS
+		 */
+		void linger() {
+			try {
+				ch.shutdownOutput();
+			} catch(IOException e) {
+				close();
+				return;
+			}
+			lingering = true;
+			lastActive = System.currentTimeMillis();
+			key.interestOps(SelectionKey.OP_READ);
+		}
+
+		void onWritable() throws IOException {
+			boolean empty;
+			synchronized(this) {
+				empty = drain();
+				if(empty) {
+					writeRequested = false;
+				}
+			}
+			if(empty) {
+				key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+				if(doneAfterFlush) {
+					doneAfterFlush = false;
+					nextRequest();
+				}
+			}
+		}
+
+		/**
+		 * Queue bytes to send, copied into pooled buffers; blocks while too much is queued
+		 */
+		synchronized void write(byte[] b, int off, int len) throws IOException {
+			while(len > 0) {
+				checkOpen();
+				if(filling == null) {
+					filling = buffers.acquire();
+				}
+				int n = Math.min(len, filling.remaining());
+				filling.put(b, off, n);
+				off += n;
+				len -= n;
+				if(!filling.hasRemaining()) {
+					enqueue();
+					if(queued >= highWaterBytes) {
+						flush();
+					}
+				}
+			}
+		}
+
+		/**
+		 * Queue a file to send, the file is closed when it has been sent
+		 */
+		synchronized void send(FileChannel file, long position, long count) throws IOException {
+			checkOpen();
+			enqueue();
+			out.add(new FileRegion(file, position, count));
+			queued += count;
+			flush();
+		}
+
+		private void enqueue() {
+			if(filling != null) {
+				filling.flip();
+				queued += filling.remaining();
+				out.add(filling);
+				filling = null;
+			}
+		}
+
+		/**
+		 * Write what the socket will take, ask the loop to write the rest when it can; blocks while
+		 * more than the high water mark is queued
+		 */
+		synchronized void flush() throws IOException {
+			checkOpen();
+			enqueue();
+			if(!drain() && !writeRequested) {
+				writeRequested = true;
+				loop.execute(() -> {
+					if(key.isValid()) {
+						key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+					}
+				});
+			}
+			while(queued >= highWaterBytes && !closed && Thread.currentThread() != loop.thread) {
+				try {
+					wait();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted writing response", e);
+				}
+			}
+			checkOpen();
+		}
+
+		/**
+		 * Write queued output until the socket won't take more, true if everything was written
+		 */
+		private boolean drain() throws IOException {
+			try {
+				while(!out.isEmpty()) {
+					Object o = out.peek();
+					if(o instanceof ByteBuffer) {
+						ByteBuffer b = (ByteBuffer)o;
+						queued -= ch.write(b);
+						if(b.hasRemaining()) {
+							return false;
+						}
+						buffers.release(b);
+					}
+					else {
+						FileRegion f = (FileRegion)o;
+						long n = f.file.transferTo(f.position, f.remaining, ch);
+						f.position += n;
+						f.remaining -= n;
+						queued -= n;
+						if(f.remaining > 0) {
+							return false;
+						}
+						f.file.close();
+					}
+					out.poll();
+				}
+				return true;
+			} finally {
+				notifyAll();
+			}
+		}
+
+		void responseComplete(boolean keepAlive) {
+			loop.execute(() -> afterResponse(keepAlive));
+		}
+
+		private void checkOpen() throws IOException {
+			if(closed) {
+				throw new IOException("Connection closed");
+			}
+		}
+
+		void close() {
+			synchronized(this) {
+				if(closed) {
+					return;
+				}
+				closed = true;
+				for(Object o : out) {
+					if(o instanceof ByteBuffer) {
+						buffers.release((ByteBuffer)o);
+					}
+					else {
+						try { ((FileRegion)o).file.close(); } catch(IOException e) { Util.ignore(e); }
+					}
+				}
+				out.clear();
+				if(filling != null) {
+					buffers.release(filling);
+					filling = null;
+				}
+				notifyAll();
+			}
+			if(key != null) {
+				key.cancel();
+			}
+			try {
+				ch.close();
+			} catch(IOException e) {
+				Util.ignore(e);
+			}
+			if(!handling) {
+				buffers.release(in); // otherwise the request is finishing, leave it to the collector
+			}
+		}
+	}
+
+	private void handle(Conn conn, Request r) {
+		Response res = new Response(conn, r);
+		boolean truncated = false;
+		try {
+			doFilter(new RequestAdapter(r), res);
+		} catch(Throwable e) {
+			log.error("Error handling ", r.method, " ", r.path, ": ", e);
+			if(res.isCommitted()) {
+				truncated = true;
+			}
+			else {
+				res.resetBuffer();
+				res.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			}
+		}
+		try {
+			if(truncated) {
+				// the body is incomplete: closing without the last chunk tells the client so, and
+				// nothing more can be sent on this connection
+				conn.close();
+			}
+			else {
+				res.complete();
+			}
+		} catch(Throwable e) {
+			log.debug("Error completing response: ", e);
+			conn.close();
+		} finally {
+			activeRequests.decrementAndGet();
+		}
+	}
+
+	private static final DateTimeFormatter httpDate = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+	private static volatile String date = "";
+	private static volatile long dateSecond;
+
+	/**
+	 * The current time for the Date header, formatted once a second
+	 */
+	private static String date() {
+		long second = System.currentTimeMillis() / 1000;
+		if(second != dateSecond) {
+			date = httpDate.format(Instant.ofEpochSecond(second));
+			dateSecond = second;
+		}
+		return date;
+	}
+
+	private static String reason(int status) {
+		switch(status) {
+		case 200: return "OK";
+		case 201: return "Created";
+		case 204: return "No Content";
+		case 206: return "Partial Content";
+		case 301: return "Moved Permanently";
+		case 302: return "Found";
+		case 303: return "See Other";
+		case 304: return "Not Modified";
+		case 307: return "Temporary Redirect";
+		case 400: return "Bad Request";
+		case 401: return "Unauthorized";
+		case 403: return "Forbidden";
+		case 404: return "Not Found";
+		case 405: return "Method Not Allowed";
+		case 409: return "Conflict";
+		case 413: return "Payload Too Large";
+		case 500: return "Internal Server Error";
+		case 503: return "Service Unavailable";
+		default: return "Status";
+		}
+	}
+
+	/**
+	 * The parsed request as a servlet request
+	 */
+	private static final class RequestAdapter extends HttpServletRequestWrapper {
+		private final Request r;
+		private final ServletInputStream is;
+		private final Map<String, Object> attributes = new HashMap<>();
+		private Map<String, String[]> parameters;
+		private String characterEncoding;
+
+		RequestAdapter(Request r) {
+			super(JavaServer.createUnimplementAdapter(HttpServletRequest.class));
+			this.r = r;
+			ByteArrayInputStream in = new ByteArrayInputStream(r.body, 0, r.bodyLength);
+			this.is = new ServletInputStream() {
+				@Override
+				public int read() throws IOException {
+					return in.read();
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					return in.read(b, off, len);
+				}
+
+				@Override
+				public int available() throws IOException {
+					return in.available();
+				}
+
+				@Override
+				public boolean isFinished() {
+					return in.available() == 0;
+				}
+
+				@Override
+				public boolean isReady() {
+					return true;
+				}
+
+				@Override
+				public void setReadListener(ReadListener listener) {
+				}
+			};
+		}
+
+		@Override
+		public String getRequestURI() {
+			return r.path;
+		}
+
+		@Override
+		public String getPathInfo() {
+			return r.path;
+		}
+
+		@Override
+		public String getQueryString() {
+			return r.rawQuery;
+		}
+
+		@Override
+		public String getMethod() {
+			return r.method;
+		}
+
+		@Override
+		public String getProtocol() {
+			return r.protocol;
+		}
+
+		@Override
+		public String getScheme() {
+			return "http";
+		}
+
+		@Override
+		public String getRemoteAddr() {
+			return r.remoteAddr;
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return r.header(name);
+		}
+
+		@Override
+		public Enumeration<String> getHeaders(String name) {
+			List<String> l = r.headers.get(name);
+			return Collections.enumeration(l == null ? Collections.<String>emptyList() : l);
+		}
+
+		@Override
+		public Enumeration<String> getHeaderNames() {
+			return new Vector<String>(r.headers.keySet()).elements();
+		}
+
+		@Override
+		public long getDateHeader(String name) {
+			String v = r.header(name);
+			return v == null ? -1 : ZonedDateTime.parse(v, httpDate).toInstant().toEpochMilli();
+		}
+
+		@Override
+		public int getIntHeader(String name) {
+			String v = r.header(name);
+			return v == null ? -1 : Integer.parseInt(v);
+		}
+
+		@Override
+		public String getContentType() {
+			return r.header("Content-Type");
+		}
+
+		@Override
+		public int getContentLength() {
+			return r.bodyLength;
+		}
+
+		@Override
+		public long getContentLengthLong() {
+			return r.bodyLength;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding;
+		}
+
+		@Override
+		public void setCharacterEncoding(String env) throws UnsupportedEncodingException {
+			if(!Charset.isSupported(env)) {
+				throw new UnsupportedEncodingException(env);
+			}
+			characterEncoding = env;
+		}
+
+		@Override
+		public Object getAttribute(String name) {
+			return attributes.get(name);
+		}
+
+		@Override
+		public void setAttribute(String name, Object o) {
+			attributes.put(name, o);
+		}
+
+		@Override
+		public void removeAttribute(String name) {
+			attributes.remove(name);
+		}
+
+		@Override
+		public Enumeration<String> getAttributeNames() {
+			return new Vector<String>(attributes.keySet()).elements();
+		}
+
+		@Override
+		public ServletInputStream getInputStream() throws IOException {
+			return is;
+		}
+
+		@Override
+		public BufferedReader getReader() throws IOException {
+			Charset cs = characterEncoding != null ? Charset.forName(characterEncoding) : StandardCharsets.UTF_8;
+			return new BufferedReader(new InputStreamReader(is, cs));
+		}
+
+		@Override
+		public String getParameter(String name) {
+			String[] arr = getParameterMap().get(name);
+			return arr != null ? (arr.length > 1 ? Arrays.toString(arr) : arr[0]) : null;
+		}
+
+		@Override
+		public String[] getParameterValues(String name) {
+			return getParameterMap().get(name);
+		}
+
+		@Override
+		public Map<String, String[]> getParameterMap() {
+			if(parameters == null) {
+				parameters = JavaServer.parseParameters(r.rawQuery, getContentType(), is);
+			}
+			return parameters;
+		}
+
+		@Override
+		public Enumeration<String> getParameterNames() {
+			return new Vector<String>(getParameterMap().keySet()).elements();
+		}
+	}
+
+	/**
+	 * Servlet response buffering up to serverBufferSize bytes, then streaming chunks to the connection
+	 */
+	private final class Response extends HttpServletResponseWrapper {
+		private final Conn conn;
+		private final Request req;
+		private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		private int status = HttpServletResponse.SC_OK;
+		private String contentType;
+		private String characterEncoding;
+		private long contentLength = -1;
+		private final byte[] buf = new byte[Math.max(bufferSize, 1)];
+		private int count;
+		private boolean committed;
+		private boolean chunked;
+		private boolean noBody;
+		private boolean fileSent;
+		private boolean keepAlive; // passed to the loop thread when complete
+		private PrintWriter writer;
+		private final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				if(count == buf.length) {
+					flushBuffer();
+				}
+				buf[count++] = (byte)b;
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				Response.this.write(b, off, len);
+			}
+
+			/**
+			 * Writes through once streaming; before that this keeps buffering, so writers & filters
+			 * flushing on close don't prevent sending a Content-Length
+			 */
+			@Override
+			public void flush() throws IOException {
+				if(committed) {
+					writeBuffer();
+					conn.flush();
+				}
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener listener) {
+			}
+		};
+
+		Response(Conn conn, Request req) {
+			super(JavaServer.createUnimplementAdapter(HttpServletResponse.class));
+			this.conn = conn;
+			this.req = req;
+			this.keepAlive = req.keepAlive;
+		}
+
+		void write(byte[] b, int off, int len) throws IOException {
+			if(len > buf.length - count) {
+				flushBuffer();
+				if(len >= buf.length) {
+					writeBody(b, off, len); // too big to buffer, write through
+					return;
+				}
+			}
+			System.arraycopy(b, off, buf, count, len);
+			count += len;
+		}
+
+		private void writeBody(byte[] b, int off, int len) throws IOException {
+			if(noBody || fileSent || len == 0) {
+				return;
+			}
+			if(chunked) {
+				byte[] size = Integer.toHexString(len).getBytes(StandardCharsets.ISO_8859_1);
+				conn.write(size, 0, size.length);
+				conn.write(CRLF, 0, 2);
+				conn.write(b, off, len);
+				conn.write(CRLF, 0, 2);
+			}
+			else {
+				conn.write(b, off, len);
+			}
+		}
+
+		/**
+		 * Send the headers if not sent & the buffered body
+		 */
+		private void writeBuffer() throws IOException {
+			if(!committed) {
+				commit(contentLength);
+			}
+			if(count > 0) {
+				writeBody(buf, 0, count);
+				count = 0;
+			}
+		}
+
+		/**
+		 * Sends the status & headers: with a Content-Length, or chunked if the length is negative
+		 */
+		private void commit(long length) throws IOException {
+			committed = true;
+			noBody = "HEAD".equals(req.method) || status == SC_NO_CONTENT || status == SC_NOT_MODIFIED || status < 200;
+			List<String> connection = headers.get("Connection");
+			if(connection != null && connection.contains("close")) {
+				keepAlive = false;
+			}
+			StringBuilder sb = new StringBuilder(256);
+			sb.append("HTTP/1.1 ").append(status).append(' ').append(reason(status)).append("\r\n");
+			for(Map.Entry<String, List<String>> e : headers.entrySet()) {
+				if(e.getKey().equalsIgnoreCase("Content-Length") || e.getKey().equalsIgnoreCase("Transfer-Encoding")) {
+					continue;
+				}
+				for(String v : e.getValue()) {
+					sb.append(e.getKey()).append(": ").append(v).append("\r\n");
+				}
+			}
+			String type = getContentType();
+			if(type != null) {
+				sb.append("Content-Type: ").append(type).append("\r\n");
+			}
+			if(status != SC_NO_CONTENT && status != SC_NOT_MODIFIED && status >= 200) {
+				if(length >= 0) {
+					sb.append("Content-Length: ").append(length).append("\r\n");
+				}
+				else {
+					chunked = !noBody;
+					sb.append("Transfer-Encoding: chunked\r\n");
+				}
+			}
+			sb.append("Date: ").append(date()).append("\r\n");
+			if(!keepAlive) {
+				sb.append("Connection: close\r\n");
+			}
+			else if(!"HTTP/1.1".equals(req.protocol)) {
+				sb.append("Connection: keep-alive\r\n");
+			}
+			sb.append("\r\n");
+			byte[] b = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+			conn.write(b, 0, b.length);
+		}
+
+		boolean sendFile(Path file) throws IOException {
+			if(committed || count > 0 || writer != null) {
+				return false;
+			}
+			FileChannel fc = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				long size = fc.size();
+				commit(size);
+				fileSent = true;
+				if(noBody) {
+					fc.close();
+				}
+				else {
+					conn.send(fc, 0, size);
+				}
+				return true;
+			} catch(IOException | RuntimeException e) {
+				fc.close();
+				throw e;
+			}
+		}
+
+		void complete() throws IOException {
+			if(writer != null) {
+				writer.flush();
+			}
+			if(!committed) {
+				commit(contentLength >= 0 ? contentLength : count);
+			}
+			if(count > 0) {
+				writeBody(buf, 0, count);
+				count = 0;
+			}
+			if(chunked) {
+				conn.write(LAST_CHUNK, 0, LAST_CHUNK.length);
+			}
+			conn.flush();
+			conn.responseComplete(keepAlive);
+		}
+
+		@Override
+		public void flushBuffer() throws IOException {
+			if(writer != null) {
+				writer.flush();
+			}
+			writeBuffer();
+			conn.flush();
+		}
+
+		@Override
+		public boolean isCommitted() {
+			return committed;
+		}
+
+		@Override
+		public void resetBuffer() {
+			if(committed) {
+				throw new IllegalStateException("Response already committed");
+			}
+			writer = null;
+			count = 0;
+		}
+
+		@Override
+		public void reset() {
+			resetBuffer();
+			headers.clear();
+			status = SC_OK;
+			contentType = null;
+			contentLength = -1;
+		}
+
+		@Override
+		public int getBufferSize() {
+			return buf.length;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			return out;
+		}
+
+		@Override
+		public PrintWriter getWriter() throws IOException {
+			if(writer == null) {
+				writer = new PrintWriter(new OutputStreamWriter(out, getCharacterEncoding()));
+			}
+			return writer;
+		}
+
+		@Override
+		public void setStatus(int sc) {
+			status = sc;
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		@Override
+		public void sendError(int sc, String msg) throws IOException {
+			resetBuffer();
+			status = sc;
+			if(msg != null) {
+				getWriter().write(msg);
+			}
+		}
+
+		@Override
+		public void sendError(int sc) throws IOException {
+			sendError(sc, null);
+		}
+
+		@Override
+		public void sendRedirect(String location) throws IOException {
+			resetBuffer();
+			setHeader("Location", location);
+			status = SC_FOUND;
+		}
+
+		@Override
+		public void setContentType(String type) {
+			contentType = type;
+		}
+
+		/**
+		 * The content type, with the character encoding if one was set
+		 */
+		@Override
+		public String getContentType() {
+			if(contentType != null && characterEncoding != null && !contentType.contains("charset=")) {
+				return contentType + ";charset=" + characterEncoding;
+			}
+			return contentType;
+		}
+
+		@Override
+		public void setCharacterEncoding(String charset) {
+			characterEncoding = charset;
+		}
+
+		@Override
+		public String getCharacterEncoding() {
+			return characterEncoding != null ? characterEncoding : StandardCharsets.UTF_8.name();
+		}
+
+		@Override
+		public void setContentLength(int len) {
+			contentLength = len;
+		}
+
+		@Override
+		public void setContentLengthLong(long len) {
+			contentLength = len;
+		}
+
+		@Override
+		public void setHeader(String name, String value) {
+			if("Content-Type".equalsIgnoreCase(name)) {
+				contentType = value;
+				return;
+			}
+			List<String> l = new ArrayList<>(1);
+			l.add(value);
+			headers.put(name, l);
+		}
+
+		@Override
+		public void addHeader(String name, String value) {
+			if("Content-Type".equalsIgnoreCase(name)) {
+				contentType = value;
+				return;
+			}
+			List<String> l = headers.get(name);
+			if(l == null) {
+				headers.put(name, l = new ArrayList<>(1));
+			}
+			l.add(value);
+		}
+
+		@Override
+		public void setDateHeader(String name, long date) {
+			setHeader(name, httpDate.format(Instant.ofEpochMilli(date)));
+		}
+
+		@Override
+		public void addDateHeader(String name, long date) {
+			addHeader(name, httpDate.format(Instant.ofEpochMilli(date)));
+		}
+
+		@Override
+		public void setIntHeader(String name, int value) {
+			setHeader(name, Integer.toString(value));
+		}
+
+		@Override
+		public void addIntHeader(String name, int value) {
+			addHeader(name, Integer.toString(value));
+		}
+
+		@Override
+		public boolean containsHeader(String name) {
+			return headers.containsKey(name);
+		}
+
+		@Override
+		public String getHeader(String name) {
+			List<String> l = headers.get(name);
+			return l == null ? null : l.get(0);
+		}
+
+		@Override
+		public String encodeURL(String url) {
+			return url;
+		}
+
+		@Override
+		public String encodeRedirectURL(String url) {
+			return url;
+		}
+	}
+}
@@ -1,10 +1,8 @@
 package org.jsc.web;
 
-import java.lang.reflect.Method;
 import java.util.HashMap;
-import java.util.Map;
 
-import org.jsc.Util;
+import org.jsc.Accessors;
 
 /**
  * Gets values based on properties in the provided object
@@ -14,22 +12,18 @@ public class PropertyMap extends HashMap<String, Object> {
 	private static final long serialVersionUID = 1L;
 	
 	private Object base;
-	private Map<String,Method> getters;
+	private Accessors accessors;
 	
 	public PropertyMap(Object base) {
 		this.base = base;
-		getters = Util.getters(base.getClass());
+		accessors = Accessors.of(base.getClass());
 	}
 	
 	public Object get(Object key) {
 		Object o = super.get(key);
 		if(o == null) {
 			String k = key.toString();
-			try {
-				super.put(k, o = getters.get(k).invoke(base));
-			} catch (Exception e) {
-				throw Util.asRuntime(e);
-			}
+			super.put(k, o = accessors.getter(k).get(base));
 		}
 		return o;
 	}
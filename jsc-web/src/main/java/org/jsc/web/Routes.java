@@ -0,0 +1,107 @@
+package org.jsc.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.jsc.Log;
+import org.jsc.StringMatcher;
+import org.jsc.StringMatcher.Match;
+import org.jsc.web.AppRequestDispatcher.RequestHandler;
+
+/**
+ * Routing table built once at startup by the {@link AppRequestDispatcher.RequestHandlerProvider}s:
+ * exact paths, path prefixes & templates like <code>/user/{id}/edit</code> or <code>/files/*</code>,
+ * where each <code>{name}</code> matches one path segment and <code>*</code> the rest, set as request
+ * attributes. Exact paths are matched first, then templates, then the longest prefix. If a path is added
+ * twice the first handler is kept, as the first provider with a handler wins without routes.
+ * @author kzantow
+ */
+public final class Routes {
+	private static final Log log = new Log(Routes.class);
+	
+	private final Map<String, RequestHandler> exact = new HashMap<>();
+	private final StringMatcher<RequestHandler> prefixes = new StringMatcher<>();
+	private final StringMatcher<RequestHandler> templates = new StringMatcher<>();
+	private boolean built;
+
+	/**
+	 * Route requests for exactly this path to the handler
+	 */
+	public void exact(String path, RequestHandler handler) {
+		checkBuilding();
+		RequestHandler prev = exact.putIfAbsent(path, handler);
+		if(prev != null) {
+			duplicate(path, prev, handler);
+		}
+	}
+
+	/**
+	 * Route requests starting with this path to the handler, unless a longer prefix matches
+	 */
+	public void prefix(String path, RequestHandler handler) {
+		checkBuilding();
+		add(prefixes, path, handler);
+	}
+
+	/**
+	 * Route requests matching the whole template to the handler, e.g. <code>/user/{id}</code>
+	 */
+	public void template(String template, RequestHandler handler) {
+		checkBuilding();
+		add(templates, template, handler);
+	}
+
+	private static void add(StringMatcher<RequestHandler> m, String path, RequestHandler handler) {
+		RequestHandler prev = m.entries().get(path);
+		if(prev != null) {
+			duplicate(path, prev, handler);
+			return;
+		}
+		m.add(path, handler);
+	}
+
+	private static void duplicate(String path, RequestHandler kept, RequestHandler ignored) {
+		log.warn("Route ", path, " already goes to ", kept, ", ignoring ", ignored);
+	}
+
+	private void checkBuilding() {
+		if(built) {
+			throw new IllegalStateException("Routes can't be added after startup");
+		}
+	}
+
+	/**
+	 * No more routes are added after this
+	 */
+	Routes build() {
+		built = true;
+		return this;
+	}
+
+	/**
+	 * The handler for the path or null; if the request is given, template parameters are set on it
+	 */
+	public RequestHandler find(String path, HttpServletRequest req) {
+		RequestHandler h = exact.get(path);
+		if(h != null) {
+			return h;
+		}
+		Match<RequestHandler> m = templates.matchWhole(path);
+		if(m != null) {
+			if(req != null) {
+				for(int i = 0; i < m.size(); i++) {
+					req.setAttribute(m.getName(i), m.getValue(i));
+				}
+			}
+			return m.getResult();
+		}
+		return prefixes.get(path);
+	}
+
+	@Override
+	public String toString() {
+		return "exact: " + exact.keySet() + ", prefixes: " + prefixes + ", templates: " + templates;
+	}
+}
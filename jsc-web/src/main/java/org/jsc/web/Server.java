@@ -45,13 +45,13 @@ public class Server {
 	public static void main(String[] args) throws Exception {
 		InetAddress addr = InetAddress.getByName(Util.env("serverIp","0.0.0.0"));
 		int port = Util.env("serverPort", 8080);
-		boolean useJetty = Util.env("useJetty", true);
+		String engine = Util.env("serverEngine", Util.env("useJetty", true) ? "jetty" : "java");
 		System.out.println("Running server on: " + addr + " : " + port);
 		InetSocketAddress bind = new InetSocketAddress(addr, port);
 		
 		Server s = new Server();
 		
-		if(useJetty) {
+		if("jetty".equals(engine)) {
 			org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server(bind);
 			for(Connector y : server.getConnectors()) {
 			    for(ConnectionFactory x  : y.getConnectionFactories()) {
@@ -72,6 +72,16 @@ public class Server {
 	        server.start();
 	        server.join();
 		}
+		else if("nio".equals(engine)) {
+			NioServer srv = new NioServer() {
+	        	final GZipServletFilter gzipFilter = s.gzipFilter;
+	        	final FilterChain appFilterChain = s.appFilterChain;
+				public void doFilter(HttpServletRequest req, HttpServletResponse res) throws Exception {
+	        		gzipFilter.doFilter(req, res, appFilterChain);
+				}
+			};
+			srv.start(bind);
+		}
 		else {
 			JavaServer srv = new JavaServer() {
 	        	final GZipServletFilter gzipFilter = s.gzipFilter;
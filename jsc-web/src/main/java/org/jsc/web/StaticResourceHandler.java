@@ -4,6 +4,8 @@ import java.io.OutputStream;
 import java.net.URL;
 import java.net.URLConnection;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -70,6 +72,7 @@ public class StaticResourceHandler implements RequestHandler {
 		public String externalPath;
 		public String contentType;
 		public byte[] content;
+		public Path file; // on disk & sent unchanged, or null
 		public long lastModified;
 		public long nextCheck;
 		public long expiresTime;
@@ -90,6 +93,7 @@ public class StaticResourceHandler implements RequestHandler {
 				throw new NoSuchFileException(path);
 			}
 			this.resourcePath = path;
+			this.file = "file".equals(u.getProtocol()) ? Paths.get(u.toURI()) : null;
 			this.content = getContent();
 			this.externalPath = contextPath + '/' + path + "?" + paramName + (App.development ? "" : ("=" + Util.hex(Util.sha1(content)).substring(0,10).toLowerCase()));
 			this.contentType = mime.getType(path);
@@ -119,6 +123,7 @@ public class StaticResourceHandler implements RequestHandler {
 		List<Resource> subResources;
 		public TextResource(String path) throws Exception {
 			super(path);
+			this.file = null; // content is rewritten
 		}
 		@Override
 		byte[] getContent() throws Exception {
@@ -280,6 +285,9 @@ public class StaticResourceHandler implements RequestHandler {
 				res.addDateHeader("Expires", r.expiresTime);
 				res.addHeader("Cache-Control", "public");
 				res.setDateHeader("Last-Modified", r.lastModified);
+				if(r.file != null && NioServer.trySendFile(res, r.file)) {
+					return;
+				}
 				OutputStream out = res.getOutputStream();
 				try {
 					out.write(r.content);
@@ -3,36 +3,47 @@ package org.jsc.web.ui;
 import java.io.Writer;
 import java.util.List;
 
+import org.jsc.Fn;
 import org.jsc.Proc2;
 
+/**
+ * Sets the attribute values of a code component, which holds them in fields; a new instance is created
+ * for each render & postback so cached trees can be rendered by any number of threads, with ids from
+ * this component so they match between a render and its postback
+ * @author kzantow
+ */
 public final class ComponentLocalValueManager extends BaseComponent {
-	Component base;
+	Fn<Component> create;
 	
 	List<Proc2<Object, Context>> set;
 	List<Proc2<Object, Context>> update;
 	
-	public ComponentLocalValueManager(Component base, List<Proc2<Object, Context>> set, List<Proc2<Object, Context>> update) {
-		this.base = base;
+	public ComponentLocalValueManager(Fn<Component> create, List<Proc2<Object, Context>> set, List<Proc2<Object, Context>> update) {
+		this.create = create;
 		this.set = set;
 		this.update = update;
 	}
-
-	@Override
-	public void render(Context ctx, Writer w) throws Throwable {
+	
+	private Component create(Context ctx) throws Throwable {
+		Component base = create.exec();
+		ctx.setIdentity(base, this);
 		for(Proc2<Object, Context> p : set) {
 			p.exec(base, ctx);
 		}
-		base.render(ctx, w);
+		return base;
+	}
+
+	@Override
+	public void render(Context ctx, Writer w) throws Throwable {
+		create(ctx).render(ctx, w);
 	}
 
 	@Override
 	public void postback(PostbackContext ctx) throws Throwable {
-		for(Proc2<Object, Context> p : set) {
-			p.exec(base, ctx);
-		}
+		Component base = create(ctx);
 		base.postback(ctx);
 		for(Proc2<Object, Context> p : update) {
 			p.exec(base, ctx);
 		}
 	}
-}
\ No newline at end of file
+}
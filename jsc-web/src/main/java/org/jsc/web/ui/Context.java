@@ -17,6 +17,7 @@ public class Context extends BindingResolver {
 	
 	int nextId = 0;
 	private IdentityHashMap<Component, String> ids;
+	private IdentityHashMap<Component, Component> identities;
 	
 	public Context(Map<String, Object> context) {
 		super(context);
@@ -31,6 +32,9 @@ public class Context extends BindingResolver {
 		if(parent != null) {
 			return parent.idFor(c);
 		}
+		if(identities != null && identities.containsKey(c)) {
+			c = identities.get(c);
+		}
 		if(ids == null) {
 			ids = new IdentityHashMap<Component, String>();
 		}
@@ -41,6 +45,20 @@ public class Context extends BindingResolver {
 		return id;
 	}
 	
+	/**
+	 * Use the ids of another component for this one, e.g. for an instance created for a single render
+	 */
+	public void setIdentity(Component c, Component identity) {
+		if(parent != null) {
+			parent.setIdentity(c, identity);
+			return;
+		}
+		if(identities == null) {
+			identities = new IdentityHashMap<Component, Component>();
+		}
+		identities.put(c, identity);
+	}
+	
 	@SuppressWarnings({ "unchecked", "rawtypes" })
 	public static Map<String,Object> getObjectBindings(Object o) {
 		if(o instanceof Map) {
@@ -1,9 +1,12 @@
 package org.jsc.web.ui;
 
 import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 import org.jsc.Expr;
+import org.jsc.ExpressionService.LiteralExpr;
 
 /**
  * Ouptuts an element
@@ -12,6 +15,7 @@ import org.jsc.Expr;
 public final class ElementOutputComponent extends BaseComponent {
 	String name;
 	Map<String, Expr> attributes;
+	Component[] parts; // pre-rendered output, see compile()
 	
 	public ElementOutputComponent(String name, Map<String, Expr> attributes) {
 		this.name = name;
@@ -20,6 +24,12 @@ public final class ElementOutputComponent extends BaseComponent {
 
 	@Override
 	public void render(Context ctx, Writer w) throws Throwable {
+		if(parts != null) {
+			for(Component c : parts) {
+				c.render(ctx, w);
+			}
+			return;
+		}
 		w.append('<').append(name);
 		for(String k : attributes.keySet()) {
 			Object v = attributes.get(k);
@@ -32,4 +42,59 @@ public final class ElementOutputComponent extends BaseComponent {
 		super.render(ctx, w);
 		w.append("</").append(name).append('>');
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Pre-renders the markup of this element and its static descendants into single chunks,
+	 * leaving only the expressions and other components to render; call once the tree is complete
+	 * @return the dynamic components, which may have children to compile
+	 */
+	List<Component> compile() {
+		List<Component> out = new ArrayList<Component>();
+		List<Component> dynamic = new ArrayList<Component>();
+		StringBuilder text = new StringBuilder();
+		compile(text, out, dynamic);
+		flush(text, out);
+		parts = out.toArray(new Component[out.size()]);
+		return dynamic;
+	}
+	
+	private void compile(StringBuilder text, List<Component> out, List<Component> dynamic) {
+		text.append('<').append(name);
+		for(String k : attributes.keySet()) {
+			Expr v = attributes.get(k);
+			text.append(' ').append(k).append("=\"");
+			if(v instanceof LiteralExpr) {
+				text.append(((LiteralExpr)v).getText());
+			}
+			else {
+				flush(text, out);
+				out.add(new TextExpressionComponent(v));
+			}
+			text.append('"');
+		}
+		text.append('>');
+		if(children != null) {
+			for(Component c : children) {
+				if(c instanceof ElementOutputComponent) {
+					((ElementOutputComponent)c).compile(text, out, dynamic);
+				}
+				else if(c instanceof StaticComponent) {
+					text.append(((StaticComponent)c).text);
+				}
+				else {
+					flush(text, out);
+					out.add(c);
+					dynamic.add(c);
+				}
+			}
+		}
+		text.append("</").append(name).append('>');
+	}
+	
+	private static void flush(StringBuilder text, List<Component> out) {
+		if(text.length() > 0) {
+			out.add(new StaticComponent(text.toString()));
+			text.setLength(0);
+		}
+	}
+}
@@ -6,8 +6,11 @@ import java.util.Collections;
 import org.jsc.Expr;
 import org.jsc.SingleValueMap;
 
+/**
+ * Renders the child for each item; loop state is kept in the context, not the component
+ * @author kzantow
+ */
 public final class LoopComponent extends BaseComponent {
-	int idx = 0;
 	Expr ve;
 	String var;
 	
@@ -33,6 +36,71 @@ public final class LoopComponent extends BaseComponent {
 		throw new IllegalArgumentException("Not an Iterable: " + o); 
 	}
 
+	/**
+	 * Loop state for a single render; the component is shared by concurrent renders of cached templates
+	 */
+	static final class LoopContext extends Context {
+		final String var;
+		final SingleValueMap<String,Object> vars;
+		int index = -1;
+		String prefix;
+		
+		LoopContext(String var, SingleValueMap<String,Object> vars, Context parent) {
+			super(vars, parent);
+			this.var = var;
+			this.vars = vars;
+		}
+		
+		void next(Object v) {
+			vars.setValue(v);
+			prefix = var + ':' + ++index + ':';
+		}
+		
+		public int getIndex() {
+			return index;
+		}
+		
+		@Override
+		public String getId(Component c, String id) {
+			return prefix + super.getId(c, id);
+		}
+		
+		@Override
+		public Object put(String key, Object value) {
+			return getParent().put(key, value); // bypass attempting to set the singlevaluemap
+		}
+	}
+	
+	/**
+	 * Loop state for a single postback
+	 */
+	static final class LoopPostbackContext extends PostbackContext {
+		final String var;
+		final SingleValueMap<String,Object> vars;
+		int index = -1;
+		String prefix;
+		
+		LoopPostbackContext(String var, SingleValueMap<String,Object> vars, PostbackContext parent) {
+			super(vars, parent);
+			this.var = var;
+			this.vars = vars;
+		}
+		
+		void next(Object v) {
+			vars.setValue(v);
+			prefix = var + ':' + ++index + ':';
+		}
+		
+		public int getIndex() {
+			return index;
+		}
+		
+		@Override
+		public String getId(Component c, String id) {
+			return prefix + super.getId(c, id);
+		}
+	}
+
 	@Override
 	public void render(Context ctx, Writer w) throws Throwable {
 		Component child = getChildren().get(0);
@@ -40,22 +108,10 @@ public final class LoopComponent extends BaseComponent {
 		Iterable<?> i = getIterable(o);
 		SingleValueMap<String,Object> vars = new SingleValueMap<>();
 		vars.put(var, null);
-		Context c = new Context(vars, ctx) {
-			@Override
-			public String getId(Component c, String id) {
-				return super.getId(LoopComponent.this, var)
-					+ ':' + idx + ':' + super.getId(c, id);
-			}
-			@Override
-			public Object put(String key, Object value) {
-				return ctx.put(key, value); // bypass attempting to set the singlevaluemap
-			}
-		};
-		idx = 0;
+		LoopContext c = new LoopContext(var, vars, ctx);
 		for(Object v : i) {
-			vars.setValue(v);
+			c.next(v);
 			child.render(c, w);
-			idx++;
 		}
 	}
 
@@ -66,18 +122,10 @@ public final class LoopComponent extends BaseComponent {
 		Iterable<?> i = getIterable(o);
 		SingleValueMap<String,Object> vars = new SingleValueMap<>();
 		vars.put(var, null);
-		PostbackContext c = new PostbackContext(vars, ctx) {
-			@Override
-			public String getId(Component c, String id) {
-				return super.getId(LoopComponent.this, var)
-					+ ':' + idx + ':' + super.getId(c, id);
-			}
-		};
-		idx = 0;
+		LoopPostbackContext c = new LoopPostbackContext(var, vars, ctx);
 		for(Object v : i) {
-			vars.setValue(v);
+			c.next(v);
 			child.postback(c);
-			idx++;
 		}
 	}
-}
\ No newline at end of file
+}
@@ -1,78 +1,67 @@
 package org.jsc.web.ui;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.HashMap;
 import java.util.Map;
 
-import org.jsc.Util;
+import org.jsc.Accessors;
 
 public class ObjectContext extends HashMap<String,Object> {
 	private static final long serialVersionUID = 1L;
 	
 	final Object o;
-	final Map<String,Method> getters;
-	final Map<String,Method> setters;
-	final Map<String,Method> methods;
+	final Accessors accessors;
+	private Map<String,Object> functions; // created once per context, on use
 	
 	public ObjectContext(Object o) {
 		this.o = o;
-		getters = Util.getters(o.getClass());
-		setters = Util.setters(o.getClass());
-		methods = Util.methods(o.getClass());
+		accessors = Accessors.of(o.getClass());
 	}
 	
 	@Override
 	public Object get(Object key) {
-		Method m = getters.get(key);
-		if(m != null) {
-			try {
-				return m.invoke(o);
-			} catch(InvocationTargetException e) {
-				throw Util.asRuntime(e.getCause());
-			} catch (Exception e) {
-				throw Util.asRuntime(e);
-			}
+		if(!(key instanceof String)) {
+			return null;
+		}
+		String name = (String)key;
+		Accessors.Getter getter = accessors.getter(name);
+		if(getter != null) {
+			return getter.get(o);
 		}
-		final Method mt = methods.get(key);
-		if(mt != null) {
-			@SuppressWarnings("restriction")
-			jdk.nashorn.api.scripting.JSObject fn = new jdk.nashorn.api.scripting.AbstractJSObject() {
-				@Override
-				public boolean isFunction() {
-					return true;
-				}
-				@Override
-				public Object call(Object thiz, Object... args) {
-					try {
+		if(functions == null) {
+			functions = new HashMap<>();
+		}
+		Object fn = functions.get(name);
+		if(fn == null) {
+			Accessors.Invoker mt = accessors.invoker(name);
+			if(mt != null) {
+				@SuppressWarnings("restriction")
+				jdk.nashorn.api.scripting.JSObject jsFn = new jdk.nashorn.api.scripting.AbstractJSObject() {
+					@Override
+					public boolean isFunction() {
+						return true;
+					}
+					@Override
+					public Object call(Object thiz, Object... args) {
 						return mt.invoke(o, args);
-					} catch (Exception e) {
-						throw Util.asRuntime(e);
 					}
-				}
-			};
-			return fn;
+				};
+				functions.put(name, fn = jsFn);
+			}
 		}
-		return null;
+		return fn;
 	}
 	
 	@Override
 	public Object put(String key, Object value) {
-		Method m = setters.get(key);
-		if(m != null) {
-			try {
-				m.invoke(o, value);
-			} catch(InvocationTargetException e) {
-				throw Util.asRuntime(e.getCause());
-			} catch (Exception e) {
-				throw Util.asRuntime(e);
-			}
+		Accessors.Setter setter = accessors.setter(key);
+		if(setter != null) {
+			setter.set(o, value);
 		}
 		return null;
 	}
 	
 	@Override
 	public boolean containsKey(Object key) {
-		return getters.containsKey(key) || methods.containsKey(key);
+		return accessors.getterMethods().containsKey(key) || accessors.methods().containsKey(key);
 	}
 }
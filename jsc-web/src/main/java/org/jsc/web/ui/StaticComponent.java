@@ -0,0 +1,20 @@
+package org.jsc.web.ui;
+
+import java.io.Writer;
+
+/**
+ * Pre-rendered markup with no expressions, written in a single call
+ * @author kzantow
+ */
+public final class StaticComponent extends BaseComponent {
+	final char[] text;
+	
+	public StaticComponent(String text) {
+		this.text = text.toCharArray();
+	}
+
+	@Override
+	public void render(Context ctx, Writer w) throws Throwable {
+		w.write(text);
+	}
+}
@@ -5,12 +5,15 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javassist.ClassPool;
 import javassist.CtClass;
@@ -18,16 +21,21 @@ import javassist.CtClass;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.jsc.Accessors;
 import org.jsc.Expr;
 import org.jsc.ExpressionService;
 import org.jsc.Fn1;
+import org.jsc.Log;
 import org.jsc.MapWrapper;
 import org.jsc.Proc;
 import org.jsc.Proc1;
 import org.jsc.Proc2;
 import org.jsc.Util;
 import org.jsc.ExpressionService.BindingResolver;
+import org.jsc.ExpressionService.LiteralExpr;
 import org.jsc.app.App;
+import org.jsc.app.OnShutdown;
+import org.jsc.io.WatchDir;
 import org.jsc.web.StaticResourceHandler;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Attribute;
@@ -43,10 +51,12 @@ import org.jsoup.nodes.TextNode;
  */
 @Singleton
 public class TemplateProcessor {
+	private static final Log log = new Log(TemplateProcessor.class);
+	
 	@Inject private StaticResourceHandler res;
 	@Inject private App app;
 	
-	private Map<String, Fn1<Component,Component>> jsc = new HashMap<String, Fn1<Component,Component>>() {
+	private Map<String, Fn1<Component,Component>> jsc = new ConcurrentHashMap<String, Fn1<Component,Component>>() {
 		private static final long serialVersionUID = 1L;
 		@Override
 		public Fn1<Component,Component> get(Object key) {
@@ -77,7 +87,7 @@ public class TemplateProcessor {
 		}
 	};
 
-	private Map<String, URL> templates = new HashMap<String, URL>() {
+	private Map<String, URL> templates = new ConcurrentHashMap<String, URL>() {
 		private static final long serialVersionUID = 1L;
 		@Override
 		public URL get(Object key) {
@@ -100,7 +110,7 @@ public class TemplateProcessor {
 		}
 	};
 	
-	private Map<String, Class<Component>> components = new HashMap<String, Class<Component>>() {
+	private Map<String, Class<Component>> components = new ConcurrentHashMap<String, Class<Component>>() {
 		private static final long serialVersionUID = 1L;
 		@SuppressWarnings("unchecked")
 		@Override
@@ -117,10 +127,10 @@ public class TemplateProcessor {
 				}
 				c = super.get(name);
 				if(c == null) {
-					put(name, null); // prevent duplicate lookups
+					put(name, c = Component.class); // prevent duplicate lookups
 				}
 			}
-			return c;
+			return c == Component.class ? null : c;
 		}
 		@Override
 		public boolean containsKey(Object key) {
@@ -137,7 +147,9 @@ public class TemplateProcessor {
 	 */
 	public Component parseTemplate(String path, URL template) throws Exception {
 		Map<String,Proc2<Component,Component>> regions = new HashMap<>();
-		return parseTemplate(path, template, regions);
+		Component cmp = parseTemplate(path, template, regions);
+		compile(cmp);
+		return cmp;
 	}
 	
 	/**
@@ -209,7 +221,7 @@ public class TemplateProcessor {
 	@Inject ExpressionService expr;
 	private Expr createExpression(Node location, String expression, Class<?> type) {
 		Expr exp = expr.parseExpr(expression);
-		if(type != Object.class) {
+		if(type != Object.class && !(exp instanceof LiteralExpr && type == String.class)) {
 			return new Expr() {
 				@Override
 				public void setValue(BindingResolver ctx, Object val) {
@@ -345,82 +357,51 @@ public class TemplateProcessor {
 				List<Proc2<Object, Context>> set = new ArrayList<Proc2<Object, Context>>();
 				List<Proc2<Object, Context>> update = new ArrayList<Proc2<Object, Context>>();
 				
-				Map<String,Field> fields = Util.fields(t);
-				Map<String,Method> getters = Util.getters(t);
-				Map<String,Method> setters = Util.setters(t);
+				Accessors accessors = Accessors.of(t);
 				
 				for(Attribute attr : el.attributes()) {
-					Field field = fields.get(attr.getKey());
-					Method setter = setters.get(attr.getKey());
-					Method getter = getters.get(attr.getKey());
+					Field field = accessors.fields().get(attr.getKey());
+					Method setterMethod = accessors.setterMethods().get(attr.getKey());
 					
-					if(setter == null && field == null) {
+					if(setterMethod == null && field == null) {
 						throw new RuntimeException("Invalid property: " + attr);
 					}
 					
-					Class<?> ftyp = setter == null ? field.getType() : setter.getParameterTypes()[0];
+					Class<?> ftyp = setterMethod == null ? field.getType() : setterMethod.getParameterTypes()[0];
+					Accessors.Setter setter = setterMethod == null ? accessors.fieldSetter(attr.getKey()) : accessors.setter(attr.getKey());
+					Accessors.Getter getter = setterMethod == null ? accessors.fieldGetter(attr.getKey()) : accessors.getter(attr.getKey());
 					
 					if(attr.getValue().contains("${")) {
 						if(Proc.class.equals(ftyp)) {
 							Expr ve = createExpression(el, attr.getValue(), ftyp);
-							if(setter != null) {
-								set.add((cmp, ctx) -> {
-									Proc p = () -> {
-										ve.getValue(ctx);
-									};
-									setter.invoke(cmp, p);
-								});
-							}
-							else {
-								set.add((cmp, ctx) -> {
-									Proc p = () -> {
-										ve.getValue(ctx);
-									};
-									field.set(cmp, p);
-								});
-							}
-						}
-						else {
-							Expr ve = createExpression(el, attr.getValue(), ftyp);
-							if(setter != null) {
-								set.add((cmp, ctx) -> {
-									setter.invoke(cmp, ve.getValue(ctx));
-								});
-								update.add((cmp, ctx) -> {
-									Object o = getter.invoke(cmp);
-									ve.setValue(ctx, o);
-								});
-							}
-							else {
-								set.add((cmp, ctx) -> {
-									field.set(cmp, ve.getValue(ctx));
-								});
-								update.add((cmp, ctx) -> {
-									Object o = field.get(cmp);
-									ve.setValue(ctx, o);
-								});
-							}
-						}
-					}
-					else {
-						Object v = expr.coerce(attr.getValue(), ftyp);
-						if(setter != null) {
 							set.add((cmp, ctx) -> {
-								setter.invoke(cmp, v);
+								Proc p = () -> {
+									ve.getValue(ctx);
+								};
+								setter.set(cmp, p);
 							});
 						}
 						else {
+							Expr ve = createExpression(el, attr.getValue(), ftyp);
 							set.add((cmp, ctx) -> {
-								field.set(cmp, v);
+								setter.set(cmp, ve.getValue(ctx));
+							});
+							update.add((cmp, ctx) -> {
+								Object o = getter.get(cmp);
+								ve.setValue(ctx, o);
 							});
 						}
 					}
+					else {
+						Object v = expr.coerce(attr.getValue(), ftyp);
+						set.add((cmp, ctx) -> {
+							setter.set(cmp, v);
+						});
+					}
 				}
 				
-				Component base = app.get(t);
-				
 				// For code components, wrap in value-setter component
-				c = new ComponentLocalValueManager(base, set, update);
+				c = new ComponentLocalValueManager(() -> app.get(t), set, update);
 			}
 			else if(templates.containsKey(name)) {
 				regions = new MapWrapper<String,Proc2<Component,Component>>(regions);
@@ -486,7 +467,9 @@ public class TemplateProcessor {
 				return;
 			}
 			Expr ve = createExpression(n, ((TextNode)n).getWholeText().trim(), String.class);
-			Component c = new TextExpressionComponent(ve);
+			Component c = ve instanceof LiteralExpr
+				? new StaticComponent(((LiteralExpr)ve).getText())
+				: new TextExpressionComponent(ve);
 			parent.getChildren().add(c);
 		}
 		else {
@@ -494,54 +477,185 @@ public class TemplateProcessor {
 			if(Util.isBlank(html)) {
 				return;
 			}
-			Component c = new BaseComponent() {
-				public void render(Context ctx, Writer w) throws Throwable {
-					w.write(html);
-				}
-			};
-			parent.getChildren().add(c);
+			parent.getChildren().add(new StaticComponent(html));
+		}
+	}
+	
+	/**
+	 * Pre-renders static markup in the completed tree, so rendering only
+	 * evaluates the dynamic parts
+	 */
+	private void compile(Component c) {
+		if(c instanceof ElementOutputComponent) {
+			for(Component child : ((ElementOutputComponent)c).compile()) {
+				compile(child);
+			}
+		}
+		else if(c.hasChildren()) {
+			for(Component child : c.getChildren()) {
+				compile(child);
+			}
 		}
 	}
 
-	static class TemplateContainer {
-		Component cmp;
+	/**
+	 * Seconds between checks for modified templates; 0 checks on every request, negative never checks
+	 */
+	public static final long templateCheckInterval = Util.env("templateCheckSeconds", App.development ? 1 : -1) * 1000l;
+	
+	/**
+	 * Whether to watch template directories and drop cached templates as soon as they change
+	 */
+	public static final boolean watchTemplates = Util.env("watchTemplates", false);
+	
+	/**
+	 * A cached template; parsed by a single thread, read without locking
+	 */
+	final class TemplateContainer {
+		final String path;
+		final URL u;
+		volatile Component cmp;
+		volatile long nextCheck;
 		long lastMod;
-		static long lastMod(Component cmp) throws Exception {
-			long lastMod = 0;
-			if(cmp instanceof ReloadableCompoent) {
-				URLConnection c = ((ReloadableCompoent)cmp).getSrc().openConnection();
-				c.setDefaultUseCaches(false);
-				c.setUseCaches(false);
-				long l = c.getLastModified();
-				if(l > lastMod) {
-					lastMod = l;
-				}
+		
+		TemplateContainer(String path, URL u) {
+			this.path = path;
+			this.u = u;
+		}
+		
+		Component get() throws Throwable {
+			Component c = cmp;
+			if(c != null && !isModified()) {
+				return c;
 			}
-			if(cmp.hasChildren()) {
-				for(Component child : cmp.getChildren()) {
-					long l = lastMod(child);
-					if(l > lastMod) {
-						lastMod = l;
+			synchronized(this) {
+				c = cmp;
+				if(c == null) {
+					List<URL> sources = new ArrayList<URL>();
+					c = parseTemplate(path, u);
+					sources(c, sources);
+					lastMod = lastMod(sources);
+					nextCheck = System.currentTimeMillis() + templateCheckInterval;
+					if(watchTemplates) {
+						watch(sources);
 					}
+					cmp = c;
 				}
+				return c;
+			}
+		}
+		
+		/**
+		 * Checks the sources at most once per interval; drops the component if modified
+		 */
+		private boolean isModified() throws Exception {
+			if(templateCheckInterval < 0) {
+				return false;
+			}
+			long now = System.currentTimeMillis();
+			if(now < nextCheck) {
+				return false;
+			}
+			synchronized(this) {
+				if(now < nextCheck || cmp == null) {
+					return cmp == null;
+				}
+				nextCheck = now + templateCheckInterval;
+				List<URL> sources = new ArrayList<URL>();
+				sources(cmp, sources);
+				if(lastMod < lastMod(sources)) {
+					cmp = null;
+					return true;
+				}
+				return false;
 			}
-			return lastMod;
 		}
 	}
 	
-	Map<URL,TemplateContainer> comps = new HashMap<URL, TemplateContainer>();
+	/**
+	 * Collects the source URLs of the component tree
+	 */
+	static void sources(Component cmp, List<URL> sources) {
+		if(cmp instanceof ReloadableCompoent) {
+			URL src = ((ReloadableCompoent)cmp).getSrc();
+			if(src != null) {
+				sources.add(src);
+			}
+		}
+		if(cmp.hasChildren()) {
+			for(Component child : cmp.getChildren()) {
+				sources(child, sources);
+			}
+		}
+	}
+	
+	static long lastMod(List<URL> sources) throws Exception {
+		long lastMod = 0;
+		for(URL u : sources) {
+			URLConnection c = u.openConnection();
+			c.setDefaultUseCaches(false);
+			c.setUseCaches(false);
+			long l = c.getLastModified();
+			if(l > lastMod) {
+				lastMod = l;
+			}
+		}
+		return lastMod;
+	}
 	
+	private final Map<String,TemplateContainer> comps = new ConcurrentHashMap<String,TemplateContainer>();
+	private final Map<Path,WatchDir> watching = new ConcurrentHashMap<Path,WatchDir>();
+	
+	/**
+	 * Watches the directories of file templates, dropping cached templates on any change
+	 */
+	private void watch(List<URL> sources) {
+		for(URL u : sources) {
+			if(!"file".equals(u.getProtocol())) {
+				continue;
+			}
+			try {
+				Path dir = Paths.get(u.toURI()).getParent();
+				watching.computeIfAbsent(dir, d -> {
+					WatchDir w = new WatchDir(d, false, p -> {
+						log.debug(p, " changed, clearing templates");
+						clear();
+					});
+					w.start();
+					return w;
+				});
+			} catch(Exception e) {
+				log.warn("Unable to watch template: ", u, " ", e);
+			}
+		}
+	}
+	
+	/**
+	 * Drop all cached templates & lookups, they will be parsed again as requested
+	 */
+	public void clear() {
+		comps.clear();
+		templates.clear();
+		jsc.clear();
+	}
+	
+	@OnShutdown
+	public void shutdown() {
+		for(WatchDir w : watching.values()) {
+			w.stop();
+		}
+		watching.clear();
+	}
+	
+	/**
+	 * Get the parsed, cached component for a template
+	 */
 	public Component getComponent(String path, URL u) throws Throwable {
-		TemplateContainer cnt = comps.get(u);
-		// TODO next check timeout
-		if(cnt == null || cnt.lastMod < TemplateContainer.lastMod(cnt.cmp)) {
-			Component cmp = parseTemplate(path, u);
-			cnt = new TemplateContainer();
-			cnt.cmp = cmp;
-			cnt.lastMod = TemplateContainer.lastMod(cnt.cmp);
-			comps.put(u, cnt);
+		String key = u.toString();
+		TemplateContainer cnt = comps.get(key);
+		if(cnt == null) {
+			cnt = comps.computeIfAbsent(key, k -> new TemplateContainer(path, u));
 		}
-		
-		return cnt.cmp;
+		return cnt.get();
 	};
 }
@@ -0,0 +1,72 @@
+package org.jsc.io.json;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsc.io.json.StreamingJsonTest.Values;
+import org.jsc.io.json.TypedJsonTest.BaseClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonCodecTest {
+	public static class Hidden extends Values {
+		private String secret = "s";
+		final int constant = 7;
+		protected String s; // shadows Values.s
+	}
+	
+	JsonService reflective = new JsonService();
+	JsonService generated = new JsonService();
+	{
+		generated.setGenerateCodecs(true);
+	}
+	
+	@Test
+	public void testMatchesReflective() {
+		List<BaseClass> al = new ArrayList<BaseClass>();
+		for(int i = 0; i < 20; i++) {
+			BaseClass obj = TypedJsonTest.createRandomObject(3, 2);
+			obj.x = i;
+			al.add(obj);
+		}
+		String js = reflective.toJson(al);
+		Assert.assertEquals(js, generated.toJson(al));
+		
+		StringWriter w = new StringWriter();
+		generated.toJsonStream(al, w);
+		Assert.assertEquals(js, w.toString());
+		
+		Assert.assertEquals(al.toString(), generated.fromJson(List.class, js).toString());
+		Assert.assertEquals(al.toString(), generated.fromJsonStream(List.class, new StringReader(js)).toString());
+	}
+	
+	@Test
+	public void testInaccessibleFields() {
+		Hidden h = new Hidden();
+		h.i = 3;
+		h.d = 0.5;
+		h.s = "sub";
+		((Values)h).s = "super";
+		h.ints = new int[] { 4, 5 };
+		Assert.assertNotNull(generated.codec(Hidden.class));
+		Assert.assertNull(reflective.codec(Hidden.class));
+		String js = reflective.toJson(h);
+		Assert.assertEquals(js, generated.toJson(h));
+		
+		Hidden[][] results = {
+			{ (Hidden)reflective.fromJson(Hidden.class, js), (Hidden)generated.fromJson(Hidden.class, js) },
+			{ (Hidden)reflective.fromJsonStream(Hidden.class, new StringReader(js)), (Hidden)generated.fromJsonStream(Hidden.class, new StringReader(js)) },
+		};
+		for(Hidden[] result : results) {
+			Hidden expected = result[0], out = result[1];
+			Assert.assertEquals(3, out.i);
+			Assert.assertEquals(0.5, out.d, 0);
+			Assert.assertEquals("s", out.secret);
+			Assert.assertArrayEquals(new int[] { 4, 5 }, out.ints);
+			Assert.assertEquals(expected.s, out.s);
+			Assert.assertEquals(((Values)expected).s, ((Values)out).s);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package org.jsc.io.json;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jsc.io.json.JsonService.JsonException;
+import org.jsc.io.json.TypedJsonTest.BaseClass;
+import org.jsc.io.json.TypedJsonTest.ExtendedClass1;
+import org.jsc.io.json.TypedJsonTest.ExtendedClass2;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamingJsonTest {
+	public static class Values {
+		public int i;
+		public long l;
+		public double d;
+		public float f;
+		public boolean b;
+		public String s;
+		public Integer boxed;
+		public int[] ints;
+		public List<String> strings;
+	}
+	
+	JsonService json = new JsonService();
+	
+	@Test
+	public void testMatchesTreeReader() {
+		List<BaseClass> al = new ArrayList<BaseClass>();
+		for(int i = 0; i < 20; i++) {
+			BaseClass obj = TypedJsonTest.createRandomObject(3, 2);
+			obj.x = i;
+			al.add(obj);
+		}
+		String js = json.toJson(al);
+		
+		StringWriter w = new StringWriter();
+		json.toJsonStream(al, w);
+		Assert.assertEquals(js, w.toString());
+		
+		Object tree = json.fromJson(List.class, js);
+		Object streamed = json.fromJsonStream(List.class, new StringReader(js));
+		Assert.assertEquals(tree.toString(), streamed.toString());
+		Assert.assertEquals(al.toString(), streamed.toString());
+	}
+	
+	@Test
+	public void testUntypedObject() {
+		ExtendedClass1 e = (ExtendedClass1)json.fromJsonStream(ExtendedClass1.class,
+			new StringReader("{ \"total\": 100, \"unknown\": { \"a\": [1, 2, {}] }, \"number\": -5, \"x\": 3 }"));
+		Assert.assertEquals(Long.valueOf(100), e.total);
+		Assert.assertEquals(Long.valueOf(-5), e.number);
+		Assert.assertEquals(3, e.x);
+	}
+	
+	@Test
+	public void testTypeAfterProperties() {
+		json.registerTypes(ExtendedClass1.class, ExtendedClass2.class);
+		String js = "{ \"x\": 3, \"list\": [ { \"total\": 7, \"class\": \"ExtendedClass2\", \"x\": 4 } ],"
+			+ " \"total\": 100, \"class\": \"ExtendedClass1\", \"number\": -5 }";
+		for(Object o : new Object[] { json.fromJsonStream(BaseClass.class, new StringReader(js)), json.fromJson(BaseClass.class, js) }) {
+			ExtendedClass1 e = (ExtendedClass1)o;
+			Assert.assertEquals(3, e.x);
+			Assert.assertEquals(Long.valueOf(100), e.total);
+			Assert.assertEquals(Long.valueOf(-5), e.number);
+			ExtendedClass2 nested = (ExtendedClass2)e.list.get(0);
+			Assert.assertEquals(4, nested.x);
+			Assert.assertEquals(Long.valueOf(7), nested.total);
+		}
+		
+		// an unrelated type can't be bound to the object already read
+		try {
+			json.fromJsonStream(ExtendedClass1.class, new StringReader("{ \"x\": 3, \"class\": \"ExtendedClass2\" }"));
+			Assert.fail("Read as the wrong type");
+		} catch(JsonException e) {
+			// expected
+		}
+	}
+	
+	@Test
+	public void testPrimitives() {
+		Values v = (Values)json.fromJsonStream(Values.class, new StringReader(
+			"{\"i\":-42,\"l\":9223372036854775807,\"d\":1.25e-3,\"f\":0.1,\"b\":true,"
+			+ "\"s\":\"a \\\"quoted\\\" value\",\"boxed\":null,\"ints\":[1,2,3],\"strings\":[\"x\",\"y\"]}"));
+		Assert.assertEquals(-42, v.i);
+		Assert.assertEquals(Long.MAX_VALUE, v.l);
+		Assert.assertEquals(1.25e-3, v.d, 0);
+		Assert.assertEquals(0.1f, v.f, 0);
+		Assert.assertTrue(v.b);
+		Assert.assertEquals("a \"quoted\" value", v.s);
+		Assert.assertNull(v.boxed);
+		Assert.assertArrayEquals(new int[] { 1, 2, 3 }, v.ints);
+		Assert.assertEquals(2, v.strings.size());
+		
+		for(double d : new double[] { 0.1, 1e300, 4.9e-324, 123456789.123456789, -0.0, Double.NaN }) {
+			Values in = new Values();
+			in.d = d;
+			StringWriter w = new StringWriter();
+			json.toJsonStream(in, w);
+			Values out = (Values)json.fromJsonStream(Values.class, new StringReader(w.toString()));
+			Assert.assertEquals(Double.doubleToLongBits(d), Double.doubleToLongBits(out.d));
+		}
+	}
+}
@@ -0,0 +1,318 @@
+package org.jsc.web;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jsc.Util;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Requests over a real socket to a {@link NioServer} which echoes the method, path & body,
+ * answers /status/{code} with an empty response, /large/{bytes} with that many bytes and
+ * /close with a Connection: close header
+ */
+public class NioServerTest {
+	static final int MAX_REQUEST_BYTES = 64 * 1024;
+	static NioServer server;
+
+	@BeforeClass
+	public static void start() throws Exception {
+		System.setProperty("serverMaxRequestBytes", String.valueOf(MAX_REQUEST_BYTES));
+		try {
+			server = new NioServer() {
+				@Override
+				public void doFilter(HttpServletRequest req, HttpServletResponse res) throws Exception {
+					String path = req.getRequestURI();
+					if(path.startsWith("/status/")) {
+						res.setStatus(Integer.parseInt(path.substring(8)));
+						return;
+					}
+					res.setContentType("text/plain");
+					if(path.equals("/close")) {
+						res.setHeader("Connection", "close");
+					}
+					if(path.startsWith("/large/")) {
+						int n = Integer.parseInt(path.substring(7));
+						OutputStream out = res.getOutputStream();
+						for(int i = 0; i < n; i++) {
+							out.write('a' + i % 26);
+						}
+						return;
+					}
+					String body = new String(Util.readFully(req.getInputStream()), StandardCharsets.UTF_8);
+					res.getOutputStream().write((req.getMethod() + " " + path + " " + body).getBytes(StandardCharsets.UTF_8));
+				}
+			};
+			server.start(new InetSocketAddress("localhost", 0));
+		} finally {
+			System.clearProperty("serverMaxRequestBytes");
+		}
+	}
+
+	@AfterClass
+	public static void stop() {
+		server.stop(0);
+	}
+
+	static final class Response {
+		int status;
+		Map<String, String> headers = new LinkedHashMap<>();
+		String body;
+
+		String header(String name) {
+			return headers.get(name.toLowerCase());
+		}
+	}
+
+	static Socket connect() throws IOException {
+		Socket s = new Socket("localhost", server.getServerPort());
+		s.setSoTimeout(5000);
+		return s;
+	}
+
+	static void send(Socket s, String request) throws IOException {
+		s.getOutputStream().write(request.getBytes(StandardCharsets.ISO_8859_1));
+		s.getOutputStream().flush();
+	}
+
+	static String line(InputStream in) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		int c;
+		while((c = in.read()) != '\n') {
+			if(c < 0) {
+				throw new IOException("Connection closed after: " + sb);
+			}
+			if(c != '\r') {
+				sb.append((char)c);
+			}
+		}
+		return sb.toString();
+	}
+
+	static byte[] read(InputStream in, int len) throws IOException {
+		byte[] b = new byte[len];
+		for(int off = 0; off < len; ) {
+			int n = in.read(b, off, len - off);
+			if(n < 0) {
+				throw new IOException("Connection closed after " + off + " of " + len + " bytes");
+			}
+			off += n;
+		}
+		return b;
+	}
+
+	/**
+	 * Reads one response; a HEAD response has no body whatever its headers say
+	 */
+	static Response read(InputStream in, boolean head) throws IOException {
+		Response r = new Response();
+		String status = line(in);
+		Assert.assertTrue(status, status.startsWith("HTTP/1.1 "));
+		r.status = Integer.parseInt(status.substring(9, 12));
+		for(String l = line(in); !l.isEmpty(); l = line(in)) {
+			int colon = l.indexOf(':');
+			r.headers.put(l.substring(0, colon).trim().toLowerCase(), l.substring(colon + 1).trim());
+		}
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if(!head && "chunked".equals(r.header("Transfer-Encoding"))) {
+			for(int size = Integer.parseInt(line(in), 16); size > 0; size = Integer.parseInt(line(in), 16)) {
+				body.write(read(in, size));
+				Assert.assertEquals("", line(in));
+			}
+			Assert.assertEquals("", line(in));
+		} else if(!head && r.header("Content-Length") != null) {
+			body.write(read(in, Integer.parseInt(r.header("Content-Length"))));
+		}
+		r.body = new String(body.toByteArray(), StandardCharsets.UTF_8);
+		return r;
+	}
+
+	static void assertClosed(InputStream in) throws IOException {
+		Assert.assertEquals(-1, in.read());
+	}
+
+	@Test
+	public void testKeepAlive() throws Exception {
+		try(Socket s = connect()) {
+			for(int i = 0; i < 3; i++) {
+				send(s, "GET /keep/" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n");
+				Response r = read(s.getInputStream(), false);
+				Assert.assertEquals(200, r.status);
+				Assert.assertNull(r.header("Connection"));
+				Assert.assertEquals("GET /keep/" + i + " ", r.body);
+			}
+			send(s, "GET /last HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals("close", r.header("Connection"));
+			Assert.assertEquals("GET /last ", r.body);
+			assertClosed(s.getInputStream());
+		}
+	}
+
+	@Test
+	public void testHandlerCloses() throws Exception {
+		try(Socket s = connect()) {
+			send(s, "GET /close HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /ignored HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals("close", r.header("Connection"));
+			Assert.assertEquals("GET /close ", r.body);
+			assertClosed(s.getInputStream());
+		}
+	}
+
+	@Test
+	public void testBodyInParts() throws Exception {
+		int n = MAX_REQUEST_BYTES - 100;
+		StringBuilder body = new StringBuilder();
+		while(body.length() < n) {
+			body.append((char)('a' + body.length() % 26));
+		}
+		try(Socket s = connect()) {
+			send(s, "POST /parts HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + n + "\r\n\r\n");
+			for(int off = 0; off < n; off += 10000) {
+				send(s, body.substring(off, Math.min(n, off + 10000)));
+				Thread.sleep(5);
+			}
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals(200, r.status);
+			Assert.assertEquals("POST /parts " + body, r.body);
+		}
+	}
+
+	@Test
+	public void testPipelined() throws Exception {
+		try(Socket s = connect()) {
+			StringBuilder sb = new StringBuilder();
+			for(int i = 0; i < 10; i++) {
+				sb.append("POST /pipe/").append(i).append(" HTTP/1.1\r\nHost: localhost\r\nContent-Length: ")
+					.append(String.valueOf(i).length()).append("\r\n\r\n").append(i);
+			}
+			send(s, sb.toString());
+			for(int i = 0; i < 10; i++) {
+				Response r = read(s.getInputStream(), false);
+				Assert.assertEquals(200, r.status);
+				Assert.assertEquals("POST /pipe/" + i + " " + i, r.body);
+			}
+		}
+	}
+
+	@Test
+	public void testChunkedRequest() throws Exception {
+		try(Socket s = connect()) {
+			send(s, "POST /chunked HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ "5\r\nHello\r\n");
+			send(s, "8;ext=1\r\n, World!\r\n0\r\nX-Trailer: 1\r\n\r\n");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals(200, r.status);
+			Assert.assertEquals("POST /chunked Hello, World!", r.body);
+
+			send(s, "GET /after HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			Assert.assertEquals("GET /after ", read(s.getInputStream(), false).body);
+		}
+	}
+
+	@Test
+	public void testExpectContinue() throws Exception {
+		try(Socket s = connect()) {
+			send(s, "PUT /continue HTTP/1.1\r\nHost: localhost\r\nExpect: 100-continue\r\nContent-Length: 4\r\n\r\n");
+			Assert.assertEquals("HTTP/1.1 100 Continue", line(s.getInputStream()));
+			Assert.assertEquals("", line(s.getInputStream()));
+			send(s, "body");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals(200, r.status);
+			Assert.assertEquals("PUT /continue body", r.body);
+		}
+	}
+
+	@Test
+	public void testPayloadTooLarge() throws Exception {
+		try(Socket s = connect()) {
+			send(s, "POST /big HTTP/1.1\r\nHost: localhost\r\nContent-Length: " + (MAX_REQUEST_BYTES + 1) + "\r\n\r\n");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals(413, r.status);
+			Assert.assertEquals("close", r.header("Connection"));
+			assertClosed(s.getInputStream());
+		}
+		try(Socket s = connect()) {
+			send(s, "POST /big HTTP/1.1\r\nHost: localhost\r\nTransfer-Encoding: chunked\r\n\r\n"
+				+ Integer.toHexString(MAX_REQUEST_BYTES + 1) + "\r\n");
+			Assert.assertEquals(413, read(s.getInputStream(), false).status);
+			assertClosed(s.getInputStream());
+		}
+	}
+
+	@Test
+	public void testHeadersTooLarge() throws Exception {
+		StringBuilder big = new StringBuilder();
+		while(big.length() < 16 * 1024) {
+			big.append("0123456789abcdef");
+		}
+		try(Socket s = connect()) {
+			send(s, "GET /headers HTTP/1.1\r\nHost: localhost\r\nX-Big: " + big + "\r\n\r\n");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals(431, r.status);
+			assertClosed(s.getInputStream());
+		}
+	}
+
+	@Test
+	public void testNoBody() throws Exception {
+		try(Socket s = connect()) {
+			send(s, "HEAD /head HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /status/204 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /status/304 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "HEAD /large/100000 HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /end HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			InputStream in = s.getInputStream();
+			Response head = read(in, true);
+			Assert.assertEquals(200, head.status);
+			Assert.assertEquals(String.valueOf("HEAD /head ".length()), head.header("Content-Length"));
+			Response noContent = read(in, false);
+			Assert.assertEquals(204, noContent.status);
+			Assert.assertNull(noContent.header("Content-Length"));
+			Assert.assertNull(noContent.header("Transfer-Encoding"));
+			Response notModified = read(in, false);
+			Assert.assertEquals(304, notModified.status);
+			Assert.assertNull(notModified.header("Content-Length"));
+			Assert.assertNull(notModified.header("Transfer-Encoding"));
+			Assert.assertEquals(200, read(in, true).status);
+			// anything written for the responses above would show up here
+			Assert.assertEquals("GET /end ", read(in, false).body);
+		}
+	}
+
+	@Test
+	public void testLargeChunkedResponse() throws Exception {
+		int n = 1024 * 1024 + 17;
+		try(Socket s = connect()) {
+			send(s, "GET /large/" + n + " HTTP/1.1\r\nHost: localhost\r\n\r\n"
+				+ "GET /large/10 HTTP/1.1\r\nHost: localhost\r\n\r\n");
+			Response r = read(s.getInputStream(), false);
+			Assert.assertEquals(200, r.status);
+			Assert.assertEquals("chunked", r.header("Transfer-Encoding"));
+			Assert.assertEquals(n, r.body.length());
+			for(int i = 0; i < n; i++) {
+				if(r.body.charAt(i) != 'a' + i % 26) {
+					Assert.fail("Wrong byte at " + i);
+				}
+			}
+			Response small = read(s.getInputStream(), false);
+			Assert.assertEquals("10", small.header("Content-Length"));
+			Assert.assertEquals("abcdefghij", small.body);
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package org.jsc.web;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.jsc.web.AppRequestDispatcher.RequestHandler;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RoutesTest {
+	static RequestHandler handler(String filterPath) {
+		return new RequestHandler() {
+			public void handle(HttpServletRequest req, HttpServletResponse res) {
+			}
+			public String getFilterPath() {
+				return filterPath;
+			}
+		};
+	}
+	
+	static HttpServletRequest request(Map<String, Object> attributes) {
+		return (HttpServletRequest)Proxy.newProxyInstance(RoutesTest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, (proxy, m, args) -> {
+			if(m.getName().equals("setAttribute")) {
+				attributes.put((String)args[0], args[1]);
+			}
+			return null;
+		});
+	}
+	
+	@Test
+	public void testRoutes() {
+		RequestHandler exact = handler("/pages/home");
+		RequestHandler prefix = handler("/user/get");
+		RequestHandler longer = handler("/user/getall");
+		RequestHandler template = handler("/user/");
+		Routes routes = new Routes();
+		routes.exact("/pages/home", exact);
+		routes.prefix("/user/get", prefix);
+		routes.prefix("/user/getall", longer);
+		routes.template("/user/{id}/edit", template);
+		routes.build();
+		
+		Assert.assertSame(exact, routes.find("/pages/home", null));
+		Assert.assertNull(routes.find("/pages/home/more", null));
+		Assert.assertSame(prefix, routes.find("/user/get/12", null));
+		Assert.assertSame(longer, routes.find("/user/getall", null));
+		Assert.assertNull(routes.find("/user/12/edit/more", null));
+		Assert.assertNull(routes.find("/user//edit", null));
+		Assert.assertNull(routes.find("/nothing", null));
+		
+		Map<String, Object> attributes = new HashMap<>();
+		Assert.assertSame(template, routes.find("/user/12/edit", request(attributes)));
+		Assert.assertEquals("12", attributes.get("id"));
+	}
+	
+	@Test
+	public void testFirstWins() {
+		RequestHandler first = handler("/page");
+		RequestHandler second = handler("/page");
+		Routes routes = new Routes();
+		routes.exact("/page", first);
+		routes.exact("/page", second);
+		routes.prefix("/files/", first);
+		routes.prefix("/files/", second);
+		routes.template("/user/{id}", first);
+		routes.template("/user/{id}", second);
+		routes.build();
+		
+		Assert.assertSame(first, routes.find("/page", null));
+		Assert.assertSame(first, routes.find("/files/a.txt", null));
+		Assert.assertSame(first, routes.find("/user/12", null));
+	}
+	
+	@Test(expected = IllegalStateException.class)
+	public void testBuilt() {
+		new Routes().build().exact("/late", handler("/late"));
+	}
+}
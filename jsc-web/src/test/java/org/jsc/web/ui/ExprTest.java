@@ -45,6 +45,78 @@ public class ExprTest {
 		Assert.assertEquals(new Integer(1), o);
 	}
 	
+	public static class Bean {
+		public String field = "f";
+		private String name = "bean";
+		private int count = 3;
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public int getCount() {
+			return count;
+		}
+		public boolean isActive() {
+			return true;
+		}
+	}
+	
+	@Test
+	public void testSimpleExpressionsMatchScripts() {
+		HashMap<String, Object> usr = new HashMap<String, Object>();
+		usr.put("name", "joe");
+		usr.put("zero", 0);
+		usr.put("five", "5");
+		usr.put("empty", "");
+		usr.put("nothing", null);
+		usr.put("bean", new Bean());
+		
+		HashMap<String, Object> vars = new HashMap<String, Object>();
+		vars.put("user", usr);
+		vars.put("bean", new Bean());
+		vars.put("x", 2);
+		vars.put("d", 2.5);
+		vars.put("flag", true);
+		BindingResolver ctx = new BindingResolver(vars);
+		
+		String[] exprs = {
+			"user.name", "user.zero", "user.nothing", "user.missing", "user.empty", "user.bean.name",
+			"bean.name", "bean.count", "bean.active", "bean.field", "bean.class",
+			"x", "d", "flag", "1", "1.5", "1.0", "2e3", "3000000000", "'str'", "\"str\"", "true", "null",
+			"x > 1", "x <= 1", "x == 2.0", "x === 2", "x != 2", "d > x", "'a' < 'b'", "user.five == 5", "user.five === 5",
+			"user.zero == false", "user.nothing == null", "user.nothing === null", "user.missing == null",
+			"!user.zero", "!user.name", "!!user.empty", "user.zero || 'default'", "user.name && x", "user.empty || user.nothing",
+			"(x > 1 && flag) || bean.name == 'other'", "!(x > 1)", "bean.count > 2 && bean.active",
+			"user.empty", "user.size", "Math.max(x, 3)", "x + 1", "user.name.length",
+		};
+		for(String js : exprs) {
+			Object script = expr.parseScript(js).getValue(ctx);
+			Object simple = expr.parseExpr("${" + js + "}").getValue(ctx);
+			Assert.assertEquals(js, script, simple);
+			if(script != null) {
+				Assert.assertEquals(js, script.getClass(), simple.getClass());
+			}
+		}
+		
+		for(String js : new String[] { "notDefined", "user.nothing.name" }) {
+			try {
+				expr.parseExpr("${" + js + "}").getValue(ctx);
+				Assert.fail("Expected failure for: " + js);
+			} catch(RuntimeException e) {
+				// expected, as with scripts
+			}
+		}
+		
+		expr.parseExpr("${bean.name}").setValue(ctx, "set");
+		Assert.assertEquals("set", ((Bean)vars.get("bean")).getName());
+		expr.parseExpr("${user.bean.name}").setValue(ctx, "nested");
+		Assert.assertEquals("nested", ((Bean)usr.get("bean")).getName());
+		expr.parseExpr("${y}").setValue(ctx, 7);
+		Assert.assertEquals(7, vars.get("y"));
+	}
+	
 	@Test
 	public void testGlobal() throws Exception {
 		ScriptEngineManager manager = new ScriptEngineManager();
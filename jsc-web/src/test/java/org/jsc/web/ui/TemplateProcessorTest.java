@@ -75,4 +75,103 @@ public class TemplateProcessorTest {
 		
 		Assert.assertEquals("<div>page 1</div><div>page 2</div>", sw.toString());
 	}
+	
+	@Test
+	public void testStaticFragments() throws Throwable {
+		TemplateProcessor tp = new App().get(TemplateProcessor.class);
+		
+		Page pg = new Page("parent");
+		pg.pages = Arrays.asList(new Page("page 1"), new Page("page 2"));
+		StringWriter sw = new StringWriter();
+		
+		Context ctx = new Context(new ObjectContext(pg), new Context(Collections.emptyMap()));
+		
+		Component r = tp.parseTemplate("", Util.toUrl("html", 0, 
+				("<div><!-- note --><h1 class=\"title\">Pages \\${not}</h1>"
+				+ "<ul><li @loop:p=${pages} title=\"${p.name}\"><span>${p.name}</span> <b>x</b></li></ul>"
+				+ "<p title=\"\">end</p></div>").getBytes()));
+		
+		Assert.assertTrue(r.getChildren().get(0) instanceof ElementOutputComponent);
+		
+		r.render(ctx, sw);
+		
+		Assert.assertEquals("<div><!-- note --><h1 class=\"title\">Pages ${not}</h1>"
+			+ "<ul><li title=\"page 1\"><span>page 1</span><b>x</b></li><li title=\"page 2\"><span>page 2</span><b>x</b></li></ul>"
+			+ "<p title=\"\">end</p></div>", sw.toString());
+	}
+	
+	@Test
+	public void testComponentCache() throws Throwable {
+		TemplateProcessor tp = new App().get(TemplateProcessor.class);
+		
+		java.net.URL u = Util.toUrl("html", 0, "<div>${name}</div>".getBytes());
+		Component[] parsed = new Component[8];
+		Thread[] threads = new Thread[parsed.length];
+		for(int i = 0; i < threads.length; i++) {
+			int idx = i;
+			threads[i] = new Thread(() -> {
+				try {
+					parsed[idx] = tp.getComponent("cached", u);
+				} catch(Throwable t) {
+					throw Util.asRuntime(t);
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		for(Component c : parsed) {
+			Assert.assertSame(parsed[0], c);
+		}
+		
+		tp.clear();
+		Component reparsed = tp.getComponent("cached", u);
+		Assert.assertNotSame(parsed[0], reparsed);
+		Assert.assertSame(reparsed, tp.getComponent("cached", u));
+	}
+	
+	@Test
+	public void testConcurrentRender() throws Throwable {
+		TemplateProcessor tp = new App().get(TemplateProcessor.class);
+		
+		Page pg = new Page("parent");
+		List<Page> pages = new ArrayList<>();
+		for(int i = 0; i < 20; i++) {
+			Page p = new Page("page " + i);
+			p.pages = Arrays.asList(new Page(i + ".a"), new Page(i + ".b"));
+			pages.add(p);
+		}
+		pg.pages = pages;
+		
+		Component r = tp.getComponent("loop", Util.toUrl("html", 0, 
+			("<ul><li @loop:p=${pages} title=\"${p.name}\"><textbox value=\"${p.name}\"></textbox>"
+			+ "<span @loop:c=${p.pages}><textbox value=\"${c.name}\"></textbox></span></li></ul>").getBytes()));
+		
+		StringWriter expected = new StringWriter();
+		r.render(new Context(new ObjectContext(pg), new Context(Collections.emptyMap())), expected);
+		Assert.assertTrue(expected.toString().contains("<input type=\"text\" id=\"p:19:1\" name=\"p:19:1\" value=\"page 19\"/>"));
+		Assert.assertTrue(expected.toString().contains("id=\"c:1:2\" name=\"c:1:2\" value=\"19.b\""));
+		
+		Thread[] threads = new Thread[8];
+		List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+		for(int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread(() -> {
+				try {
+					for(int n = 0; n < 200; n++) {
+						StringWriter sw = new StringWriter();
+						r.render(new Context(new ObjectContext(pg), new Context(Collections.emptyMap())), sw);
+						Assert.assertEquals(expected.toString(), sw.toString());
+					}
+				} catch(Throwable t) {
+					errors.add(t);
+				}
+			});
+			threads[i].start();
+		}
+		for(Thread t : threads) {
+			t.join();
+		}
+		Assert.assertEquals(Collections.emptyList(), errors);
+	}
 }
@@ -1,5 +1,7 @@
 package org.jsc.web.ui;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.jsc.StringMatcher;
 import org.junit.Assert;
 import org.junit.Test;
@@ -38,6 +40,80 @@ public class TestStringMatcher {
 		Assert.assertTrue(true);
 	}
 	
+	@Test
+	public void testParameters() {
+		StringMatcher<String> sm = new StringMatcher<String>();
+		sm.add("/user/{id}", "user");
+		sm.add("/user/{id}/edit", "edit");
+		sm.add("/user/list", "list");
+		sm.add("/files/*", "files");
+		sm.add("/a/b", "ab");
+		sm.add("/a/{x}/c", "axc");
+		
+		Assert.assertEquals("list", sm.get("/user/list"));
+		Assert.assertEquals("user", sm.get("/user/12"));
+		Assert.assertNull(sm.get("/user/"));
+		
+		StringMatcher.Match<String> m = sm.match("/user/12/edit");
+		Assert.assertEquals("edit", m.getResult());
+		Assert.assertEquals("12", m.get("id"));
+		Assert.assertEquals(13, m.getEnd());
+		
+		m = sm.match("/user/12/other");
+		Assert.assertEquals("user", m.getResult());
+		Assert.assertEquals(8, m.getEnd());
+		Assert.assertNull(sm.matchWhole("/user/12/other"));
+		
+		m = sm.match("/files/css/site.css");
+		Assert.assertEquals("files", m.getResult());
+		Assert.assertEquals("css/site.css", m.get("*"));
+		
+		Assert.assertEquals("ab", sm.get("/a/b/c"));
+		m = sm.matchWhole("/a/b/c");
+		Assert.assertEquals("axc", m.getResult());
+		Assert.assertEquals("b", m.get("x"));
+	}
+	
+	@Test
+	public void testExactBeforeWildcard() {
+		StringMatcher<String> sm = new StringMatcher<String>();
+		sm.add("/files/", "literal");
+		sm.add("/files/*", "wild");
+		
+		Assert.assertEquals("literal", sm.get("/files/"));
+		Assert.assertEquals("literal", sm.matchWhole("/files/").getResult());
+		Assert.assertEquals("wild", sm.get("/files/a"));
+		StringMatcher.Match<String> m = sm.match("/files/");
+		Assert.assertEquals(7, m.getEnd());
+		Assert.assertEquals(0, m.size());
+	}
+	
+	@Test
+	public void testConcurrentReads() throws Exception {
+		StringMatcher<Integer> sm = new StringMatcher<Integer>();
+		sm.add("/fixed", -1);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			try {
+				for(int i = 0; i < 100000; i++) {
+					Integer found = sm.get("/fixed/path");
+					if(!Integer.valueOf(-1).equals(found)) {
+						throw new AssertionError("Found " + found + " at " + i);
+					}
+				}
+			} catch(Throwable t) {
+				failure.set(t);
+			}
+		});
+		reader.start();
+		for(int i = 0; i < 500; i++) {
+			sm.add("/route" + i, i);
+		}
+		reader.join();
+		Assert.assertNull(String.valueOf(failure.get()), failure.get());
+		Assert.assertEquals(Integer.valueOf(499), sm.get("/route499"));
+	}
+	
 	public static int skip(Object o) {
 		if(o == null) {
 			return 0;
@@ -1,11 +1,14 @@
 package org.jsc.web.ui;
 
 import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
 import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Base64;
 
+import org.jsc.Accessors;
 import org.jsc.Util;
+import org.jsc.io.BufferPool;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -77,4 +80,86 @@ public class UtilTest {
 		Assert.assertTrue(r0_all[0] == '_');
 		Assert.assertTrue(r0_all[bytes.length-1] == bytes[bytes.length-1]);
 	}
+	
+	public static class Bean {
+		public long count;
+		private String name;
+		public String getName() {
+			return name;
+		}
+		public void setName(String name) {
+			this.name = name;
+		}
+		public long getCount() {
+			return count;
+		}
+		public void setCount(long count) {
+			this.count = count;
+		}
+	}
+	
+	private static class Hidden extends Bean {
+		public int getSize() {
+			return 5;
+		}
+	}
+	
+	@Test
+	public void testAccessors() {
+		Bean b = new Bean();
+		Accessors a = Accessors.of(Bean.class);
+		Assert.assertSame(a, Accessors.of(Bean.class));
+		
+		a.setter("name").set(b, "x");
+		Assert.assertEquals("x", a.getter("name").get(b));
+		a.setter("count").set(b, 3); // widened, like reflection
+		Assert.assertEquals(3L, a.getter("count").get(b));
+		a.fieldSetter("count").set(b, 4L);
+		Assert.assertEquals(4L, a.fieldGetter("count").get(b));
+		Assert.assertEquals("x", a.fieldGetter("name").get(b));
+		Assert.assertNull(a.getter("missing"));
+		Assert.assertEquals("x", a.invoker("getName").invoke(b));
+		
+		Hidden h = new Hidden();
+		Accessors ha = Accessors.of(Hidden.class);
+		Assert.assertEquals(5, ha.getter("size").get(h));
+		ha.setter("name").set(h, "h");
+		Assert.assertEquals("h", ha.getter("name").get(h));
+		
+		ObjectContext ctx = new ObjectContext(b);
+		Assert.assertEquals("x", ctx.get("name"));
+		Assert.assertTrue(ctx.containsKey("getName"));
+		Assert.assertSame(ctx.get("getName"), ctx.get("getName"));
+		ctx.put("name", "y");
+		Assert.assertEquals("y", b.getName());
+	}
+	
+	static String contents(BufferPool.BufferPoolWriter w) throws Exception {
+		StringWriter sw = new StringWriter();
+		w.writeTo(sw);
+		return sw.toString();
+	}
+	
+	@Test
+	public void testBufferPoolWriteOffset() throws Exception {
+		BufferPool bp = new BufferPool(8, 4);
+		BufferPool.BufferPoolWriter w = bp.getWriter();
+		char[] chars = "0123456789".toCharArray();
+		w.write(chars, 2, 3); // fits the first buffer
+		w.write(chars, 5, 5); // spans buffers
+		w.write(chars, 9, 1);
+		Assert.assertEquals("23456789" + "9", contents(w));
+		w.close();
+	}
+	
+	@Test
+	public void testBufferPoolReuseAfterClose() throws Exception {
+		BufferPool bp = new BufferPool(2, 4, 100); // two buffers, each writer fills both
+		for(int i = 0; i < 5; i++) {
+			BufferPool.BufferPoolWriter w = bp.getWriter();
+			w.write("abcdefgh".toCharArray());
+			Assert.assertEquals("abcdefgh", contents(w));
+			w.close(); // returns every buffer, or the next writer waits for one & fails
+		}
+	}
 }